@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mascotcapsule.micro3d.v3;
+
+import android.os.Debug;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import ru.playsoftware.j2meloader.util.IOUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Frame time of the software renderer. Figures are read from a directory of MBAC files
+ * extracted from MIDlets, passed with {@code -e micro3dCorpus /sdcard/micro3d-corpus};
+ * an MTRA and a BMP file with the same name are used as the action table and the texture.
+ */
+@RunWith(AndroidJUnit4.class)
+@SuppressWarnings("deprecation")
+public class RenderBenchmark {
+	private static final String TAG = RenderBenchmark.class.getName();
+
+	private static final int WARM_UP = 20;
+	private static final int FRAMES = 200;
+
+	@Test
+	public void primitives() {
+		Image screen = Image.createImage(240, 320);
+		Graphics g = screen.getGraphics();
+		Graphics3D g3d = new Graphics3D();
+		FigureLayout layout = new FigureLayout(null, 4096, 4096, 120, 160);
+		Effect3D effect = new Effect3D(new Light(new Vector3D(0, 0, 4096), 4096, 1024),
+				Effect3D.NORMAL_SHADING, false, null);
+		int count = 255;
+		int[] vertices = new int[count * 9];
+		int[] normals = new int[count * 3];
+		int[] colors = new int[count];
+		for (int i = 0; i < count; i++) {
+			int x = i % 16 * 15 - 120;
+			int y = i / 16 * 20 - 160;
+			int[] triangle = {x, y, i, x + 30, y, i, x + 15, y + 40, i};
+			System.arraycopy(triangle, 0, vertices, i * 9, 9);
+			normals[i * 3 + 2] = -4096;
+			colors[i] = i * 0x010203;
+		}
+		int command = Graphics3D.PRIMITVE_TRIANGLES | Graphics3D.PATTR_LIGHTING
+				| Graphics3D.PDATA_NORMAL_PER_FACE | Graphics3D.PDATA_COLOR_PER_FACE;
+
+		for (int i = 0; i < WARM_UP; i++) {
+			drawPrimitives(g3d, g, layout, effect, command, count, vertices, normals, colors);
+		}
+
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		long start = System.nanoTime();
+		for (int i = 0; i < FRAMES; i++) {
+			drawPrimitives(g3d, g, layout, effect, command, count, vertices, normals, colors);
+		}
+		long time = System.nanoTime() - start;
+		Debug.stopAllocCounting();
+		int allocations = Debug.getThreadAllocCount();
+
+		Log.i(TAG, "renderPrimitives: " + count + " triangles, " + time / FRAMES / 1000
+				+ " us/frame, " + (float) allocations / FRAMES + " allocations/frame");
+		assertEquals(0, allocations);
+	}
+
+	@Test
+	public void figures() throws IOException {
+		String path = InstrumentationRegistry.getArguments().getString("micro3dCorpus");
+		assumeTrue("micro3d corpus is not specified", path != null);
+		File[] files = new File(path).listFiles((dir, name) -> name.toLowerCase().endsWith(".mbac"));
+		assumeTrue("micro3d corpus is empty", files != null && files.length > 0);
+
+		Image screen = Image.createImage(240, 320);
+		Graphics g = screen.getGraphics();
+		Graphics3D g3d = new Graphics3D();
+		FigureLayout layout = new FigureLayout(null, 4096, 4096, 120, 160);
+		layout.setPerspective(1, 32767, 512);
+		AffineTrans camera = new AffineTrans();
+		camera.lookAt(new Vector3D(0, 0, -1500), new Vector3D(0, 0, 4096), new Vector3D(0, -4096, 0));
+		layout.setAffineTrans(camera);
+		Effect3D effect = new Effect3D(new Light(new Vector3D(-2048, 2048, 2048), 3072, 1024),
+				Effect3D.NORMAL_SHADING, true, null);
+
+		for (File file : files) {
+			Figure figure = new Figure(read(file));
+			String base = file.getPath().substring(0, file.getPath().length() - 5);
+			File bmp = new File(base + ".bmp");
+			if (bmp.exists()) {
+				figure.setTexture(new Texture(read(bmp), true));
+			}
+			ActionTable actions = null;
+			File mtra = new File(base + ".mtra");
+			if (mtra.exists()) {
+				actions = new ActionTable(read(mtra));
+			}
+
+			for (int i = 0; i < WARM_UP; i++) {
+				drawFigure(g3d, g, figure, actions, i, layout, effect);
+			}
+			long start = System.nanoTime();
+			for (int i = 0; i < FRAMES; i++) {
+				drawFigure(g3d, g, figure, actions, i, layout, effect);
+			}
+			long time = System.nanoTime() - start;
+			Log.i(TAG, file.getName() + ": " + figure.model.numTriangles + " triangles, "
+					+ time / FRAMES / 1000 + " us/frame");
+		}
+	}
+
+	private static void drawPrimitives(Graphics3D g3d, Graphics g, FigureLayout layout,
+									   Effect3D effect, int command, int count,
+									   int[] vertices, int[] normals, int[] colors) {
+		g3d.bind(g);
+		g3d.renderPrimitives(null, 0, 0, layout, effect, command, count,
+				vertices, normals, vertices, colors);
+		g3d.flush();
+		g3d.release(g);
+	}
+
+	private static void drawFigure(Graphics3D g3d, Graphics g, Figure figure, ActionTable actions,
+								   int frame, FigureLayout layout, Effect3D effect) {
+		if (actions != null) {
+			int numFrames = actions.getNumFrame(0);
+			if (numFrames > 0) {
+				figure.setPosture(actions, 0, (frame << 16) % numFrames);
+			}
+		}
+		g3d.bind(g);
+		g3d.drawFigure(figure, 0, 0, layout, effect);
+		g3d.release(g);
+	}
+
+	private static byte[] read(File file) throws IOException {
+		try (InputStream is = new FileInputStream(file)) {
+			return IOUtils.toByteArray(is);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nokia.mid.ui;
+
+import android.os.Debug;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import javax.microedition.lcdui.Image;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Full screen blits of a Nokia S40 sized frame in every supported format.
+ */
+@RunWith(AndroidJUnit4.class)
+@SuppressWarnings("deprecation")
+public class DirectGraphicsBenchmark {
+	private static final String TAG = DirectGraphicsBenchmark.class.getName();
+
+	private static final int WIDTH = 128;
+	private static final int HEIGHT = 160;
+	private static final int WARM_UP = 50;
+	private static final int FRAMES = 500;
+
+	private final Image screen = Image.createImage(WIDTH, HEIGHT);
+	private final DirectGraphics dg = DirectUtils.getDirectGraphics(screen.getGraphics());
+
+	@Test
+	public void drawUShort4444() {
+		drawUShort(DirectGraphics.TYPE_USHORT_4444_ARGB, 0);
+	}
+
+	@Test
+	public void drawUShort444() {
+		drawUShort(DirectGraphics.TYPE_USHORT_444_RGB, 0);
+	}
+
+	@Test
+	public void drawUShort565() {
+		drawUShort(DirectGraphics.TYPE_USHORT_565_RGB, 0);
+	}
+
+	@Test
+	public void drawUShort565Rotated() {
+		drawUShort(DirectGraphics.TYPE_USHORT_565_RGB,
+				DirectGraphics.FLIP_HORIZONTAL | DirectGraphics.ROTATE_90);
+	}
+
+	@Test
+	public void drawInt8888() {
+		int[] pixels = new int[WIDTH * HEIGHT];
+		Random random = new Random(1);
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = random.nextInt();
+		}
+		measure("8888", () -> dg.drawPixels(pixels, true, 0, WIDTH, 0, 0, WIDTH, HEIGHT,
+				0, DirectGraphics.TYPE_INT_8888_ARGB));
+		measure("8888 flipped", () -> dg.drawPixels(pixels, true, 0, WIDTH, 0, 0, WIDTH, HEIGHT,
+				DirectGraphics.FLIP_VERTICAL, DirectGraphics.TYPE_INT_8888_ARGB));
+	}
+
+	@Test
+	public void drawGray1() {
+		byte[] pixels = new byte[WIDTH * HEIGHT / 8];
+		byte[] mask = new byte[pixels.length];
+		Random random = new Random(2);
+		random.nextBytes(pixels);
+		random.nextBytes(mask);
+		measure("1 gray", () -> dg.drawPixels(pixels, mask, 0, WIDTH, 0, 0, WIDTH, HEIGHT,
+				0, DirectGraphics.TYPE_BYTE_1_GRAY));
+	}
+
+	@Test
+	public void getUShort() {
+		short[] pixels = new short[WIDTH * HEIGHT];
+		for (int format : new int[]{DirectGraphics.TYPE_USHORT_4444_ARGB,
+				DirectGraphics.TYPE_USHORT_444_RGB, DirectGraphics.TYPE_USHORT_565_RGB}) {
+			measure("get " + format, () -> dg.getPixels(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT, format));
+		}
+	}
+
+	private void drawUShort(int format, int manipulation) {
+		short[] pixels = new short[WIDTH * HEIGHT];
+		Random random = new Random(format);
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = (short) random.nextInt();
+		}
+		measure(format + " manipulation " + manipulation, () -> dg.drawPixels(pixels, true, 0, WIDTH,
+				0, 0, WIDTH, HEIGHT, manipulation, format));
+	}
+
+	private static void measure(String name, Runnable blit) {
+		for (int i = 0; i < WARM_UP; i++) {
+			blit.run();
+		}
+
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		long start = System.nanoTime();
+		for (int i = 0; i < FRAMES; i++) {
+			blit.run();
+		}
+		long time = System.nanoTime() - start;
+		Debug.stopAllocCounting();
+		int allocations = Debug.getThreadAllocCount();
+
+		Log.i(TAG, name + ": " + time / FRAMES / 1000 + " us/frame, "
+				+ (float) allocations / FRAMES + " allocations/frame");
+		assertEquals(0, allocations);
+	}
+}
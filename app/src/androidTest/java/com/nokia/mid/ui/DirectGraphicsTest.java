@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nokia.mid.ui;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
+import javax.microedition.lcdui.game.Sprite;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class DirectGraphicsTest {
+	private static final int WIDTH = 23;
+	private static final int HEIGHT = 17;
+	private static final int[] MANIPULATIONS = {
+			0,
+			DirectGraphics.ROTATE_90,
+			DirectGraphics.ROTATE_180,
+			DirectGraphics.ROTATE_270,
+			DirectGraphics.FLIP_HORIZONTAL,
+			DirectGraphics.FLIP_VERTICAL,
+			DirectGraphics.FLIP_HORIZONTAL | DirectGraphics.ROTATE_90,
+			DirectGraphics.FLIP_VERTICAL | DirectGraphics.ROTATE_270,
+	};
+
+	@Test
+	public void roundTripUShort() {
+		Random random = new Random(1);
+		for (int format : new int[]{DirectGraphics.TYPE_USHORT_4444_ARGB,
+				DirectGraphics.TYPE_USHORT_444_RGB, DirectGraphics.TYPE_USHORT_565_RGB}) {
+			short[] pixels = new short[WIDTH * HEIGHT];
+			for (int i = 0; i < pixels.length; i++) {
+				int p = random.nextInt(0x10000);
+				if (format != DirectGraphics.TYPE_USHORT_565_RGB) {
+					// translucent pixels are blended, 444 is read back with a full alpha nibble
+					p |= 0xF000;
+				}
+				pixels[i] = (short) p;
+			}
+			DirectGraphics dg = DirectUtils.getDirectGraphics(createTarget().getGraphics());
+			dg.drawPixels(pixels, true, 0, WIDTH, 0, 0, WIDTH, HEIGHT, 0, format);
+			short[] actual = new short[WIDTH * HEIGHT];
+			dg.getPixels(actual, 0, WIDTH, 0, 0, WIDTH, HEIGHT, format);
+			assertArrayEquals("format " + format, pixels, actual);
+		}
+	}
+
+	@Test
+	public void roundTripInt() {
+		Random random = new Random(2);
+		int[] pixels = new int[WIDTH * HEIGHT];
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = random.nextInt() | 0xFF000000;
+		}
+		DirectGraphics dg = DirectUtils.getDirectGraphics(createTarget().getGraphics());
+		dg.drawPixels(pixels, true, 0, WIDTH, 0, 0, WIDTH, HEIGHT, 0, DirectGraphics.TYPE_INT_8888_ARGB);
+		int[] actual = new int[WIDTH * HEIGHT];
+		dg.getPixels(actual, 0, WIDTH, 0, 0, WIDTH, HEIGHT, DirectGraphics.TYPE_INT_8888_ARGB);
+		assertArrayEquals(pixels, actual);
+	}
+
+	@Test
+	public void roundTripGray1() {
+		Random random = new Random(3);
+		byte[] pixels = new byte[(WIDTH * HEIGHT + 7) / 8];
+		random.nextBytes(pixels);
+		DirectGraphics dg = DirectUtils.getDirectGraphics(createTarget().getGraphics());
+		dg.drawPixels(pixels, null, 0, WIDTH, 0, 0, WIDTH, HEIGHT, 0, DirectGraphics.TYPE_BYTE_1_GRAY);
+		byte[] actual = new byte[pixels.length];
+		dg.getPixels(actual, null, 0, WIDTH, 0, 0, WIDTH, HEIGHT, DirectGraphics.TYPE_BYTE_1_GRAY);
+		// bits past the last pixel are not written
+		int unused = pixels.length * 8 - WIDTH * HEIGHT;
+		pixels[pixels.length - 1] &= ~((1 << unused) - 1);
+		assertArrayEquals(pixels, actual);
+	}
+
+	/**
+	 * Manipulations done during the conversion match drawing an image with drawRegion.
+	 */
+	@Test
+	public void manipulations() {
+		Random random = new Random(4);
+		short[] pixels = new short[WIDTH * HEIGHT];
+		int[] argb = new int[WIDTH * HEIGHT];
+		for (int i = 0; i < pixels.length; i++) {
+			int p = random.nextInt(0x10000);
+			pixels[i] = (short) p;
+			int r = p >> 11 & 0x1F;
+			int g = p >> 5 & 0x3F;
+			int b = p & 0x1F;
+			argb[i] = 0xFF000000 | (r << 3 | r >> 2) << 16 | (g << 2 | g >> 4) << 8 | b << 3 | b >> 2;
+		}
+		Image source = Image.createRGBImage(argb, WIDTH, HEIGHT, true);
+		int size = WIDTH + 4;
+		int[] expected = new int[size * size];
+		int[] actual = new int[expected.length];
+		for (int manipulation : MANIPULATIONS) {
+			Image reference = createTarget();
+			int transform = getTransform(manipulation);
+			reference.getGraphics().drawRegion(source, 0, 0, WIDTH, HEIGHT, transform, 1, 2, 0);
+			Image target = createTarget();
+			DirectGraphics dg = DirectUtils.getDirectGraphics(target.getGraphics());
+			dg.drawPixels(pixels, false, 0, WIDTH, 1, 2, WIDTH, HEIGHT,
+					manipulation, DirectGraphics.TYPE_USHORT_565_RGB);
+			reference.getRGB(expected, 0, size, 0, 0, size, size);
+			target.getRGB(actual, 0, size, 0, 0, size, size);
+			assertArrayEquals("manipulation " + manipulation, expected, actual);
+		}
+	}
+
+	@Test
+	public void scratchBufferIsReused() {
+		PixelConverter converter = PixelConverter.get();
+		converter.setSource(WIDTH, HEIGHT, Sprite.TRANS_NONE);
+		int[] buffer = converter.buffer;
+		converter.setSource(HEIGHT, WIDTH, Sprite.TRANS_ROT90);
+		assertEquals(buffer, converter.buffer);
+		assertEquals(WIDTH, converter.width);
+		assertEquals(HEIGHT, converter.height);
+	}
+
+	private static Image createTarget() {
+		Image image = Image.createImage(WIDTH + 4, WIDTH + 4);
+		Graphics g = image.getGraphics();
+		g.setColor(0x123456);
+		g.fillRect(0, 0, WIDTH + 4, WIDTH + 4);
+		return image;
+	}
+
+	private static int getTransform(int manipulation) {
+		switch (manipulation) {
+			case DirectGraphics.ROTATE_90:
+				return Sprite.TRANS_ROT270;
+			case DirectGraphics.ROTATE_180:
+				return Sprite.TRANS_ROT180;
+			case DirectGraphics.ROTATE_270:
+				return Sprite.TRANS_ROT90;
+			case DirectGraphics.FLIP_HORIZONTAL:
+				return Sprite.TRANS_MIRROR;
+			case DirectGraphics.FLIP_VERTICAL:
+				return Sprite.TRANS_MIRROR_ROT180;
+			case DirectGraphics.FLIP_HORIZONTAL | DirectGraphics.ROTATE_90:
+				return Sprite.TRANS_MIRROR_ROT90;
+			case DirectGraphics.FLIP_VERTICAL | DirectGraphics.ROTATE_270:
+				return Sprite.TRANS_MIRROR_ROT90;
+			default:
+				return Sprite.TRANS_NONE;
+		}
+	}
+}
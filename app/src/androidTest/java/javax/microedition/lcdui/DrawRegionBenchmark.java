@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui;
+
+import android.os.Debug;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+@SuppressWarnings("deprecation")
+public class DrawRegionBenchmark {
+	private static final String TAG = DrawRegionBenchmark.class.getName();
+
+	private static final int WARM_UP = 1000;
+	private static final int ITERATIONS = 100000;
+
+	@Test
+	public void allocationsPerCall() {
+		Image screen = Image.createImage(240, 320);
+		Image tiles = Image.createImage(64, 64);
+		tiles.getGraphics().fillRect(0, 0, 32, 32);
+		Graphics g = screen.getGraphics();
+
+		for (int i = 0; i < WARM_UP; i++) {
+			drawAllTransforms(g, tiles, i);
+		}
+
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			drawAllTransforms(g, tiles, i);
+		}
+		long time = System.nanoTime() - start;
+		Debug.stopAllocCounting();
+		int allocations = Debug.getThreadAllocCount();
+
+		Log.i(TAG, "drawRegion: " + time / (ITERATIONS * 8L) + " ns/call, "
+				+ (float) allocations / (ITERATIONS * 8L) + " allocations/call");
+		assertEquals(0, allocations);
+	}
+
+	private static void drawAllTransforms(Graphics g, Image tiles, int i) {
+		int x = i % 200;
+		int y = i % 280;
+		for (int transform = 0; transform < 8; transform++) {
+			g.drawRegion(tiles, 8, 8, 16, 24, transform, x, y, Graphics.LEFT | Graphics.TOP);
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui;
+
+import android.os.Debug;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+@SuppressWarnings("deprecation")
+public class FontBenchmark {
+	private static final String TAG = FontBenchmark.class.getName();
+
+	private static final String TEXT = "The old wizard looked at the hero and said: "
+			+ "\"Beyond the northern mountains lies the tower of the Dark Lord. "
+			+ "Take this sword, 100 gold and 3 healing potions.\" "
+			+ "Старый волшебник посмотрел на героя и сказал: «За северными горами стоит "
+			+ "башня Тёмного Властелина. Возьми этот меч, 100 золотых и 3 зелья лечения.»";
+	private static final int WRAP_WIDTH = 200;
+	private static final int ITERATIONS = 2000;
+
+	@Test
+	public void wrapByChars() {
+		Font font = Font.getDefaultFont();
+		List<String> expected = wrapByChars(TEXT, font, true);
+		assertEquals(expected, wrapByChars(TEXT, font, false));
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			wrapByChars(TEXT, font, true);
+		}
+		long measureTime = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			wrapByChars(TEXT, font, false);
+		}
+		long cachedTime = System.nanoTime() - start;
+		Log.i(TAG, "charWidth wrap: measureText " + measureTime / ITERATIONS / 1000
+				+ " us/screen, cached " + cachedTime / ITERATIONS / 1000 + " us/screen");
+	}
+
+	@Test
+	public void wrapByWords() {
+		Font font = Font.getDefaultFont();
+		String[] words = TEXT.split(" ");
+		List<String> expected = wrapByWords(words, font, true);
+		assertEquals(expected, wrapByWords(words, font, false));
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			wrapByWords(words, font, true);
+		}
+		long measureTime = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			wrapByWords(words, font, false);
+		}
+		long cachedTime = System.nanoTime() - start;
+		Log.i(TAG, "stringWidth wrap: measureText " + measureTime / ITERATIONS / 1000
+				+ " us/screen, cached " + cachedTime / ITERATIONS / 1000 + " us/screen");
+	}
+
+	@Test
+	public void drawCharAllocations() {
+		Image screen = Image.createImage(240, 320);
+		Graphics g = screen.getGraphics();
+		char[] chars = TEXT.toCharArray();
+		for (char c : chars) {
+			g.drawChar(c, 10, 10, Graphics.LEFT | Graphics.TOP);
+		}
+
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		for (int i = 0; i < 100; i++) {
+			int x = 0;
+			for (char c : chars) {
+				g.drawChar(c, x % 240, 10, Graphics.LEFT | Graphics.TOP);
+				x += g.getFont().charWidth(c);
+			}
+		}
+		Debug.stopAllocCounting();
+		int allocations = Debug.getThreadAllocCount();
+		Log.i(TAG, "drawChar: " + (float) allocations / (chars.length * 100) + " allocations/call");
+		assertEquals(0, allocations);
+	}
+
+	/**
+	 * Typical MIDlet text wrapping: accumulate char widths until the line is full.
+	 */
+	private static List<String> wrapByChars(String text, Font font, boolean measure) {
+		List<String> lines = new ArrayList<>();
+		int lineStart = 0;
+		int lineWidth = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			int width = measure ? (int) Math.ceil(font.paint.measureText(new char[]{c}, 0, 1))
+					: font.charWidth(c);
+			if (lineWidth + width > WRAP_WIDTH) {
+				lines.add(text.substring(lineStart, i));
+				lineStart = i;
+				lineWidth = 0;
+			}
+			lineWidth += width;
+		}
+		lines.add(text.substring(lineStart));
+		return lines;
+	}
+
+	/**
+	 * Word wrapping that measures every word and space on each pass.
+	 */
+	private static List<String> wrapByWords(String[] words, Font font, boolean measure) {
+		List<String> lines = new ArrayList<>();
+		StringBuilder line = new StringBuilder();
+		int lineWidth = 0;
+		int spaceWidth = measure ? (int) Math.ceil(font.paint.measureText(" ")) : font.stringWidth(" ");
+		for (String word : words) {
+			int width = measure ? (int) Math.ceil(font.paint.measureText(word)) : font.stringWidth(word);
+			if (lineWidth > 0 && lineWidth + spaceWidth + width > WRAP_WIDTH) {
+				lines.add(line.toString());
+				line.setLength(0);
+				lineWidth = 0;
+			}
+			if (lineWidth > 0) {
+				line.append(' ');
+				lineWidth += spaceWidth;
+			}
+			line.append(word);
+			lineWidth += width;
+		}
+		lines.add(line.toString());
+		return lines;
+	}
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui.game;
+
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class CollisionBenchmark {
+	private static final String TAG = CollisionBenchmark.class.getName();
+
+	private static final int FRAME_SIZE = 24;
+	private static final int ITERATIONS = 20000;
+
+	private static final int INVERTED_AXES = 0x4;
+	private static final int X_FLIP = 0x2;
+	private static final int Y_FLIP = 0x1;
+	private static final int ALPHA_BITMASK = 0xff000000;
+	private static final int FULLY_OPAQUE_ALPHA = 0xff000000;
+
+	private Image bullets;
+	private Image ships;
+
+	@Before
+	public void setUp() {
+		// transparent images with opaque circles in every frame
+		bullets = Image.createImage(FRAME_SIZE * 4, FRAME_SIZE, 0);
+		ships = Image.createImage(FRAME_SIZE * 4, FRAME_SIZE * 2, 0);
+		Graphics g = bullets.getGraphics();
+		for (int i = 0; i < 4; i++) {
+			g.fillArc(i * FRAME_SIZE + i, i * 2, FRAME_SIZE / 2, FRAME_SIZE / 3, 0, 360);
+		}
+		g = ships.getGraphics();
+		for (int i = 0; i < 8; i++) {
+			g.fillTriangle(i % 4 * FRAME_SIZE, i / 4 * FRAME_SIZE + i,
+					i % 4 * FRAME_SIZE + FRAME_SIZE - 1, i / 4 * FRAME_SIZE,
+					i % 4 * FRAME_SIZE + i, i / 4 * FRAME_SIZE + FRAME_SIZE - 1);
+		}
+	}
+
+	@Test
+	public void spriteCollision() {
+		Sprite bullet = new Sprite(bullets, FRAME_SIZE, FRAME_SIZE);
+		Sprite ship = new Sprite(ships, FRAME_SIZE, FRAME_SIZE);
+		Random random = new Random(1);
+		int[] positions = new int[ITERATIONS * 6];
+		for (int i = 0; i < positions.length; i += 6) {
+			positions[i] = random.nextInt(FRAME_SIZE * 2);
+			positions[i + 1] = random.nextInt(FRAME_SIZE * 2);
+			positions[i + 2] = random.nextInt(8);
+			positions[i + 3] = random.nextInt(4);
+			positions[i + 4] = random.nextInt(8);
+			positions[i + 5] = random.nextInt(8);
+		}
+		ship.setPosition(FRAME_SIZE / 2, FRAME_SIZE / 2);
+
+		boolean[] expected = new boolean[ITERATIONS];
+		long start = System.nanoTime();
+		for (int i = 0, p = 0; i < ITERATIONS; i++, p += 6) {
+			setState(bullet, ship, positions, p);
+			expected[i] = referenceCollision(bullet, ship);
+		}
+		long referenceTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0, p = 0; i < ITERATIONS; i++, p += 6) {
+			setState(bullet, ship, positions, p);
+			assertEquals("iteration " + i, expected[i], bullet.collidesWith(ship, true));
+		}
+		long maskTime = System.nanoTime() - start;
+
+		Log.i(TAG, "pixel collision: readback " + referenceTime / ITERATIONS
+				+ " ns/check, masks " + maskTime / ITERATIONS + " ns/check");
+	}
+
+	private static void setState(Sprite bullet, Sprite ship, int[] positions, int p) {
+		bullet.setPosition(positions[p], positions[p + 1]);
+		bullet.setTransform(positions[p + 2]);
+		bullet.setFrame(positions[p + 3]);
+		ship.setTransform(positions[p + 4]);
+		ship.setFrame(positions[p + 5]);
+	}
+
+	/**
+	 * Previous implementation, copied from Sprite as it was: read back ARGB
+	 * of the source frames on every check and walk them in the transformed order.
+	 */
+	private static boolean referenceCollision(Sprite t, Sprite s) {
+		if (!(s.visible && t.visible)) {
+			return false;
+		}
+		int otherLeft = s.x + s.t_collisionRectX;
+		int otherTop = s.y + s.t_collisionRectY;
+		int otherRight = otherLeft + s.t_collisionRectWidth;
+		int otherBottom = otherTop + s.t_collisionRectHeight;
+
+		int left = t.x + t.t_collisionRectX;
+		int top = t.y + t.t_collisionRectY;
+		int right = left + t.t_collisionRectWidth;
+		int bottom = top + t.t_collisionRectHeight;
+
+		if (!intersectRect(otherLeft, otherTop, otherRight, otherBottom,
+				left, top, right, bottom)) {
+			return false;
+		}
+		if (t.t_collisionRectX < 0) {
+			left = t.x;
+		}
+		if (t.t_collisionRectY < 0) {
+			top = t.y;
+		}
+		if ((t.t_collisionRectX + t.t_collisionRectWidth) > t.width) {
+			right = t.x + t.width;
+		}
+		if ((t.t_collisionRectY + t.t_collisionRectHeight) > t.height) {
+			bottom = t.y + t.height;
+		}
+		if (s.t_collisionRectX < 0) {
+			otherLeft = s.x;
+		}
+		if (s.t_collisionRectY < 0) {
+			otherTop = s.y;
+		}
+		if ((s.t_collisionRectX + s.t_collisionRectWidth) > s.width) {
+			otherRight = s.x + s.width;
+		}
+		if ((s.t_collisionRectY + s.t_collisionRectHeight) > s.height) {
+			otherBottom = s.y + s.height;
+		}
+		if (!intersectRect(otherLeft, otherTop, otherRight, otherBottom,
+				left, top, right, bottom)) {
+			return false;
+		}
+		int intersectLeft = (left < otherLeft) ? otherLeft : left;
+		int intersectTop = (top < otherTop) ? otherTop : top;
+		int intersectRight = (right < otherRight) ? right : otherRight;
+		int intersectBottom = (bottom < otherBottom) ? bottom : otherBottom;
+		int intersectWidth = Math.abs(intersectRight - intersectLeft);
+		int intersectHeight = Math.abs(intersectBottom - intersectTop);
+
+		int thisImageXOffset = getImageTopLeftX(t, intersectLeft, intersectTop,
+				intersectRight, intersectBottom);
+		int thisImageYOffset = getImageTopLeftY(t, intersectLeft, intersectTop,
+				intersectRight, intersectBottom);
+		int otherImageXOffset = getImageTopLeftX(s, intersectLeft, intersectTop,
+				intersectRight, intersectBottom);
+		int otherImageYOffset = getImageTopLeftY(s, intersectLeft, intersectTop,
+				intersectRight, intersectBottom);
+		return doPixelCollision(thisImageXOffset, thisImageYOffset,
+				otherImageXOffset, otherImageYOffset,
+				t.sourceImage, t.t_currentTransformation,
+				s.sourceImage, s.t_currentTransformation,
+				intersectWidth, intersectHeight);
+	}
+
+	private static boolean intersectRect(int r1x1, int r1y1, int r1x2, int r1y2,
+										 int r2x1, int r2y1, int r2x2, int r2y2) {
+		return r2x1 < r1x2 && r2y1 < r1y2 && r2x2 > r1x1 && r2y2 > r1y1;
+	}
+
+	private static boolean doPixelCollision(int image1XOffset, int image1YOffset,
+											int image2XOffset, int image2YOffset,
+											Image image1, int transform1,
+											Image image2, int transform2,
+											int width, int height) {
+		int startY1;
+		int xIncr1, yIncr1;
+		int startY2;
+		int xIncr2, yIncr2;
+		int numPixels = height * width;
+		int[] argbData1 = new int[numPixels];
+		int[] argbData2 = new int[numPixels];
+
+		if (0x0 != (transform1 & INVERTED_AXES)) {
+			if (0x0 != (transform1 & Y_FLIP)) {
+				xIncr1 = -(height);
+				startY1 = numPixels - height;
+			} else {
+				xIncr1 = height;
+				startY1 = 0;
+			}
+			if (0x0 != (transform1 & X_FLIP)) {
+				yIncr1 = -1;
+				startY1 += (height - 1);
+			} else {
+				yIncr1 = +1;
+			}
+			image1.getRGB(argbData1, 0, height, image1XOffset, image1YOffset, height, width);
+		} else {
+			if (0x0 != (transform1 & Y_FLIP)) {
+				startY1 = numPixels - width;
+				yIncr1 = -(width);
+			} else {
+				startY1 = 0;
+				yIncr1 = width;
+			}
+			if (0x0 != (transform1 & X_FLIP)) {
+				xIncr1 = -1;
+				startY1 += (width - 1);
+			} else {
+				xIncr1 = +1;
+			}
+			image1.getRGB(argbData1, 0, width, image1XOffset, image1YOffset, width, height);
+		}
+
+		if (0x0 != (transform2 & INVERTED_AXES)) {
+			if (0x0 != (transform2 & Y_FLIP)) {
+				xIncr2 = -(height);
+				startY2 = numPixels - height;
+			} else {
+				xIncr2 = height;
+				startY2 = 0;
+			}
+			if (0x0 != (transform2 & X_FLIP)) {
+				yIncr2 = -1;
+				startY2 += height - 1;
+			} else {
+				yIncr2 = +1;
+			}
+			image2.getRGB(argbData2, 0, height, image2XOffset, image2YOffset, height, width);
+		} else {
+			if (0x0 != (transform2 & Y_FLIP)) {
+				startY2 = numPixels - width;
+				yIncr2 = -(width);
+			} else {
+				startY2 = 0;
+				yIncr2 = +width;
+			}
+			if (0x0 != (transform2 & X_FLIP)) {
+				xIncr2 = -1;
+				startY2 += (width - 1);
+			} else {
+				xIncr2 = +1;
+			}
+			image2.getRGB(argbData2, 0, width, image2XOffset, image2YOffset, width, height);
+		}
+
+		int x1, x2;
+		int xLocalBegin1, xLocalBegin2;
+		int numIterRows;
+		int numIterColumns;
+		for (numIterRows = 0, xLocalBegin1 = startY1, xLocalBegin2 = startY2;
+			 numIterRows < height;
+			 xLocalBegin1 += yIncr1, xLocalBegin2 += yIncr2, numIterRows++) {
+			for (numIterColumns = 0, x1 = xLocalBegin1, x2 = xLocalBegin2;
+				 numIterColumns < width;
+				 x1 += xIncr1, x2 += xIncr2, numIterColumns++) {
+				if (((argbData1[x1] & ALPHA_BITMASK) == FULLY_OPAQUE_ALPHA) &&
+						((argbData2[x2] & ALPHA_BITMASK) == FULLY_OPAQUE_ALPHA)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static int getImageTopLeftX(Sprite s, int x1, int y1, int x2, int y2) {
+		int retX;
+		switch (s.t_currentTransformation) {
+			case Sprite.TRANS_NONE:
+			case Sprite.TRANS_MIRROR_ROT180:
+				retX = x1 - s.x;
+				break;
+			case Sprite.TRANS_MIRROR:
+			case Sprite.TRANS_ROT180:
+				retX = (s.x + s.width) - x2;
+				break;
+			case Sprite.TRANS_ROT90:
+			case Sprite.TRANS_MIRROR_ROT270:
+				retX = y1 - s.y;
+				break;
+			case Sprite.TRANS_ROT270:
+			case Sprite.TRANS_MIRROR_ROT90:
+				retX = (s.y + s.height) - y2;
+				break;
+			default:
+				return 0;
+		}
+		return retX + s.frameCoordsX[s.frameSequence[s.getFrame()]];
+	}
+
+	private static int getImageTopLeftY(Sprite s, int x1, int y1, int x2, int y2) {
+		int retY;
+		switch (s.t_currentTransformation) {
+			case Sprite.TRANS_NONE:
+			case Sprite.TRANS_MIRROR:
+				retY = y1 - s.y;
+				break;
+			case Sprite.TRANS_ROT180:
+			case Sprite.TRANS_MIRROR_ROT180:
+				retY = (s.y + s.height) - y2;
+				break;
+			case Sprite.TRANS_ROT270:
+			case Sprite.TRANS_MIRROR_ROT270:
+				retY = x1 - s.x;
+				break;
+			case Sprite.TRANS_ROT90:
+			case Sprite.TRANS_MIRROR_ROT90:
+				retY = (s.x + s.width) - x2;
+				break;
+			default:
+				return 0;
+		}
+		return retY + s.frameCoordsY[s.frameSequence[s.getFrame()]];
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.m3g;
+
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Cost of the {@link Transform} operations done in Java, compared with the native calls
+ * on a matrix in the native layout that were used before.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TransformBenchmark {
+	private static final String TAG = TransformBenchmark.class.getName();
+
+	private static final int WARM_UP = 10000;
+	private static final int OPS = 200000;
+
+	@Test
+	public void sameResult() {
+		Transform transform = new Transform();
+		byte[] matrix = new Transform().serialize();
+		for (int i = 0; i < 10; i++) {
+			transform.postTranslate(i, -2, 3);
+			Transform._translate(matrix, i, -2, 3);
+			transform.postRotate(i * 37, 1, 2, 3);
+			Transform._rotate(matrix, i * 37, 1, 2, 3);
+			transform.postScale(1.5f, 1, 0.5f);
+			Transform._scale(matrix, 1.5f, 1, 0.5f);
+			transform.postRotateQuat(0.1f, 0.2f, 0.3f, 0.9f);
+			Transform._rotateQuat(matrix, 0.1f, 0.2f, 0.3f, 0.9f);
+		}
+		transform.invert();
+		Transform._invert(matrix);
+		transform.postMultiply(transform);
+		Transform._mul(matrix, matrix, matrix.clone());
+
+		float[] expected = new float[16];
+		float[] actual = new float[16];
+		Transform._getMatrix(matrix, expected);
+		transform.get(actual);
+		assertArrayEquals(expected, actual, 1e-3f);
+
+		// the serialized matrix is read back by the native code as it is
+		Transform._getMatrix(transform.serialize(), expected);
+		assertArrayEquals(actual, expected, 0);
+	}
+
+	@Test
+	public void perOperation() {
+		Transform transform = new Transform();
+		Transform other = new Transform();
+		other.postRotate(30, 0, 1, 0);
+		other.postTranslate(1, 2, 3);
+		byte[] matrix = new Transform().serialize();
+		byte[] otherMatrix = other.serialize();
+		float[] vectors = new float[4 * 16];
+
+		for (int pass = 0; pass < 2; pass++) {
+			int ops = pass == 0 ? WARM_UP : OPS;
+			long start = System.nanoTime();
+			for (int i = 0; i < ops; i++) {
+				transform.setIdentity();
+				transform.postTranslate(1, 2, 3);
+				transform.postRotate(i, 0, 0, 1);
+				transform.postScale(2, 2, 2);
+				transform.postMultiply(other);
+				transform.transform(vectors);
+			}
+			long javaTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < ops; i++) {
+				Transform._setIdentity(matrix);
+				Transform._translate(matrix, 1, 2, 3);
+				Transform._rotate(matrix, i, 0, 0, 1);
+				Transform._scale(matrix, 2, 2, 2);
+				Transform._mul(matrix, matrix, otherMatrix);
+				Transform._transformTable(matrix, vectors);
+			}
+			long nativeTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < ops; i++) {
+				transform.postTranslate(0, 0, 1);
+				transform.serialize();
+			}
+			long serializeTime = System.nanoTime() - start;
+
+			if (pass == 1) {
+				// six operations per iteration
+				Log.i(TAG, "per operation: java " + javaTime / (ops * 6L) + " ns, native "
+						+ nativeTime / (ops * 6L) + " ns; translate + serialize "
+						+ serializeTime / ops + " ns");
+			}
+		}
+	}
+}
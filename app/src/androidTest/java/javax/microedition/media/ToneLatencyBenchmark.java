@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.media;
+
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import javax.microedition.media.control.ToneControl;
+import javax.microedition.media.tone.ToneSynthesizer;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the time from {@link Manager#playTone} to the write of the first samples of the tone
+ * to the audio track. The track buffer adds its own latency, it is logged separately.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ToneLatencyBenchmark {
+	private static final String TAG = ToneLatencyBenchmark.class.getName();
+	private static final int TONES = 200;
+	private static final long TIMEOUT = 1000000000;
+
+	@Test
+	public void playToneLatency() throws Exception {
+		SoundMixer mixer = SoundMixer.getInstance();
+		// the first tone of each note is rendered, the rest are taken from the cache
+		long first = measure(mixer, ToneControl.C4);
+		long[] latencies = new long[TONES];
+		for (int i = 0; i < TONES; i++) {
+			latencies[i] = measure(mixer, ToneControl.C4 + i % 12);
+			// let some tones overlap, games rarely wait for the end
+			Thread.sleep(i % 3 == 0 ? 20 : 2);
+		}
+		Arrays.sort(latencies);
+		Log.i(TAG, "playTone to first sample: first " + first / 1000 + " us, p50 "
+				+ latencies[TONES / 2] / 1000 + " us, p95 " + latencies[TONES * 95 / 100] / 1000
+				+ " us, max " + latencies[TONES - 1] / 1000 + " us; track buffer "
+				+ mixer.getBufferLatency() + " ms at " + mixer.getSampleRate() + " Hz");
+	}
+
+	@Test
+	public void memoized() {
+		byte[] sequence = {ToneControl.VERSION, 1, ToneControl.TEMPO, 30, ToneControl.C4, 8};
+		int sampleRate = SoundMixer.getInstance().getSampleRate();
+		short[] samples = ToneSynthesizer.getSamples(sequence, sampleRate);
+		// 8 ticks of 1/64 note at 120 bpm are 250 ms
+		assertEquals(sampleRate / 4, samples.length);
+		assertSame(samples, ToneSynthesizer.getSamples(sequence.clone(), sampleRate));
+	}
+
+	private static long measure(SoundMixer mixer, int note) throws MediaException {
+		long start = System.nanoTime();
+		Manager.playTone(note, 100, 100);
+		while (mixer.getFirstSampleTime() - start < 0) {
+			assertTrue("Tone is not played", System.nanoTime() - start < TIMEOUT);
+			Thread.yield();
+		}
+		return mixer.getFirstSampleTime() - start;
+	}
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.playsoftware.j2meloader.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Debug;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ar.com.hjg.pngj.ImageInfo;
+import ar.com.hjg.pngj.ImageLineHelper;
+import ar.com.hjg.pngj.ImageLineInt;
+import ar.com.hjg.pngj.ImageLineSetDefault;
+import ar.com.hjg.pngj.PngReaderInt;
+import ar.com.hjg.pngj.chunks.PngChunkPLTE;
+import ar.com.hjg.pngj.chunks.PngChunkTRNS;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares decoding of a PNG corpus with the previous pngj based decoder,
+ * copied here from PNGUtils as it was.
+ * The corpus is a directory of images extracted from MIDlets, passed with
+ * {@code -e pngCorpus /sdcard/png-corpus}.
+ */
+@RunWith(AndroidJUnit4.class)
+@SuppressWarnings("deprecation")
+public class PNGUtilsBenchmark {
+	private static final String TAG = PNGUtilsBenchmark.class.getName();
+
+	private static final byte[] PNG_SIGNATURE = new byte[]{-119, 80, 78, 71, 13, 10, 26, 10};
+
+	private final List<byte[]> corpus = new ArrayList<>();
+
+	@Before
+	public void setUp() throws IOException {
+		String path = InstrumentationRegistry.getArguments().getString("pngCorpus");
+		assumeTrue("PNG corpus is not specified", path != null);
+		File[] files = new File(path).listFiles((dir, name) -> name.toLowerCase().endsWith(".png"));
+		assumeTrue("PNG corpus is empty", files != null && files.length > 0);
+		for (File file : files) {
+			try (InputStream is = new FileInputStream(file)) {
+				corpus.add(IOUtils.toByteArray(is));
+			}
+		}
+	}
+
+	@Test
+	public void decode() {
+		// warm up both decoders
+		for (byte[] data : corpus) {
+			legacyDecode(data).recycle();
+			PNGUtils.getFixedBitmap(data, 0, data.length).recycle();
+		}
+
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		long start = System.nanoTime();
+		for (byte[] data : corpus) {
+			legacyDecode(data).recycle();
+		}
+		long legacyTime = System.nanoTime() - start;
+		long legacyBytes = Debug.getThreadAllocSize();
+		Debug.stopAllocCounting();
+
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		start = System.nanoTime();
+		for (byte[] data : corpus) {
+			PNGUtils.getFixedBitmap(data, 0, data.length).recycle();
+		}
+		long time = System.nanoTime() - start;
+		long bytes = Debug.getThreadAllocSize();
+		Debug.stopAllocCounting();
+
+		long legacyPeak = peakMemory(PNGUtilsBenchmark::legacyDecode);
+		long peak = peakMemory(data -> PNGUtils.getFixedBitmap(data, 0, data.length));
+
+		Log.i(TAG, corpus.size() + " images: legacy " + legacyTime / 1000000 + " ms, "
+				+ legacyBytes / 1024 + " KiB Java allocated, " + legacyPeak / 1024 + " KiB peak; current "
+				+ time / 1000000 + " ms, " + bytes / 1024 + " KiB Java allocated, "
+				+ peak / 1024 + " KiB peak");
+	}
+
+	/**
+	 * Peak of the Java and native heap in use over the heap before the decode, for one image
+	 * at a time. The native heap holds the pixels of BitmapFactory and, since Oreo, of all bitmaps.
+	 */
+	private long peakMemory(Decoder decoder) {
+		long peak = 0;
+		for (byte[] data : corpus) {
+			Runtime.getRuntime().gc();
+			long before = usedMemory();
+			Bitmap bitmap = decoder.decode(data);
+			peak = Math.max(peak, usedMemory() - before);
+			bitmap.recycle();
+		}
+		return peak;
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+	}
+
+	@Test
+	public void samePixels() {
+		for (byte[] data : corpus) {
+			Bitmap expected = legacyDecode(data);
+			Bitmap actual = PNGUtils.getFixedBitmap(data, 0, data.length);
+			int width = expected.getWidth();
+			int height = expected.getHeight();
+			assertEquals(width, actual.getWidth());
+			assertEquals(height, actual.getHeight());
+			int[] expectedPixels = new int[width * height];
+			int[] actualPixels = new int[width * height];
+			expected.getPixels(expectedPixels, 0, width, 0, 0, width, height);
+			actual.getPixels(actualPixels, 0, width, 0, 0, width, height);
+			for (int i = 0; i < expectedPixels.length; i++) {
+				// fully transparent pixels may differ in color
+				if (expectedPixels[i] >>> 24 != 0 || actualPixels[i] >>> 24 != 0) {
+					assertEquals(expectedPixels[i], actualPixels[i]);
+				}
+			}
+		}
+	}
+
+	private interface Decoder {
+		Bitmap decode(byte[] data);
+	}
+
+	/**
+	 * Previous decoder, as it was before the row streaming and the platform decoder:
+	 * all rows are read into a line set, then converted and copied.
+	 */
+	private static Bitmap legacyDecode(byte[] imageData) {
+		Bitmap b;
+		int imageLength = imageData.length;
+		byte[] signature = Arrays.copyOfRange(imageData, 0, PNG_SIGNATURE.length);
+		if (Arrays.equals(signature, PNG_SIGNATURE)) {
+			try (ByteArrayInputStream stream = new ByteArrayInputStream(imageData, 0, imageLength)) {
+				b = legacyFixPNG(stream);
+			} catch (Exception e) {
+				e.printStackTrace();
+				b = BitmapFactory.decodeByteArray(imageData, 0, imageLength);
+			}
+		} else {
+			b = BitmapFactory.decodeByteArray(imageData, 0, imageLength);
+		}
+		return b;
+	}
+
+	private static Bitmap legacyFixPNG(InputStream stream) throws IOException {
+		PngReaderInt reader = new PngReaderInt(stream);
+		reader.setCrcCheckDisabled();
+		ImageInfo imageInfo = reader.imgInfo;
+		int width = imageInfo.cols;
+		int height = imageInfo.rows;
+		PngChunkTRNS trns = reader.getMetadata().getTRNS();
+		PngChunkPLTE plte = reader.getMetadata().getPLTE();
+		ImageLineSetDefault<ImageLineInt> lineSet = (ImageLineSetDefault) reader.readRows();
+		int[] pix = new int[width * height];
+		int[] buf = new int[width];
+		for (int i = 0; i < height; i++) {
+			ImageLineInt lineInt = lineSet.getImageLine(i);
+			ImageLineHelper.scaleUp(lineInt);
+			int[] r = legacyLineToARGB32(lineInt, plte, trns, buf);
+			for (int j = 0; j < width; j++) {
+				pix[i * width + j] = r[j];
+			}
+		}
+		reader.end();
+		return Bitmap.createBitmap(pix, width, height, Bitmap.Config.ARGB_8888);
+	}
+
+	private static int[] legacyLineToARGB32(ImageLineInt line, PngChunkPLTE pal, PngChunkTRNS trns, int[] buf) {
+		boolean alphachannel = line.imgInfo.alpha;
+		int[] scanline = line.getScanline();
+		int cols = line.imgInfo.cols;
+		if (buf == null || buf.length < cols)
+			buf = new int[cols];
+		int index, rgb, alpha, ga, g;
+		if (line.imgInfo.indexed) { // palette
+			int nindexesWithAlpha = trns != null ? trns.getPalletteAlpha().length : 0;
+			for (int c = 0; c < cols; c++) {
+				index = scanline[c];
+				rgb = pal.getEntry(index);
+				alpha = index < nindexesWithAlpha ? trns.getPalletteAlpha()[index] : 255;
+				buf[c] = (alpha << 24) | rgb;
+			}
+		} else if (line.imgInfo.greyscale) { // gray
+			if (trns != null) {
+				ga = ImageLineHelper.scaleUp(line.imgInfo.bitDepth, (byte) trns.getGray()) & 0xFF;
+			} else {
+				ga = -1;
+			}
+			for (int c = 0, c2 = 0; c < cols; c++) {
+				g = scanline[c2++];
+				alpha = alphachannel ? scanline[c2++] : (g != ga ? 255 : 0);
+				buf[c] = (alpha << 24) | g | (g << 8) | (g << 16);
+			}
+		} else if (line.imgInfo.bitDepth == 16) { // true color
+			ga = trns != null ? trns.getRGB888() : -1;
+			for (int c = 0, c2 = 0; c < cols; c++) {
+				rgb = ((scanline[c2++] & 0xFF00) << 8) | (scanline[c2++] & 0xFF00)
+						| ((scanline[c2++] & 0xFF00) >> 8);
+				alpha = alphachannel ? ((scanline[c2++] & 0xFF00) >> 8) : (rgb != ga ? 255 : 0);
+				buf[c] = (alpha << 24) | rgb;
+			}
+		} else { // true color
+			ga = trns != null ? trns.getRGB888() : -1;
+			for (int c = 0, c2 = 0; c < cols; c++) {
+				rgb = ((scanline[c2++]) << 16) | ((scanline[c2++]) << 8)
+						| (scanline[c2++]);
+				alpha = alphachannel ? scanline[c2++] : (rgb != ga ? 255 : 0);
+				buf[c] = (alpha << 24) | rgb;
+			}
+		}
+		return buf;
+	}
+}
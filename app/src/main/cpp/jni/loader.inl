@@ -103,7 +103,7 @@ JNIEXPORT jlong JNICALL Java_javax_microedition_m3g_Loader__1ctor
 }
 
 JNIEXPORT jint JNICALL Java_javax_microedition_m3g_Loader__1decodeData
-(JNIEnv* aEnv, jclass, jlong aLoader, jint aOffset, jbyteArray aDataArray)
+(JNIEnv* aEnv, jclass, jlong aLoader, jint aOffset, jint aLength, jbyteArray aDataArray)
 {
     /* null array is never passed */
     M3Gubyte *data = (M3Gubyte *)aEnv->GetByteArrayElements(aDataArray, NULL);
@@ -113,11 +113,10 @@ JNIEXPORT jint JNICALL Java_javax_microedition_m3g_Loader__1decodeData
         return 0;
     }
 
-    M3Gint bytes = aEnv->GetArrayLength(aDataArray);
     M3GLoader loader = (M3GLoader)aLoader;
 
     M3G_DO_LOCK
-    jint retVal = m3gDecodeData(loader, bytes, data + aOffset);
+    jint retVal = m3gDecodeData(loader, aLength, data + aOffset);
     M3G_DO_UNLOCK(aEnv)
 
     if (aDataArray)
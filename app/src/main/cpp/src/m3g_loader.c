@@ -298,10 +298,12 @@ static M3Gbool m3gBufferData( M3GInterface m3g,
         stream->data = stream->allocatedData;
     }
 
-    /* Check if new data fits in current buffer */
+    /* Check if new data fits in current buffer; grow it geometrically,
+     * the data of a big section may be submitted in many small chunks */
     if ((stream->capacity - stream->bytesAvailable) < bytes) {
         M3Gubyte *newData;
-        stream->capacity = stream->capacity + bytes + 512;
+        stream->capacity = M3G_MAX(2 * stream->capacity,
+                                   stream->bytesAvailable + bytes + 512);
         newData = m3gAllocZ(m3g, stream->capacity);
         if (!newData) {
             m3gFree(m3g, stream->allocatedData);
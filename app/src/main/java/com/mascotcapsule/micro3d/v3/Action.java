@@ -0,0 +1,191 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mascotcapsule.micro3d.v3;
+
+/**
+ * Animation of the bones of a figure, as loaded from MTRA.
+ * <p>
+ * Every track is an array of keys {frame, values...} sorted by frame,
+ * values are linearly interpolated between the keys.
+ */
+final class Action {
+	static final int TYPE_MATRIX = 0;
+	static final int TYPE_IDENTITY = 1;
+	static final int TYPE_ANIMATED = 2;
+	static final int TYPE_ROLL = 3;
+	static final int TYPE_ROTATION = 4;
+
+	final int numFrames;
+	final int[] types;
+	/** Fixed matrices of the TYPE_MATRIX bones */
+	final int[] matrices;
+	/** Tracks of each bone, null if the bone has no such track */
+	final int[][] translations;
+	final int[][] scales;
+	final int[][] rotations;
+	final int[][] rolls;
+	/** Keys {frame, pattern} or null */
+	int[] patterns;
+
+	private final double[] rotation = new double[9];
+
+	Action(int numFrames, int numBones) {
+		this.numFrames = numFrames;
+		types = new int[numBones];
+		matrices = new int[numBones * 12];
+		translations = new int[numBones][];
+		scales = new int[numBones][];
+		rotations = new int[numBones][];
+		rolls = new int[numBones][];
+	}
+
+	/**
+	 * Local matrix of the bone at the frame, the frame is in 16.16 fixed point.
+	 */
+	void getMatrix(int bone, int frame, int[] dst, int offset) {
+		switch (types[bone]) {
+			case TYPE_MATRIX:
+				System.arraycopy(matrices, bone * 12, dst, offset, 12);
+				return;
+			case TYPE_IDENTITY:
+				setIdentity(dst, offset);
+				return;
+		}
+		int tx = 0, ty = 0, tz = 0;
+		int sx = 4096, sy = 4096, sz = 4096;
+		int rx = 0, ry = 0, rz = 4096;
+		int roll = 0;
+		int[] track = translations[bone];
+		if (track != null) {
+			tx = interpolate(track, 4, 1, frame);
+			ty = interpolate(track, 4, 2, frame);
+			tz = interpolate(track, 4, 3, frame);
+		}
+		track = scales[bone];
+		if (track != null) {
+			sx = interpolate(track, 4, 1, frame);
+			sy = interpolate(track, 4, 2, frame);
+			sz = interpolate(track, 4, 3, frame);
+		}
+		track = rotations[bone];
+		if (track != null) {
+			rx = interpolate(track, 4, 1, frame);
+			ry = interpolate(track, 4, 2, frame);
+			rz = interpolate(track, 4, 3, frame);
+		}
+		track = rolls[bone];
+		if (track != null) {
+			roll = interpolate(track, 2, 1, frame);
+		}
+		double[] r = rotation;
+		setRotation(r, rx, ry, rz, roll);
+		dst[offset] = (int) Math.round(r[0] * sx);
+		dst[offset + 1] = (int) Math.round(r[1] * sy);
+		dst[offset + 2] = (int) Math.round(r[2] * sz);
+		dst[offset + 3] = tx;
+		dst[offset + 4] = (int) Math.round(r[3] * sx);
+		dst[offset + 5] = (int) Math.round(r[4] * sy);
+		dst[offset + 6] = (int) Math.round(r[5] * sz);
+		dst[offset + 7] = ty;
+		dst[offset + 8] = (int) Math.round(r[6] * sx);
+		dst[offset + 9] = (int) Math.round(r[7] * sy);
+		dst[offset + 10] = (int) Math.round(r[8] * sz);
+		dst[offset + 11] = tz;
+	}
+
+	/**
+	 * @return pattern bits at the frame, -1 if the action has no pattern keys
+	 */
+	int getPattern(int frame) {
+		int[] keys = patterns;
+		if (keys == null || keys.length == 0) {
+			return -1;
+		}
+		int pattern = keys[1];
+		for (int i = 2; i < keys.length && keys[i] << 16 <= frame; i += 2) {
+			pattern = keys[i + 1];
+		}
+		return pattern;
+	}
+
+	static void setIdentity(int[] dst, int offset) {
+		for (int i = 0; i < 12; i++) {
+			dst[offset + i] = i % 5 == 0 ? 4096 : 0;
+		}
+	}
+
+	/**
+	 * @param frame 16.16 fixed point frame
+	 */
+	private static int interpolate(int[] keys, int stride, int component, int frame) {
+		int last = keys.length - stride;
+		if (last < 0) {
+			return 0;
+		}
+		if (frame <= keys[0] << 16) {
+			return keys[component];
+		}
+		for (int i = 0; i < last; i += stride) {
+			int end = keys[i + stride] << 16;
+			if (frame < end) {
+				int start = keys[i] << 16;
+				int from = keys[i + component];
+				int to = keys[i + stride + component];
+				return from + (int) ((long) (to - from) * (frame - start) / (end - start));
+			}
+		}
+		return keys[last + component];
+	}
+
+	/**
+	 * Rotation turning the z axis to the direction, after the roll around the z axis.
+	 */
+	private static void setRotation(double[] m, int x, int y, int z, int roll) {
+		double length = Math.sqrt((double) x * x + (double) y * y + (double) z * z);
+		double dx = 0, dy = 0, dz = 1;
+		if (length != 0) {
+			dx = x / length;
+			dy = y / length;
+			dz = z / length;
+		}
+		// axis = (0, 0, 1) x d, Rodrigues' formula
+		double s = Math.sqrt(dx * dx + dy * dy);
+		double ax = 1, ay = 0;
+		if (s > 1e-9) {
+			ax = -dy / s;
+			ay = dx / s;
+		}
+		double c = dz;
+		double t = 1 - c;
+		double a00 = t * ax * ax + c, a01 = t * ax * ay, a02 = s * ay;
+		double a10 = t * ax * ay, a11 = t * ay * ay + c, a12 = -s * ax;
+		double a20 = -s * ay, a21 = s * ax, a22 = c;
+
+		double angle = roll * Math.PI / 2048;
+		double rc = Math.cos(angle);
+		double rs = Math.sin(angle);
+		m[0] = a00 * rc + a01 * rs;
+		m[1] = -a00 * rs + a01 * rc;
+		m[2] = a02;
+		m[3] = a10 * rc + a11 * rs;
+		m[4] = -a10 * rs + a11 * rc;
+		m[5] = a12;
+		m[6] = a20 * rc + a21 * rs;
+		m[7] = -a20 * rs + a21 * rc;
+		m[8] = a22;
+	}
+}
@@ -17,25 +17,26 @@
 package com.mascotcapsule.micro3d.v3;
 
 import java.io.IOException;
-import java.io.InputStream;
-
-import javax.microedition.util.ContextHolder;
 
 public class ActionTable {
+	Action[] actions;
+
 	public ActionTable(byte[] b) {
 		if (b == null) {
 			throw new NullPointerException();
 		}
+		try {
+			actions = Loader.loadMtra(b);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
 	}
 
 	public ActionTable(String name) throws IOException {
 		if (name == null) {
 			throw new NullPointerException();
 		}
-		InputStream is = ContextHolder.getResourceAsStream(null, name);
-		if (is == null) {
-			throw new IOException();
-		}
+		actions = Loader.loadMtra(Loader.readResource(name));
 	}
 
 	public final void dispose() {
@@ -46,7 +47,7 @@ public class ActionTable {
 	}
 
 	public final int getNumActions() {
-		return 1;
+		return actions.length;
 	}
 
 	public final int getNumFrame(int idx) {
@@ -55,10 +56,10 @@ public class ActionTable {
 
 	public final int getNumFrames(int idx) {
 		if (idx >= 0 && idx < getNumAction()) {
-			return 60;
+			return actions[idx].numFrames << 16;
 		} else {
 			throw new IllegalArgumentException();
 		}
 
 	}
-}
\ No newline at end of file
+}
@@ -55,15 +55,31 @@ public class AffineTrans {
 	}
 
 	public final void setRotationX(int r) {
+		int cos = Util3D.cos(r);
+		int sin = Util3D.sin(r);
+		m00 = 4096; m01 = 0;   m02 = 0;
+		m10 = 0;    m11 = cos; m12 = -sin;
+		m20 = 0;    m21 = sin; m22 = cos;
 	}
 
 	public final void setRotationY(int r) {
+		int cos = Util3D.cos(r);
+		int sin = Util3D.sin(r);
+		m00 = cos;  m01 = 0;    m02 = sin;
+		m10 = 0;    m11 = 4096; m12 = 0;
+		m20 = -sin; m21 = 0;    m22 = cos;
 	}
 
 	public final void setRotationZ(int r) {
+		int cos = Util3D.cos(r);
+		int sin = Util3D.sin(r);
+		m00 = cos; m01 = -sin; m02 = 0;
+		m10 = sin; m11 = cos;  m12 = 0;
+		m20 = 0;   m21 = 0;    m22 = 4096;
 	}
 
 	public final void setIdentity() {
+		set(4096, 0, 0, 0, 0, 4096, 0, 0, 0, 0, 4096, 0);
 	}
 
 	public final void get(int[] a) {
@@ -180,8 +196,10 @@ public class AffineTrans {
 		if (v == null) {
 			throw new NullPointerException();
 		}
-		Vector3D d = new Vector3D();
-		return d;
+		int x = (int) (((long) v.x * m00 + (long) v.y * m01 + (long) v.z * m02 + 2048 >> 12) + m03);
+		int y = (int) (((long) v.x * m10 + (long) v.y * m11 + (long) v.z * m12 + 2048 >> 12) + m13);
+		int z = (int) (((long) v.x * m20 + (long) v.y * m21 + (long) v.z * m22 + 2048 >> 12) + m23);
+		return new Vector3D(x, y, z);
 	}
 
 	public final void rotationX(int r) {
@@ -201,9 +219,7 @@ public class AffineTrans {
 	}
 
 	public final void mul(AffineTrans a) {
-		if (a == null) {
-			throw new NullPointerException();
-		}
+		mul(this, a);
 	}
 
 	public final void multiply(AffineTrans a1, AffineTrans a2) {
@@ -214,6 +230,51 @@ public class AffineTrans {
 		if (a1 == null || a2 == null) {
 			throw new NullPointerException();
 		}
+		long a00 = a1.m00, a01 = a1.m01, a02 = a1.m02;
+		long a10 = a1.m10, a11 = a1.m11, a12 = a1.m12;
+		long a20 = a1.m20, a21 = a1.m21, a22 = a1.m22;
+		int b00 = a2.m00, b01 = a2.m01, b02 = a2.m02, b03 = a2.m03;
+		int b10 = a2.m10, b11 = a2.m11, b12 = a2.m12, b13 = a2.m13;
+		int b20 = a2.m20, b21 = a2.m21, b22 = a2.m22, b23 = a2.m23;
+		int t0 = a1.m03, t1 = a1.m13, t2 = a1.m23;
+		m00 = (int) (a00 * b00 + a01 * b10 + a02 * b20 + 2048 >> 12);
+		m01 = (int) (a00 * b01 + a01 * b11 + a02 * b21 + 2048 >> 12);
+		m02 = (int) (a00 * b02 + a01 * b12 + a02 * b22 + 2048 >> 12);
+		m03 = (int) (a00 * b03 + a01 * b13 + a02 * b23 + 2048 >> 12) + t0;
+		m10 = (int) (a10 * b00 + a11 * b10 + a12 * b20 + 2048 >> 12);
+		m11 = (int) (a10 * b01 + a11 * b11 + a12 * b21 + 2048 >> 12);
+		m12 = (int) (a10 * b02 + a11 * b12 + a12 * b22 + 2048 >> 12);
+		m13 = (int) (a10 * b03 + a11 * b13 + a12 * b23 + 2048 >> 12) + t1;
+		m20 = (int) (a20 * b00 + a21 * b10 + a22 * b20 + 2048 >> 12);
+		m21 = (int) (a20 * b01 + a21 * b11 + a22 * b21 + 2048 >> 12);
+		m22 = (int) (a20 * b02 + a21 * b12 + a22 * b22 + 2048 >> 12);
+		m23 = (int) (a20 * b03 + a21 * b13 + a22 * b23 + 2048 >> 12) + t2;
+	}
+
+	/**
+	 * Product of two matrices in the 4096 = 1.0 fixed point, stored as 12 ints in row order.
+	 * The destination may be one of the sources.
+	 */
+	static void multiply(int[] dst, int d, int[] a, int i, int[] b, int j) {
+		long a00 = a[i], a01 = a[i + 1], a02 = a[i + 2];
+		long a10 = a[i + 4], a11 = a[i + 5], a12 = a[i + 6];
+		long a20 = a[i + 8], a21 = a[i + 9], a22 = a[i + 10];
+		int t0 = a[i + 3], t1 = a[i + 7], t2 = a[i + 11];
+		int b00 = b[j], b01 = b[j + 1], b02 = b[j + 2], b03 = b[j + 3];
+		int b10 = b[j + 4], b11 = b[j + 5], b12 = b[j + 6], b13 = b[j + 7];
+		int b20 = b[j + 8], b21 = b[j + 9], b22 = b[j + 10], b23 = b[j + 11];
+		dst[d] = (int) (a00 * b00 + a01 * b10 + a02 * b20 + 2048 >> 12);
+		dst[d + 1] = (int) (a00 * b01 + a01 * b11 + a02 * b21 + 2048 >> 12);
+		dst[d + 2] = (int) (a00 * b02 + a01 * b12 + a02 * b22 + 2048 >> 12);
+		dst[d + 3] = (int) (a00 * b03 + a01 * b13 + a02 * b23 + 2048 >> 12) + t0;
+		dst[d + 4] = (int) (a10 * b00 + a11 * b10 + a12 * b20 + 2048 >> 12);
+		dst[d + 5] = (int) (a10 * b01 + a11 * b11 + a12 * b21 + 2048 >> 12);
+		dst[d + 6] = (int) (a10 * b02 + a11 * b12 + a12 * b22 + 2048 >> 12);
+		dst[d + 7] = (int) (a10 * b03 + a11 * b13 + a12 * b23 + 2048 >> 12) + t1;
+		dst[d + 8] = (int) (a20 * b00 + a21 * b10 + a22 * b20 + 2048 >> 12);
+		dst[d + 9] = (int) (a20 * b01 + a21 * b11 + a22 * b21 + 2048 >> 12);
+		dst[d + 10] = (int) (a20 * b02 + a21 * b12 + a22 * b22 + 2048 >> 12);
+		dst[d + 11] = (int) (a20 * b03 + a21 * b13 + a22 * b23 + 2048 >> 12) + t2;
 	}
 
 	public final void rotationV(Vector3D v, int r) {
@@ -224,6 +285,22 @@ public class AffineTrans {
 		if (v == null) {
 			throw new NullPointerException();
 		}
+		// v is expected to be a unit vector
+		long x = v.x;
+		long y = v.y;
+		long z = v.z;
+		long cos = Util3D.cos(r);
+		long sin = Util3D.sin(r);
+		long t = 4096 - cos;
+		m00 = (int) ((x * x * t >> 24) + cos);
+		m01 = (int) ((x * y * t >> 24) - (z * sin >> 12));
+		m02 = (int) ((x * z * t >> 24) + (y * sin >> 12));
+		m10 = (int) ((x * y * t >> 24) + (z * sin >> 12));
+		m11 = (int) ((y * y * t >> 24) + cos);
+		m12 = (int) ((y * z * t >> 24) - (x * sin >> 12));
+		m20 = (int) ((x * z * t >> 24) - (y * sin >> 12));
+		m21 = (int) ((y * z * t >> 24) + (x * sin >> 12));
+		m22 = (int) ((z * z * t >> 24) + cos);
 	}
 
 	public final void setViewTrans(Vector3D pos, Vector3D look, Vector3D up) {
@@ -234,5 +311,18 @@ public class AffineTrans {
 		if (pos == null || look == null || up == null) {
 			throw new NullPointerException();
 		}
+		// camera space: x to the right, y down, z in the look direction
+		Vector3D zAxis = new Vector3D(look);
+		zAxis.unit();
+		Vector3D xAxis = Vector3D.outerProduct(zAxis, up);
+		xAxis.unit();
+		Vector3D yAxis = Vector3D.outerProduct(zAxis, xAxis);
+		yAxis.unit();
+		m00 = xAxis.x; m01 = xAxis.y; m02 = xAxis.z;
+		m10 = yAxis.x; m11 = yAxis.y; m12 = yAxis.z;
+		m20 = zAxis.x; m21 = zAxis.y; m22 = zAxis.z;
+		m03 = -((m00 * pos.x + m01 * pos.y + m02 * pos.z + 2048) >> 12);
+		m13 = -((m10 * pos.x + m11 * pos.y + m12 * pos.z + 2048) >> 12);
+		m23 = -((m20 * pos.x + m21 * pos.y + m22 * pos.z + 2048) >> 12);
 	}
 }
@@ -17,28 +17,47 @@
 package com.mascotcapsule.micro3d.v3;
 
 import java.io.IOException;
-import java.io.InputStream;
-
-import javax.microedition.util.ContextHolder;
 
 public class Figure {
-	private Texture[] myTextureArray;
+	Texture[] myTextureArray;
 	private Texture myTextureNow;
 
+	Model model;
+	/** Vertices and normals in the current posture */
+	int[] vertices;
+	int[] normals;
+	int pattern;
+	private int[] boneMatrices;
+	private int[] localMatrix;
+
 	public Figure(byte[] b) {
 		if (b == null) {
 			throw new NullPointerException();
 		}
+		try {
+			init(Loader.loadMbac(b));
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
 	}
 
 	public Figure(String name) throws IOException {
 		if (name == null) {
 			throw new NullPointerException();
 		}
-		InputStream is = ContextHolder.getResourceAsStream(null, name);
-		if (is == null) {
-			throw new IOException();
+		init(Loader.loadMbac(Loader.readResource(name)));
+	}
+
+	private void init(Model model) {
+		this.model = model;
+		vertices = new int[model.numVertices * 3];
+		if (model.normals != null) {
+			normals = new int[model.numVertices * 3];
 		}
+		boneMatrices = new int[model.numBones * 12];
+		localMatrix = new int[12];
+		// initial posture from the bones of the model
+		pose(null, 0);
 	}
 
 	public final void dispose() {
@@ -50,6 +69,70 @@ public class Figure {
 		} else if (action < 0 || action >= act.getNumAction()) {
 			throw new IllegalArgumentException();
 		}
+		Action a = act.actions[action];
+		pose(a, Math.max(0, Math.min(frame, (a.numFrames << 16) - 1)));
+		int p = a.getPattern(frame);
+		if (p >= 0) {
+			pattern = p;
+		}
+	}
+
+	/**
+	 * Evaluate the bone matrices and transform the vertices and normals of every bone.
+	 */
+	private void pose(Action action, int frame) {
+		Model model = this.model;
+		int[] bones = model.bones;
+		int[] world = boneMatrices;
+		int[] local = localMatrix;
+		int vertex = 0;
+		for (int i = 0; i < model.numBones; i++) {
+			int bone = i * Model.BONE_STRIDE;
+			if (action != null && i < action.types.length) {
+				action.getMatrix(i, frame, local, 0);
+			} else {
+				System.arraycopy(bones, bone + Model.BONE_MATRIX, local, 0, 12);
+			}
+			int parent = bones[bone + Model.BONE_PARENT];
+			if (parent >= 0 && parent < i) {
+				AffineTrans.multiply(world, i * 12, world, parent * 12, local, 0);
+			} else {
+				System.arraycopy(local, 0, world, i * 12, 12);
+			}
+			int end = vertex + bones[bone + Model.BONE_VERTICES];
+			transform(world, i * 12, model.vertices, vertices, vertex, end, true);
+			if (normals != null) {
+				transform(world, i * 12, model.normals, normals, vertex, end, false);
+			}
+			vertex = end;
+		}
+		// vertices not bound to a bone stay in place
+		int rest = model.numVertices * 3 - vertex * 3;
+		System.arraycopy(model.vertices, vertex * 3, vertices, vertex * 3, rest);
+		if (normals != null) {
+			System.arraycopy(model.normals, vertex * 3, normals, vertex * 3, rest);
+		}
+	}
+
+	private static void transform(int[] m, int o, int[] src, int[] dst, int start, int end,
+								  boolean translate) {
+		long m00 = m[o], m01 = m[o + 1], m02 = m[o + 2];
+		long m10 = m[o + 4], m11 = m[o + 5], m12 = m[o + 6];
+		long m20 = m[o + 8], m21 = m[o + 9], m22 = m[o + 10];
+		int tx = 0, ty = 0, tz = 0;
+		if (translate) {
+			tx = m[o + 3];
+			ty = m[o + 7];
+			tz = m[o + 11];
+		}
+		for (int i = start * 3, e = end * 3; i < e; i += 3) {
+			int x = src[i];
+			int y = src[i + 1];
+			int z = src[i + 2];
+			dst[i] = (int) (m00 * x + m01 * y + m02 * z + 2048 >> 12) + tx;
+			dst[i + 1] = (int) (m10 * x + m11 * y + m12 * z + 2048 >> 12) + ty;
+			dst[i + 2] = (int) (m20 * x + m21 * y + m22 * z + 2048 >> 12) + tz;
+		}
 	}
 
 	public final Texture getTexture() {
@@ -104,9 +187,10 @@ public class Figure {
 	}
 
 	public final int getNumPattern() {
-		return 0;
+		return model.numPatterns;
 	}
 
 	public final void setPattern(int idx) {
+		pattern = idx;
 	}
 }
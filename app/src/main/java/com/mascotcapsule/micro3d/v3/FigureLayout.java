@@ -17,20 +17,20 @@
 package com.mascotcapsule.micro3d.v3;
 
 public class FigureLayout {
-	private AffineTrans[] myAffineArray;
-	private AffineTrans myAffineNow;
-	private int myCenterX;
-	private int myCenterY;
-	private int myParaHeight;
-	private int myParaWidth;
-	private int myPersAngle;
-	private int myPersFar;
-	private int myPersHeight;
-	private int myPersNear;
-	private int myPersWidth;
-	private int myScaleX;
-	private int myScaleY;
-	private int mySettingIndex;
+	AffineTrans[] myAffineArray;
+	AffineTrans myAffineNow;
+	int myCenterX;
+	int myCenterY;
+	int myParaHeight;
+	int myParaWidth;
+	int myPersAngle;
+	int myPersFar;
+	int myPersHeight;
+	int myPersNear;
+	int myPersWidth;
+	int myScaleX;
+	int myScaleY;
+	int mySettingIndex;
 
 	public FigureLayout() {
 		setAffineTrans((AffineTrans) null);
@@ -75,6 +75,7 @@ public class Graphics3D {
 	private static int ID = 0;
 	private static boolean mIsBound = false;
 	private Graphics mGraphics;
+	private final Render mRender = new Render();
 
 	private void checkTargetIsValid() throws IllegalStateException {
 		if (this.mGraphics == null) {
@@ -90,6 +91,7 @@ public class Graphics3D {
 			throw new IllegalStateException("Target already bound");
 		}
 		this.mGraphics = graphics;
+		mRender.bind(graphics);
 		mIsBound = true;
 	}
 
@@ -97,6 +99,7 @@ public class Graphics3D {
 		if (graphics != this.mGraphics) {
 			throw new IllegalArgumentException("Unknown target");
 		} else if (graphics == this.mGraphics && mIsBound) {
+			mRender.release();
 			this.mGraphics = null;
 			mIsBound = false;
 		}
@@ -111,7 +114,17 @@ public class Graphics3D {
 			throw new IllegalArgumentException();
 		} else if (numPrimitives <= 0 || numPrimitives >= 256) {
 			throw new IllegalArgumentException();
+		} else if (vertexCoords.length < Render.getVertexDataLength(command, numPrimitives)
+				|| normals.length < Render.getNormalDataLength(command, numPrimitives)
+				|| textureCoords.length < Render.getTextureDataLength(command, numPrimitives)
+				|| colors.length < Render.getColorDataLength(command, numPrimitives)) {
+			throw new IllegalArgumentException();
 		}
+		checkTargetIsValid();
+		mRender.setLayout(layout, x, y);
+		mRender.setEffect(effect);
+		mRender.drawPrimitives(texture, command, numPrimitives,
+				vertexCoords, 0, normals, 0, textureCoords, 0, colors, 0);
 	}
 
 	public final void drawCommandList(Texture[] textures, int x, int y, FigureLayout layout, Effect3D effect, int[] commandList) {
@@ -128,6 +141,80 @@ public class Graphics3D {
 		if (commandList == null) {
 			throw new NullPointerException();
 		}
+		if (commandList.length == 0 || commandList[0] != COMMAND_LIST_VERSION_1_0) {
+			throw new IllegalArgumentException();
+		}
+		checkTargetIsValid();
+		Render render = mRender;
+		render.setLayout(layout, x, y);
+		render.setEffect(effect);
+		Texture texture = textures != null ? textures[0] : null;
+		int i = 1;
+		while (i < commandList.length) {
+			int cmd = commandList[i++];
+			switch (cmd & 0xFF000000) {
+				case COMMAND_END:
+					return;
+				case COMMAND_NOP:
+					i += cmd & 0xFFFF;
+					break;
+				case COMMAND_FLUSH:
+					render.flush();
+					break;
+				case COMMAND_ATTRIBUTE:
+					render.setAttributes(cmd & 0xFFFFFF);
+					break;
+				case COMMAND_CLIP:
+					render.setClip(commandList[i], commandList[i + 1], commandList[i + 2], commandList[i + 3]);
+					i += 4;
+					break;
+				case COMMAND_CENTER:
+					render.setCenter(x + commandList[i], y + commandList[i + 1]);
+					i += 2;
+					break;
+				case COMMAND_TEXTURE_INDEX: {
+					int idx = cmd & 0xFFFFFF;
+					if (textures == null || idx >= textures.length) {
+						throw new IllegalArgumentException();
+					}
+					texture = textures[idx];
+					break;
+				}
+				case COMMAND_AFFINE_INDEX:
+					render.selectTransform(cmd & 0xFFFFFF);
+					break;
+				case COMMAND_PARALLEL_SCALE:
+					render.setParallelScale(commandList[i], commandList[i + 1]);
+					i += 2;
+					break;
+				case COMMAND_PARALLEL_SIZE:
+					render.setParallelSize(commandList[i], commandList[i + 1]);
+					i += 2;
+					break;
+				case COMMAND_PERSPECTIVE_FOV:
+					render.setPerspective(commandList[i], commandList[i + 1], commandList[i + 2]);
+					i += 3;
+					break;
+				case COMMAND_PERSPECTIVE_WH:
+					render.setPerspective(commandList[i], commandList[i + 1], commandList[i + 2], commandList[i + 3]);
+					i += 4;
+					break;
+				case COMMAND_AMBIENT_LIGHT:
+					render.setAmbientLight(commandList[i++]);
+					break;
+				case COMMAND_DIRECTION_LIGHT:
+					render.setDirectionLight(commandList[i], commandList[i + 1], commandList[i + 2], commandList[i + 3]);
+					i += 4;
+					break;
+				case COMMAND_THRESHOLD:
+					render.setToonParams(commandList[i], commandList[i + 1], commandList[i + 2]);
+					i += 3;
+					break;
+				default:
+					i = render.drawPrimitives(texture, cmd, commandList, i);
+					break;
+			}
+		}
 	}
 
 	public final void drawCommandList(Texture texture, int x, int y, FigureLayout layout, Effect3D effect, int[] commandList) {
@@ -143,17 +230,19 @@ public class Graphics3D {
 		if (figure == null || layout == null || effect == null) {
 			throw new NullPointerException();
 		}
+		mRender.setLayout(layout, x, y);
+		mRender.setEffect(effect);
+		mRender.drawFigure(figure, figure.getTexture(), figure.myTextureArray);
 	}
 
 	public final void drawFigure(Figure figure, int x, int y, FigureLayout layout, Effect3D effect) throws IllegalStateException {
-		checkTargetIsValid();
-		if (figure == null || layout == null || effect == null) {
-			throw new NullPointerException();
-		}
+		renderFigure(figure, x, y, layout, effect);
+		mRender.flush();
 	}
 
 	public final void flush() throws IllegalStateException {
 		checkTargetIsValid();
+		mRender.flush();
 	}
 
 	public final void dispose() {
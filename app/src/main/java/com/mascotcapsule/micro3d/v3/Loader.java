@@ -0,0 +1,532 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mascotcapsule.micro3d.v3;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.microedition.util.ContextHolder;
+
+import ru.playsoftware.j2meloader.util.IOUtils;
+
+/**
+ * Parsers of the MascotCapsule binary formats: MBAC figures, MTRA action tables
+ * and BMP textures. Multibyte values are little-endian, packed fields are read
+ * starting from the low bit of every byte.
+ */
+final class Loader {
+	/** Bits of the packed vertex coordinates, selected by the header of a run */
+	private static final int[] VERTEX_BITS = {8, 10, 13, 16};
+
+	// MBAC material bits
+	private static final int MATERIAL_TRANSPARENT = 1;
+	private static final int MATERIAL_BLEND_SHIFT = 1;
+	private static final int MATERIAL_BLEND_MASK = 3;
+
+	private final byte[] data;
+	private int position;
+	private int bitBuffer;
+	private int bitCount;
+
+	private Loader(byte[] data) {
+		this.data = data;
+	}
+
+	static byte[] readResource(String name) throws IOException {
+		InputStream is = ContextHolder.getResourceAsStream(null, name);
+		if (is == null) {
+			throw new IOException("Resource not found: " + name);
+		}
+		try {
+			return IOUtils.toByteArray(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	static Model loadMbac(byte[] data) throws IOException {
+		Loader loader = new Loader(data);
+		try {
+			return loader.readMbac();
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Unexpected end of MBAC data", e);
+		}
+	}
+
+	static Action[] loadMtra(byte[] data) throws IOException {
+		Loader loader = new Loader(data);
+		try {
+			return loader.readMtra();
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Unexpected end of MTRA data", e);
+		}
+	}
+
+	/**
+	 * Decode an indexed BMP, the first color of the palette gets zero alpha
+	 * to be used as the color key.
+	 */
+	static void loadBmp(byte[] data, Texture texture) throws IOException {
+		Loader loader = new Loader(data);
+		try {
+			loader.readBmp(texture);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Unexpected end of BMP data", e);
+		}
+	}
+
+	private Model readMbac() throws IOException {
+		if (readUByte() != 'M' || readUByte() != 'B') {
+			throw new IOException("Not a MBAC file");
+		}
+		int version = readUByte();
+		if (readUByte() != 0 || version < 2 || version > 5) {
+			throw new IOException("Unsupported MBAC version: " + version);
+		}
+		int vertexFormat = 1;
+		int normalFormat = 0;
+		int polygonFormat = 1;
+		int boneFormat = 1;
+		if (version > 3) {
+			vertexFormat = readUByte();
+			normalFormat = readUByte();
+			polygonFormat = readUByte();
+			boneFormat = readUByte();
+		}
+		if (vertexFormat < 1 || vertexFormat > 2 || normalFormat > 2
+				|| polygonFormat < 1 || polygonFormat > 3 || boneFormat != 1) {
+			throw new IOException("Unsupported MBAC format: " + vertexFormat + ", "
+					+ normalFormat + ", " + polygonFormat + ", " + boneFormat);
+		}
+
+		Model model = new Model();
+		int numVertices = readUShort();
+		int numT3 = readUShort();
+		int numT4 = readUShort();
+		int numBones = readUShort();
+		int numF3 = 0;
+		int numF4 = 0;
+		int numColors = 0;
+		model.numTextures = 1;
+		if (polygonFormat >= 3) {
+			numF3 = readUShort();
+			numF4 = readUShort();
+			model.numTextures = readUShort();
+			model.numPatterns = readUShort();
+			numColors = readUShort();
+		}
+
+		// polygons are grouped by pattern, then by texture
+		int groups = Math.max(model.numPatterns, 1);
+		int[] groupPatterns = new int[groups];
+		int[] groupT3 = new int[groups * model.numTextures];
+		int[] groupT4 = new int[groups * model.numTextures];
+		if (model.numPatterns == 0) {
+			groupT3[0] = numT3;
+			groupT4[0] = numT4;
+		} else {
+			for (int i = 0; i < groups; i++) {
+				groupPatterns[i] = readUShort();
+				readUShort();
+				for (int j = 0; j < model.numTextures; j++) {
+					groupT3[i * model.numTextures + j] = readUShort();
+					groupT4[i * model.numTextures + j] = readUShort();
+				}
+			}
+		}
+
+		model.numVertices = numVertices;
+		model.vertices = new int[numVertices * 3];
+		if (vertexFormat == 1) {
+			for (int i = 0; i < numVertices * 3; i++) {
+				model.vertices[i] = readShort();
+			}
+		} else {
+			readPackedVertices(model.vertices, numVertices);
+		}
+		if (normalFormat != 0) {
+			model.normals = new int[numVertices * 3];
+			readPackedNormals(model.normals, numVertices);
+		}
+
+		model.triangles = new int[(numF3 + numF4 * 2 + numT3 + numT4 * 2) * Model.STRIDE];
+		if (polygonFormat == 1) {
+			readPolygons(model, groups, groupPatterns, groupT3, groupT4, false, 0, 0, 0);
+		} else {
+			if (polygonFormat == 3 && numF3 + numF4 > 0) {
+				readColoredPolygons(model, numF3, numF4, numColors);
+			}
+			clearBits();
+			int attrBits = readBits(8);
+			int indexBits = readBits(8);
+			int uvBits = readBits(8);
+			readBits(8);
+			readPolygons(model, groups, groupPatterns, groupT3, groupT4, true, attrBits, uvBits, indexBits);
+		}
+		clearBits();
+
+		model.numBones = numBones;
+		model.bones = new int[numBones * Model.BONE_STRIDE];
+		int boneVertices = 0;
+		for (int i = 0; i < numBones; i++) {
+			int bone = i * Model.BONE_STRIDE;
+			model.bones[bone + Model.BONE_VERTICES] = readUShort();
+			model.bones[bone + Model.BONE_PARENT] = readShort();
+			for (int j = 0; j < 12; j++) {
+				model.bones[bone + Model.BONE_MATRIX + j] = readShort();
+			}
+			boneVertices += model.bones[bone];
+		}
+		if (boneVertices > numVertices) {
+			throw new IOException("Bones refer to " + boneVertices + " of " + numVertices + " vertices");
+		}
+		return model;
+	}
+
+	/**
+	 * Runs of vertices, the header of a run selects the size of the coordinates
+	 * and the number of vertices in it.
+	 */
+	private void readPackedVertices(int[] dst, int count) throws IOException {
+		clearBits();
+		int i = 0;
+		while (i < count) {
+			int header = readBits(8);
+			int bits = VERTEX_BITS[header >> 6];
+			int run = (header & 0x3F) + 1;
+			if (i + run > count) {
+				throw new IOException("Vertex run out of range");
+			}
+			for (int end = i + run; i < end; i++) {
+				dst[i * 3] = readSignedBits(bits);
+				dst[i * 3 + 1] = readSignedBits(bits);
+				dst[i * 3 + 2] = readSignedBits(bits);
+			}
+		}
+		clearBits();
+	}
+
+	/**
+	 * 7-bit x and y with the sign of z, or one of the six axis directions.
+	 */
+	private void readPackedNormals(int[] dst, int count) {
+		clearBits();
+		for (int i = 0; i < count * 3; i += 3) {
+			int x = readSignedBits(7);
+			if (x == -64) {
+				int axis = readBits(3);
+				int value = (axis & 1) == 0 ? 4096 : -4096;
+				dst[i] = (axis >> 1) == 0 ? value : 0;
+				dst[i + 1] = (axis >> 1) == 1 ? value : 0;
+				dst[i + 2] = (axis >> 1) == 2 ? value : 0;
+			} else {
+				x <<= 6;
+				int y = readSignedBits(7) << 6;
+				int z = (int) Math.sqrt(Math.max(0, 4096 * 4096 - x * x - y * y));
+				dst[i] = x;
+				dst[i + 1] = y;
+				dst[i + 2] = readBits(1) == 0 ? z : -z;
+			}
+		}
+		clearBits();
+	}
+
+	private void readColoredPolygons(Model model, int numF3, int numF4, int numColors)
+			throws IOException {
+		clearBits();
+		int attrBits = readBits(8);
+		int indexBits = readBits(8);
+		int colorBits = readBits(8);
+		int colorIndexBits = readBits(8);
+		readBits(8);
+		int[] colors = new int[numColors];
+		for (int i = 0; i < numColors; i++) {
+			int r = readBits(colorBits) << (8 - colorBits);
+			int g = readBits(colorBits) << (8 - colorBits);
+			int b = readBits(colorBits) << (8 - colorBits);
+			colors[i] = r << 16 | g << 8 | b;
+		}
+		for (int i = 0; i < numF3 + numF4; i++) {
+			int attr = toPolygonAttributes(readBits(attrBits));
+			int a = readBits(indexBits);
+			int b = readBits(indexBits);
+			int c = readBits(indexBits);
+			int d = i < numF3 ? -1 : readBits(indexBits);
+			int colorIndex = readBits(colorIndexBits);
+			int color = colorIndex < numColors ? colors[colorIndex] : 0;
+			if (a >= model.numVertices || b >= model.numVertices || c >= model.numVertices
+					|| d >= model.numVertices) {
+				throw new IOException("Polygon vertex out of range");
+			}
+			addTriangle(model, a, b, c, 0, 0, 0, 0, 0, 0, attr, -1, color, 0);
+			if (d >= 0) {
+				addTriangle(model, a, c, d, 0, 0, 0, 0, 0, 0, attr, -1, color, 0);
+			}
+		}
+	}
+
+	/**
+	 * Textured polygons: triangles of all the groups, then quads of all the groups.
+	 * The first format stores plain little-endian fields, the sizes are used only for the packed ones.
+	 */
+	private void readPolygons(Model model, int groups, int[] patterns, int[] groupT3, int[] groupT4,
+							  boolean packed, int attrBits, int uvBits, int indexBits) throws IOException {
+		int numTextures = model.numTextures;
+		int[] uv = new int[8];
+		for (int quads = 0; quads < 2; quads++) {
+			int[] counts = quads == 0 ? groupT3 : groupT4;
+			for (int g = 0; g < groups * numTextures; g++) {
+				int pattern = patterns[g / numTextures];
+				int texture = g % numTextures;
+				for (int n = counts[g]; n > 0; n--) {
+					int attr, a, b, c, d = -1;
+					if (packed) {
+						attr = readBits(attrBits);
+						a = readBits(indexBits);
+						b = readBits(indexBits);
+						c = readBits(indexBits);
+						if (quads == 1) {
+							d = readBits(indexBits);
+						}
+						for (int i = 0; i < (quads == 0 ? 6 : 8); i++) {
+							uv[i] = readBits(uvBits);
+						}
+					} else {
+						attr = readUShort();
+						a = readUShort();
+						b = readUShort();
+						c = readUShort();
+						if (quads == 1) {
+							d = readUShort();
+						}
+						for (int i = 0; i < (quads == 0 ? 6 : 8); i++) {
+							uv[i] = readUByte();
+						}
+					}
+					if (a >= model.numVertices || b >= model.numVertices || c >= model.numVertices
+							|| d >= model.numVertices) {
+						throw new IOException("Polygon vertex out of range");
+					}
+					attr = toPolygonAttributes(attr);
+					addTriangle(model, a, b, c, uv[0], uv[1], uv[2], uv[3], uv[4], uv[5],
+							attr, texture, 0, pattern);
+					if (d >= 0) {
+						addTriangle(model, a, c, d, uv[0], uv[1], uv[4], uv[5], uv[6], uv[7],
+								attr, texture, 0, pattern);
+					}
+				}
+			}
+		}
+	}
+
+	private static int toPolygonAttributes(int material) {
+		int attr = Graphics3D.PATTR_LIGHTING;
+		if ((material & MATERIAL_TRANSPARENT) != 0) {
+			attr |= Graphics3D.PATTR_COLORKEY;
+		}
+		attr |= ((material >> MATERIAL_BLEND_SHIFT) & MATERIAL_BLEND_MASK) * Graphics3D.PATTR_BLEND_HALF;
+		return attr;
+	}
+
+	private static void addTriangle(Model model, int a, int b, int c,
+									int u1, int v1, int u2, int v2, int u3, int v3,
+									int attr, int texture, int color, int pattern) {
+		int[] t = model.triangles;
+		int i = model.numTriangles++ * Model.STRIDE;
+		t[i + Model.A] = a;
+		t[i + Model.B] = b;
+		t[i + Model.C] = c;
+		t[i + Model.UV] = u1;
+		t[i + Model.UV + 1] = v1;
+		t[i + Model.UV + 2] = u2;
+		t[i + Model.UV + 3] = v2;
+		t[i + Model.UV + 4] = u3;
+		t[i + Model.UV + 5] = v3;
+		t[i + Model.ATTR] = attr;
+		t[i + Model.TEXTURE] = texture;
+		t[i + Model.COLOR] = color;
+		t[i + Model.PATTERN] = pattern;
+	}
+
+	private Action[] readMtra() throws IOException {
+		if (readUByte() != 'M' || readUByte() != 'T') {
+			throw new IOException("Not a MTRA file");
+		}
+		int version = readUByte();
+		if (readUByte() != 0 || version < 2 || version > 5) {
+			throw new IOException("Unsupported MTRA version: " + version);
+		}
+		int numActions = readUShort();
+		int numBones = readUShort();
+		Action[] actions = new Action[numActions];
+		for (int i = 0; i < numActions; i++) {
+			Action action = new Action(readUShort(), numBones);
+			for (int bone = 0; bone < numBones; bone++) {
+				int type = readUByte();
+				action.types[bone] = type;
+				switch (type) {
+					case Action.TYPE_MATRIX:
+						for (int j = 0; j < 12; j++) {
+							action.matrices[bone * 12 + j] = readShort();
+						}
+						break;
+					case Action.TYPE_IDENTITY:
+						break;
+					case Action.TYPE_ANIMATED:
+						action.translations[bone] = readTrack(3);
+						action.scales[bone] = readTrack(3);
+						action.rotations[bone] = readTrack(3);
+						action.rolls[bone] = readTrack(1);
+						break;
+					case Action.TYPE_ROLL:
+						action.rolls[bone] = readTrack(1);
+						break;
+					case Action.TYPE_ROTATION:
+						action.translations[bone] = readTrack(3);
+						action.rotations[bone] = readTrack(3);
+						action.rolls[bone] = readTrack(1);
+						break;
+					default:
+						throw new IOException("Unsupported bone action type: " + type);
+				}
+			}
+			if (version == 5) {
+				action.patterns = readTrack(1);
+			}
+			actions[i] = action;
+		}
+		return actions;
+	}
+
+	private int[] readTrack(int components) {
+		int count = readUShort();
+		int stride = components + 1;
+		int[] keys = new int[count * stride];
+		for (int i = 0; i < keys.length; i += stride) {
+			keys[i] = readUShort();
+			for (int j = 1; j <= components; j++) {
+				keys[i + j] = readShort();
+			}
+		}
+		return keys;
+	}
+
+	private void readBmp(Texture texture) throws IOException {
+		if (readUByte() != 'B' || readUByte() != 'M') {
+			throw new IOException("Not a BMP file");
+		}
+		position = 10;
+		int dataOffset = readInt();
+		int headerSize = readInt();
+		int width;
+		int height;
+		int bits;
+		int compression = 0;
+		int paletteSize = 0;
+		if (headerSize == 12) {
+			width = readUShort();
+			height = (short) readUShort();
+			readUShort();
+			bits = readUShort();
+		} else {
+			width = readInt();
+			height = readInt();
+			readUShort();
+			bits = readUShort();
+			compression = readInt();
+			position += 12;
+			paletteSize = readInt();
+		}
+		if (bits != 1 && bits != 4 && bits != 8 || compression != 0) {
+			throw new IOException("Unsupported BMP: " + bits + " bits, compression " + compression);
+		}
+		if (paletteSize == 0) {
+			paletteSize = 1 << bits;
+		}
+		boolean bottomUp = height > 0;
+		height = Math.abs(height);
+		if (width <= 0 || height == 0) {
+			throw new IOException("Bad BMP size: " + width + "x" + height);
+		}
+		position = 14 + headerSize;
+		int entrySize = headerSize == 12 ? 3 : 4;
+		int[] palette = new int[256];
+		for (int i = 0; i < paletteSize && i < 256; i++) {
+			int p = position + i * entrySize;
+			int b = data[p] & 0xFF;
+			int g = data[p + 1] & 0xFF;
+			int r = data[p + 2] & 0xFF;
+			palette[i] = (i == 0 ? 0 : 0xFF000000) | r << 16 | g << 8 | b;
+		}
+
+		int[] pixels = new int[width * height];
+		int stride = (width * bits + 31) / 32 * 4;
+		int mask = (1 << bits) - 1;
+		for (int y = 0; y < height; y++) {
+			int row = dataOffset + (bottomUp ? height - 1 - y : y) * stride;
+			int dst = y * width;
+			for (int x = 0; x < width; x++) {
+				int bit = x * bits;
+				int index = (data[row + (bit >> 3)] & 0xFF) >> (8 - bits - (bit & 7)) & mask;
+				pixels[dst + x] = palette[index];
+			}
+		}
+		texture.width = width;
+		texture.height = height;
+		texture.pixels = pixels;
+	}
+
+	private int readUByte() {
+		return data[position++] & 0xFF;
+	}
+
+	private int readUShort() {
+		return readUByte() | readUByte() << 8;
+	}
+
+	private int readShort() {
+		return (short) readUShort();
+	}
+
+	private int readInt() {
+		return readUShort() | readUShort() << 16;
+	}
+
+	private int readBits(int count) {
+		while (bitCount < count) {
+			bitBuffer |= (data[position++] & 0xFF) << bitCount;
+			bitCount += 8;
+		}
+		int value = bitBuffer & ((1 << count) - 1);
+		bitBuffer >>>= count;
+		bitCount -= count;
+		return value;
+	}
+
+	private int readSignedBits(int count) {
+		int value = readBits(count);
+		return value << (32 - count) >> (32 - count);
+	}
+
+	/**
+	 * Drop the rest of the partially read byte.
+	 */
+	private void clearBits() {
+		bitBuffer = 0;
+		bitCount = 0;
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mascotcapsule.micro3d.v3;
+
+/**
+ * Geometry of a figure in flat arrays, as loaded from MBAC.
+ * Quads are split into triangles at load time.
+ */
+final class Model {
+	// triangle layout
+	static final int A = 0;
+	static final int B = 1;
+	static final int C = 2;
+	/** Texture coordinates u1, v1, u2, v2, u3, v3 */
+	static final int UV = 3;
+	/** PATTR_* flags */
+	static final int ATTR = 9;
+	/** Texture index, -1 for the colored polygons */
+	static final int TEXTURE = 10;
+	static final int COLOR = 11;
+	/** Pattern bits, 0 if the polygon is always drawn */
+	static final int PATTERN = 12;
+	static final int STRIDE = 13;
+
+	// bone layout: number of vertices, parent index, matrix
+	static final int BONE_VERTICES = 0;
+	static final int BONE_PARENT = 1;
+	static final int BONE_MATRIX = 2;
+	static final int BONE_STRIDE = 14;
+
+	int numVertices;
+	/** x, y, z of each vertex, grouped by bone */
+	int[] vertices;
+	/** Unit normals (4096) of each vertex or null */
+	int[] normals;
+
+	int numTriangles;
+	int[] triangles;
+
+	int numBones;
+	int[] bones;
+
+	int numPatterns;
+	int numTextures;
+}
@@ -0,0 +1,861 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mascotcapsule.micro3d.v3;
+
+import android.graphics.Bitmap;
+
+import java.util.Arrays;
+
+import javax.microedition.lcdui.Graphics;
+
+import static com.mascotcapsule.micro3d.v3.Graphics3D.*;
+
+/**
+ * Software renderer of the {@link Graphics3D}.
+ * <p>
+ * Primitives are transformed, lit and projected when they are submitted, the resulting
+ * screen space triangles are queued. {@link #flush()} reads the covered part of the target
+ * once, rasterizes the queue into it with a depth buffer and writes it back with a single upload.
+ * Camera space is x to the right, y down and z away from the viewer.
+ */
+final class Render {
+	private static final int SUBPIXEL_BITS = 4;
+	private static final int SUBPIXEL_HALF = 1 << (SUBPIXEL_BITS - 1);
+
+	// queued triangle layout
+	private static final int Q_XY = 0;
+	private static final int Q_Z = 6;
+	private static final int Q_UV = 9;
+	private static final int Q_LIGHT = 15;
+	private static final int Q_COLOR = 18;
+	private static final int Q_FLAGS = 19;
+	private static final int Q_TOON = 20;
+	private static final int Q_CLIP = 21;
+	private static final int Q_STRIDE = 25;
+
+	// flags besides PATTR_*
+	private static final int FLAG_LIT = 1 << 8;
+	private static final int FLAG_TOON = 1 << 9;
+	private static final int BLEND_MASK = PATTR_BLEND_SUB;
+
+	private static final int PROJECTION_SCALE = 0;
+	private static final int PROJECTION_PARALLEL_SIZE = 1;
+	private static final int PROJECTION_PERSPECTIVE_FOV = 2;
+	private static final int PROJECTION_PERSPECTIVE_WH = 3;
+
+	private static final int[] VERTICES_PER_PRIMITIVE = {0, 1, 2, 3, 4, 1};
+
+	private Graphics target;
+
+	private int[] queue = new int[Q_STRIDE * 64];
+	private Texture[] queueTextures = new Texture[64];
+	private int queueSize;
+	private int regionLeft;
+	private int regionTop;
+	private int regionRight;
+	private int regionBottom;
+	private int[] pixels = new int[0];
+	private int[] depth = new int[0];
+
+	// view
+	private AffineTrans[] transforms;
+	private final int[] transform = new int[12];
+	private int centerX;
+	private int centerY;
+	private int projection;
+	private float focalX;
+	private float focalY;
+	private int near;
+	private int far;
+	private int clipLeft;
+	private int clipTop;
+	private int clipRight;
+	private int clipBottom;
+
+	// effect
+	private int attributes;
+	private int ambient;
+	private int lightIntensity;
+	private int lightX;
+	private int lightY;
+	private int lightZ;
+	private int toon;
+
+	// projected vertices of the current primitive or figure
+	private int[] screen = new int[3 * 64];
+	private int[] lights = new int[64];
+	private boolean[] visible = new boolean[64];
+	private final int[] spriteUVs = new int[8];
+
+	void bind(Graphics graphics) {
+		target = graphics;
+		queueSize = 0;
+	}
+
+	void release() {
+		flush();
+		target = null;
+	}
+
+	/**
+	 * Select the projection and the transformation of the layout, the center is moved by x, y.
+	 */
+	void setLayout(FigureLayout layout, int x, int y) {
+		transforms = layout.myAffineArray;
+		setTransform(layout.getAffineTrans());
+		centerX = target.getTranslateX() + layout.getCenterX() + x;
+		centerY = target.getTranslateY() + layout.getCenterY() + y;
+		switch (layout.mySettingIndex) {
+			case PROJECTION_SCALE:
+				setParallelScale(layout.getScaleX(), layout.getScaleY());
+				break;
+			case PROJECTION_PARALLEL_SIZE:
+				setParallelSize(layout.getParallelWidth(), layout.getParallelHeight());
+				break;
+			case PROJECTION_PERSPECTIVE_FOV:
+				setPerspective(layout.myPersNear, layout.myPersFar, layout.myPersAngle);
+				break;
+			case PROJECTION_PERSPECTIVE_WH:
+				setPerspective(layout.myPersNear, layout.myPersFar,
+						layout.myPersWidth, layout.myPersHeight);
+				break;
+		}
+		clipLeft = target.getTranslateX() + target.getClipX();
+		clipTop = target.getTranslateY() + target.getClipY();
+		clipRight = clipLeft + target.getClipWidth();
+		clipBottom = clipTop + target.getClipHeight();
+	}
+
+	void setEffect(Effect3D effect) {
+		attributes = 0;
+		Light light = effect.getLight();
+		if (light != null) {
+			attributes |= ENV_ATTR_LIGHTING;
+			setAmbientLight(light.getAmbientIntensity());
+			Vector3D direction = light.getParallelLightDirection();
+			setDirectionLight(direction.x, direction.y, direction.z, light.getParallelLightIntensity());
+		}
+		if (effect.getShadingType() == Effect3D.TOON_SHADING) {
+			attributes |= ENV_ATTR_TOON_SHADING;
+		}
+		if (effect.isTransparency()) {
+			attributes |= ENV_ATTR_SEMI_TRANSPARENT;
+		}
+		setToonParams(effect.getToonThreshold(), effect.getToonHigh(), effect.getToonLow());
+	}
+
+	void setAttributes(int attributes) {
+		this.attributes = attributes;
+	}
+
+	void setTransform(AffineTrans trans) {
+		if (trans != null) {
+			trans.get(transform);
+		} else {
+			Action.setIdentity(transform, 0);
+		}
+	}
+
+	void selectTransform(int index) {
+		if (transforms == null || index < 0 || index >= transforms.length) {
+			throw new IllegalArgumentException();
+		}
+		setTransform(transforms[index]);
+	}
+
+	void setCenter(int x, int y) {
+		centerX = target.getTranslateX() + x;
+		centerY = target.getTranslateY() + y;
+	}
+
+	void setClip(int x1, int y1, int x2, int y2) {
+		int tx = target.getTranslateX();
+		int ty = target.getTranslateY();
+		int left = target.getClipX() + tx;
+		int top = target.getClipY() + ty;
+		clipLeft = Math.max(left, x1 + tx);
+		clipTop = Math.max(top, y1 + ty);
+		clipRight = Math.min(left + target.getClipWidth(), x2 + tx);
+		clipBottom = Math.min(top + target.getClipHeight(), y2 + ty);
+	}
+
+	void setParallelScale(int scaleX, int scaleY) {
+		projection = PROJECTION_SCALE;
+		focalX = scaleX / 4096f;
+		focalY = scaleY / 4096f;
+	}
+
+	void setParallelSize(int width, int height) {
+		projection = PROJECTION_PARALLEL_SIZE;
+		Bitmap bitmap = target.getBitmap();
+		focalX = width == 0 ? 0 : (float) bitmap.getWidth() / width;
+		focalY = height == 0 ? 0 : (float) bitmap.getHeight() / height;
+	}
+
+	void setPerspective(int near, int far, int angle) {
+		projection = PROJECTION_PERSPECTIVE_FOV;
+		this.near = near;
+		this.far = far;
+		double tan = Math.tan(angle * Math.PI / 4096);
+		focalX = focalY = tan <= 0 ? 0 : (float) (target.getBitmap().getWidth() / 2 / tan);
+	}
+
+	void setPerspective(int near, int far, int width, int height) {
+		projection = PROJECTION_PERSPECTIVE_WH;
+		this.near = near;
+		this.far = far;
+		Bitmap bitmap = target.getBitmap();
+		focalX = width == 0 ? 0 : (float) near * bitmap.getWidth() / width;
+		focalY = height == 0 ? 0 : (float) near * bitmap.getHeight() / height;
+	}
+
+	void setAmbientLight(int intensity) {
+		ambient = intensity;
+	}
+
+	void setDirectionLight(int x, int y, int z, int intensity) {
+		long length = (long) Math.sqrt((double) x * x + (double) y * y + (double) z * z);
+		if (length == 0) {
+			lightX = lightY = lightZ = 0;
+		} else {
+			lightX = (int) (((long) x << 12) / length);
+			lightY = (int) (((long) y << 12) / length);
+			lightZ = (int) (((long) z << 12) / length);
+		}
+		lightIntensity = intensity;
+	}
+
+	void setToonParams(int threshold, int high, int low) {
+		toon = threshold | high << 8 | low << 16;
+	}
+
+	/**
+	 * Queue the polygons of the figure in its current posture.
+	 */
+	void drawFigure(Figure figure, Texture texture, Texture[] textures) {
+		Model model = figure.model;
+		int count = model.numVertices;
+		ensureVertices(count);
+		boolean lit = (attributes & ENV_ATTR_LIGHTING) != 0 && figure.normals != null;
+		for (int i = 0; i < count; i++) {
+			projectVertex(i, figure.vertices, i * 3);
+			if (lit) {
+				lights[i] = light(figure.normals, i * 3);
+			}
+		}
+		int[] triangles = model.triangles;
+		int pattern = figure.pattern;
+		for (int i = 0, end = model.numTriangles * Model.STRIDE; i < end; i += Model.STRIDE) {
+			int p = triangles[i + Model.PATTERN];
+			if (p != 0 && (p & pattern) == 0) {
+				continue;
+			}
+			int index = triangles[i + Model.TEXTURE];
+			Texture t = null;
+			if (index >= 0) {
+				t = texture;
+				if (t == null && textures != null && index < textures.length) {
+					t = textures[index];
+				}
+				if (t == null) {
+					continue;
+				}
+			}
+			int flags = triangles[i + Model.ATTR];
+			if (!lit) {
+				flags &= ~PATTR_LIGHTING;
+			}
+			addTriangle(triangles[i + Model.A], triangles[i + Model.B], triangles[i + Model.C],
+					triangles, i + Model.UV, triangles[i + Model.COLOR], flags, t);
+		}
+	}
+
+	/**
+	 * Queue primitives with the data following the command in the command list.
+	 *
+	 * @return offset of the next command
+	 */
+	int drawPrimitives(Texture texture, int command, int[] list, int offset) {
+		int count = command >> 16 & 0xFF;
+		int vertexOffset = offset;
+		int normalOffset = vertexOffset + getVertexDataLength(command, count);
+		int textureOffset = normalOffset + getNormalDataLength(command, count);
+		int colorOffset = textureOffset + getTextureDataLength(command, count);
+		int end = colorOffset + getColorDataLength(command, count);
+		if (end > list.length) {
+			throw new IllegalArgumentException();
+		}
+		drawPrimitives(texture, command, count, list, vertexOffset, list, normalOffset,
+				list, textureOffset, list, colorOffset);
+		return end;
+	}
+
+	/**
+	 * Queue primitives, the data is read from the arrays at the offsets.
+	 */
+	void drawPrimitives(Texture texture, int command, int count,
+					   int[] vertices, int vertexOffset, int[] normals, int normalOffset,
+					   int[] textureCoords, int textureOffset, int[] colors, int colorOffset) {
+		int type = command >>> 24 & 0x7;
+		int numVertices = getVertexDataLength(command, count) / 3;
+		int vpp = VERTICES_PER_PRIMITIVE[type];
+		ensureVertices(numVertices + 4);
+		for (int i = 0; i < numVertices; i++) {
+			projectVertex(i, vertices, vertexOffset + i * 3);
+		}
+
+		boolean lit = (attributes & ENV_ATTR_LIGHTING) != 0 && (command & PATTR_LIGHTING) != 0;
+		int normalFormat = command & PDATA_NORMAL_PER_VERTEX;
+		if (normalFormat == PDATA_NORMAL_PER_FACE || normalFormat == PDATA_NORMAL_PER_VERTEX) {
+			boolean perVertex = normalFormat == PDATA_NORMAL_PER_VERTEX;
+			for (int i = 0; i < numVertices; i++) {
+				lights[i] = lit ? light(normals, normalOffset + (perVertex ? i : i / vpp) * 3) : 4096;
+			}
+		} else {
+			lit = false;
+		}
+
+		int colorFormat = command & (PDATA_COLOR_PER_COMMAND | PDATA_COLOR_PER_FACE);
+		boolean textured = type != (PRIMITVE_POINT_SPRITES >>> 24)
+				&& (command & PDATA_TEXURE_COORD) == PDATA_TEXURE_COORD;
+		int flags = command & (PATTR_COLORKEY | BLEND_MASK);
+		if (lit) {
+			flags |= PATTR_LIGHTING;
+		}
+		int uv = textureOffset;
+		for (int p = 0; p < count; p++) {
+			int color = 0;
+			if (colorFormat == PDATA_COLOR_PER_COMMAND) {
+				color = colors[colorOffset];
+			} else if (colorFormat == PDATA_COLOR_PER_FACE) {
+				color = colors[colorOffset + p];
+			}
+			int v = p * vpp;
+			switch (type) {
+				case 1: // points
+					addRectangle(v, numVertices, 0.5f, 0.5f, color, flags);
+					break;
+				case 2: // lines
+					addLine(v, v + 1, numVertices, color, flags);
+					break;
+				case 3: // triangles
+					if (textured) {
+						addTriangle(v, v + 1, v + 2, textureCoords, uv, 0, flags, texture);
+						uv += 6;
+					} else {
+						addTriangle(v, v + 1, v + 2, null, 0, color, flags, null);
+					}
+					break;
+				case 4: // quads
+					if (textured) {
+						addTriangle(v, v + 1, v + 2, textureCoords, uv, 0, flags, texture);
+						spriteUVs[0] = textureCoords[uv];
+						spriteUVs[1] = textureCoords[uv + 1];
+						spriteUVs[2] = textureCoords[uv + 4];
+						spriteUVs[3] = textureCoords[uv + 5];
+						spriteUVs[4] = textureCoords[uv + 6];
+						spriteUVs[5] = textureCoords[uv + 7];
+						addTriangle(v, v + 2, v + 3, spriteUVs, 0, 0, flags, texture);
+						uv += 8;
+					} else {
+						addTriangle(v, v + 1, v + 2, null, 0, color, flags, null);
+						addTriangle(v, v + 2, v + 3, null, 0, color, flags, null);
+					}
+					break;
+				case 5: // point sprites
+					int params = command & PDATA_POINT_SPRITE_PARAMS_PER_VERTEX;
+					int offset = params == PDATA_POINT_SPRITE_PARAMS_PER_CMD ? textureOffset
+							: textureOffset + p * 8;
+					if (params != 0 && texture != null) {
+						addSprite(v, numVertices, textureCoords, offset, flags, texture);
+					}
+					break;
+			}
+		}
+	}
+
+	static int getVertexDataLength(int command, int count) {
+		int type = command >>> 24 & 0x7;
+		if (type == 0 || type >= VERTICES_PER_PRIMITIVE.length) {
+			throw new IllegalArgumentException();
+		}
+		return count * VERTICES_PER_PRIMITIVE[type] * 3;
+	}
+
+	static int getNormalDataLength(int command, int count) {
+		switch (command & PDATA_NORMAL_PER_VERTEX) {
+			case PDATA_NORMAL_PER_FACE:
+				return count * 3;
+			case PDATA_NORMAL_PER_VERTEX:
+				return getVertexDataLength(command, count);
+			default:
+				return 0;
+		}
+	}
+
+	static int getTextureDataLength(int command, int count) {
+		switch (command & 0x7000000) {
+			case PRIMITVE_TRIANGLES:
+				return (command & PDATA_TEXURE_COORD) == PDATA_TEXURE_COORD ? count * 6 : 0;
+			case PRIMITVE_QUADS:
+				return (command & PDATA_TEXURE_COORD) == PDATA_TEXURE_COORD ? count * 8 : 0;
+			case PRIMITVE_POINT_SPRITES:
+				switch (command & PDATA_POINT_SPRITE_PARAMS_PER_VERTEX) {
+					case PDATA_POINT_SPRITE_PARAMS_PER_CMD:
+						return 8;
+					case 0:
+						return 0;
+					default:
+						return count * 8;
+				}
+			default:
+				return 0;
+		}
+	}
+
+	static int getColorDataLength(int command, int count) {
+		if ((command & 0x7000000) == PRIMITVE_POINT_SPRITES) {
+			return 0;
+		}
+		switch (command & (PDATA_COLOR_PER_COMMAND | PDATA_COLOR_PER_FACE)) {
+			case PDATA_COLOR_PER_COMMAND:
+				return 1;
+			case PDATA_COLOR_PER_FACE:
+				return count;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Rasterize the queued triangles into the target.
+	 */
+	void flush() {
+		if (queueSize == 0 || target == null) {
+			queueSize = 0;
+			return;
+		}
+		Bitmap bitmap = target.getBitmap();
+		int left = Math.max(regionLeft, 0);
+		int top = Math.max(regionTop, 0);
+		int right = Math.min(regionRight, bitmap.getWidth());
+		int bottom = Math.min(regionBottom, bitmap.getHeight());
+		int width = right - left;
+		int height = bottom - top;
+		if (width > 0 && height > 0) {
+			int size = width * height;
+			if (pixels.length < size) {
+				pixels = new int[size];
+				depth = new int[size];
+			}
+			bitmap.getPixels(pixels, 0, width, left, top, width, height);
+			Arrays.fill(depth, 0, size, Integer.MAX_VALUE);
+			for (int i = 0; i < queueSize; i++) {
+				rasterize(i, left, top, right, bottom, width);
+			}
+			bitmap.setPixels(pixels, 0, width, left, top, width, height);
+		}
+		Arrays.fill(queueTextures, 0, queueSize, null);
+		queueSize = 0;
+	}
+
+	private void ensureVertices(int count) {
+		if (lights.length < count) {
+			screen = new int[count * 3];
+			lights = new int[count];
+			visible = new boolean[count];
+		}
+	}
+
+	private void projectVertex(int index, int[] src, int offset) {
+		int[] m = transform;
+		long x = src[offset];
+		long y = src[offset + 1];
+		long z = src[offset + 2];
+		int cx = (int) (m[0] * x + m[1] * y + m[2] * z + 2048 >> 12) + m[3];
+		int cy = (int) (m[4] * x + m[5] * y + m[6] * z + 2048 >> 12) + m[7];
+		int cz = (int) (m[8] * x + m[9] * y + m[10] * z + 2048 >> 12) + m[11];
+		int i = index * 3;
+		float sx;
+		float sy;
+		if (projection >= PROJECTION_PERSPECTIVE_FOV) {
+			if (cz < near || cz > far) {
+				visible[index] = false;
+				return;
+			}
+			sx = cx * focalX / cz;
+			sy = cy * focalY / cz;
+		} else {
+			sx = cx * focalX;
+			sy = cy * focalY;
+		}
+		visible[index] = Math.abs(sx) < 8192 && Math.abs(sy) < 8192;
+		screen[i] = (int) ((centerX + sx) * (1 << SUBPIXEL_BITS));
+		screen[i + 1] = (int) ((centerY + sy) * (1 << SUBPIXEL_BITS));
+		screen[i + 2] = cz;
+	}
+
+	/**
+	 * @return brightness of the vertex with the normal, 4096 = 1.0
+	 */
+	private int light(int[] normals, int offset) {
+		int[] m = transform;
+		long x = normals[offset];
+		long y = normals[offset + 1];
+		long z = normals[offset + 2];
+		long nx = m[0] * x + m[1] * y + m[2] * z >> 12;
+		long ny = m[4] * x + m[5] * y + m[6] * z >> 12;
+		long nz = m[8] * x + m[9] * y + m[10] * z >> 12;
+		// the light shines along its direction, surfaces facing it are lit
+		long dot = -(nx * lightX + ny * lightY + nz * lightZ) >> 12;
+		long brightness = ambient + (dot > 0 ? dot * lightIntensity >> 12 : 0);
+		return (int) Math.max(0, Math.min(brightness, 8191));
+	}
+
+	private void addTriangle(int a, int b, int c, int[] uvs, int uvOffset, int color, int flags,
+							 Texture texture) {
+		if (!visible[a] || !visible[b] || !visible[c]) {
+			return;
+		}
+		int[] s = screen;
+		int x1 = s[a * 3], y1 = s[a * 3 + 1];
+		int x2 = s[b * 3], y2 = s[b * 3 + 1];
+		int x3 = s[c * 3], y3 = s[c * 3 + 1];
+		int left = Math.max(Math.min(x1, Math.min(x2, x3)) >> SUBPIXEL_BITS, clipLeft);
+		int top = Math.max(Math.min(y1, Math.min(y2, y3)) >> SUBPIXEL_BITS, clipTop);
+		int right = Math.min((Math.max(x1, Math.max(x2, x3)) >> SUBPIXEL_BITS) + 1, clipRight);
+		int bottom = Math.min((Math.max(y1, Math.max(y2, y3)) >> SUBPIXEL_BITS) + 1, clipBottom);
+		if (left >= right || top >= bottom) {
+			return;
+		}
+		if (queueSize == queueTextures.length) {
+			queue = Arrays.copyOf(queue, queueSize * 2 * Q_STRIDE);
+			queueTextures = Arrays.copyOf(queueTextures, queueSize * 2);
+		}
+		if (queueSize == 0) {
+			regionLeft = left;
+			regionTop = top;
+			regionRight = right;
+			regionBottom = bottom;
+		} else {
+			regionLeft = Math.min(regionLeft, left);
+			regionTop = Math.min(regionTop, top);
+			regionRight = Math.max(regionRight, right);
+			regionBottom = Math.max(regionBottom, bottom);
+		}
+		int[] q = queue;
+		int i = queueSize * Q_STRIDE;
+		q[i + Q_XY] = x1;
+		q[i + Q_XY + 1] = y1;
+		q[i + Q_XY + 2] = x2;
+		q[i + Q_XY + 3] = y2;
+		q[i + Q_XY + 4] = x3;
+		q[i + Q_XY + 5] = y3;
+		q[i + Q_Z] = s[a * 3 + 2];
+		q[i + Q_Z + 1] = s[b * 3 + 2];
+		q[i + Q_Z + 2] = s[c * 3 + 2];
+		if (texture != null) {
+			System.arraycopy(uvs, uvOffset, q, i + Q_UV, 6);
+		}
+		if ((flags & PATTR_LIGHTING) != 0) {
+			flags |= FLAG_LIT;
+			q[i + Q_LIGHT] = lights[a];
+			q[i + Q_LIGHT + 1] = lights[b];
+			q[i + Q_LIGHT + 2] = lights[c];
+			if ((attributes & ENV_ATTR_TOON_SHADING) != 0) {
+				flags |= FLAG_TOON;
+			}
+		}
+		if ((attributes & ENV_ATTR_SEMI_TRANSPARENT) == 0) {
+			flags &= ~BLEND_MASK;
+		}
+		q[i + Q_COLOR] = color | 0xFF000000;
+		q[i + Q_FLAGS] = flags;
+		q[i + Q_TOON] = toon;
+		q[i + Q_CLIP] = clipLeft;
+		q[i + Q_CLIP + 1] = clipTop;
+		q[i + Q_CLIP + 2] = clipRight;
+		q[i + Q_CLIP + 3] = clipBottom;
+		queueTextures[queueSize++] = texture;
+	}
+
+	/**
+	 * Queue a screen aligned rectangle around the vertex as two triangles,
+	 * the corners are placed to the free vertex slots starting from the base.
+	 */
+	private void addRectangle(int v, int base, float halfWidth, float halfHeight, int color, int flags) {
+		if (!visible[v]) {
+			return;
+		}
+		int hw = (int) (halfWidth * (1 << SUBPIXEL_BITS));
+		int hh = (int) (halfHeight * (1 << SUBPIXEL_BITS));
+		int x = screen[v * 3];
+		int y = screen[v * 3 + 1];
+		int z = screen[v * 3 + 2];
+		setCorner(base, x - hw, y - hh, z, lights[v]);
+		setCorner(base + 1, x + hw, y - hh, z, lights[v]);
+		setCorner(base + 2, x + hw, y + hh, z, lights[v]);
+		setCorner(base + 3, x - hw, y + hh, z, lights[v]);
+		addTriangle(base, base + 1, base + 2, null, 0, color, flags, null);
+		addTriangle(base, base + 2, base + 3, null, 0, color, flags, null);
+	}
+
+	private void addLine(int a, int b, int base, int color, int flags) {
+		if (!visible[a] || !visible[b]) {
+			return;
+		}
+		int x1 = screen[a * 3], y1 = screen[a * 3 + 1];
+		int x2 = screen[b * 3], y2 = screen[b * 3 + 1];
+		float dx = x2 - x1;
+		float dy = y2 - y1;
+		float length = (float) Math.sqrt(dx * dx + dy * dy);
+		if (length == 0) {
+			addRectangle(a, base, 0.5f, 0.5f, color, flags);
+			return;
+		}
+		// one pixel wide quad along the line
+		int nx = (int) (-dy / length * SUBPIXEL_HALF);
+		int ny = (int) (dx / length * SUBPIXEL_HALF);
+		setCorner(base, x1 + nx, y1 + ny, screen[a * 3 + 2], lights[a]);
+		setCorner(base + 1, x2 + nx, y2 + ny, screen[b * 3 + 2], lights[b]);
+		setCorner(base + 2, x2 - nx, y2 - ny, screen[b * 3 + 2], lights[b]);
+		setCorner(base + 3, x1 - nx, y1 - ny, screen[a * 3 + 2], lights[a]);
+		addTriangle(base, base + 1, base + 2, null, 0, color, flags, null);
+		addTriangle(base, base + 2, base + 3, null, 0, color, flags, null);
+	}
+
+	/**
+	 * Sprite parameters: width, height, angle, u0, v0, u1, v1, flags.
+	 * The rotation angle is not supported.
+	 */
+	private void addSprite(int v, int base, int[] params, int offset, int flags, Texture texture) {
+		if (!visible[v]) {
+			return;
+		}
+		float width = params[offset];
+		float height = params[offset + 1];
+		int mode = params[offset + 7];
+		if ((mode & POINT_SPRITE_PIXEL_SIZE) == 0) {
+			width *= focalX;
+			height *= focalY;
+			if ((mode & POINT_SPRITE_NO_PERS) == 0 && projection >= PROJECTION_PERSPECTIVE_FOV) {
+				width /= screen[v * 3 + 2];
+				height /= screen[v * 3 + 2];
+			}
+		}
+		int hw = (int) (width * SUBPIXEL_HALF);
+		int hh = (int) (height * SUBPIXEL_HALF);
+		int x = screen[v * 3];
+		int y = screen[v * 3 + 1];
+		int z = screen[v * 3 + 2];
+		setCorner(base, x - hw, y - hh, z, lights[v]);
+		setCorner(base + 1, x + hw, y - hh, z, lights[v]);
+		setCorner(base + 2, x + hw, y + hh, z, lights[v]);
+		setCorner(base + 3, x - hw, y + hh, z, lights[v]);
+		int u0 = params[offset + 3];
+		int v0 = params[offset + 4];
+		int u1 = params[offset + 5];
+		int v1 = params[offset + 6];
+		int[] uv = spriteUVs;
+		uv[0] = u0; uv[1] = v0;
+		uv[2] = u1; uv[3] = v0;
+		uv[4] = u1; uv[5] = v1;
+		addTriangle(base, base + 1, base + 2, uv, 0, 0, flags, texture);
+		uv[2] = u1; uv[3] = v1;
+		uv[4] = u0; uv[5] = v1;
+		addTriangle(base, base + 2, base + 3, uv, 0, 0, flags, texture);
+	}
+
+	private void setCorner(int index, int x, int y, int z, int light) {
+		screen[index * 3] = x;
+		screen[index * 3 + 1] = y;
+		screen[index * 3 + 2] = z;
+		lights[index] = light;
+		visible[index] = true;
+	}
+
+	private void rasterize(int triangle, int regionLeft, int regionTop, int regionRight,
+						   int regionBottom, int stride) {
+		int[] q = queue;
+		int t = triangle * Q_STRIDE;
+		int x1 = q[t], y1 = q[t + 1];
+		int x2 = q[t + 2], y2 = q[t + 3];
+		int x3 = q[t + 4], y3 = q[t + 5];
+		int v1 = 0, v2 = 1, v3 = 2;
+		long area = (long) (x2 - x1) * (y3 - y1) - (long) (x3 - x1) * (y2 - y1);
+		if (area == 0) {
+			return;
+		}
+		if (area < 0) {
+			// both windings are drawn
+			int tmp = x2; x2 = x3; x3 = tmp;
+			tmp = y2; y2 = y3; y3 = tmp;
+			v2 = 2;
+			v3 = 1;
+			area = -area;
+		}
+		int left = Math.max(Math.max(Math.min(x1, Math.min(x2, x3)) >> SUBPIXEL_BITS, q[t + Q_CLIP]), regionLeft);
+		int top = Math.max(Math.max(Math.min(y1, Math.min(y2, y3)) >> SUBPIXEL_BITS, q[t + Q_CLIP + 1]), regionTop);
+		int right = Math.min(Math.min(Math.max(x1, Math.max(x2, x3)) >> SUBPIXEL_BITS, q[t + Q_CLIP + 2] - 1), regionRight - 1);
+		int bottom = Math.min(Math.min(Math.max(y1, Math.max(y2, y3)) >> SUBPIXEL_BITS, q[t + Q_CLIP + 3] - 1), regionBottom - 1);
+		if (left > right || top > bottom) {
+			return;
+		}
+
+		// edge functions at the center of the first pixel
+		int px = (left << SUBPIXEL_BITS) + SUBPIXEL_HALF;
+		int py = (top << SUBPIXEL_BITS) + SUBPIXEL_HALF;
+		long e1Row = (long) (x3 - x2) * (py - y2) - (long) (y3 - y2) * (px - x2);
+		long e2Row = (long) (x1 - x3) * (py - y3) - (long) (y1 - y3) * (px - x3);
+		long e3Row = (long) (x2 - x1) * (py - y1) - (long) (y2 - y1) * (px - x1);
+		long e1dx = -(long) (y3 - y2) << SUBPIXEL_BITS, e1dy = (long) (x3 - x2) << SUBPIXEL_BITS;
+		long e2dx = -(long) (y1 - y3) << SUBPIXEL_BITS, e2dy = (long) (x1 - x3) << SUBPIXEL_BITS;
+		long e3dx = -(long) (y2 - y1) << SUBPIXEL_BITS, e3dy = (long) (x2 - x1) << SUBPIXEL_BITS;
+
+		// attribute gradients per pixel in 16.16 fixed point
+		float scale = (float) (1 << SUBPIXEL_BITS) / area;
+		float ax = (y2 - y3) * scale, bx = (y3 - y1) * scale, cx = (y1 - y2) * scale;
+		float ay = (x3 - x2) * scale, by = (x1 - x3) * scale, cy = (x2 - x1) * scale;
+		// barycentric weights of the first pixel
+		float w1 = e1Row / (float) area;
+		float w2 = e2Row / (float) area;
+		float w3 = 1 - w1 - w2;
+
+		float za = q[t + Q_Z + v1], zb = q[t + Q_Z + v2], zc = q[t + Q_Z + v3];
+		int zRow = (int) ((za * w1 + zb * w2 + zc * w3) * 256);
+		int zdx = (int) ((za * ax + zb * bx + zc * cx) * 256);
+		int zdy = (int) ((za * ay + zb * by + zc * cy) * 256);
+
+		int flags = q[t + Q_FLAGS];
+		boolean lit = (flags & FLAG_LIT) != 0;
+		int lRow = 0, ldx = 0, ldy = 0;
+		if (lit) {
+			float la = q[t + Q_LIGHT + v1], lb = q[t + Q_LIGHT + v2], lc = q[t + Q_LIGHT + v3];
+			lRow = (int) ((la * w1 + lb * w2 + lc * w3) * 65536);
+			ldx = (int) ((la * ax + lb * bx + lc * cx) * 65536);
+			ldy = (int) ((la * ay + lb * by + lc * cy) * 65536);
+		}
+		Texture texture = queueTextures[triangle];
+		int uRow = 0, udx = 0, udy = 0, vRow = 0, vdx = 0, vdy = 0;
+		int[] texels = null;
+		int texWidth = 0, texHeight = 0;
+		if (texture != null) {
+			texels = texture.pixels;
+			texWidth = texture.width;
+			texHeight = texture.height;
+			int uv = t + Q_UV;
+			float ua = q[uv + v1 * 2], ub = q[uv + v2 * 2], uc = q[uv + v3 * 2];
+			float va = q[uv + v1 * 2 + 1], vb = q[uv + v2 * 2 + 1], vc = q[uv + v3 * 2 + 1];
+			uRow = (int) ((ua * w1 + ub * w2 + uc * w3) * 65536);
+			udx = (int) ((ua * ax + ub * bx + uc * cx) * 65536);
+			udy = (int) ((ua * ay + ub * by + uc * cy) * 65536);
+			vRow = (int) ((va * w1 + vb * w2 + vc * w3) * 65536);
+			vdx = (int) ((va * ax + vb * bx + vc * cx) * 65536);
+			vdy = (int) ((va * ay + vb * by + vc * cy) * 65536);
+		}
+
+		int color = q[t + Q_COLOR];
+		int blend = flags & BLEND_MASK;
+		boolean colorKey = (flags & PATTR_COLORKEY) != 0;
+		boolean toonShading = (flags & FLAG_TOON) != 0;
+		int toonParams = q[t + Q_TOON];
+		int threshold = toonParams & 0xFF;
+		int high = (toonParams >> 8 & 0xFF) << 4;
+		int low = (toonParams >> 16 & 0xFF) << 4;
+		int[] pixels = this.pixels;
+		int[] depth = this.depth;
+
+		for (int y = top; y <= bottom; y++) {
+			long e1 = e1Row, e2 = e2Row, e3 = e3Row;
+			int z = zRow, l = lRow, u = uRow, v = vRow;
+			int i = (y - regionTop) * stride + left - regionLeft;
+			for (int x = left; x <= right; x++, i++) {
+				if ((e1 | e2 | e3) >= 0 && z <= depth[i]) {
+					// opaque colors have the alpha set, zero is a skipped texel
+					int c = color | 0xFF000000;
+					if (texels != null) {
+						int tu = Math.max(0, Math.min(u >> 16, texWidth - 1));
+						int tv = Math.max(0, Math.min(v >> 16, texHeight - 1));
+						c = texels[tv * texWidth + tu];
+						// palette index 0 is transparent only with the color key
+						c = colorKey && c >>> 24 == 0 ? 0 : c | 0xFF000000;
+					}
+					if (c != 0) {
+						if (lit) {
+							int brightness = l >> 16;
+							if (toonShading) {
+								brightness = brightness >> 4 < threshold ? low : high;
+							}
+							c = shade(c, brightness);
+						}
+						int dst = pixels[i];
+						switch (blend) {
+							case PATTR_BLEND_NORMAL:
+								depth[i] = z;
+								break;
+							case PATTR_BLEND_HALF:
+								c = (c & 0xFEFEFE) + (dst & 0xFEFEFE) >> 1;
+								break;
+							case PATTR_BLEND_ADD:
+								c = add(dst, c);
+								break;
+							case PATTR_BLEND_SUB:
+								c = subtract(dst, c);
+								break;
+						}
+						pixels[i] = c | 0xFF000000;
+					}
+				}
+				e1 += e1dx;
+				e2 += e2dx;
+				e3 += e3dx;
+				z += zdx;
+				l += ldx;
+				u += udx;
+				v += vdx;
+			}
+			e1Row += e1dy;
+			e2Row += e2dy;
+			e3Row += e3dy;
+			zRow += zdy;
+			lRow += ldy;
+			uRow += udy;
+			vRow += vdy;
+		}
+	}
+
+	private static int shade(int color, int brightness) {
+		int r = Math.min(255, (color >> 16 & 0xFF) * brightness >> 12);
+		int g = Math.min(255, (color >> 8 & 0xFF) * brightness >> 12);
+		int b = Math.min(255, (color & 0xFF) * brightness >> 12);
+		return r << 16 | g << 8 | b;
+	}
+
+	private static int add(int dst, int src) {
+		int r = Math.min(255, (dst >> 16 & 0xFF) + (src >> 16 & 0xFF));
+		int g = Math.min(255, (dst >> 8 & 0xFF) + (src >> 8 & 0xFF));
+		int b = Math.min(255, (dst & 0xFF) + (src & 0xFF));
+		return r << 16 | g << 8 | b;
+	}
+
+	private static int subtract(int dst, int src) {
+		int r = Math.max(0, (dst >> 16 & 0xFF) - (src >> 16 & 0xFF));
+		int g = Math.max(0, (dst >> 8 & 0xFF) - (src >> 8 & 0xFF));
+		int b = Math.max(0, (dst & 0xFF) - (src & 0xFF));
+		return r << 16 | g << 8 | b;
+	}
+}
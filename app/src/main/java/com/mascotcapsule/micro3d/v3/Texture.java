@@ -17,17 +17,23 @@
 package com.mascotcapsule.micro3d.v3;
 
 import java.io.IOException;
-import java.io.InputStream;
-
-import javax.microedition.util.ContextHolder;
 
 public class Texture {
 	protected boolean isModel;
+	int width;
+	int height;
+	/** ARGB pixels, the color key has zero alpha */
+	int[] pixels;
 
 	public Texture(byte[] b, boolean isForModel) {
 		if (b == null) {
 			throw new RuntimeException();
 		}
+		try {
+			Loader.loadBmp(b, this);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
 		this.isModel = isForModel;
 	}
 
@@ -35,10 +41,7 @@ public class Texture {
 		if (name == null) {
 			throw new NullPointerException();
 		}
-		InputStream is = ContextHolder.getResourceAsStream(null, name);
-		if (is == null) {
-			throw new IOException();
-		}
+		Loader.loadBmp(Loader.readResource(name), this);
 		this.isModel = isForModel;
 	}
 
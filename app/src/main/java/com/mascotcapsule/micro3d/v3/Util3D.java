@@ -17,15 +17,33 @@
 package com.mascotcapsule.micro3d.v3;
 
 public class Util3D {
+	/** Quarter of the sine wave, angles are 4096 per turn, values are 4096 = 1.0 */
+	private static final int[] SIN = new int[1025];
+
+	static {
+		for (int i = 0; i <= 1024; i++) {
+			SIN[i] = (int) Math.round(Math.sin(i * Math.PI / 2048) * 4096);
+		}
+	}
+
 	public static int sqrt(int p) {
 		return (int) Math.sqrt(p);
 	}
 
 	public static int sin(int p) {
-		return (int) Math.sin(p);
+		p &= 4095;
+		if (p < 1024) {
+			return SIN[p];
+		} else if (p < 2048) {
+			return SIN[2048 - p];
+		} else if (p < 3072) {
+			return -SIN[p - 2048];
+		} else {
+			return -SIN[4096 - p];
+		}
 	}
 
 	public static int cos(int p) {
-		return (int) Math.cos(p);
+		return sin(p + 1024);
 	}
 }
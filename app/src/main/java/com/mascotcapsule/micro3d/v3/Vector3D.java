@@ -38,6 +38,13 @@ public class Vector3D {
 	}
 
 	public final void unit() {
+		long length = (long) Math.sqrt((double) x * x + (double) y * y + (double) z * z);
+		if (length == 0) {
+			return;
+		}
+		x = (int) (((long) x << 12) / length);
+		y = (int) (((long) y << 12) / length);
+		z = (int) (((long) z << 12) / length);
 	}
 
 	public final int getX() {
@@ -83,18 +90,22 @@ public class Vector3D {
 		if (v == null) {
 			throw new NullPointerException();
 		}
-		return 0;
+		return x * v.x + y * v.y + z * v.z;
 	}
 
 	public final void outerProduct(Vector3D v) {
 		if (v == null) {
 			throw new NullPointerException();
 		}
+		int x = this.y * v.z - this.z * v.y;
+		int y = this.z * v.x - this.x * v.z;
+		int z = this.x * v.y - this.y * v.x;
+		set(x, y, z);
 	}
 
 	public static int innerProduct(Vector3D v1, Vector3D v2) {
 		if (v1 != null && v2 != null) {
-			return 0;
+			return v1.innerProduct(v2);
 		}
 		throw new NullPointerException();
 	}
@@ -103,7 +114,8 @@ public class Vector3D {
 		if (v1 == null || v2 == null) {
 			throw new NullPointerException();
 		}
-		Vector3D r = new Vector3D();
+		Vector3D r = new Vector3D(v1);
+		r.outerProduct(v2);
 		return r;
 	}
 }
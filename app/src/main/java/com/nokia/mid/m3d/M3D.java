@@ -16,25 +16,37 @@
 
 package com.nokia.mid.m3d;
 
+import java.util.Arrays;
+
 import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.Image;
 
+/**
+ * Software implementation of the Nokia 3D API.
+ * <p>
+ * Matrices and vertices are in 16.16 fixed point. Triangles are clipped by the near plane,
+ * projected and queued to the {@link Rasterizer}, which draws them into the frame buffer
+ * on {@link #blit}. The frame buffer is uploaded to the image once per blit.
+ */
 public class M3D {
-	private double[] matrix = new double[16];
+	private static final int ONE = 1 << 16;
+	private static final int DEPTH_CLEAR = -128 << 16;
 
-	private double[] stack = new double[16];
+	private int[] matrix = new int[16];
 
-	private double[] tempm = new double[16];
+	private int[] stack = new int[16];
 
-	private double[] tempr = new double[16];
+	private int[] tempm = new int[16];
 
-	private double[] tempt = new double[16];
+	private int[] tempr = new int[16];
 
-	private double[] temps = new double[16];
+	private int[] tempt = new int[16];
 
-	private double[] rotm = new double[16];
+	private int[] temps = new int[16];
 
-	private double[] projm = new double[16];
+	private int[] rotm = new int[16];
+
+	private int[] projm = new int[16];
 
 	private int width;
 
@@ -44,21 +56,20 @@ public class M3D {
 
 	private boolean boundTexture = false;
 
-	private double[] verts = new double[256];
-	private double[] UVs = new double[256];
-	private double[] faces = new double[384];
-	private double[] faceUVs = new double[384];
-	private int[] debugColors = new int[384];
-	private int debugColor = 0xFF0000;
+	private int[] verts = new int[96];
+	private int[] eyeVerts = new int[96];
+	private int[] UVs = new int[64];
+	private int[] faces = new int[192];
+	private int[] faceUVs = new int[128];
 	private int vertCount;
 	private int faceCount;
 
 	private Image platformImage;
-	private Graphics gc;
+	private Rasterizer rasterizer;
+	private boolean changed;
 
-	private double[] zbuffer;
-	private double near;
-	private double far;
+	private int near;
+	private int far;
 
 	private int color = 0xFF000000;
 	private int clearcolor = 0xFFFFFFFF;
@@ -73,8 +84,7 @@ public class M3D {
 		width = displayWidth;
 		height = displayHeight;
 		platformImage = Image.createImage(width, height);
-		gc = platformImage.getGraphics();
-		zbuffer = new double[width * height];
+		rasterizer = new Rasterizer(width, height);
 		clear(0);
 	}
 
@@ -89,14 +99,10 @@ public class M3D {
 
 	public void clear(int mask) // GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT (16640)
 	{
-		gc.setColor(clearcolor);
-		gc.fillRect(0, 0, width, height);
-		gc.setColor(color);
+		rasterizer.clear(clearcolor, DEPTH_CLEAR);
+		changed = true;
 		identity(matrix);
 		identity(stack);
-		for (int i = 0; i < zbuffer.length; i++) {
-			zbuffer[i] = -128;
-		}
 		boundTexture = false;
 	}
 
@@ -109,41 +115,29 @@ public class M3D {
 
 	public void frustumxi(int left, int right, int top, int bottom, int nearclip, int farclip) //-3,3, -2,2, 3,1000
 	{
-		double r = right / 65536.0;
-		double l = left / 65536.0;
-		double t = top / 65536.0;
-		double b = bottom / 65536.0;
-
-		double n = nearclip / 65536.0;
-		double f = farclip / 65536.0;
-
-		near = -n;
-		far = -f;
-		projection(projm, r - l, t - b, n, f);
+		near = -nearclip;
+		far = -farclip;
+		if (right == left || top == bottom || farclip == nearclip) {
+			return;
+		}
+		projection(projm, right - left, top - bottom, nearclip, farclip);
 	}
 
 	public void scalexi(int X, int Y, int Z) {
-		double x = (X / 65536.0);
-		double y = (Y / 65536.0);
-		double z = (Z / 65536.0);
-
-		temps[0]  = x; temps[1]  = 0; temps[2]  = 0; temps[3]  = 0;
-		temps[4]  = 0; temps[5]  = y; temps[6]  = 0; temps[7]  = 0;
-		temps[8]  = 0; temps[9]  = 0; temps[10] = z; temps[11] = 0;
-		temps[12] = 0; temps[13] = 0; temps[14] = 0; temps[15] = 1;
+		temps[0]  = X; temps[1]  = 0; temps[2]  = 0; temps[3]  = 0;
+		temps[4]  = 0; temps[5]  = Y; temps[6]  = 0; temps[7]  = 0;
+		temps[8]  = 0; temps[9]  = 0; temps[10] = Z; temps[11] = 0;
+		temps[12] = 0; temps[13] = 0; temps[14] = 0; temps[15] = ONE;
 
 		matmul(temps, matrix);
 		clone(matrix, temps);
 	}
 
 	public void translatexi(int X, int Y, int Z) {
-		double x = (X / 65536.0);
-		double y = (Y / 65536.0);
-		double z = (Z / 65536.0);
-		tempt[0]  = 1; tempt[1]  = 0; tempt[2]  = 0; tempt[3]  = 0;
-		tempt[4]  = 0; tempt[5]  = 1; tempt[6]  = 0; tempt[7]  = 0;
-		tempt[8]  = 0; tempt[9]  = 0; tempt[10] = 1; tempt[11] = 0;
-		tempt[12] = x; tempt[13] = y; tempt[14] = z; tempt[15] = 1;
+		tempt[0]  = ONE; tempt[1]  = 0;   tempt[2]  = 0;   tempt[3]  = 0;
+		tempt[4]  = 0;   tempt[5]  = ONE; tempt[6]  = 0;   tempt[7]  = 0;
+		tempt[8]  = 0;   tempt[9]  = 0;   tempt[10] = ONE; tempt[11] = 0;
+		tempt[12] = X;   tempt[13] = Y;   tempt[14] = Z;   tempt[15] = ONE;
 
 		matmul(tempt, matrix);
 		clone(matrix, tempt);
@@ -151,32 +145,34 @@ public class M3D {
 
 	public void rotatexi(int Angle, int X, int Y, int Z) {
 		double a = (Angle / 65536.0) * 0.0174533;
+		int cos = (int) (Math.cos(a) * ONE);
+		int sin = (int) (Math.sin(a) * ONE);
 
 		// (X, Y, Z) define an axis for rotation
 		// But game uses only X, Y or Z axis
 		// Following code is enough for game to run without issues
 		if (X != 0) {
 			// rotate on x
-			tempr[0]  =  1; tempr[1]  =  0;            tempr[2]  =  0;           tempr[3]  =  0;
-			tempr[4]  =  0; tempr[5]  =  Math.cos(a);  tempr[6]  =  Math.sin(a); tempr[7]  =  0;
-			tempr[8]  =  0; tempr[9]  = -Math.sin(a);  tempr[10] =  Math.cos(a); tempr[11] =  0;
-			tempr[12] =  0; tempr[13] =  0;            tempr[14] =  0;           tempr[15] =  1;
+			tempr[0]  = ONE; tempr[1]  =  0;    tempr[2]  =  0;   tempr[3]  =  0;
+			tempr[4]  =  0;  tempr[5]  =  cos;  tempr[6]  =  sin; tempr[7]  =  0;
+			tempr[8]  =  0;  tempr[9]  = -sin;  tempr[10] =  cos; tempr[11] =  0;
+			tempr[12] =  0;  tempr[13] =  0;    tempr[14] =  0;   tempr[15] = ONE;
 			clone(rotm, tempr);
 		}
 		if (Y != 0) {
 			// rotate on y
-			tempr[0]  =  Math.cos(a); tempr[1]  =  0; tempr[2]  = -Math.sin(a); tempr[3]  =  0;
-			tempr[4]  =  0;           tempr[5]  =  1; tempr[6]  =  0;           tempr[7]  =  0;
-			tempr[8]  =  Math.sin(a); tempr[9]  =  0; tempr[10] =  Math.cos(a); tempr[11] =  0;
-			tempr[12] =  0;           tempr[13] =  0; tempr[14] =  0;           tempr[15] =  1;
+			tempr[0]  =  cos; tempr[1]  =  0;   tempr[2]  = -sin; tempr[3]  =  0;
+			tempr[4]  =  0;   tempr[5]  = ONE;  tempr[6]  =  0;   tempr[7]  =  0;
+			tempr[8]  =  sin; tempr[9]  =  0;   tempr[10] =  cos; tempr[11] =  0;
+			tempr[12] =  0;   tempr[13] =  0;   tempr[14] =  0;   tempr[15] = ONE;
 			clone(rotm, tempr);
 		}
 		if (Z != 0) {
 			// rotate on z
-			tempr[0]  =  Math.cos(a); tempr[1]  =  Math.sin(a); tempr[2]  =  0; tempr[3]  =  0;
-			tempr[4]  = -Math.sin(a); tempr[5]  =  Math.cos(a); tempr[6]  =  0; tempr[7]  =  0;
-			tempr[8]  =  0;           tempr[9]  =  0;           tempr[10] =  1; tempr[11] =  0;
-			tempr[12] =  0;           tempr[13] =  0;           tempr[14] =  0; tempr[15] =  1;
+			tempr[0]  =  cos; tempr[1]  =  sin; tempr[2]  =  0;   tempr[3]  =  0;
+			tempr[4]  = -sin; tempr[5]  =  cos; tempr[6]  =  0;   tempr[7]  =  0;
+			tempr[8]  =  0;   tempr[9]  =  0;   tempr[10] = ONE;  tempr[11] =  0;
+			tempr[12] =  0;   tempr[13] =  0;   tempr[14] =  0;   tempr[15] = ONE;
 			clone(rotm, tempr);
 		}
 
@@ -202,16 +198,17 @@ public class M3D {
 	}
 
 	public void vertexPointerub(int a, int b, byte[] vertices) {
-		for (int i = 0; i < vertices.length; i += 3) {
+		if (verts.length < vertices.length) {
+			verts = new int[vertices.length];
+			eyeVerts = new int[vertices.length];
+		}
+		for (int i = 0; i < vertices.length; i++) {
 			verts[i] = vertices[i];
-			verts[i + 1] = vertices[i + 1];
-			verts[i + 2] = vertices[i + 2];
 		}
 		vertCount = vertices.length;
 	}
 
-	private void addFaces(double x1, double y1, double z1, double x2, double y2, double z2, double x3, double y3, double z3, double u1, double v1, double u2, double v2, double u3, double v3) {
-		debugColor = color;
+	private void addFaces(int x1, int y1, int z1, int x2, int y2, int z2, int x3, int y3, int z3, int u1, int v1, int u2, int v2, int u3, int v3) {
 		// add faces -- split triangles that intersect near plane
 		if (z1 <= near && z2 <= near && z3 <= near) {
 			addFace(x1, y1, z1, x2, y2, z2, x3, y3, z3, u1, v1, u2, v2, u3, v3);
@@ -242,52 +239,43 @@ public class M3D {
 		}
 		if (z1 <= near && z2 > near && z3 > near) {
 			addFace1(x1, y1, z1, x2, y2, z2, x3, y3, z3, u1, v1, u2, v2, u3, v3);
-			return;
 		}
 	}
 
-	private void addFace2(double x1, double y1, double z1, double x2, double y2, double z2, double x3, double y3, double z3, double u1, double v1, double u2, double v2, double u3, double v3) {
-		double dx, dy, dz, x4, y4, z4, x5, y5, z5;
+	private void addFace2(int x1, int y1, int z1, int x2, int y2, int z2, int x3, int y3, int z3, int u1, int v1, int u2, int v2, int u3, int v3) {
 		// point3 is behind the near plane, create and add two new faces
-		dx = x3 - x1;
-		dy = y3 - y1;
-		dz = z1 - z3;
-		x4 = x1 + (dx / dz) * (z1 - near);
-		y4 = y1 + (dy / dz) * (z1 - near);
-		z4 = near;
-
-		dx = x3 - x2;
-		dy = y3 - y2;
-		dz = z2 - z3;
-		x5 = x2 + (dx / dz) * (z2 - near);
-		y5 = y2 + (dy / dz) * (z2 - near);
-		z5 = near;
-
-		addFace(x1, y1, z1, x2, y2, z2, x5, y5, z5, u1, v1, u2, v2, u3, v3);
-		addFace(x1, y1, z1, x5, y5, z5, x4, y4, z4, u1, v1, u2, v2, u3, v3);
-	}
-
-	private void addFace1(double x1, double y1, double z1, double x2, double y2, double z2, double x3, double y3, double z3, double u1, double v1, double u2, double v2, double u3, double v3) {
-		double dx, dy, dz;
+		int x4 = clip(x1, x3, z1, z3);
+		int y4 = clip(y1, y3, z1, z3);
+		int x5 = clip(x2, x3, z2, z3);
+		int y5 = clip(y2, y3, z2, z3);
+
+		addFace(x1, y1, z1, x2, y2, z2, x5, y5, near, u1, v1, u2, v2, u3, v3);
+		addFace(x1, y1, z1, x5, y5, near, x4, y4, near, u1, v1, u2, v2, u3, v3);
+	}
+
+	private void addFace1(int x1, int y1, int z1, int x2, int y2, int z2, int x3, int y3, int z3, int u1, int v1, int u2, int v2, int u3, int v3) {
 		// points 2 and 3 are behind the near plane, clip and add the new face
-		dx = x2 - x1;
-		dy = y2 - y1;
-		dz = z1 - z2;
-		x2 = x1 + (dx / dz) * (z1 - near);
-		y2 = y1 + (dy / dz) * (z1 - near);
-		z2 = near;
+		x2 = clip(x1, x2, z1, z2);
+		y2 = clip(y1, y2, z1, z2);
+		x3 = clip(x1, x3, z1, z3);
+		y3 = clip(y1, y3, z1, z3);
 
-		dx = x3 - x1;
-		dy = y3 - y1;
-		dz = z1 - z3;
-		x3 = x1 + (dx / dz) * (z1 - near);
-		y3 = y1 + (dy / dz) * (z1 - near);
-		z3 = near;
+		addFace(x1, y1, z1, x2, y2, near, x3, y3, near, u1, v1, u2, v2, u3, v3);
+	}
 
-		addFace(x1, y1, z1, x2, y2, z2, x3, y3, z3, u1, v1, u2, v2, u3, v3);
+	/**
+	 * @return coordinate of the intersection of the edge with the near plane,
+	 * point 1 is in front of the plane, point 2 is behind it
+	 */
+	private int clip(int c1, int c2, int z1, int z2) {
+		return (int) (c1 + (long) (c2 - c1) * (z1 - near) / (z1 - z2));
 	}
 
-	private void addFace(double x1, double y1, double z1, double x2, double y2, double z2, double x3, double y3, double z3, double u1, double v1, double u2, double v2, double u3, double v3) {
+	private void addFace(int x1, int y1, int z1, int x2, int y2, int z2, int x3, int y3, int z3, int u1, int v1, int u2, int v2, int u3, int v3) {
+		if (faces.length < (faceCount + 3) * 3) {
+			faces = Arrays.copyOf(faces, faces.length * 2);
+			faceUVs = Arrays.copyOf(faceUVs, faceUVs.length * 2);
+		}
 		faces[faceCount * 3] = x1;
 		faces[faceCount * 3 + 1] = y1;
 		faces[faceCount * 3 + 2] = z1;
@@ -311,111 +299,79 @@ public class M3D {
 	}
 
 	public void drawElementsub(int A, int B, byte[] facelist) {
-		byte a, b;
-		double x1, y1, z1, x2, y2, z2, x3, y3, z3, w1;
-		double u1, v1, u2, v2, u3, v3;
-
-		double x, y, z, w;
-		double ox = width / 2;
-		double oy = height / 2;
-
-		u1 = v1 = u2 = v2 = u3 = v3 = 0;
-
-		gc.setColor(color);
+		int i1, i2, i3;
+		int ox = width / 2;
+		int oy = height / 2;
 
 		applyMatrix(matrix);
 
 		// clip //
 		faceCount = 0;
+		int[] v = eyeVerts;
 		for (int i = 0; i < facelist.length; i += 3) {
-			x1 = verts[(facelist[i] * 3)];
-			y1 = verts[(facelist[i] * 3) + 1];
-			z1 = verts[(facelist[i] * 3) + 2];
-
-			x2 = verts[(facelist[i + 1] * 3)];
-			y2 = verts[(facelist[i + 1] * 3) + 1];
-			z2 = verts[(facelist[i + 1] * 3) + 2];
-
-			x3 = verts[(facelist[i + 2] * 3)];
-			y3 = verts[(facelist[i + 2] * 3) + 1];
-			z3 = verts[(facelist[i + 2] * 3) + 2];
-
-			if (z1 > near && z2 > near && z3 > near) {
+			i1 = facelist[i] & 0xFF;
+			i2 = facelist[i + 1] & 0xFF;
+			i3 = facelist[i + 2] & 0xFF;
+			if (v[i1 * 3 + 2] > near && v[i2 * 3 + 2] > near && v[i3 * 3 + 2] > near) {
 				continue;
 			} // drop face
 
-			u1 = UVs[facelist[i] * 2];
-			v1 = UVs[facelist[i] * 2 + 1];
-
-			u2 = UVs[facelist[i + 1] * 2];
-			v2 = UVs[facelist[i + 1] * 2 + 1];
-
-			u3 = UVs[facelist[i + 2] * 2];
-			v3 = UVs[facelist[i + 2] * 2 + 1];
-
-			addFaces(x1, y1, z1, x2, y2, z2, x3, y3, z3, u1, v1, u2, v2, u3, v3);
+			addFaces(v[i1 * 3], v[i1 * 3 + 1], v[i1 * 3 + 2],
+					v[i2 * 3], v[i2 * 3 + 1], v[i2 * 3 + 2],
+					v[i3 * 3], v[i3 * 3 + 1], v[i3 * 3 + 2],
+					uv(i1 * 2), uv(i1 * 2 + 1), uv(i2 * 2), uv(i2 * 2 + 1), uv(i3 * 2), uv(i3 * 2 + 1));
 		}
 
-		// projection
+		// projection, scale and center on screen
+		int[] p = projm;
 		for (int i = 0; i < faceCount; i++) {
-			x = faces[i * 3];
-			y = faces[i * 3 + 1];
-			z = faces[i * 3 + 2];
-			w = 1;
-
-			x1 = x * projm[0] + y * projm[4] + z * projm[8] + projm[12];
-			y1 = x * projm[1] + y * projm[5] + z * projm[9] + projm[13];
-			z1 = x * projm[2] + y * projm[6] + z * projm[10] + projm[14];
-			w1 = x * projm[3] + y * projm[7] + z * projm[11] + projm[15];
-
-			if (w1 != 1) {
-				faces[i * 3] = (x1 / w1);
-				faces[i * 3 + 1] = (y1 / w1);
+			long x = faces[i * 3];
+			long y = faces[i * 3 + 1];
+			long z = faces[i * 3 + 2];
+
+			long x1 = (x * p[0] + y * p[4] + z * p[8]) / ONE + p[12];
+			long y1 = (x * p[1] + y * p[5] + z * p[9]) / ONE + p[13];
+			long w1 = (x * p[3] + y * p[7] + z * p[11]) / ONE + p[15];
+			if (w1 <= 0) {
+				w1 = 1;
 			}
+
+			faces[i * 3] = toScreen(x1, w1, ox);
+			faces[i * 3 + 1] = toScreen(y1, w1, oy);
 		}
 
 		// draw elements
 		for (int i = 0; i < faceCount; i += 3) {
-			x1 = faces[i * 3];
-			y1 = faces[i * 3 + 1];
-			z1 = faces[i * 3 + 2];
-
-			x2 = faces[i * 3 + 3];
-			y2 = faces[i * 3 + 4];
-			z2 = faces[i * 3 + 5];
-
-			x3 = faces[i * 3 + 6];
-			y3 = faces[i * 3 + 7];
-			z3 = faces[i * 3 + 8];
+			int x1 = faces[i * 3];
+			int y1 = faces[i * 3 + 1];
+			int x2 = faces[i * 3 + 3];
+			int y2 = faces[i * 3 + 4];
+			int x3 = faces[i * 3 + 6];
+			int y3 = faces[i * 3 + 7];
 
-			u1 = faceUVs[i * 2];
-			v1 = faceUVs[i * 2 + 1];
-
-			u2 = faceUVs[i * 2 + 2];
-			v2 = faceUVs[i * 2 + 3];
-
-			u3 = faceUVs[i * 2 + 4];
-			v3 = faceUVs[i * 2 + 5];
-
-			// scale and center on screen
-			x1 = (x1 * ox) + ox;
-			x2 = (x2 * ox) + ox;
-			x3 = (x3 * ox) + ox;
-			y1 = (y1 * oy) + oy;
-			y2 = (y2 * oy) + oy;
-			y3 = (y3 * oy) + oy;
-
-			//gc.setColor(debugColors[i]);
-
-			// draw
 			if (boundTexture) {
-				texture.setUVs((int) u1, (int) v1, (int) u2, (int) v2, (int) u3, (int) v3);
-				texture.mapto((int) x1, (int) y1, (int) x2, (int) y2, (int) x3, (int) y3);
+				texture.setUVs(faceUVs[i * 2], faceUVs[i * 2 + 1], faceUVs[i * 2 + 2],
+						faceUVs[i * 2 + 3], faceUVs[i * 2 + 4], faceUVs[i * 2 + 5]);
+				int s = 1 << Rasterizer.SUBPIXEL_BITS;
+				texture.mapto(x1 / s, y1 / s, x2 / s, y2 / s, x3 / s, y3 / s);
 			}
-			fillTriangle(x1, y1, z1, x2, y2, z2, x3, y3, z3);
+			rasterizer.addTriangle(x1, y1, faces[i * 3 + 2], x2, y2, faces[i * 3 + 5],
+					x3, y3, faces[i * 3 + 8], color, boundTexture ? texture : null);
 		}
 	}
 
+	private int uv(int index) {
+		return index < UVs.length ? UVs[index] : 0;
+	}
+
+	/**
+	 * @return screen coordinate in subpixels of the projected coordinate
+	 */
+	private static int toScreen(long c, long w, int origin) {
+		long s = (c * origin << Rasterizer.SUBPIXEL_BITS) / w + (origin << Rasterizer.SUBPIXEL_BITS);
+		return (int) Math.max(-Rasterizer.MAX_COORDINATE, Math.min(s, Rasterizer.MAX_COORDINATE));
+	}
+
 	// Call order:
 	// vertexPointerub(3, 0, [ -100, 20, -100, 0, -20, 0, 100, 20, -100, ]); // 3, 0, len 9
 	// drawArrays(4, 0, 3);
@@ -425,19 +381,19 @@ public class M3D {
 	// And then fill everything below it with a color.
 	public void drawArrays(int a, int b, int c)  // called after clear -- background?
 	{
-		gc.setColor(color);
 		applyMatrix(matrix);
 
 		// projection
-		double y, z;
-		y = verts[1];
-		z = verts[2];
-		y = y * projm[5] / (-z);
-		double oy = height / 2;
-		y = (y * oy) + oy;
-
-		gc.fillRect(0, (int) y, width, height - (int) y);
+		long y = eyeVerts[1];
+		long z = eyeVerts[2];
+		if (z == 0) {
+			return;
+		}
+		y = y * projm[5] / -z;
+		int oy = height / 2;
 
+		rasterizer.fillRows((int) (y * oy / ONE) + oy, color);
+		changed = true;
 	}
 
 	public void bindTexture(int a, Texture b) {
@@ -446,6 +402,9 @@ public class M3D {
 	}
 
 	public void texCoordPointerub(int a, int b, byte[] uvs) {
+		if (UVs.length < uvs.length) {
+			UVs = new int[uvs.length];
+		}
 		for (int i = 0; i < uvs.length; i++) {
 			UVs[i] = uvs[i];
 		}
@@ -465,143 +424,55 @@ public class M3D {
 
 	public void blit(Graphics g, int x, int y, int w, int h) // 0, 0, 95, 65
 	{
+		if (rasterizer.flush() || changed) {
+			platformImage.getBitmap().setPixels(rasterizer.pixels, 0, width, 0, 0, width, height);
+			changed = false;
+		}
 		g.drawImage(platformImage, x, y, Graphics.LEFT | Graphics.TOP);
 	}
 
-	private void identity(double[] m) {
-		m[0]  = 1; m[1]  = 0; m[2]  = 0; m[3]  = 0;
-		m[4]  = 0; m[5]  = 1; m[6]  = 0; m[7]  = 0;
-		m[8]  = 0; m[9]  = 0; m[10] = 1; m[11] = 0;
-		m[12] = 0; m[13] = 0; m[14] = 0; m[15] = 1;
+	private void identity(int[] m) {
+		m[0]  = ONE; m[1]  = 0;   m[2]  = 0;   m[3]  = 0;
+		m[4]  = 0;   m[5]  = ONE; m[6]  = 0;   m[7]  = 0;
+		m[8]  = 0;   m[9]  = 0;   m[10] = ONE; m[11] = 0;
+		m[12] = 0;   m[13] = 0;   m[14] = 0;   m[15] = ONE;
 	}
 
-	private void projection(double[] m, double w, double h, double n, double f) {
-		double d = -(f + n) / (f - n);
-		double e = -(2 * f * n ) / (f - n);
+	private void projection(int[] m, int w, int h, int n, int f) {
+		long d = -((long) (f + n) << 16) / (f - n);
+		long e = -(2L * f * n) / (f - n);
 
-		m[0]  = 2 * n / w; m[1]  = 0;          m[2]  = 0;  m[3]  = 0;
-		m[4]  = 0;         m[5]  = 2 * n / h;  m[6]  = 0;  m[7]  = 0;
-		m[8]  = 0;         m[9]  = 0;          m[10] = d;  m[11] = -1;
-		m[12] = 0;         m[13] = 0;          m[14] = e;  m[15] = 0;
+		m[0]  = (int) (((long) n << 17) / w); m[1]  = 0; m[2]  = 0;       m[3]  = 0;
+		m[4]  = 0; m[5]  = (int) (((long) n << 17) / h); m[6]  = 0;       m[7]  = 0;
+		m[8]  = 0; m[9]  = 0;                            m[10] = (int) d; m[11] = -ONE;
+		m[12] = 0; m[13] = 0;                            m[14] = (int) e; m[15] = 0;
 	}
 
-	private void clone(double[] m1, double[] m2) {
+	private void clone(int[] m1, int[] m2) {
 		System.arraycopy(m2, 0, m1, 0, 16);
 	}
 
-	private void matmul(double[] m1, double[] m2) {
-		tempm[0] = m1[0] * m2[0] + m1[1] * m2[4] + m1[2] * m2[8] + m1[3] * m2[12];
-		tempm[1] = m1[0] * m2[1] + m1[1] * m2[5] + m1[2] * m2[9] + m1[3] * m2[13];
-		tempm[2] = m1[0] * m2[2] + m1[1] * m2[6] + m1[2] * m2[10] + m1[3] * m2[14];
-		tempm[3] = m1[0] * m2[3] + m1[1] * m2[7] + m1[2] * m2[11] + m1[3] * m2[15];
-
-		tempm[4] = m1[4] * m2[0] + m1[5] * m2[4] + m1[6] * m2[8] + m1[7] * m2[12];
-		tempm[5] = m1[4] * m2[1] + m1[5] * m2[5] + m1[6] * m2[9] + m1[7] * m2[13];
-		tempm[6] = m1[4] * m2[2] + m1[5] * m2[6] + m1[6] * m2[10] + m1[7] * m2[14];
-		tempm[7] = m1[4] * m2[3] + m1[5] * m2[7] + m1[6] * m2[11] + m1[7] * m2[15];
-
-		tempm[8] = m1[8] * m2[0] + m1[9] * m2[4] + m1[10] * m2[8] + m1[11] * m2[12];
-		tempm[9] = m1[8] * m2[1] + m1[9] * m2[5] + m1[10] * m2[9] + m1[11] * m2[13];
-		tempm[10] = m1[8] * m2[2] + m1[9] * m2[6] + m1[10] * m2[10] + m1[11] * m2[14];
-		tempm[11] = m1[8] * m2[3] + m1[9] * m2[7] + m1[10] * m2[11] + m1[11] * m2[15];
-
-		tempm[12] = m1[12] * m2[0] + m1[13] * m2[4] + m1[14] * m2[8] + m1[15] * m2[12];
-		tempm[13] = m1[12] * m2[1] + m1[13] * m2[5] + m1[14] * m2[9] + m1[15] * m2[13];
-		tempm[14] = m1[12] * m2[2] + m1[13] * m2[6] + m1[14] * m2[10] + m1[15] * m2[14];
-		tempm[15] = m1[12] * m2[3] + m1[13] * m2[7] + m1[14] * m2[11] + m1[15] * m2[15];
-
+	private void matmul(int[] m1, int[] m2) {
+		for (int row = 0; row < 16; row += 4) {
+			long a0 = m1[row], a1 = m1[row + 1], a2 = m1[row + 2], a3 = m1[row + 3];
+			for (int col = 0; col < 4; col++) {
+				tempm[row + col] = (int) ((a0 * m2[col] + a1 * m2[col + 4]
+						+ a2 * m2[col + 8] + a3 * m2[col + 12]) >> 16);
+			}
+		}
 		clone(m1, tempm);
 	}
 
-	private void invert(double[] m) {
-		double a0 = m[0], a1 = m[1], a2 = m[2], a3 = m[3];
-		double a4 = m[4], a5 = m[5], a6 = m[6], a7 = m[7];
-		double a8 = m[8], a9 = m[9], a10 = m[10], a11 = m[11];
-		double a12 = m[12], a13 = m[13], a14 = m[14], a15 = m[15];
-
-		double b0 = a0 * a5 - a1 * a4, b1 = a0 * a6 - a2 * a4;
-		double b2 = a0 * a7 - a3 * a4, b3 = a1 * a6 - a2 * a5;
-		double b4 = a1 * a7 - a3 * a5, b5 = a2 * a7 - a3 * a6;
-		double b6 = a8 * a13 - a9 * a12, b7 = a8 * a14 - a10 * a12;
-		double b8 = a8 * a15 - a11 * a12, b9 = a9 * a14 - a10 * a13;
-		double b10 = a9 * a15 - a11 * a13, b11 = a10 * a15 - a11 * a14;
-
-		double det = b0 * b11 - b1 * b10 + b2 * b9 + b3 * b8 - b4 * b7 + b5 * b6;
-
-		if (det == 0) {
-			return;
-		} // should be an error
-
-		det = 1 / det;
-
-		m[0] = (a5 * b11 - a6 * b10 + a7 * b9) * det;
-		m[1] = (a2 * b10 - a1 * b11 - a3 * b9) * det;
-		m[2] = (a13 * b5 - a14 * b4 + a15 * b3) * det;
-		m[3] = (a10 * b4 - a9 * b5 - a11 * b3) * det;
-		m[4] = (a6 * b8 - a4 * b11 - a7 * b7) * det;
-		m[5] = (a0 * b11 - a2 * b8 + a3 * b7) * det;
-		m[6] = (a14 * b2 - a12 * b5 - a15 * b1) * det;
-		m[7] = (a8 * b5 - a10 * b2 + a11 * b1) * det;
-		m[8] = (a4 * b10 - a5 * b8 + a7 * b6) * det;
-		m[9] = (a1 * b8 - a0 * b10 - a3 * b6) * det;
-		m[10] = (a12 * b4 - a13 * b2 + a15 * b0) * det;
-		m[11] = (a9 * b2 - a8 * b4 - a11 * b0) * det;
-		m[12] = (a5 * b7 - a4 * b9 - a6 * b6) * det;
-		m[13] = (a0 * b9 - a1 * b7 + a2 * b6) * det;
-		m[14] = (a13 * b1 - a12 * b3 - a14 * b0) * det;
-		m[15] = (a8 * b3 - a9 * b1 + a10 * b0) * det;
-	}
-
-	private void applyMatrix(double[] m) {
-		double x, y, z, w;
+	private void applyMatrix(int[] m) {
+		int[] v = verts;
+		int[] e = eyeVerts;
 		for (int i = 0; i < vertCount; i += 3) {
-			x = verts[i];
-			y = verts[i + 1];
-			z = verts[i + 2];
-			w = 1;
-			verts[i] = x * m[0] + y * m[4] + z * m[8] + w * m[12];
-			verts[i + 1] = x * m[1] + y * m[5] + z * m[9] + w * m[13];
-			verts[i + 2] = x * m[2] + y * m[6] + z * m[10] + w * m[14];
+			int x = v[i];
+			int y = v[i + 1];
+			int z = v[i + 2];
+			e[i] = x * m[0] + y * m[4] + z * m[8] + m[12];
+			e[i + 1] = x * m[1] + y * m[5] + z * m[9] + m[13];
+			e[i + 2] = x * m[2] + y * m[6] + z * m[10] + m[14];
 		}
 	}
-
-	private void fillTriangle(double x1, double y1, double z1, double x2, double y2, double z2, double x3, double y3, double z3) {
-		double a, b, c;
-		double depth;
-		double px, py;
-
-		// find rect, clip to screen
-		int maxX = (int) Math.min(Math.max(x1, Math.max(x2, x3)), width - 1);
-		int maxY = (int) Math.min(Math.max(y1, Math.max(y2, y3)), height - 1);
-		int minX = (int) Math.max(Math.min(x1, Math.min(x2, x3)), 0);
-		int minY = (int) Math.max(Math.min(y1, Math.min(y2, y3)), 0);
-
-		for (int x = minX; x <= maxX; x++) {
-			for (int y = minY; y <= maxY; y++) {
-				px = x;
-				py = y;
-
-				// point in triangle
-				//cross product to find area*2 of triangles around point
-				a = (x3 - x2) * -(py - y2) - -(y3 - y2) * (px - x2); // p1
-				b = (x1 - x3) * -(py - y3) - -(y1 - y3) * (px - x3); // p2
-				c = (x2 - x1) * -(py - y1) - -(y2 - y1) * (px - x1); // p3
-
-				if (a >= 0 && b >= 0 && c >= 0) {
-					//fragment depth
-					depth = (a * z1 + b * z2 + c * z3) / (a + b + c);
-
-					// plot
-					if (depth >= zbuffer[x + (y * width)]) {
-						zbuffer[x + (y * width)] = depth;
-						if (boundTexture) {
-							gc.setColorAlpha(texture.map(x, y));
-						}
-						gc.drawLine(x, y, x, y);
-					}
-				}
-			}
-		}
-	}
-
 }
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nokia.mid.m3d;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tiled software rasterizer of the {@link M3D}.
+ * <p>
+ * Triangles are set up in screen space with 4 bits of subpixel precision and queued.
+ * On {@link #flush()} they are binned into tiles of the screen, the tiles are rasterized
+ * with edge functions in parallel, each of them by a single thread in the submission order.
+ * Depth is the eye space z in 16.16 fixed point, the greater value is closer.
+ */
+class Rasterizer {
+	static final int SUBPIXEL_BITS = 4;
+	/** Max absolute screen coordinate in subpixels, keeps the setup math within long */
+	static final int MAX_COORDINATE = 1 << 20;
+
+	private static final int TILE_SHIFT = 5;
+	private static final int TILE_SIZE = 1 << TILE_SHIFT;
+	private static final int MIN_PARALLEL_TRIANGLES = 32;
+	private static final long MAX_GRADIENT = 1L << 40;
+	private static final int THREADS = Runtime.getRuntime().availableProcessors() - 1;
+
+	// triangle layout: vertices (x, y) * 3, bounds (minX, minY, maxX, maxY), color, unused,
+	// texture mapping (6)
+	private static final int STRIDE = 18;
+	private static final int BOUNDS = 6;
+	private static final int COLOR = 10;
+	private static final int MAPPING = 12;
+
+	private static ExecutorService executor;
+
+	final int width;
+	final int height;
+	final int[] pixels;
+	final int[] depth;
+
+	private int[] triangles = new int[STRIDE * 64];
+	private long[] planes = new long[3 * 64];
+	private Texture[] textures = new Texture[64];
+	private int triangleCount;
+
+	private final int tilesX;
+	private final int tileCount;
+	private final int[][] bins;
+	private final int[] binSizes;
+
+	private final AtomicInteger nextTile = new AtomicInteger();
+	private final Object lock = new Object();
+	private final Runnable worker = this::runWorker;
+	private int activeWorkers;
+
+	Rasterizer(int width, int height) {
+		this.width = width;
+		this.height = height;
+		pixels = new int[width * height];
+		depth = new int[width * height];
+		tilesX = (width + TILE_SIZE - 1) >> TILE_SHIFT;
+		tileCount = tilesX * ((height + TILE_SIZE - 1) >> TILE_SHIFT);
+		bins = new int[tileCount][16];
+		binSizes = new int[tileCount];
+	}
+
+	/**
+	 * Drop the queued triangles and fill the buffers.
+	 */
+	void clear(int color, int z) {
+		Arrays.fill(textures, 0, triangleCount, null);
+		triangleCount = 0;
+		Arrays.fill(pixels, color);
+		Arrays.fill(depth, z);
+	}
+
+	/**
+	 * Fill the rows from y to the bottom, depth is not affected.
+	 */
+	void fillRows(int y, int color) {
+		flush();
+		Arrays.fill(pixels, Math.max(0, Math.min(y, height)) * width, pixels.length, color);
+	}
+
+	/**
+	 * Queue a triangle, vertices are in subpixels, back faces are dropped.
+	 * The mapping of the last {@link Texture#mapto} is used if the texture is not null.
+	 */
+	void addTriangle(int x1, int y1, int z1, int x2, int y2, int z2, int x3, int y3, int z3,
+					 int color, Texture texture) {
+		long area = edge(x2, y2, x3, y3, x1, y1);
+		if (area <= 0) {
+			return;
+		}
+		int minX = Math.max(Math.min(x1, Math.min(x2, x3)) >> SUBPIXEL_BITS, 0);
+		int minY = Math.max(Math.min(y1, Math.min(y2, y3)) >> SUBPIXEL_BITS, 0);
+		int maxX = Math.min(Math.max(x1, Math.max(x2, x3)) >> SUBPIXEL_BITS, width - 1);
+		int maxY = Math.min(Math.max(y1, Math.max(y2, y3)) >> SUBPIXEL_BITS, height - 1);
+		if (minX > maxX || minY > maxY) {
+			return;
+		}
+		if (triangleCount == textures.length) {
+			int capacity = triangleCount * 2;
+			triangles = Arrays.copyOf(triangles, capacity * STRIDE);
+			planes = Arrays.copyOf(planes, capacity * 3);
+			textures = Arrays.copyOf(textures, capacity);
+		}
+		int[] t = triangles;
+		int base = triangleCount * STRIDE;
+		t[base] = x1;
+		t[base + 1] = y1;
+		t[base + 2] = x2;
+		t[base + 3] = y2;
+		t[base + 4] = x3;
+		t[base + 5] = y3;
+		t[base + BOUNDS] = minX;
+		t[base + BOUNDS + 1] = minY;
+		t[base + BOUNDS + 2] = maxX;
+		t[base + BOUNDS + 3] = maxY;
+		t[base + COLOR] = color;
+		if (texture != null) {
+			texture.getMapping(t, base + MAPPING);
+		}
+
+		// depth gradients per pixel, the barycentric weights are the edge functions
+		long dzdx = ((long) (y3 - y2) * z1 + (long) (y1 - y3) * z2 + (long) (y2 - y1) * z3)
+				* (1 << SUBPIXEL_BITS) / area;
+		long dzdy = ((long) (x2 - x3) * z1 + (long) (x3 - x1) * z2 + (long) (x1 - x2) * z3)
+				* (1 << SUBPIXEL_BITS) / area;
+		int plane = triangleCount * 3;
+		planes[plane] = z1;
+		planes[plane + 1] = Math.max(-MAX_GRADIENT, Math.min(dzdx, MAX_GRADIENT));
+		planes[plane + 2] = Math.max(-MAX_GRADIENT, Math.min(dzdy, MAX_GRADIENT));
+		textures[triangleCount++] = texture;
+	}
+
+	/**
+	 * Rasterize the queued triangles.
+	 *
+	 * @return false if there was nothing to draw
+	 */
+	boolean flush() {
+		if (triangleCount == 0) {
+			return false;
+		}
+		bin();
+		if (THREADS <= 0 || tileCount == 1 || triangleCount < MIN_PARALLEL_TRIANGLES) {
+			for (int i = 0; i < tileCount; i++) {
+				rasterizeTile(i);
+			}
+		} else {
+			int workers = Math.min(THREADS, tileCount - 1);
+			ExecutorService executor = getExecutor();
+			nextTile.set(0);
+			synchronized (lock) {
+				activeWorkers = workers;
+			}
+			for (int i = 0; i < workers; i++) {
+				executor.execute(worker);
+			}
+			drainTiles();
+			boolean interrupted = false;
+			synchronized (lock) {
+				// workers write to the buffers, they must be finished in any case
+				while (activeWorkers > 0) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		Arrays.fill(textures, 0, triangleCount, null);
+		triangleCount = 0;
+		return true;
+	}
+
+	private void bin() {
+		Arrays.fill(binSizes, 0);
+		int[] t = triangles;
+		for (int i = 0; i < triangleCount; i++) {
+			int base = i * STRIDE + BOUNDS;
+			int tileX0 = t[base] >> TILE_SHIFT;
+			int tileY0 = t[base + 1] >> TILE_SHIFT;
+			int tileX1 = t[base + 2] >> TILE_SHIFT;
+			int tileY1 = t[base + 3] >> TILE_SHIFT;
+			for (int ty = tileY0; ty <= tileY1; ty++) {
+				for (int tx = tileX0; tx <= tileX1; tx++) {
+					int tile = ty * tilesX + tx;
+					int size = binSizes[tile];
+					if (size == bins[tile].length) {
+						bins[tile] = Arrays.copyOf(bins[tile], size * 2);
+					}
+					bins[tile][size] = i;
+					binSizes[tile] = size + 1;
+				}
+			}
+		}
+	}
+
+	private void runWorker() {
+		try {
+			drainTiles();
+		} finally {
+			synchronized (lock) {
+				if (--activeWorkers == 0) {
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+
+	private void drainTiles() {
+		int tile;
+		while ((tile = nextTile.getAndIncrement()) < tileCount) {
+			rasterizeTile(tile);
+		}
+	}
+
+	private void rasterizeTile(int tile) {
+		int size = binSizes[tile];
+		if (size == 0) {
+			return;
+		}
+		int tileX0 = (tile % tilesX) << TILE_SHIFT;
+		int tileY0 = (tile / tilesX) << TILE_SHIFT;
+		int tileX1 = Math.min(tileX0 + TILE_SIZE, width) - 1;
+		int tileY1 = Math.min(tileY0 + TILE_SIZE, height) - 1;
+		int[] bin = bins[tile];
+		for (int i = 0; i < size; i++) {
+			rasterize(bin[i], tileX0, tileY0, tileX1, tileY1);
+		}
+	}
+
+	private void rasterize(int triangle, int clipX0, int clipY0, int clipX1, int clipY1) {
+		int[] t = triangles;
+		int base = triangle * STRIDE;
+		int minX = Math.max(t[base + BOUNDS], clipX0);
+		int minY = Math.max(t[base + BOUNDS + 1], clipY0);
+		int maxX = Math.min(t[base + BOUNDS + 2], clipX1);
+		int maxY = Math.min(t[base + BOUNDS + 3], clipY1);
+		if (minX > maxX || minY > maxY) {
+			return;
+		}
+		int x1 = t[base];
+		int y1 = t[base + 1];
+		int x2 = t[base + 2];
+		int y2 = t[base + 3];
+		int x3 = t[base + 4];
+		int y3 = t[base + 5];
+		int px = minX << SUBPIXEL_BITS;
+		int py = minY << SUBPIXEL_BITS;
+
+		long e1Row = edge(x2, y2, x3, y3, px, py);
+		long e2Row = edge(x3, y3, x1, y1, px, py);
+		long e3Row = edge(x1, y1, x2, y2, px, py);
+		long e1StepX = (long) (y3 - y2) << SUBPIXEL_BITS;
+		long e2StepX = (long) (y1 - y3) << SUBPIXEL_BITS;
+		long e3StepX = (long) (y2 - y1) << SUBPIXEL_BITS;
+		long e1StepY = (long) (x2 - x3) << SUBPIXEL_BITS;
+		long e2StepY = (long) (x3 - x1) << SUBPIXEL_BITS;
+		long e3StepY = (long) (x1 - x2) << SUBPIXEL_BITS;
+
+		int plane = triangle * 3;
+		long dzdx = planes[plane + 1];
+		long dzdy = planes[plane + 2];
+		long zRow = planes[plane] + ((dzdx * (px - x1) + dzdy * (py - y1)) >> SUBPIXEL_BITS);
+
+		int[] pixels = this.pixels;
+		int[] depth = this.depth;
+		int width = this.width;
+		Texture texture = textures[triangle];
+		if (texture == null) {
+			int color = t[base + COLOR];
+			for (int y = minY; y <= maxY; y++) {
+				long e1 = e1Row, e2 = e2Row, e3 = e3Row, z = zRow;
+				for (int i = y * width + minX, end = i + maxX - minX; i <= end; i++) {
+					if ((e1 | e2 | e3) >= 0 && z >= depth[i]) {
+						depth[i] = (int) z;
+						pixels[i] = color;
+					}
+					e1 += e1StepX;
+					e2 += e2StepX;
+					e3 += e3StepX;
+					z += dzdx;
+				}
+				e1Row += e1StepY;
+				e2Row += e2StepY;
+				e3Row += e3StepY;
+				zRow += dzdy;
+			}
+		} else {
+			int m = base + MAPPING;
+			long du = t[m];
+			long dv = t[m + 3];
+			long uRow = du * minX + (long) t[m + 1] * minY + t[m + 2];
+			long vRow = dv * minX + (long) t[m + 4] * minY + t[m + 5];
+			for (int y = minY; y <= maxY; y++) {
+				long e1 = e1Row, e2 = e2Row, e3 = e3Row, z = zRow, u = uRow, v = vRow;
+				for (int i = y * width + minX, end = i + maxX - minX; i <= end; i++) {
+					if ((e1 | e2 | e3) >= 0 && z >= depth[i]) {
+						depth[i] = (int) z;
+						int texel = texture.texel((int) (u >> 16), (int) (v >> 16));
+						// transparent texels are not drawn
+						if (texel >>> 24 != 0) {
+							pixels[i] = texel;
+						}
+					}
+					e1 += e1StepX;
+					e2 += e2StepX;
+					e3 += e3StepX;
+					z += dzdx;
+					u += du;
+					v += dv;
+				}
+				e1Row += e1StepY;
+				e2Row += e2StepY;
+				e3Row += e3StepY;
+				zRow += dzdy;
+				uRow += t[m + 1];
+				vRow += t[m + 4];
+			}
+		}
+	}
+
+	/**
+	 * @return positive value if the point is on the inner side of the edge (x1, y1) - (x2, y2)
+	 */
+	private static long edge(int x1, int y1, int x2, int y2, int px, int py) {
+		return (long) (y2 - y1) * (px - x1) - (long) (x2 - x1) * (py - y1);
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(THREADS, r -> {
+				Thread thread = new Thread(r, "M3DRasterizer");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return executor;
+	}
+}
@@ -52,6 +52,10 @@ public class Texture {
 	{
 		int px = (int) (transm[0] * x + transm[1] * y + transm[2]);
 		int py = (int) (transm[3] * x + transm[4] * y + transm[5]);
+		return texel(px, py);
+	}
+
+	int texel(int px, int py) {
 		int idx = px + (py * width);
 		if (idx > 0 && idx < imagedata.length) {
 			return colors[imagedata[idx] & 1];
@@ -59,6 +63,13 @@ public class Texture {
 		return 0;
 	}
 
+	// transformation of the last mapto in 16.16 fixed point
+	void getMapping(int[] dst, int offset) {
+		for (int i = 0; i < 6; i++) {
+			dst[offset + i] = (int) (transm[i] * 65536);
+		}
+	}
+
 	public void mapto(int x1, int y1, int x2, int y2, int x3, int y3) {
 		// find transformation matrix for this triangle to UVs
 		// Tm = UVm x Sm^-1
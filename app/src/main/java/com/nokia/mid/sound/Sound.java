@@ -21,9 +21,9 @@ import java.io.IOException;
 
 import javax.microedition.media.Manager;
 import javax.microedition.media.MediaException;
+import javax.microedition.media.MixerPlayer;
 import javax.microedition.media.Player;
-import javax.microedition.media.tone.MidiToneConstants;
-import javax.microedition.media.tone.ToneManager;
+import javax.microedition.media.SoundMixer;
 
 public class Sound {
 	public static final int FORMAT_TONE = 1;
@@ -32,16 +32,6 @@ public class Sound {
 	public static final int SOUND_STOPPED = 1;
 	public static final int SOUND_UNINITIALIZED = 3;
 
-	private static final short[] FREQ_TABLE = {
-			0, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 21, 22, 23, 24, 26, 27, 29,
-			30, 32, 34, 36, 38, 41, 43, 45, 48, 51, 54, 57, 60, 64, 68, 72, 76, 81, 85, 90, 96,
-			101, 107, 114, 120, 128, 135, 143, 152, 161, 170, 180, 191, 202, 214, 227, 240, 255,
-			270, 286, 303, 321, 340, 360, 381, 404, 428, 453, 480, 509, 539, 571, 605, 641, 679,
-			719, 762, 807, 855, 906, 960, 1017, 1078, 1142, 1210, 1282, 1358, 1438, 1524, 1614,
-			1710, 1812, 1920, 2034, 2155, 2283, 2419, 2563, 2715, 2876, 3047, 3228, 3420, 3624,
-			3839, 4067, 4309, 4565, 4837, 5125, 5429, 5752, 6094, 6456, 6840, 7247, 7678, 8134,
-			8618, 9130, 9673, 10249, 10858, 11504, 12188, 12912
-	};
 	private Player player;
 	private int state;
 	private SoundListener soundListener;
@@ -71,18 +61,15 @@ public class Sound {
 	}
 
 	public void init(int freq, long duration) {
-		try {
-			int note = convertFreqToNote(freq);
-			player = ToneManager.createPlayer(note, (int) duration, MidiToneConstants.TONE_MAX_VOLUME);
-			state = SOUND_STOPPED;
-		} catch (MediaException e) {
-			e.printStackTrace();
-		}
+		short[] tone = SoundMixer.getInstance().getTone(freq, (int) duration);
+		player = new MixerPlayer(tone, "audio/x-tone-seq");
+		state = SOUND_STOPPED;
 	}
 
 	public void init(byte[] data, int type) {
 		try {
-			player = Manager.createPlayer(new ByteArrayInputStream(data), "audio/midi");
+			String contentType = type == FORMAT_WAV ? "audio/wav" : "audio/midi";
+			player = Manager.createPlayer(new ByteArrayInputStream(data), contentType);
 			state = SOUND_STOPPED;
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -141,34 +128,4 @@ public class Sound {
 			soundListener.soundStateChanged(this, state);
 		}
 	}
-
-	private int convertFreqToNote(int freq) {
-		int index = -1;
-		if (freq >= 0 && freq < FREQ_TABLE[127] && freq != 0) {
-			index = FREQ_TABLE.length / 2;
-			int high = FREQ_TABLE.length;
-			int low = 0;
-			while (true) {
-				if (freq >= FREQ_TABLE[index - 1]) {
-					if (freq < FREQ_TABLE[index]) {
-						break;
-					}
-					low = index;
-					int delta = (high - index) / 2;
-					if (delta == 0) {
-						delta = 1;
-					}
-					index += delta;
-				} else {
-					high = index;
-					int delta2 = (index - low) / 2;
-					if (delta2 == 0) {
-						delta2 = 1;
-					}
-					index -= delta2;
-				}
-			}
-		}
-		return index;
-	}
 }
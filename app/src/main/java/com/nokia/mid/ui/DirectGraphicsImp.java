@@ -108,45 +108,19 @@ public class DirectGraphicsImp implements DirectGraphics {
 		}
 
 		int transform = getTransformation(manipulation);
-		int[] pixres = new int[height * width];
-
+		PixelConverter converter = PixelConverter.get();
+		converter.setSource(width, height, transform);
 		switch (format) {
-			case TYPE_BYTE_1_GRAY: {
-				int b = 7 - off % 8;
-				for (int yj = 0; yj < height; yj++) {
-					int line = off + yj * scanlen;
-					int ypos = yj * width;
-					for (int xj = 0; xj < width; xj++) {
-						pixres[ypos + xj] = doAlpha(pix, alpha, (line + xj) / 8, b);
-						b--;
-						if (b < 0) b = 7;
-					}
-					b = b - (scanlen - width) % 8;
-					if (b < 0) b = 8 + b;
-				}
+			case TYPE_BYTE_1_GRAY:
+				converter.fromGray1(pix, alpha, off, scanlen, width, height);
 				break;
-			}
-			case TYPE_BYTE_1_GRAY_VERTICAL: {
-				int ods = off / scanlen;
-				int oms = off % scanlen;
-				int b = ods % 8;
-				for (int yj = 0; yj < height; yj++) {
-					int ypos = yj * width;
-					int tmp = (ods + yj) / 8 * scanlen + oms;
-					for (int xj = 0; xj < width; xj++) {
-						pixres[ypos + xj] = doAlpha(pix, alpha, tmp + xj, b);
-					}
-					b++;
-					if (b > 7) b = 0;
-				}
+			case TYPE_BYTE_1_GRAY_VERTICAL:
+				converter.fromGray1Vertical(pix, alpha, off, scanlen, width, height);
 				break;
-			}
 			default:
 				throw new IllegalArgumentException("Illegal format: " + format);
 		}
-
-		Image image = Image.createRGBImage(pixres, width, height, true);
-		graphics.drawRegion(image, 0, 0, width, height, transform, x, y, 0);
+		drawConverted(converter, x, y, true);
 	}
 
 	@Override
@@ -155,7 +129,7 @@ public class DirectGraphicsImp implements DirectGraphics {
 		if (pix == null) {
 			throw new NullPointerException();
 		}
-		if (format != TYPE_USHORT_4444_ARGB && format != TYPE_USHORT_444_RGB) {
+		if (format != TYPE_USHORT_4444_ARGB && format != TYPE_USHORT_444_RGB && format != TYPE_USHORT_565_RGB) {
 			throw new IllegalArgumentException("Illegal format: " + format);
 		}
 		if (width < 0 || height < 0) {
@@ -166,48 +140,10 @@ public class DirectGraphicsImp implements DirectGraphics {
 		}
 
 		int transform = getTransformation(manipulation);
-		int[] pixres = new int[height * width];
-
-		switch (format) {
-			case TYPE_USHORT_4444_ARGB: {
-				for (int iy = 0; iy < height; iy++) {
-					for (int ix = 0; ix < width; ix++) {
-						short s = pix[off + ix + iy * scanlen];
-						int a = (s & 0xF000) << 12;
-						int r = (s & 0x0F00) << 8;
-						int g = (s & 0x00F0) << 4;
-						int b = (s & 0x000F);
-						int argb = a | r | g | b;
-						pixres[iy * width + ix] = argb | argb << 4;
-					}
-				}
-				break;
-			}
-			case TYPE_USHORT_444_RGB: {
-				for (int iy = 0; iy < height; iy++) {
-					for (int ix = 0; ix < width; ix++) {
-						short s = pix[off + ix + iy * scanlen];
-						int rgb = (s & 0x0F00) << 8 | (s & 0x00F0) << 4 | (s & 0x000F);
-						pixres[iy * width + ix] = 0xFF000000 | rgb | rgb << 4;
-					}
-				}
-				break;
-			}
-			case TYPE_USHORT_565_RGB: {
-				for (int iy = 0; iy < height; iy++) {
-					for (int ix = 0; ix < width; ix++) {
-						short s = pix[off + ix + iy * scanlen];
-						int r = (s & 0xF800) << 8 | (s & 0xE000) << 3;
-						int g = (s & 0x07E0) << 5 | (s & 0x0600) >> 1;
-						int b = (s & 0x001F) << 3 | (s & 0x001C) >> 2;
-						pixres[iy * width + ix] = 0xFF000000 | r | g | b;
-					}
-				}
-				break;
-			}
-		}
-		Image image = Image.createRGBImage(pixres, width, height, true);
-		graphics.drawRegion(image, 0, 0, width, height, transform, x, y, 0);
+		PixelConverter converter = PixelConverter.get();
+		converter.setSource(width, height, transform);
+		converter.fromUShort(pix, off, scanlen, width, height, format);
+		drawConverted(converter, x, y, trans && format == TYPE_USHORT_4444_ARGB);
 	}
 
 	@Override
@@ -226,19 +162,21 @@ public class DirectGraphicsImp implements DirectGraphics {
 		}
 
 		int transform = getTransformation(manipulation);
-		int[] pixres = new int[height * width];
-
-		for (int iy = 0; iy < height; iy++) {
-			for (int ix = 0; ix < width; ix++) {
-				int c = pix[off + ix + iy * scanlen];
-				if (format == TYPE_INT_888_RGB) {
-					c |= (0xFF << 24);
-				}
-				pixres[iy * width + ix] = c;
-			}
+		boolean processAlpha = trans && format == TYPE_INT_8888_ARGB;
+		if (transform == Sprite.TRANS_NONE && scanlen >= width) {
+			// already in the right format, draw without a copy
+			graphics.drawRGB(pix, off, scanlen, x, y, width, height, processAlpha);
+			return;
 		}
-		Image image = Image.createRGBImage(pixres, width, height, true);
-		graphics.drawRegion(image, 0, 0, width, height, transform, x, y, 0);
+		PixelConverter converter = PixelConverter.get();
+		converter.setSource(width, height, transform);
+		converter.fromInt(pix, off, scanlen, width, height);
+		drawConverted(converter, x, y, processAlpha);
+	}
+
+	private void drawConverted(PixelConverter converter, int x, int y, boolean processAlpha) {
+		graphics.drawRGB(converter.buffer, 0, converter.width, x, y,
+				converter.width, converter.height, processAlpha);
 	}
 
 	@Override
@@ -259,7 +197,7 @@ public class DirectGraphicsImp implements DirectGraphics {
 					throw new ArrayIndexOutOfBoundsException();
 				if (transparencyMask != null && minBytesLen > transparencyMask.length - offset)
 					throw new IllegalArgumentException();
-				int[] colors = new int[width * height];
+				int[] colors = PixelConverter.get().obtain(width, height);
 				graphics.getPixels(colors, 0, width, x, y, width, height);
 				for (int i = offset, k = 0, w = 0, d = 0; d < dataLen; i++) {
 					for (int j = 7; j >= 0 && d < dataLen; j--, w++, d++) {
@@ -306,45 +244,9 @@ public class DirectGraphicsImp implements DirectGraphics {
 			return;
 		}
 
-		int[] pixels = new int[width * height];
-		graphics.getPixels(pixels, 0, width, x, y, width, height);
-		switch (format) {
-			case TYPE_USHORT_4444_ARGB: {
-				for (int iy = 0; iy < height; iy++) {
-					for (int ix = 0; ix < width; ix++) {
-						int a = pixels[ix + iy * width] >> 16 & 0xF000;
-						int r = pixels[ix + iy * width] >> 12 & 0x0F00;
-						int g = pixels[ix + iy * width] >> 8 & 0x00F0;
-						int b = pixels[ix + iy * width] >> 4 & 0x000F;
-
-						pix[offset + iy * scanlen + ix] = (short) (a | r | g | b);
-					}
-				}
-				break;
-			}
-			case TYPE_USHORT_444_RGB: {
-				for (int iy = 0; iy < height; iy++) {
-					for (int ix = 0; ix < width; ix++) {
-						int r = pixels[ix + iy * width] >> 12 & 0x0F00;
-						int g = pixels[ix + iy * width] >> 8 & 0x00F0;
-						int b = pixels[ix + iy * width] >> 4 & 0x000F;
-
-						pix[offset + iy * scanlen + ix] = (short) (0xf000 | r | g | b);
-					}
-				}
-				break;
-			}
-			case TYPE_USHORT_565_RGB: {
-				for (int iy = 0; iy < height; iy++) {
-					for (int ix = 0; ix < width; ix++) {
-						int r = pixels[ix + iy * width] >> 8 & 0xF800;
-						int g = pixels[ix + iy * width] >> 5 & 0x07E0;
-						int b = pixels[ix + iy * width] >> 3 & 0x001F;
-						pix[offset + iy * scanlen + ix] = (short) (r | g | b);
-					}
-				}
-			}
-		}
+		PixelConverter converter = PixelConverter.get();
+		graphics.getPixels(converter.obtain(width, height), 0, width, x, y, width, height);
+		converter.toUShort(pix, offset, scanlen, format);
 	}
 
 	@Override
@@ -372,24 +274,6 @@ public class DirectGraphicsImp implements DirectGraphics {
 		}
 	}
 
-	private static int doAlpha(byte[] pix, byte[] alpha, int pos, int shift) {
-		int p;
-		int a;
-		if (isBitSet(pix[pos], shift))
-			p = 0;
-		else
-			p = 0x00FFFFFF;
-		if (alpha == null || isBitSet(alpha[pos], shift))
-			a = 0xFF000000;
-		else
-			a = 0;
-		return p | a;
-	}
-
-	private static boolean isBitSet(byte b, int pos) {
-		return ((b & (byte) (1 << pos)) != 0);
-	}
-
 	private static int getTransformation(int manipulation) {
 		// manipulations are C-CW and sprite rotations are CW
 		int ret = -1;
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nokia.mid.ui;
+
+import javax.microedition.lcdui.game.Sprite;
+
+/**
+ * Conversion of the DirectGraphics pixel formats to and from ARGB.
+ * <p>
+ * 16-bit pixels are expanded with two lookups, one for each byte, the results are OR-ed.
+ * The converted pixels are written to a reusable buffer already flipped and rotated,
+ * so they can be drawn with {@link javax.microedition.lcdui.Graphics#drawRGB} as is.
+ * Instances are not thread safe, use {@link #get()} to obtain the one of the current thread.
+ */
+final class PixelConverter {
+	// high byte AAAARRRR and low byte GGGGBBBB of 4444
+	private static final int[] ARGB_4444_HIGH = new int[256];
+	private static final int[] RGB_444_HIGH = new int[256];
+	private static final int[] RGB_444_LOW = new int[256];
+	// high byte RRRRRGGG and low byte GGGBBBBB of 565
+	private static final int[] RGB_565_HIGH = new int[256];
+	private static final int[] RGB_565_LOW = new int[256];
+	// indexed by a bit of the 1-bit formats, set bits are black and opaque
+	private static final int[] GRAY_1 = {0xFFFFFF, 0};
+	private static final int[] ALPHA_1 = {0, 0xFF000000};
+
+	private static final ThreadLocal<PixelConverter> CONVERTERS = new ThreadLocal<PixelConverter>() {
+		@Override
+		protected PixelConverter initialValue() {
+			return new PixelConverter();
+		}
+	};
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int high = i >> 4;
+			int low = i & 0xF;
+			ARGB_4444_HIGH[i] = high * 0x11 << 24 | low * 0x11 << 16;
+			RGB_444_HIGH[i] = 0xFF000000 | low * 0x11 << 16;
+			RGB_444_LOW[i] = high * 0x11 << 8 | low * 0x11;
+
+			int r = i >> 3;
+			int g = i & 0x7;
+			RGB_565_HIGH[i] = 0xFF000000 | (r << 3 | r >> 2) << 16 | (g << 5 | g >> 1) << 8;
+			g = i >> 5;
+			int b = i & 0x1F;
+			RGB_565_LOW[i] = g << 2 << 8 | b << 3 | b >> 2;
+		}
+	}
+
+	/** Converted pixels, the size is at least {@link #width} * {@link #height} */
+	int[] buffer = new int[0];
+	/** Size of the converted pixels after the manipulation */
+	int width;
+	int height;
+
+	// index of the first source pixel in the buffer and steps for the next column and row
+	private int start;
+	private int stepX;
+	private int stepY;
+
+	private PixelConverter() {
+	}
+
+	static PixelConverter get() {
+		return CONVERTERS.get();
+	}
+
+	/**
+	 * Prepare the buffer for the source pixels of the size.
+	 *
+	 * @param transform one of the {@link Sprite} transformations
+	 */
+	void setSource(int width, int height, int transform) {
+		int size = width * height;
+		if (buffer.length < size) {
+			buffer = new int[size];
+		}
+		switch (transform) {
+			case Sprite.TRANS_NONE:
+				setLayout(width, height, 0, 1, width);
+				break;
+			case Sprite.TRANS_ROT90:
+				setLayout(height, width, height - 1, height, -1);
+				break;
+			case Sprite.TRANS_ROT180:
+				setLayout(width, height, size - 1, -1, -width);
+				break;
+			case Sprite.TRANS_ROT270:
+				setLayout(height, width, size - height, -height, 1);
+				break;
+			case Sprite.TRANS_MIRROR:
+				setLayout(width, height, width - 1, -1, width);
+				break;
+			case Sprite.TRANS_MIRROR_ROT90:
+				setLayout(height, width, size - 1, -height, -1);
+				break;
+			case Sprite.TRANS_MIRROR_ROT180:
+				setLayout(width, height, size - width, 1, -width);
+				break;
+			case Sprite.TRANS_MIRROR_ROT270:
+				setLayout(height, width, 0, height, 1);
+				break;
+			default:
+				throw new IllegalArgumentException();
+		}
+	}
+
+	private void setLayout(int width, int height, int start, int stepX, int stepY) {
+		this.width = width;
+		this.height = height;
+		this.start = start;
+		this.stepX = stepX;
+		this.stepY = stepY;
+	}
+
+	/**
+	 * Buffer for reading the pixels of the size without a manipulation.
+	 */
+	int[] obtain(int width, int height) {
+		setSource(width, height, Sprite.TRANS_NONE);
+		return buffer;
+	}
+
+	void fromUShort(short[] src, int offset, int scanlength, int srcWidth, int srcHeight, int format) {
+		int[] high;
+		int[] low;
+		switch (format) {
+			case DirectGraphics.TYPE_USHORT_4444_ARGB:
+				high = ARGB_4444_HIGH;
+				low = RGB_444_LOW;
+				break;
+			case DirectGraphics.TYPE_USHORT_444_RGB:
+				high = RGB_444_HIGH;
+				low = RGB_444_LOW;
+				break;
+			case DirectGraphics.TYPE_USHORT_565_RGB:
+				high = RGB_565_HIGH;
+				low = RGB_565_LOW;
+				break;
+			default:
+				throw new IllegalArgumentException("Illegal format: " + format);
+		}
+		int[] dst = buffer;
+		int stepX = this.stepX;
+		for (int y = 0; y < srcHeight; y++) {
+			int s = offset + y * scanlength;
+			int d = start + y * stepY;
+			for (int end = s + srcWidth; s < end; s++, d += stepX) {
+				int p = src[s];
+				dst[d] = high[p >> 8 & 0xFF] | low[p & 0xFF];
+			}
+		}
+	}
+
+	void fromInt(int[] src, int offset, int scanlength, int srcWidth, int srcHeight) {
+		int[] dst = buffer;
+		int stepX = this.stepX;
+		for (int y = 0; y < srcHeight; y++) {
+			int s = offset + y * scanlength;
+			int d = start + y * stepY;
+			if (stepX == 1) {
+				System.arraycopy(src, s, dst, d, srcWidth);
+				continue;
+			}
+			for (int end = s + srcWidth; s < end; s++, d += stepX) {
+				dst[d] = src[s];
+			}
+		}
+	}
+
+	/**
+	 * Convert 1-bit pixels, a set bit is black. The mask may be null if all pixels are opaque.
+	 */
+	void fromGray1(byte[] src, byte[] mask, int offset, int scanlength, int srcWidth, int srcHeight) {
+		int[] dst = buffer;
+		int stepX = this.stepX;
+		for (int y = 0; y < srcHeight; y++) {
+			int i = offset + y * scanlength;
+			int d = start + y * stepY;
+			for (int end = i + srcWidth; i < end; i++, d += stepX) {
+				int shift = 7 - (i & 7);
+				int alpha = mask == null ? 1 : mask[i >> 3] >> shift & 1;
+				dst[d] = GRAY_1[src[i >> 3] >> shift & 1] | ALPHA_1[alpha];
+			}
+		}
+	}
+
+	/**
+	 * Convert 1-bit pixels stored as columns of 8 pixels per byte, the least significant bit is at the top.
+	 */
+	void fromGray1Vertical(byte[] src, byte[] mask, int offset, int scanlength,
+						   int srcWidth, int srcHeight) {
+		int[] dst = buffer;
+		int stepX = this.stepX;
+		int row = offset / scanlength;
+		int column = offset % scanlength;
+		for (int y = 0; y < srcHeight; y++) {
+			int i = (row + y) / 8 * scanlength + column;
+			int shift = (row + y) % 8;
+			int d = start + y * stepY;
+			for (int end = i + srcWidth; i < end; i++, d += stepX) {
+				int alpha = mask == null ? 1 : mask[i] >> shift & 1;
+				dst[d] = GRAY_1[src[i] >> shift & 1] | ALPHA_1[alpha];
+			}
+		}
+	}
+
+	/**
+	 * Pack the ARGB pixels of the buffer, read by {@link #obtain(int, int)}.
+	 */
+	void toUShort(short[] dst, int offset, int scanlength, int format) {
+		int[] src = buffer;
+		int width = this.width;
+		for (int y = 0; y < height; y++) {
+			int s = y * width;
+			int d = offset + y * scanlength;
+			switch (format) {
+				case DirectGraphics.TYPE_USHORT_4444_ARGB:
+					for (int end = s + width; s < end; s++, d++) {
+						int p = src[s];
+						dst[d] = (short) (p >> 16 & 0xF000 | p >> 12 & 0x0F00 | p >> 8 & 0x00F0 | p >> 4 & 0x000F);
+					}
+					break;
+				case DirectGraphics.TYPE_USHORT_444_RGB:
+					for (int end = s + width; s < end; s++, d++) {
+						int p = src[s];
+						dst[d] = (short) (0xF000 | p >> 12 & 0x0F00 | p >> 8 & 0x00F0 | p >> 4 & 0x000F);
+					}
+					break;
+				case DirectGraphics.TYPE_USHORT_565_RGB:
+					for (int end = s + width; s < end; s++, d++) {
+						int p = src[s];
+						dst[d] = (short) (p >> 8 & 0xF800 | p >> 5 & 0x07E0 | p >> 3 & 0x001F);
+					}
+					break;
+				default:
+					throw new IllegalArgumentException("Illegal format: " + format);
+			}
+		}
+	}
+}
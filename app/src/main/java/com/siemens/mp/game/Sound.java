@@ -24,7 +24,14 @@
 
 package com.siemens.mp.game;
 
+import javax.microedition.media.SoundMixer;
+
 public class Sound {
 	public static void playTone(int freq, int time) {
+		if (time <= 0) {
+			return;
+		}
+		SoundMixer mixer = SoundMixer.getInstance();
+		mixer.play(mixer.getTone(freq, time), 0, 1, SoundMixer.MAX_GAIN, null);
 	}
 }
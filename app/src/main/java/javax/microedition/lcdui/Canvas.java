@@ -41,6 +41,7 @@ import android.widget.LinearLayout;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -53,6 +54,7 @@ import javax.microedition.lcdui.graphics.CanvasWrapper;
 import javax.microedition.lcdui.graphics.GlesView;
 import javax.microedition.lcdui.graphics.ShaderProgram;
 import javax.microedition.lcdui.overlay.FpsCounter;
+import javax.microedition.lcdui.overlay.FrameRecorder;
 import javax.microedition.lcdui.overlay.Overlay;
 import javax.microedition.lcdui.overlay.OverlayView;
 import javax.microedition.lcdui.pointer.FixedKeyboard;
@@ -105,6 +107,8 @@ public abstract class Canvas extends Displayable {
 	public static final int GAME_D = 12;
 
 	private static final float FULLSCREEN_HEIGHT_RATIO = 0.85f;
+	/* Dirty regions larger than this part of the screen are uploaded to the texture whole */
+	private static final int PARTIAL_UPLOAD_DIVISOR = 4;
 
 	private static boolean filter;
 	private static boolean touchInput;
@@ -119,6 +123,11 @@ public abstract class Canvas extends Displayable {
 
 	private final Object paintSync = new Object();
 	private final PaintEvent paintEvent = new PaintEvent();
+	/** Union of the regions requested by repaint() and not yet painted */
+	private final Rect repaintRegion = new Rect();
+	/** Union of the regions of offscreenCopy changed since the last present */
+	private final Rect presentRegion = new Rect();
+	private final Rect screenRegion = new Rect();
 	protected int width, height;
 	protected int maxHeight;
 	private LinearLayout layout;
@@ -135,10 +144,11 @@ public abstract class Canvas extends Displayable {
 	private Image offscreenCopy;
 	private int onX, onY, onWidth, onHeight;
 	private final RectF virtualScreen = new RectF(0, 0, displayWidth, displayHeight);
-	private long lastFrameTime = System.currentTimeMillis();
 	private Handler uiHandler;
 	private Overlay overlay;
 	private FpsCounter fpsCounter;
+	private FrameRecorder frameRecorder;
+	private FramePacer framePacer;
 	private static int scaleType;
 	private static int screenGravity;
 
@@ -149,6 +159,9 @@ public abstract class Canvas extends Displayable {
 		if (parallelRedraw) {
 			uiHandler = new Handler(Looper.getMainLooper(), msg -> repaintScreen());
 		}
+		if (fpsLimit > 0) {
+			framePacer = new FramePacer(fpsLimit, this::onPacedFrame);
+		}
 		displayWidth = ContextHolder.getDisplayWidth();
 		displayHeight = ContextHolder.getDisplayHeight();
 		updateSize();
@@ -242,11 +255,16 @@ public abstract class Canvas extends Displayable {
 
 	public void onDraw(android.graphics.Canvas canvas) {
 		if (graphicsMode != 2) return; // Fix for Android Pie
+		long start = System.nanoTime();
 		CanvasWrapper g = canvasWrapper;
 		g.bind(canvas);
 		g.clear(backgroundColor);
 		offscreenCopy.getBitmap().prepareToDraw();
 		g.drawImage(offscreenCopy, virtualScreen);
+		FrameRecorder recorder = frameRecorder;
+		if (recorder != null) {
+			recorder.record(FrameRecorder.STAGE_PRESENT, start);
+		}
 		if (fpsCounter != null) {
 			fpsCounter.increment();
 		}
@@ -404,6 +422,8 @@ public abstract class Canvas extends Displayable {
 		}
 		offscreen.getSingleGraphics().reset();
 		offscreenCopy.getSingleGraphics().reset();
+		invalidate(repaintRegion, 0, 0, width, height);
+		invalidate(presentRegion, 0, 0, width, height);
 		if (overlay != null) {
 			overlay.resize(screen, virtualScreen);
 		}
@@ -522,10 +542,55 @@ public abstract class Canvas extends Displayable {
 	}
 
 	public final void repaint(int x, int y, int width, int height) {
-		limitFps();
+		if (width <= 0 || height <= 0) {
+			return;
+		}
+		invalidate(repaintRegion, x, y, x + width, y + height);
+		FrameRecorder recorder = frameRecorder;
+		if (recorder != null) {
+			recorder.queued();
+		}
 		Display.postEvent(paintEvent);
 	}
 
+	/**
+	 * Add a rectangle to the accumulated damage region.
+	 * The rectangle is clipped by the bounds of the virtual screen.
+	 */
+	private void invalidate(Rect region, int left, int top, int right, int bottom) {
+		if (left < 0) left = 0;
+		if (top < 0) top = 0;
+		if (right > width) right = width;
+		if (bottom > height) bottom = height;
+		synchronized (region) {
+			region.union(left, top, right, bottom);
+		}
+	}
+
+	/**
+	 * Move the accumulated damage region to the given rect and clear it.
+	 *
+	 * @return false if nothing has changed
+	 */
+	private static boolean takeDirtyRegion(Rect region, Rect out) {
+		synchronized (region) {
+			out.set(region);
+			region.setEmpty();
+		}
+		return !out.isEmpty();
+	}
+
+	/**
+	 * Convert a damage rect from the virtual screen coordinates to the real ones.
+	 * The rect is expanded by one pixel to cover the bilinear filtering footprint.
+	 */
+	private void toScreenRect(Rect r) {
+		r.set(onX + r.left * onWidth / width - 1,
+				onY + r.top * onHeight / height - 1,
+				onX + (r.right * onWidth + width - 1) / width + 1,
+				onY + (r.bottom * onHeight + height - 1) / height + 1);
+	}
+
 	@Override
 	public boolean isShown() {
 		return super.isShown() && visible;
@@ -533,75 +598,115 @@ public abstract class Canvas extends Displayable {
 
 	// GameCanvas
 	public void flushBuffer(Image image, int x, int y, int width, int height) {
-		limitFps();
 		synchronized (paintSync) {
+			long start = System.nanoTime();
 			offscreenCopy.getSingleGraphics().flush(image, x, y, width, height);
-			if (graphicsMode == 1) {
-				if (innerView != null) {
-					renderer.requestRender();
-				}
-				return;
-			} else if (graphicsMode == 2) {
-				if (innerView != null) {
-					innerView.postInvalidate();
-				}
-				return;
-			}
-			if (!parallelRedraw) {
-				repaintScreen();
-			} else if (!uiHandler.hasMessages(0)) {
-				uiHandler.sendEmptyMessage(0);
+			FrameRecorder recorder = frameRecorder;
+			if (recorder != null) {
+				recorder.record(FrameRecorder.STAGE_COPY, start);
 			}
+			invalidate(presentRegion, x, y, x + width, y + height);
+			present();
 		}
 	}
 
 	// ExtendedImage
 	public void flushBuffer(Image image, int x, int y) {
-		limitFps();
 		synchronized (paintSync) {
+			long start = System.nanoTime();
 			image.copyTo(offscreenCopy, x, y);
-			if (graphicsMode == 1) {
-				if (innerView != null) {
-					renderer.requestRender();
-				}
-				return;
-			} else if (graphicsMode == 2) {
-				if (innerView != null) {
-					innerView.postInvalidate();
-				}
-				return;
+			FrameRecorder recorder = frameRecorder;
+			if (recorder != null) {
+				recorder.record(FrameRecorder.STAGE_COPY, start);
 			}
-			if (!parallelRedraw) {
-				repaintScreen();
-			} else if (!uiHandler.hasMessages(0)) {
-				uiHandler.sendEmptyMessage(0);
+			invalidate(presentRegion, x, y, x + image.getWidth(), y + image.getHeight());
+			present();
+		}
+	}
+
+	/**
+	 * Pass the changed content of offscreenCopy to the active presenter,
+	 * at the next deadline of the frame pacer if the FPS is limited.
+	 */
+	private void present() {
+		if (framePacer != null) {
+			framePacer.request();
+		} else {
+			presentNow();
+		}
+	}
+
+	private void presentNow() {
+		if (graphicsMode == 1) {
+			if (innerView != null) {
+				renderer.requestRender();
 			}
+		} else if (graphicsMode == 2) {
+			if (innerView != null) {
+				Rect r = screenRegion;
+				if (takeDirtyRegion(presentRegion, r)) {
+					toScreenRect(r);
+					innerView.postInvalidate(r.left, r.top, r.right, r.bottom);
+				}
+			}
+		} else if (!parallelRedraw) {
+			repaintScreen();
+		} else if (!uiHandler.hasMessages(0)) {
+			uiHandler.sendEmptyMessage(0);
 		}
 	}
 
-	private void limitFps() {
-		if (fpsLimit <= 0) return;
-		try {
-			long millis = (1000 / fpsLimit) - (System.currentTimeMillis() - lastFrameTime);
-			if (millis > 0) Thread.sleep(millis);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+	/**
+	 * Present the frames coalesced by the frame pacer.
+	 */
+	private void onPacedFrame(long deadline, long time) {
+		FrameRecorder recorder = frameRecorder;
+		if (recorder != null) {
+			recorder.paced(deadline, time);
+		}
+		// the offscreen copy must not change while it is drawn
+		synchronized (paintSync) {
+			presentNow();
 		}
-		lastFrameTime = System.currentTimeMillis();
 	}
 
 	public void setVisible(boolean visible) {
 		this.visible = visible;
 	}
 
+	/**
+	 * An input event was handled by the MIDlet.
+	 *
+	 * @param time {@link System#nanoTime()} of the input
+	 */
+	public void onInputProcessed(long time) {
+		FrameRecorder recorder = frameRecorder;
+		if (recorder != null) {
+			recorder.input(time);
+		}
+	}
+
 	@SuppressLint("NewApi")
 	private boolean repaintScreen() {
 		if (surface == null || !surface.isValid()) {
 			return true;
 		}
 		try {
-			android.graphics.Canvas canvas = graphicsMode == 3 ?
-					surface.lockHardwareCanvas() : surface.lockCanvas(null);
+			long start = System.nanoTime();
+			android.graphics.Canvas canvas;
+			if (graphicsMode == 3) {
+				// hardware canvas is always redrawn entirely
+				takeDirtyRegion(presentRegion, screenRegion);
+				canvas = surface.lockHardwareCanvas();
+			} else {
+				Rect dirty = screenRegion;
+				if (!takeDirtyRegion(presentRegion, dirty)) {
+					return true;
+				}
+				toScreenRect(dirty);
+				// the surface restores the content outside the dirty rect from the previous frame
+				canvas = surface.lockCanvas(dirty);
+			}
 			if (canvas == null) {
 				return true;
 			}
@@ -610,6 +715,10 @@ public abstract class Canvas extends Displayable {
 			g.clear(backgroundColor);
 			g.drawImage(offscreenCopy, virtualScreen);
 			surface.unlockCanvasAndPost(canvas);
+			FrameRecorder recorder = frameRecorder;
+			if (recorder != null) {
+				recorder.record(FrameRecorder.STAGE_PRESENT, start);
+			}
 			if (fpsCounter != null) {
 				fpsCounter.increment();
 			}
@@ -627,16 +736,6 @@ public abstract class Canvas extends Displayable {
 	public final void serviceRepaints() {
 		EventQueue queue = Display.getEventQueue();
 
-		/*
-		 * blocking order:
-		 *
-		 * 1 - queue.this
-		 * 2 - queue.queue
-		 *
-		 * accordingly, inside the EventQueue, the order must be the same,
-		 * otherwise mutual blocking of two threads is possible (everything will hang)
-		 */
-
 		//noinspection SynchronizationOnLocalVariableOrMethodParameter
 		synchronized (queue) {
 			/*
@@ -722,6 +821,10 @@ public abstract class Canvas extends Displayable {
 		private final int[] bgTextureId = new int[1];
 		private ShaderProgram program;
 		private boolean isStarted;
+		private boolean isTextureLoaded;
+		private final Rect uploadRegion = new Rect();
+		private int[] uploadPixels = new int[0];
+		private IntBuffer uploadBuffer;
 
 		@Override
 		public void onSurfaceCreated(GL10 gl, EGLConfig config) {
@@ -732,6 +835,7 @@ public abstract class Canvas extends Displayable {
 			glDisable(GL_DEPTH_TEST);
 			glDepthMask(false);
 			initTex();
+			isTextureLoaded = false;
 			Bitmap bitmap = offscreenCopy.getBitmap();
 			program.loadVbo(vbo, bitmap.getWidth(), bitmap.getHeight());
 			if (shaderFilter != null && shaderFilter.values != null) {
@@ -748,14 +852,64 @@ public abstract class Canvas extends Displayable {
 
 		@Override
 		public void onDrawFrame(GL10 gl) {
+			long start = System.nanoTime();
 			glClear(GL_COLOR_BUFFER_BIT);
-			GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, offscreenCopy.getBitmap(), 0);
+			Bitmap bitmap = offscreenCopy.getBitmap();
+			Rect r = uploadRegion;
+			if (!isTextureLoaded) {
+				takeDirtyRegion(presentRegion, r);
+				GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+				isTextureLoaded = true;
+			} else if (takeDirtyRegion(presentRegion, r)) {
+				uploadSubImage(bitmap, r);
+			}
 			glDrawArrays(GL_TRIANGLE_STRIP, 0, 4);
+			FrameRecorder recorder = frameRecorder;
+			if (recorder != null) {
+				recorder.record(FrameRecorder.STAGE_PRESENT, start);
+			}
 			if (fpsCounter != null) {
 				fpsCounter.increment();
 			}
 		}
 
+		/**
+		 * Upload only the changed part of the bitmap into the existing texture.
+		 * The pixels are copied and swizzled on the CPU, that pays off only for small regions,
+		 * large ones are uploaded whole from the bitmap.
+		 */
+		private void uploadSubImage(Bitmap bitmap, Rect r) {
+			int width = bitmap.getWidth();
+			int height = bitmap.getHeight();
+			if (!r.intersect(0, 0, width, height)) {
+				return;
+			}
+			int w = r.width();
+			int h = r.height();
+			int length = w * h;
+			if (length > width * height / PARTIAL_UPLOAD_DIVISOR) {
+				GLUtils.texSubImage2D(GL_TEXTURE_2D, 0, 0, 0, bitmap);
+				return;
+			}
+			int[] pixels = uploadPixels;
+			if (pixels.length < length) {
+				pixels = uploadPixels = new int[length];
+				uploadBuffer = ByteBuffer.allocateDirect(length * 4)
+						.order(ByteOrder.nativeOrder()).asIntBuffer();
+			}
+			bitmap.getPixels(pixels, 0, w, r.left, r.top, w, h);
+			// ARGB -> RGBA byte order (little-endian ABGR int)
+			for (int i = 0; i < length; i++) {
+				int c = pixels[i];
+				pixels[i] = (c & 0xff00ff00) | (c >> 16 & 0xff) | (c & 0xff) << 16;
+			}
+			IntBuffer buffer = uploadBuffer;
+			buffer.clear();
+			buffer.put(pixels, 0, length);
+			buffer.position(0);
+			glTexSubImage2D(GL_TEXTURE_2D, 0, r.left, r.top, w, h, GL_RGBA, GL_UNSIGNED_BYTE, buffer);
+		}
+
 		private void initTex() {
 			glGenTextures(1, bgTextureId, 0);
 			glActiveTexture(GL_TEXTURE0);
@@ -805,34 +959,41 @@ public abstract class Canvas extends Displayable {
 	private class PaintEvent extends Event implements EventFilter {
 
 		private int enqueued = 0;
+		private final Rect clip = new Rect();
 
 		@Override
 		public void process() {
 			synchronized (paintSync) {
+				FrameRecorder recorder = frameRecorder;
+				if (recorder != null) {
+					recorder.dequeued();
+				}
 				if (surface == null || !surface.isValid() || !isShown()) {
 					return;
 				}
+				Rect clip = this.clip;
+				if (!takeDirtyRegion(repaintRegion, clip)) {
+					return;
+				}
+				long start = System.nanoTime();
 				Graphics g = offscreen.getSingleGraphics();
 				g.reset();
+				g.setClip(clip.left, clip.top, clip.width(), clip.height());
 				try {
 					paint(g);
 				} catch (Throwable t) {
 					t.printStackTrace();
 				}
-				offscreen.copyTo(offscreenCopy);
-				if (graphicsMode == 1) {
-					if (innerView != null) {
-						renderer.requestRender();
-					}
-				} else if (graphicsMode == 2) {
-					if (innerView != null) {
-						innerView.postInvalidate();
-					}
-				} else if (!parallelRedraw) {
-					repaintScreen();
-				} else if (!uiHandler.hasMessages(0)) {
-					uiHandler.sendEmptyMessage(0);
+				if (recorder != null) {
+					recorder.record(FrameRecorder.STAGE_PAINT, start);
+					start = System.nanoTime();
+				}
+				offscreen.copyTo(offscreenCopy, clip);
+				if (recorder != null) {
+					recorder.record(FrameRecorder.STAGE_COPY, start);
 				}
+				invalidate(presentRegion, clip.left, clip.top, clip.right, clip.bottom);
+				present();
 			}
 		}
 
@@ -995,6 +1156,8 @@ public abstract class Canvas extends Displayable {
 							width, height));
 					sizeChangedCalled = true;
 				}
+				invalidate(repaintRegion, 0, 0, width, height);
+				invalidate(presentRegion, 0, 0, width, height);
 			}
 			Display.postEvent(paintEvent);
 		}
@@ -1010,6 +1173,7 @@ public abstract class Canvas extends Displayable {
 			}
 			if (showFps) {
 				fpsCounter = new FpsCounter(overlayView);
+				frameRecorder = fpsCounter.getRecorder();
 				overlayView.addLayer(fpsCounter);
 			}
 			overlayView.setVisibility(true);
@@ -1027,6 +1191,7 @@ public abstract class Canvas extends Displayable {
 					fpsCounter.stop();
 					overlayView.removeLayer(fpsCounter);
 					fpsCounter = null;
+					frameRecorder = null;
 				}
 			}
 			overlayView.setVisibility(false);
@@ -21,9 +21,12 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Typeface;
 import android.util.DisplayMetrics;
+import android.util.SparseIntArray;
 import android.util.TypedValue;
 
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.microedition.util.ContextHolder;
 
@@ -49,6 +52,17 @@ public class Font {
 			18, 22, 26, // 320
 	};
 
+	/** Chars with the dense advance table: Latin, Greek and Cyrillic */
+	private static final int DENSE_CHARS = 0x0500;
+	private static final char[] CHARS = new char[DENSE_CHARS];
+	private static final int MAX_CACHED_STRINGS = 256;
+
+	static {
+		for (int i = 0; i < DENSE_CHARS; i++) {
+			CHARS[i] = (char) i;
+		}
+	}
+
 	private static final int FONT_COUNT = 3 * 3 * (1 << 3);
 	private static final Font[] fonts = new Font[FONT_COUNT];
 	private static final float[] sizes = new float[]{18, 22, 26};
@@ -63,6 +77,17 @@ public class Font {
 	private final int height;
 	private int face, style, size;
 
+	/** Widths of the chars below {@link #DENSE_CHARS}, -1 if not measured yet */
+	private final int[] charWidths = new int[DENSE_CHARS];
+	private final SparseIntArray sparseCharWidths = new SparseIntArray();
+	private final LinkedHashMap<String, Integer> stringWidths =
+			new LinkedHashMap<String, Integer>(MAX_CACHED_STRINGS, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+					return size() > MAX_CACHED_STRINGS;
+				}
+			};
+
 	public static void setApplyDimensions(boolean flag) {
 		applyDimensions = flag;
 		Arrays.fill(fonts, null);
@@ -113,6 +138,7 @@ public class Font {
 		height = (int) Math.ceil(fm.leading + fm.bottom - fm.top);
 		ascent = fm.ascent;
 		descent = fm.descent;
+		Arrays.fill(charWidths, -1);
 	}
 
 	public static Font getFont(int fontSpecifier) {
@@ -225,19 +251,52 @@ public class Font {
 	}
 
 	public int charWidth(char c) {
-		return (int) Math.ceil(paint.measureText(new char[]{c}, 0, 1));
+		if (c < DENSE_CHARS) {
+			int width = charWidths[c];
+			if (width < 0) {
+				width = charWidths[c] = (int) Math.ceil(paint.measureText(CHARS, c, 1));
+			}
+			return width;
+		}
+		synchronized (sparseCharWidths) {
+			int width = sparseCharWidths.get(c, -1);
+			if (width < 0) {
+				width = (int) Math.ceil(paint.measureText(new char[]{c}, 0, 1));
+				sparseCharWidths.put(c, width);
+			}
+			return width;
+		}
 	}
 
 	public int charsWidth(char[] ch, int offset, int length) {
+		if (length == 1) {
+			return charWidth(ch[offset]);
+		}
 		return (int) Math.ceil(paint.measureText(ch, offset, length));
 	}
 
 	public int stringWidth(String text) {
-		return (int) Math.ceil(paint.measureText(text));
+		if (text.length() == 1) {
+			return charWidth(text.charAt(0));
+		}
+		synchronized (stringWidths) {
+			Integer width = stringWidths.get(text);
+			if (width == null) {
+				width = (int) Math.ceil(paint.measureText(text));
+				stringWidths.put(text, width);
+			}
+			return width;
+		}
 	}
 
 	public int substringWidth(String str, int i, int i2) {
-		return (int) paint.measureText(str, i, i + i2);
+		if (i == 0 && i2 == str.length()) {
+			return stringWidth(str);
+		} else if (i2 == 1) {
+			return charWidth(str.charAt(i));
+		}
+		// rounded as stringWidth, a substring is as wide as the same string
+		return (int) Math.ceil(paint.measureText(str, i, i + i2));
 	}
 
 	public static int getFontIndex(int face, int style, int size) {
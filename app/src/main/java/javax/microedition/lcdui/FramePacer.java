@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * Presents frames at a fixed cadence, e.g. for a game made for 15 or 30 FPS.
+ * <p>
+ * The threads that produce frames are never blocked: a frame is requested with {@link #request()}
+ * and presented on the pacer thread at the next deadline. Frames requested before the deadline
+ * are coalesced into one, the latest content is presented.
+ * <p>
+ * Deadlines are a grid of {@link System#nanoTime()}, so rounding doesn't accumulate.
+ * Since Jelly Bean the frame is presented on the vsync closest to the deadline and the grid
+ * follows the vsync, otherwise the deadline is waited for by the handler of the pacer thread.
+ */
+class FramePacer implements Handler.Callback {
+	/** Presented in time if the vsync is this close to the deadline */
+	private static final long VSYNC_SLACK = 4000000;
+
+	private static final int MSG_REQUEST = 1;
+	private static final int MSG_FRAME = 2;
+
+	private static Handler handler;
+
+	interface Callback {
+		/**
+		 * Present the frame, called on the pacer thread.
+		 *
+		 * @param deadline the time the frame was due at
+		 * @param time     the time the frame is presented at
+		 */
+		void onFrame(long deadline, long time);
+	}
+
+	private final Callback callback;
+	private final Handler frameHandler;
+	private final long period;
+	private Object vsyncCallback;
+
+	/** Time of the last presented frame, the grid of deadlines starts here */
+	private long grid;
+	private long deadline;
+	private boolean scheduled;
+
+	/**
+	 * @param fps the frame rate to present at
+	 */
+	FramePacer(int fps, Callback callback) {
+		this.callback = callback;
+		this.period = 1000000000L / fps;
+		frameHandler = new Handler(getHandler().getLooper(), this);
+		grid = System.nanoTime() - period;
+	}
+
+	private static synchronized Handler getHandler() {
+		if (handler == null) {
+			HandlerThread thread = new HandlerThread("MIDletFramePacer");
+			thread.start();
+			handler = new Handler(thread.getLooper());
+		}
+		return handler;
+	}
+
+	/**
+	 * Request the present of a new frame, does nothing if a frame is already scheduled.
+	 */
+	void request() {
+		synchronized (this) {
+			if (scheduled) {
+				return;
+			}
+			scheduled = true;
+		}
+		frameHandler.sendEmptyMessage(MSG_REQUEST);
+	}
+
+	@Override
+	public boolean handleMessage(Message msg) {
+		if (msg.what == MSG_FRAME) {
+			present(System.nanoTime(), false);
+			return true;
+		}
+		long now = System.nanoTime();
+		deadline = grid + period;
+		if (now - deadline >= period) {
+			// nothing was presented for a while, start a new grid
+			deadline = now;
+		}
+		long delay = deadline - now;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			postVsyncCallback((delay - VSYNC_SLACK) / 1000000);
+		} else if (delay <= 0) {
+			present(now, false);
+		} else {
+			// round up, the frame must not be early
+			frameHandler.sendEmptyMessageAtTime(MSG_FRAME,
+					SystemClock.uptimeMillis() + (delay + 999999) / 1000000);
+		}
+		return true;
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private void postVsyncCallback(long delayMillis) {
+		if (vsyncCallback == null) {
+			// created on the pacer thread, the choreographer belongs to its looper
+			vsyncCallback = (Choreographer.FrameCallback) frameTimeNanos -> {
+				if (frameTimeNanos + VSYNC_SLACK < deadline) {
+					postVsyncCallback(0);
+				} else {
+					present(frameTimeNanos, true);
+				}
+			};
+		}
+		Choreographer.getInstance().postFrameCallbackDelayed(
+				(Choreographer.FrameCallback) vsyncCallback, Math.max(delayMillis, 0));
+	}
+
+	private void present(long time, boolean vsync) {
+		long late = time - deadline;
+		if (late >= period) {
+			// the frame is missed, keep presenting from now on
+			grid = time;
+		} else if (vsync && late <= VSYNC_SLACK) {
+			// keep the grid on the vsync
+			grid = time;
+		} else {
+			grid = deadline;
+		}
+		synchronized (this) {
+			scheduled = false;
+		}
+		callback.onFrame(deadline, time);
+	}
+}
@@ -44,6 +44,21 @@ public class Graphics implements com.vodafone.v10.graphics.j3d.Graphics3D, com.m
 	public static final int SOLID = 0;
 	public static final int DOTTED = 1;
 
+	/**
+	 * Linear part of the matrix for each Sprite transform,
+	 * indexed by transform * 4: scaleX, skewX, skewY, scaleY
+	 */
+	private static final int[] TRANSFORM_MATRICES = {
+			 1,  0,  0,  1, // TRANS_NONE
+			 1,  0,  0, -1, // TRANS_MIRROR_ROT180
+			-1,  0,  0,  1, // TRANS_MIRROR
+			-1,  0,  0, -1, // TRANS_ROT180
+			 0,  1,  1,  0, // TRANS_MIRROR_ROT270
+			 0, -1,  1,  0, // TRANS_ROT90
+			 0,  1, -1,  0, // TRANS_ROT270
+			 0, -1, -1,  0  // TRANS_MIRROR_ROT90
+	};
+
 	private final Canvas canvas;
 	private final Bitmap canvasBitmap;
 	private final Image image;
@@ -59,6 +74,9 @@ public class Graphics implements com.vodafone.v10.graphics.j3d.Graphics3D, com.m
 	private final Rect rect = new Rect();
 	private final RectF rectF = new RectF();
 	private final Path path = new Path();
+	private final Matrix matrix = new Matrix();
+	private final float[] matrixValues = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+	private final char[] charBuffer = new char[1];
 
 	private final DashPathEffect dashPathEffect = new DashPathEffect(new float[]{5, 5}, 0);
 	private int stroke = SOLID;
@@ -289,7 +307,8 @@ public class Graphics implements com.vodafone.v10.graphics.j3d.Graphics3D, com.m
 	}
 
 	public void drawChar(char character, int x, int y, int anchor) {
-		drawChars(new char[]{character}, 0, 1, x, y, anchor);
+		charBuffer[0] = character;
+		drawChars(charBuffer, 0, 1, x, y, anchor);
 	}
 
 	public void drawChars(char[] data, int offset, int length, int x, int y, int anchor) {
@@ -392,82 +411,84 @@ public class Graphics implements com.vodafone.v10.graphics.j3d.Graphics3D, com.m
 	public void drawRegion(Image image, int x_src, int y_src, int width, int height,
 						   int transform, int x_dst, int y_dst, int anchor) {
 		if (width <= 0 || height <= 0) return;
+		if (transform < 0 || transform > TRANS_MIRROR_ROT90) {
+			throw new IllegalArgumentException("Illegal transform=" + transform);
+		}
 
 		Rect srcR = rect;
 		RectF dstR = rectF;
-		float dx;
-		float dy;
 		srcR.set(x_src, y_src, x_src + width, y_src + height);
 
-		Matrix matrix = new Matrix();
-		switch (transform) {
-			case TRANS_NONE: {
-				if ((anchor & Graphics.RIGHT) != 0) {
-					dx = x_dst - width;
-				} else if ((anchor & Graphics.HCENTER) != 0) {
-					dx = x_dst - width / 2.0f;
-				} else {
-					dx = x_dst;
-				}
-				if ((anchor & Graphics.BOTTOM) != 0) {
-					dy = y_dst - height;
-				} else if ((anchor & Graphics.VCENTER) != 0) {
-					dy = y_dst - height / 2.0f;
-				} else {
-					dy = y_dst;
-				}
-
-				dstR.set(dx, dy, dx + width, dy + height);
-				canvas.drawBitmap(image.getBitmap(), srcR, dstR, null);
-				return;
+		if (transform == TRANS_NONE) {
+			float dx;
+			if ((anchor & Graphics.RIGHT) != 0) {
+				dx = x_dst - width;
+			} else if ((anchor & Graphics.HCENTER) != 0) {
+				dx = x_dst - width / 2.0f;
+			} else {
+				dx = x_dst;
+			}
+			float dy;
+			if ((anchor & Graphics.BOTTOM) != 0) {
+				dy = y_dst - height;
+			} else if ((anchor & Graphics.VCENTER) != 0) {
+				dy = y_dst - height / 2.0f;
+			} else {
+				dy = y_dst;
 			}
-			case TRANS_ROT90:
-				matrix.preRotate(90);
-				break;
-			case TRANS_ROT180:
-				matrix.preRotate(180);
-				break;
-			case TRANS_ROT270:
-				matrix.preRotate(270);
-				break;
-			case TRANS_MIRROR:
-				matrix.preScale(-1, 1);
-				break;
-			case TRANS_MIRROR_ROT90:
-				matrix.preRotate(90);
-				matrix.preScale(-1, 1);
-				break;
-			case TRANS_MIRROR_ROT180:
-				matrix.preRotate(180);
-				matrix.preScale(-1, 1);
-				break;
-			case TRANS_MIRROR_ROT270:
-				matrix.preRotate(270);
-				matrix.preScale(-1, 1);
-				break;
-			default:
-				throw new IllegalArgumentException("Illegal transform=" + transform);
+
+			dstR.set(dx, dy, dx + width, dy + height);
+			canvas.drawBitmap(image.getBitmap(), srcR, dstR, null);
+			return;
 		}
 
-		dstR.set(0, 0, width, height);
-		matrix.mapRect(dstR);
+		int index = transform << 2;
+		int scaleX = TRANSFORM_MATRICES[index];
+		int skewX = TRANSFORM_MATRICES[index + 1];
+		int skewY = TRANSFORM_MATRICES[index + 2];
+		int scaleY = TRANSFORM_MATRICES[index + 3];
+
+		// all transforms are multiples of 90 degrees,
+		// so the size of the destination rect is known without mapping
+		int dstWidth;
+		int dstHeight;
+		if (scaleX == 0) {
+			dstWidth = height;
+			dstHeight = width;
+		} else {
+			dstWidth = width;
+			dstHeight = height;
+		}
+		// top-left corner of the transformed region before translation
+		int left = Math.min(scaleX, 0) * width + Math.min(skewX, 0) * height;
+		int top = Math.min(skewY, 0) * width + Math.min(scaleY, 0) * height;
 
+		float dx;
 		if ((anchor & Graphics.RIGHT) != 0) {
-			dx = x_dst - dstR.width();
+			dx = x_dst - dstWidth;
 		} else if ((anchor & Graphics.HCENTER) != 0) {
-			dx = x_dst - dstR.width() / 2.0f;
+			dx = x_dst - dstWidth / 2.0f;
 		} else {
 			dx = x_dst;
 		}
+		float dy;
 		if ((anchor & Graphics.BOTTOM) != 0) {
-			dy = y_dst - dstR.height();
+			dy = y_dst - dstHeight;
 		} else if ((anchor & Graphics.VCENTER) != 0) {
-			dy = y_dst - dstR.height() / 2.0f;
+			dy = y_dst - dstHeight / 2.0f;
 		} else {
 			dy = y_dst;
 		}
 
-		matrix.postTranslate(Math.round(dx - dstR.left), Math.round(dy - dstR.top));
+		float[] values = matrixValues;
+		values[Matrix.MSCALE_X] = scaleX;
+		values[Matrix.MSKEW_X] = skewX;
+		values[Matrix.MTRANS_X] = Math.round(dx - left);
+		values[Matrix.MSKEW_Y] = skewY;
+		values[Matrix.MSCALE_Y] = scaleY;
+		values[Matrix.MTRANS_Y] = Math.round(dy - top);
+		Matrix matrix = this.matrix;
+		matrix.setValues(values);
 		dstR.set(0, 0, width, height);
 
 		canvas.save();
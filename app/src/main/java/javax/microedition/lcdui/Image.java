@@ -27,6 +27,7 @@ import android.util.LruCache;
 import java.io.IOException;
 import java.io.InputStream;
 
+import javax.microedition.lcdui.game.CollisionMask;
 import javax.microedition.lcdui.game.Sprite;
 import javax.microedition.util.ContextHolder;
 
@@ -48,6 +49,7 @@ public class Image {
 	private int save;
 	private Rect mBounds;
 	private boolean isBlackWhiteAlpha;
+	private CollisionMask collisionMask;
 
 	public Image(Bitmap bitmap) {
 		if (bitmap == null) {
@@ -163,6 +165,10 @@ public class Image {
 		dst.getSingleGraphics().getCanvas().drawBitmap(mBitmap, mBounds, mBounds, null);
 	}
 
+	void copyTo(Image dst, Rect region) {
+		dst.getSingleGraphics().getCanvas().drawBitmap(mBitmap, region, region, null);
+	}
+
 	void copyTo(Image dst, int x, int y) {
 		Rect r = new Rect(x, y, x + mBounds.right, y + mBounds.bottom);
 		dst.getSingleGraphics().getCanvas().drawBitmap(mBitmap, mBounds, r, null);
@@ -191,4 +197,12 @@ public class Image {
 	public void setBlackWhiteAlpha(boolean blackWhiteAlpha) {
 		isBlackWhiteAlpha = blackWhiteAlpha;
 	}
+
+	public CollisionMask getCollisionMask() {
+		return collisionMask;
+	}
+
+	public void setCollisionMask(CollisionMask collisionMask) {
+		this.collisionMask = collisionMask;
+	}
 }
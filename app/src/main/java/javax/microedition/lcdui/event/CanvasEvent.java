@@ -36,8 +36,6 @@ public class CanvasEvent extends Event {
 			HIDE_NOTIFY = 7,
 			SIZE_CHANGED = 8;
 
-	private static int[] enqueued = new int[9];
-
 	private Canvas canvas;
 	private int eventType;
 
@@ -49,6 +47,9 @@ public class CanvasEvent extends Event {
 	private int width;
 	private int height;
 
+	/** {@link System#nanoTime()} of the input, the earliest one of the coalesced events */
+	private long time;
+
 	public static Event getInstance(Canvas canvas, int eventType) {
 		CanvasEvent instance = recycled.pop();
 
@@ -58,6 +59,7 @@ public class CanvasEvent extends Event {
 
 		instance.canvas = canvas;
 		instance.eventType = eventType;
+		instance.time = System.nanoTime();
 
 		return instance;
 	}
@@ -71,6 +73,7 @@ public class CanvasEvent extends Event {
 
 		instance.canvas = canvas;
 		instance.eventType = eventType;
+		instance.time = System.nanoTime();
 		instance.keyCode = keyCode;
 
 		return instance;
@@ -85,6 +88,7 @@ public class CanvasEvent extends Event {
 
 		instance.canvas = canvas;
 		instance.eventType = eventType;
+		instance.time = System.nanoTime();
 		instance.pointer = pointer;
 		instance.x = x;
 		instance.y = y;
@@ -101,6 +105,7 @@ public class CanvasEvent extends Event {
 
 		instance.canvas = canvas;
 		instance.eventType = eventType;
+		instance.time = System.nanoTime();
 		instance.width = width;
 		instance.height = height;
 
@@ -184,6 +189,9 @@ public class CanvasEvent extends Event {
 				}
 				break;
 		}
+		if (eventType <= POINTER_RELEASED) {
+			canvas.onInputProcessed(time);
+		}
 	}
 
 	@Override
@@ -194,23 +202,43 @@ public class CanvasEvent extends Event {
 
 	@Override
 	public void enterQueue() {
-		enqueued[eventType]++;
 	}
 
 	@Override
 	public void leaveQueue() {
-		enqueued[eventType]--;
 	}
 
 	@Override
 	public boolean placeableAfter(Event event) {
-		if (event instanceof CanvasEvent) {
-			switch (eventType) {
-				case KEY_REPEATED:
-				case POINTER_DRAGGED:
-					return enqueued[eventType] < 2;
-			}
-		}
 		return true;
 	}
+
+	@Override
+	public boolean isInput() {
+		return eventType <= POINTER_RELEASED;
+	}
+
+	@Override
+	public boolean coalesce(Event event) {
+		if (!(event instanceof CanvasEvent)) {
+			return false;
+		}
+		CanvasEvent later = (CanvasEvent) event;
+		if (later.canvas != canvas || later.eventType != eventType) {
+			return false;
+		}
+		switch (eventType) {
+			case KEY_REPEATED:
+				// the MIDlet is behind, one repeat is as good as several
+				return later.keyCode == keyCode;
+			case POINTER_DRAGGED:
+				if (later.pointer != pointer) {
+					return false;
+				}
+				x = later.x;
+				y = later.y;
+				return true;
+		}
+		return false;
+	}
 }
@@ -72,4 +72,27 @@ public abstract class Event implements Runnable {
 	 * @return true, if we agree to that
 	 */
 	public abstract boolean placeableAfter(Event event);
+
+	/**
+	 * Check if this event comes from the user input.
+	 * A new input event may be merged into the last queued one.
+	 *
+	 * @return true, if this is an input event
+	 */
+	public boolean isInput() {
+		return false;
+	}
+
+	/**
+	 * Merge a later event into this one, while this event is still in the queue.
+	 * <p>
+	 * Instead of dropping the input that the MIDlet can't keep up with,
+	 * e.g. a stream of pointer moves is delivered as one move to the latest position.
+	 *
+	 * @param event the event posted after this one
+	 * @return true, if the later event was merged and should not be queued
+	 */
+	public boolean coalesce(Event event) {
+		return false;
+	}
 }
\ No newline at end of file
@@ -17,33 +17,52 @@
 
 package javax.microedition.lcdui.event;
 
-import javax.microedition.util.LinkedEntry;
-import javax.microedition.util.LinkedList;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * The event queue. A really complicated thing.
+ * <p>
+ * Events are kept in a ring of slots, posted by any thread and processed by one.
+ * Each slot has a sequence number that tells whose turn it is: a producer claims
+ * the position with a CAS on the tail and publishes the event by setting the sequence,
+ * the consumer frees the slot by setting the sequence of the next lap.
+ * Posting never blocks on the event loop.
+ * <p>
+ * A queued slot can be locked for a moment by setting its sequence to {@link #LOCKED}:
+ * the consumer can't take the event then and waits, so a producer may safely merge
+ * a new event into the last queued one and {@link #removeEvents(EventFilter)} may drop events.
  */
 public class EventQueue implements Runnable {
-	protected final LinkedList<Event> queue;
-	protected Event event;
+	private static final String TAG = EventQueue.class.getName();
+
+	/** Must be a power of two */
+	private static final int CAPACITY = 4096;
+	private static final long LOCKED = -1;
 
-	protected boolean enabled;
-	protected Thread thread;
+	private final Event[] slots = new Event[CAPACITY];
+	private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head;
+	/** Positions of the last posted event and the last posted input event */
+	private final AtomicLong lastPosition = new AtomicLong(-1);
+	private final AtomicLong lastInputPosition = new AtomicLong(-1);
 
-	private final Object waiter;
-	private final Object interlock;
+	protected volatile Event event;
 
-	private boolean running;
-	private boolean continuerun;
+	protected volatile boolean enabled;
+	protected volatile Thread thread;
+	private volatile boolean sleeping;
 
 	private static boolean immediate;
 
 	public EventQueue() {
-		queue = new LinkedList<>();
-
-		waiter = new Object();
-		interlock = new Object();
-
+		for (int i = 0; i < CAPACITY; i++) {
+			sequences.set(i, i);
+		}
 		immediate = false;
 	}
 
@@ -69,6 +88,7 @@ public class EventQueue implements Runnable {
 	 * the event is processed here,
 	 * in this case there is no queue at all
 	 * <p>
+	 * An input event may be merged into the last queued input event, see {@link Event#coalesce(Event)}.
 	 * If an event has been added to the queue,
 	 * its enterQueue() method is called.
 	 *
@@ -82,46 +102,119 @@ public class EventQueue implements Runnable {
 			return;            // and nothing to do here
 		}
 
-		boolean empty;
+		// the event may be processed and recycled as soon as it is queued
+		boolean input = event.isInput();
+		if (input && coalesce(lastInputPosition.get(), event)) {
+			event.recycle();
+			return;
+		}
 
-		synchronized (queue)    // all operations with the queue must be synchronized (on itself)
-		{
-			empty = queue.isEmpty();
+		/*
+		 * If the last event has already left the queue, then
+		 * either exactly one event remains and it is now being processed,
+		 * or there is not a single event left at all.
+		 *
+		 * In both cases, a new event should be added to the queue,
+		 * regardless of event.placeableAfter() value.
+		 */
+		long last = lastPosition.get();
+		int index = (int) last & (CAPACITY - 1);
+		if (last >= 0 && sequences.compareAndSet(index, last + 1, LOCKED)) {
+			Event previous = slots[index];
+			boolean placeable = previous == null || event.placeableAfter(previous);
+			sequences.set(index, last + 1);
+			if (!placeable) {
+				// leave the previous event, recycle the new one.
+				event.recycle();
+				return;
+			}
+		}
 
-			if (empty || event.placeableAfter(queue.getLast())) {
-				/*
-				 * If the queue itself is empty, then this already implies that either
-				 * exactly one event remains and it is now being processed,
-				 * or there is not a single event left at all.
-				 *
-				 * In both cases, a new event should be added to the queue,
-				 * regardless of event.placeableAfter() value.
-				 */
+		long position = enqueue(event);
+		advance(lastPosition, position);
+		if (input) {
+			advance(lastInputPosition, position);
+		}
+		if (sleeping) {
+			LockSupport.unpark(thread);
+		}
+	}
 
-				queue.addLast(event);
-				event.enterQueue();
-			} else {
-				// it is more correct, but additional checks are required
-				// queue.setLast(event).recycle(); // remove the previous event and add the new one.
-				event.recycle(); // more reliable // leave the previous event, recycle the new one.
+	/**
+	 * Merge the event into the queued event at the position, if it is still queued.
+	 */
+	private boolean coalesce(long position, Event event) {
+		int index = (int) position & (CAPACITY - 1);
+		if (position < 0 || !sequences.compareAndSet(index, position + 1, LOCKED)) {
+			return false;
+		}
+		Event queued = slots[index];
+		boolean merged = queued != null && queued.coalesce(event);
+		sequences.set(index, position + 1);
+		return merged;
+	}
+
+	private long enqueue(Event event) {
+		event.enterQueue();
+		while (true) {
+			long position = tail.get();
+			int index = (int) position & (CAPACITY - 1);
+			long sequence = sequences.get(index);
+			if (sequence == position) {
+				if (tail.compareAndSet(position, position + 1)) {
+					slots[index] = event;
+					sequences.set(index, position + 1);
+					return position;
+				}
+			} else if (sequence != LOCKED && sequence < position) {
+				// the queue is full, wait for the event loop
+				if (Thread.currentThread() == thread) {
+					// nobody else will free the slots
+					Log.w(TAG, "Queue overflow, event processed out of order: " + event);
+					event.run();
+					return position - 1;
+				}
+				Thread.yield();
 			}
 		}
+	}
 
-		if (empty) {
-			/*
-			 * on the other hand, if the queue was non-empty,
-			 * there is at least one more iteration for the events,
-			 * and this is not necessary
-			 */
+	/**
+	 * Set the value to the position if it is greater.
+	 */
+	private static void advance(AtomicLong value, long position) {
+		long current;
+		while ((current = value.get()) < position) {
+			if (value.compareAndSet(current, position)) {
+				break;
+			}
+		}
+	}
 
-			synchronized (waiter) {
-				if (running) {
-					continuerun = true;
-				} else {
-					waiter.notifyAll();
+	/**
+	 * Take the next event, waiting while its slot is locked.
+	 *
+	 * @return the event, null if the queue is empty or the event was removed
+	 */
+	private Event take() {
+		long position = head;
+		int index = (int) position & (CAPACITY - 1);
+		while (true) {
+			long sequence = sequences.get(index);
+			if (sequence == position + 1) {
+				if (sequences.compareAndSet(index, sequence, LOCKED)) {
+					break;
 				}
+			} else if (sequence != LOCKED) {
+				return null;
 			}
+			Thread.yield();
 		}
+		Event event = slots[index];
+		slots[index] = null;
+		head = position + 1;
+		sequences.set(index, position + CAPACITY);
+		return event;
 	}
 
 	/**
@@ -131,38 +224,23 @@ public class EventQueue implements Runnable {
 	 * @return true, if something has been removed
 	 */
 	public boolean removeEvents(EventFilter filter) {
-		if (queue.isEmpty()) {
-			return false;
-		}
-
 		boolean removed = false;
-
-		synchronized (queue) {
-
-			LinkedEntry<Event> entry = queue.firstEntry();
-			LinkedEntry<Event> last = queue.lastEntry();
-			LinkedEntry<Event> next;
-
-			while (true) {
-
-				next = entry.nextEntry();
-
-				Event element = entry.getElement();
-				if (filter.accept(element)) {
-					element.leaveQueue();
-					element.recycle();
-					queue.recycleEntry(entry);
-					removed = true;
-				}
-
-				if (entry != last) {
-					entry = next;
-				} else {
-					break;
-				}
+		for (long position = head, end = tail.get(); position < end; position++) {
+			int index = (int) position & (CAPACITY - 1);
+			// a slot still being written is skipped, its event is newer than the call
+			if (!sequences.compareAndSet(index, position + 1, LOCKED)) {
+				continue;
 			}
+			Event element = slots[index];
+			if (element != null && filter.accept(element)) {
+				// the empty slot is skipped by the event loop
+				slots[index] = null;
+				element.leaveQueue();
+				element.recycle();
+				removed = true;
+			}
+			sequences.set(index, position + 1);
 		}
-
 		return removed;
 	}
 
@@ -172,16 +250,14 @@ public class EventQueue implements Runnable {
 	 * @return true, if the queue is empty
 	 */
 	public boolean isEmpty() {
-		return queue.isEmpty();
+		return head == tail.get();
 	}
 
 	/**
 	 * Clear the queue.
 	 */
 	public void clear() {
-		synchronized (queue) {
-			queue.clear();
-		}
+		removeEvents(event -> true);
 	}
 
 	/**
@@ -204,13 +280,19 @@ public class EventQueue implements Runnable {
 	public void stopProcessing() {
 		enabled = false;
 
-		synchronized (waiter) {
-			waiter.notifyAll();
+		Thread thread = this.thread;
+		if (thread == null) {
+			return;
 		}
-
-		synchronized (interlock) {
-			thread = null;
+		LockSupport.unpark(thread);
+		if (thread != Thread.currentThread()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
 		}
+		this.thread = null;
 	}
 
 	/**
@@ -225,56 +307,30 @@ public class EventQueue implements Runnable {
 	 */
 	@Override
 	public void run() {
-		synchronized (interlock) {
-			running = true;
+		while (enabled) {
+			/*
+			 * The monitor of the queue is needed for Canvas.serviceRepaints():
+			 * while it holds the monitor, the current event can't change
+			 */
+			synchronized (this) {
+				event = take();
+			}
 
-			while (enabled) {
-				/*
-				 * blocking order:
-				 *
-				 * 1 - this
-				 * 2 - queue
-				 *
-				 * accordingly, inside the Canvas.serviceRepaints(), the order must be the same,
-				 * otherwise mutual blocking of two threads is possible (everything will hang)
-				 */
+			if (event != null) {
+				event.run();
 
-				synchronized (this)        // needed for Canvas.serviceRepaints()
-				{
-					synchronized (queue)    // needed for postEvent()
-					{
-						event = queue.removeFirst();    // get the first item and immediately remove from the queue
-					}
+				synchronized (this) {
+					event = null;
+					this.notifyAll();
 				}
-
-				if (event != null) {
-					event.run();
-
-					synchronized (this) {
-						synchronized (queue) {
-							event = null;
-						}
-
-						this.notifyAll();
-					}
-				} else {
-					synchronized (waiter) {
-						if (continuerun) {
-							continuerun = false;
-						} else {
-							running = false;
-
-							try {
-								waiter.wait();
-							} catch (InterruptedException ie) {
-								ie.printStackTrace();
-							}
-
-							running = true;
-						}
-					}
+			} else if (isEmpty()) {
+				sleeping = true;
+				// a post between the check and the park makes the park return at once
+				if (isEmpty() && enabled) {
+					LockSupport.park(this);
 				}
+				sleeping = false;
 			}
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui.game;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+
+import javax.microedition.lcdui.Image;
+
+/**
+ * Packed 1-bit opacity masks of the image frames, used for pixel-level collision detection.
+ * <p>
+ * Each mask is built lazily for a (frame, transform) pair in the painter's orientation,
+ * so two masks can be compared directly word by word. Bits are stored MSB first,
+ * every row is padded with one extra word to allow unaligned reads without bounds checks.
+ */
+public final class CollisionMask {
+	private static final int FULLY_OPAQUE_ALPHA = 0xff;
+
+	private final Image image;
+	private final int frameWidth;
+	private final int frameHeight;
+	private final int framesPerRow;
+	private final int[][] masks;
+	private int generationId;
+	/** Masks of the same image for another frame size */
+	private CollisionMask next;
+
+	private CollisionMask(Image image, int frameWidth, int frameHeight) {
+		this.image = image;
+		this.frameWidth = frameWidth;
+		this.frameHeight = frameHeight;
+		framesPerRow = image.getWidth() / frameWidth;
+		masks = new int[framesPerRow * (image.getHeight() / frameHeight) << 3][];
+		generationId = image.getBitmap().getGenerationId();
+	}
+
+	/**
+	 * Get the masks of the image divided into frames of the given size.
+	 */
+	static CollisionMask get(Image image, int frameWidth, int frameHeight) {
+		CollisionMask head = image.getCollisionMask();
+		CollisionMask mask = head;
+		// e.g. a sprite sheet used as a tileset, each frame size has its own masks
+		while (mask != null && (mask.frameWidth != frameWidth || mask.frameHeight != frameHeight)) {
+			mask = mask.next;
+		}
+		if (mask == null) {
+			mask = new CollisionMask(image, frameWidth, frameHeight);
+			mask.next = head;
+			image.setCollisionMask(mask);
+		} else if (image.isMutable()) {
+			int generationId = image.getBitmap().getGenerationId();
+			if (mask.generationId != generationId) {
+				mask.generationId = generationId;
+				for (int i = 0; i < mask.masks.length; i++) {
+					mask.masks[i] = null;
+				}
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Number of ints in a mask row of the given width.
+	 */
+	static int stride(int width) {
+		return (width + 31 >> 5) + 1;
+	}
+
+	int[] getMask(int frame, int transform) {
+		int key = frame << 3 | transform;
+		int[] mask = masks[key];
+		if (mask == null) {
+			mask = masks[key] = build(frame, transform);
+		}
+		return mask;
+	}
+
+	private int[] build(int frame, int transform) {
+		int srcX = frame % framesPerRow * frameWidth;
+		int srcY = frame / framesPerRow * frameHeight;
+		Bitmap source = image.getBitmap();
+		Matrix matrix = transform == Sprite.TRANS_NONE ? null
+				: Sprite.transformMatrix(transform, frameWidth / 2.0f, frameHeight / 2.0f);
+		Bitmap bitmap = Bitmap.createBitmap(source, srcX, srcY, frameWidth, frameHeight, matrix, false);
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		int[] pixels = new int[width * height];
+		bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+		if (bitmap != source) {
+			bitmap.recycle();
+		}
+
+		int stride = stride(width);
+		int[] mask = new int[stride * height];
+		for (int y = 0, p = 0, row = 0; y < height; y++, row += stride) {
+			for (int x = 0; x < width; x++, p++) {
+				if (pixels[p] >>> 24 == FULLY_OPAQUE_ALPHA) {
+					mask[row + (x >> 5)] |= 0x80000000 >>> (x & 31);
+				}
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Check if the opaque pixels of two masks intersect.
+	 *
+	 * @param mask1   first mask
+	 * @param stride1 row stride of the first mask
+	 * @param x1      left of the compared area in the first mask
+	 * @param y1      top of the compared area in the first mask
+	 * @param mask2   second mask
+	 * @param stride2 row stride of the second mask
+	 * @param x2      left of the compared area in the second mask
+	 * @param y2      top of the compared area in the second mask
+	 * @param width   width of the compared area
+	 * @param height  height of the compared area
+	 */
+	static boolean intersects(int[] mask1, int stride1, int x1, int y1,
+							  int[] mask2, int stride2, int x2, int y2,
+							  int width, int height) {
+		for (int row1 = y1 * stride1, row2 = y2 * stride2, end = row1 + height * stride1;
+			 row1 < end; row1 += stride1, row2 += stride2) {
+			for (int k = 0; k < width; k += 32) {
+				int bits = bitsAt(mask1, row1, x1 + k) & bitsAt(mask2, row2, x2 + k);
+				int remaining = width - k;
+				if (remaining < 32) {
+					bits &= -1 << (32 - remaining);
+				}
+				if (bits != 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static int bitsAt(int[] mask, int row, int x) {
+		int i = row + (x >> 5);
+		int shift = x & 31;
+		if (shift == 0) {
+			return mask[i];
+		}
+		return mask[i] << shift | mask[i + 1] >>> (32 - shift);
+	}
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui.game;
+
+import android.graphics.Bitmap;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.WeakHashMap;
+
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
+
+/**
+ * Cache of pre-transformed frames.
+ * <p>
+ * Every (frame, transform) pair drawn through the atlas is baked once into a packed
+ * sheet bitmap, so subsequent draws are plain unrotated blits.
+ * Sheets are grouped by the source image and evicted in LRU order when the memory
+ * cap is exceeded. Sheets of mutable images are rebuilt when the source is drawn into.
+ * Source images are not kept alive by the atlas, their sheets are dropped with them.
+ * <p>
+ * Evicted sheets are not recycled but left to the GC, they may still be drawn
+ * by another thread, the blits are done outside of the lock.
+ */
+public final class FrameAtlas {
+	private static final int MAX_BYTES = (int) (Runtime.getRuntime().maxMemory() >> 4); // 1/16 heap max
+	private static final int MAX_SHEET_SIZE = 2048;
+
+	private static boolean enabled;
+	private static int usedBytes;
+	private static final WeakHashMap<Image, Entry> ENTRIES = new WeakHashMap<>();
+	/* Entries in LRU order */
+	private static final LinkedHashMap<Entry, Entry> LRU = new LinkedHashMap<>(16, 0.75f, true);
+	/* Entries of the collected source images */
+	private static final ReferenceQueue<Image> QUEUE = new ReferenceQueue<>();
+
+	private FrameAtlas() {
+	}
+
+	public static void setEnabled(boolean enabled) {
+		synchronized (ENTRIES) {
+			FrameAtlas.enabled = enabled;
+			if (!enabled) {
+				clear();
+			}
+		}
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void clear() {
+		synchronized (ENTRIES) {
+			for (Entry entry : LRU.keySet()) {
+				entry.release();
+			}
+			ENTRIES.clear();
+			LRU.clear();
+			usedBytes = 0;
+		}
+	}
+
+	/**
+	 * Draw a frame of the source image. The frame must be aligned to the grid of frames
+	 * with the given size, as it is for the Sprite frames.
+	 * Falls back to {@link Graphics#drawRegion} if the frame can't be cached.
+	 */
+	static void drawFrame(Graphics g, Image image, int srcX, int srcY, int frameWidth, int frameHeight,
+						  int transform, int x, int y) {
+		if (enabled && transform != Sprite.TRANS_NONE) {
+			Image sheetImage = null;
+			int slot = -1;
+			int w = 0;
+			int h = 0;
+			int columns = 0;
+			synchronized (ENTRIES) {
+				Sheet sheet = getSheet(image, frameWidth, frameHeight, transform);
+				if (sheet != null) {
+					slot = sheet.getSlot(image, srcX, srcY, transform);
+					sheetImage = sheet.image;
+					w = sheet.cellWidth;
+					h = sheet.cellHeight;
+					columns = sheet.columns;
+				}
+			}
+			if (slot >= 0) {
+				g.drawRegion(sheetImage, slot % columns * w, slot / columns * h,
+						w, h, Sprite.TRANS_NONE, x, y, Graphics.TOP | Graphics.LEFT);
+				return;
+			}
+		}
+		g.drawRegion(image, srcX, srcY, frameWidth, frameHeight, transform, x, y,
+				Graphics.TOP | Graphics.LEFT);
+	}
+
+	private static Sheet getSheet(Image image, int frameWidth, int frameHeight, int transform) {
+		purge();
+		Entry entry = ENTRIES.get(image);
+		if (entry == null) {
+			entry = new Entry(image);
+			ENTRIES.put(image, entry);
+			LRU.put(entry, entry);
+		} else if (LRU.get(entry) == null) {
+			// evicted, the entry is empty and starts over
+			LRU.put(entry, entry);
+		}
+		if (image.isMutable()) {
+			int generationId = image.getBitmap().getGenerationId();
+			if (entry.generationId != generationId) {
+				entry.invalidate();
+				entry.generationId = generationId;
+			}
+		}
+		boolean inverted = (transform & Sprite.INVERTED_AXES) != 0;
+		for (Sheet sheet : entry.sheets) {
+			if (sheet.frameWidth == frameWidth && sheet.frameHeight == frameHeight
+					&& sheet.inverted == inverted) {
+				return sheet;
+			}
+		}
+		Sheet sheet = Sheet.create(image, frameWidth, frameHeight, inverted);
+		if (sheet != null) {
+			entry.sheets = Arrays.copyOf(entry.sheets, entry.sheets.length + 1);
+			entry.sheets[entry.sheets.length - 1] = sheet;
+		}
+		return sheet;
+	}
+
+	/**
+	 * Release the sheets of the collected source images.
+	 */
+	private static void purge() {
+		Entry entry;
+		while ((entry = (Entry) QUEUE.poll()) != null) {
+			if (LRU.remove(entry) != null) {
+				entry.release();
+			}
+		}
+	}
+
+	private static void allocated(int bytes) {
+		usedBytes += bytes;
+		Iterator<Entry> iterator = LRU.keySet().iterator();
+		// the most recently used entry is the last one and is never evicted here
+		while (usedBytes > MAX_BYTES && LRU.size() > 1) {
+			Entry eldest = iterator.next();
+			iterator.remove();
+			eldest.release();
+		}
+	}
+
+	/**
+	 * Sheets of a source image, the image is only weakly referenced.
+	 */
+	private static class Entry extends WeakReference<Image> {
+		Sheet[] sheets = new Sheet[0];
+		int generationId;
+
+		Entry(Image image) {
+			super(image, QUEUE);
+			generationId = image.getBitmap().getGenerationId();
+		}
+
+		void invalidate() {
+			for (Sheet sheet : sheets) {
+				sheet.invalidate();
+			}
+		}
+
+		void release() {
+			for (Sheet sheet : sheets) {
+				usedBytes -= sheet.getByteCount();
+			}
+			sheets = new Sheet[0];
+		}
+	}
+
+	private static class Sheet {
+		final int frameWidth;
+		final int frameHeight;
+		final boolean inverted;
+		final int cellWidth;
+		final int cellHeight;
+		final int columns;
+		final int framesPerRow;
+		/** Slot index of every frame * 8 + transform, -1 if not baked yet */
+		final int[] slots;
+		final int maxRows;
+		int rows;
+		int used;
+		Image image;
+		Graphics graphics;
+
+		private Sheet(int frameWidth, int frameHeight, boolean inverted, int framesPerRow, int frames) {
+			this.frameWidth = frameWidth;
+			this.frameHeight = frameHeight;
+			this.inverted = inverted;
+			this.framesPerRow = framesPerRow;
+			cellWidth = inverted ? frameHeight : frameWidth;
+			cellHeight = inverted ? frameWidth : frameHeight;
+			slots = new int[frames << 3];
+			Arrays.fill(slots, -1);
+			// each frame can be baked with up to four transforms of the same orientation
+			int maxSlots = frames << 2;
+			columns = Math.max(1, Math.min(maxSlots, MAX_SHEET_SIZE / cellWidth));
+			maxRows = Math.min((maxSlots + columns - 1) / columns, MAX_SHEET_SIZE / cellHeight);
+		}
+
+		static Sheet create(Image image, int frameWidth, int frameHeight, boolean inverted) {
+			int framesPerRow = image.getWidth() / frameWidth;
+			int frames = framesPerRow * (image.getHeight() / frameHeight);
+			if (frames <= 0 || frameWidth > MAX_SHEET_SIZE || frameHeight > MAX_SHEET_SIZE) {
+				return null;
+			}
+			Sheet sheet = new Sheet(frameWidth, frameHeight, inverted, framesPerRow, frames);
+			if (!sheet.grow()) {
+				return null;
+			}
+			return sheet;
+		}
+
+		int getSlot(Image source, int srcX, int srcY, int transform) {
+			int key = ((srcY / frameHeight) * framesPerRow + srcX / frameWidth) << 3 | transform;
+			if (key < 0 || key >= slots.length) {
+				return -1;
+			}
+			int slot = slots[key];
+			if (slot >= 0) {
+				return slot;
+			}
+			if (used == columns * rows && !grow()) {
+				return -1;
+			}
+			slot = used++;
+			graphics.drawRegion(source, srcX, srcY, frameWidth, frameHeight, transform,
+					slot % columns * cellWidth, slot / columns * cellHeight, Graphics.TOP | Graphics.LEFT);
+			slots[key] = slot;
+			return slot;
+		}
+
+		private boolean grow() {
+			int newRows = rows == 0 ? 1 : Math.min(rows << 1, maxRows);
+			if (newRows <= rows) {
+				return false;
+			}
+			Bitmap bitmap;
+			try {
+				bitmap = Bitmap.createBitmap(columns * cellWidth, newRows * cellHeight,
+						Bitmap.Config.ARGB_8888);
+			} catch (OutOfMemoryError e) {
+				return false;
+			}
+			Image old = image;
+			image = new Image(bitmap);
+			graphics = image.getGraphics();
+			if (old != null) {
+				graphics.drawImage(old, 0, 0, Graphics.TOP | Graphics.LEFT);
+				usedBytes -= old.getBitmap().getByteCount();
+			}
+			rows = newRows;
+			allocated(bitmap.getByteCount());
+			return true;
+		}
+
+		void invalidate() {
+			Arrays.fill(slots, -1);
+			used = 0;
+			image.getBitmap().eraseColor(0);
+		}
+
+		int getByteCount() {
+			return image.getBitmap().getByteCount();
+		}
+	}
+}
@@ -24,7 +24,7 @@ public class TiledLayer extends Layer {
 	private int cellWidth;
 	private int rows;
 	private int columns;
-	private int[][] cellMatrix;
+	int[][] cellMatrix;
 
 	Image sourceImage;
 	private int numberOfTiles;
@@ -32,6 +32,7 @@ public class TiledLayer extends Layer {
 	int[] tileSetY;
 	private int[] anim_to_static;
 	private int numOfAnimTiles;
+	private final TiledLayerRenderer renderer = new TiledLayerRenderer(this);
 
 	public TiledLayer(int columns, int rows, Image image, int tileWidth,
 					  int tileHeight) {
@@ -85,7 +86,7 @@ public class TiledLayer extends Layer {
 		}
 
 		anim_to_static[animatedTileIndex] = staticTileIndex;
-
+		renderer.invalidate();
 	}
 
 	public int getAnimatedTile(int animatedTileIndex) {
@@ -117,7 +118,7 @@ public class TiledLayer extends Layer {
 		}
 
 		cellMatrix[row][col] = tileIndex;
-
+		renderer.invalidate();
 	}
 
 	public int getCell(int col, int row) {
@@ -156,6 +157,7 @@ public class TiledLayer extends Layer {
 				cellMatrix[rowCount][columnCount] = tileIndex;
 			}
 		}
+		renderer.invalidate();
 	}
 
 	public final int getCellWidth() {
@@ -239,7 +241,11 @@ public class TiledLayer extends Layer {
 				endRow -= number;
 			}
 
-			// paint all visible cells
+			if (renderer.paint(g, startColumn, startRow, endColumn, endRow)) {
+				return;
+			}
+
+			// the window is too big to be cached, paint all visible cells
 			int tileIndex = 0;
 
 			// y-coordinate
@@ -284,6 +290,7 @@ public class TiledLayer extends Layer {
 		int imageH = image.getHeight();
 
 		sourceImage = image;
+		renderer.reset();
 
 		numberOfTiles = noOfFrames;
 		tileSetX = new int[numberOfTiles];
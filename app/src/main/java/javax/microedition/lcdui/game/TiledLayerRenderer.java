@@ -0,0 +1,203 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui.game;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+
+import java.util.Arrays;
+
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
+
+/**
+ * Retained-mode renderer of the TiledLayer.
+ * <p>
+ * The visible cells are kept pre-composited in a buffer that is addressed as a ring
+ * in both directions, so scrolling only needs to render the newly exposed cells
+ * and the buffer is drawn to the screen with at most four blits.
+ * Every slot of the buffer remembers the cell and the tile drawn into it,
+ * only the slots that no longer match the layer are redrawn.
+ */
+class TiledLayerRenderer {
+	/** Max size of the buffer, larger windows are drawn directly */
+	private static final int MAX_PIXELS = 1024 * 1024;
+
+	private final TiledLayer layer;
+	private final Paint clearPaint = new Paint();
+
+	private Image buffer;
+	private Graphics bufferGraphics;
+	private int ringColumns;
+	private int ringRows;
+	private int[] slotColumns;
+	private int[] slotRows;
+	private int[] slotTiles;
+
+	private int windowColumn;
+	private int windowRow;
+	private int windowColumns;
+	private int windowRows;
+	private boolean changed = true;
+	private int generationId;
+
+	TiledLayerRenderer(TiledLayer layer) {
+		this.layer = layer;
+		clearPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+	}
+
+	/**
+	 * Cells or animated tiles have changed.
+	 */
+	void invalidate() {
+		changed = true;
+	}
+
+	/**
+	 * The tile set has changed, the buffer must be recreated.
+	 */
+	void reset() {
+		buffer = null;
+		bufferGraphics = null;
+		changed = true;
+	}
+
+	/**
+	 * Draw the visible cells of the layer.
+	 *
+	 * @return false if the window is too big to be cached and must be drawn directly
+	 */
+	boolean paint(Graphics g, int startColumn, int startRow, int endColumn, int endRow) {
+		int columns = endColumn - startColumn;
+		int rows = endRow - startRow;
+		if (columns <= 0 || rows <= 0) {
+			return true;
+		}
+		int cellWidth = layer.getCellWidth();
+		int cellHeight = layer.getCellHeight();
+		if (buffer == null || columns > ringColumns || rows > ringRows) {
+			int newColumns = Math.min(columns + 1, layer.getColumns());
+			int newRows = Math.min(rows + 1, layer.getRows());
+			if (newColumns * cellWidth * newRows * cellHeight > MAX_PIXELS) {
+				return false;
+			}
+			allocate(newColumns, newRows, cellWidth, cellHeight);
+		}
+		Image source = layer.sourceImage;
+		if (source.isMutable()) {
+			int id = source.getBitmap().getGenerationId();
+			if (id != generationId) {
+				generationId = id;
+				Arrays.fill(slotTiles, -1);
+				changed = true;
+			}
+		}
+		if (changed || startColumn != windowColumn || startRow != windowRow
+				|| columns != windowColumns || rows != windowRows) {
+			update(startColumn, startRow, columns, rows, cellWidth, cellHeight);
+			windowColumn = startColumn;
+			windowRow = startRow;
+			windowColumns = columns;
+			windowRows = rows;
+			changed = false;
+		}
+
+		// the window wraps around the ring at most once in each direction
+		int ringColumn = startColumn % ringColumns;
+		int ringRow = startRow % ringRows;
+		int columns1 = Math.min(columns, ringColumns - ringColumn);
+		int rows1 = Math.min(rows, ringRows - ringRow);
+		int x = layer.x + startColumn * cellWidth;
+		int y = layer.y + startRow * cellHeight;
+		int x2 = x + columns1 * cellWidth;
+		int y2 = y + rows1 * cellHeight;
+		blit(g, ringColumn, ringRow, columns1, rows1, x, y);
+		if (columns1 < columns) {
+			blit(g, 0, ringRow, columns - columns1, rows1, x2, y);
+		}
+		if (rows1 < rows) {
+			blit(g, ringColumn, 0, columns1, rows - rows1, x, y2);
+			if (columns1 < columns) {
+				blit(g, 0, 0, columns - columns1, rows - rows1, x2, y2);
+			}
+		}
+		return true;
+	}
+
+	private void allocate(int columns, int rows, int cellWidth, int cellHeight) {
+		if (buffer != null) {
+			buffer.getBitmap().recycle();
+		}
+		Bitmap bitmap = Bitmap.createBitmap(columns * cellWidth, rows * cellHeight, Bitmap.Config.ARGB_8888);
+		buffer = new Image(bitmap);
+		bufferGraphics = buffer.getGraphics();
+		ringColumns = columns;
+		ringRows = rows;
+		int slots = columns * rows;
+		slotColumns = new int[slots];
+		slotRows = new int[slots];
+		slotTiles = new int[slots];
+		Arrays.fill(slotColumns, -1);
+		Arrays.fill(slotTiles, -1);
+		generationId = layer.sourceImage.getBitmap().getGenerationId();
+		changed = true;
+	}
+
+	private void update(int startColumn, int startRow, int columns, int rows,
+						int cellWidth, int cellHeight) {
+		int[][] cells = layer.cellMatrix;
+		Canvas canvas = bufferGraphics.getCanvas();
+		for (int row = startRow, endRow = startRow + rows; row < endRow; row++) {
+			int ringRow = row % ringRows;
+			int slotY = ringRow * cellHeight;
+			int[] cellRow = cells[row];
+			for (int column = startColumn, endColumn = startColumn + columns; column < endColumn; column++) {
+				int tile = cellRow[column];
+				if (tile < 0) {
+					tile = layer.getAnimatedTile(tile);
+				}
+				int ringColumn = column % ringColumns;
+				int slot = ringRow * ringColumns + ringColumn;
+				if (slotColumns[slot] == column && slotRows[slot] == row && slotTiles[slot] == tile) {
+					continue;
+				}
+				int slotX = ringColumn * cellWidth;
+				canvas.drawRect(slotX, slotY, slotX + cellWidth, slotY + cellHeight, clearPaint);
+				if (tile != 0) {
+					bufferGraphics.drawRegion(layer.sourceImage,
+							layer.tileSetX[tile], layer.tileSetY[tile],
+							cellWidth, cellHeight, Sprite.TRANS_NONE,
+							slotX, slotY, Graphics.TOP | Graphics.LEFT);
+				}
+				slotColumns[slot] = column;
+				slotRows[slot] = row;
+				slotTiles[slot] = tile;
+			}
+		}
+	}
+
+	private void blit(Graphics g, int ringColumn, int ringRow, int columns, int rows, int x, int y) {
+		int cellWidth = layer.getCellWidth();
+		int cellHeight = layer.getCellHeight();
+		g.drawRegion(buffer, ringColumn * cellWidth, ringRow * cellHeight,
+				columns * cellWidth, rows * cellHeight, Sprite.TRANS_NONE,
+				x, y, Graphics.TOP | Graphics.LEFT);
+	}
+}
@@ -97,8 +97,16 @@ public class CanvasWrapper {
 	}
 
 	public void drawBackgroundedText(String text) {
+		drawBackgroundedText(text, 0);
+	}
+
+	/**
+	 * Draw the text at the top left corner, below the given number of lines.
+	 */
+	public void drawBackgroundedText(String text, int line) {
 		float width = textPaint.measureText(text);
-		canvas.drawRect(0, 0, width, textHeight, fillPaint);
-		canvas.drawText(text, width / 2.0f, -textAscent, textPaint);
+		float top = line * textHeight;
+		canvas.drawRect(0, top, width, top + textHeight, fillPaint);
+		canvas.drawText(text, width / 2.0f, top - textAscent, textPaint);
 	}
 }
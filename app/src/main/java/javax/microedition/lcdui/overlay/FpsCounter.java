@@ -15,17 +15,31 @@
  */
 package javax.microedition.lcdui.overlay;
 
+import android.annotation.SuppressLint;
+import android.util.Log;
 import android.view.View;
 
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.Timer;
 import java.util.TimerTask;
 
 import javax.microedition.lcdui.graphics.CanvasWrapper;
 
+import ru.playsoftware.j2meloader.config.Config;
+
 public class FpsCounter extends TimerTask implements Layer {
+	private static final String TAG = FpsCounter.class.getName();
+	/** Traces kept in the directory, the older ones are deleted */
+	private static final int MAX_TRACES = 5;
 
 	private final View view;
+	private final FrameRecorder recorder = new FrameRecorder();
 	private String prevFrameCount = "0";
+	private String[] summary = new String[0];
 	private int totalFrameCount;
 	private Timer mTimer;
 
@@ -37,21 +51,66 @@ public class FpsCounter extends TimerTask implements Layer {
 
 	public void run() {
 		prevFrameCount = String.valueOf(totalFrameCount);
+		summary = recorder.summary();
 		totalFrameCount = 0;
 		view.postInvalidate();
 	}
 
 	public void increment() {
 		totalFrameCount++;
+		recorder.frame();
+	}
+
+	public FrameRecorder getRecorder() {
+		return recorder;
 	}
 
 	public void paint(CanvasWrapper g) {
 		g.setFillColor(0x90000000);
 		g.setTextColor(0xFF00FF00);
 		g.drawBackgroundedText(prevFrameCount);
+		String[] summary = this.summary;
+		for (int i = 0; i < summary.length; i++) {
+			g.drawBackgroundedText(summary[i], i + 1);
+		}
 	}
 
 	public void stop() {
 		mTimer.cancel();
+		new Thread(this::writeTrace, "FrameTraceWriter").start();
+	}
+
+	/**
+	 * Save the frames of the session for offline analysis.
+	 * Only the last {@link #MAX_TRACES} traces are kept.
+	 */
+	@SuppressLint("SimpleDateFormat")
+	private void writeTrace() {
+		File dir = new File(Config.getEmulatorDir(), "traces");
+		String name = "frames-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json";
+		try {
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Can't create directory: " + dir);
+			}
+			File file = new File(dir, name);
+			recorder.writeTrace(file);
+			Log.i(TAG, "Frame trace saved to " + file);
+			deleteOldTraces(dir);
+		} catch (IOException e) {
+			Log.w(TAG, "writeTrace: ", e);
+		}
+	}
+
+	private static void deleteOldTraces(File dir) {
+		File[] traces = dir.listFiles((d, name) -> name.startsWith("frames-") && name.endsWith(".json"));
+		if (traces == null || traces.length <= MAX_TRACES) {
+			return;
+		}
+		// the names sort by time
+		Arrays.sort(traces);
+		for (int i = 0; i < traces.length - MAX_TRACES; i++) {
+			//noinspection ResultOfMethodCallIgnored
+			traces[i].delete();
+		}
 	}
 }
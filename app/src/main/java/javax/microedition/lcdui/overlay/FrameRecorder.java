@@ -0,0 +1,244 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui.overlay;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Records the time spent in the stages of the frames of a canvas.
+ * <p>
+ * Stage times are kept in preallocated ring buffers, recording allocates nothing.
+ * The last frame intervals give the percentiles shown by {@link FpsCounter},
+ * the last stage events can be written as a Chrome trace (chrome://tracing, Perfetto).
+ */
+public class FrameRecorder {
+	/** From repaint() to the start of the paint event */
+	public static final int STAGE_QUEUE = 0;
+	/** Canvas.paint() of the MIDlet */
+	public static final int STAGE_PAINT = 1;
+	/** Copy of the offscreen buffer to the one shown */
+	public static final int STAGE_COPY = 2;
+	/** Distance of the present from the deadline of the FPS limit */
+	public static final int STAGE_PACE = 3;
+	/** Draw of the frame on the surface */
+	public static final int STAGE_PRESENT = 4;
+	/** From an input event to the present of the first frame after it was handled */
+	public static final int STAGE_INPUT = 5;
+	public static final int STAGES = 6;
+
+	/** End of a presented frame, recorded with zero duration */
+	private static final int FRAME = STAGES;
+	private static final String[] NAMES = {"queue", "paint", "copy", "pace", "present", "input", "frame"};
+
+	// both sizes are powers of two
+	private static final int EVENTS = 8192;
+	private static final int FRAMES = 256;
+
+	/** A frame is janky if it took longer than this many median frames */
+	private static final int JANK_FACTOR = 2;
+
+	private final long[] eventStart = new long[EVENTS];
+	private final int[] eventDuration = new int[EVENTS];
+	private final byte[] eventStage = new byte[EVENTS];
+	private final int[] eventThread = new int[EVENTS];
+	private int eventCount;
+
+	/** Intervals between the presented frames in microseconds */
+	private final int[] frameIntervals = new int[FRAMES];
+	private final int[] sorted = new int[FRAMES];
+	private int frameCount;
+	private long lastFrameTime;
+	/** Stage times since the last summary */
+	private final long[] stageTotals = new long[STAGES];
+	private int summaryFrameCount;
+	private int summaryInputCount;
+	private long queuedTime;
+	/** Earliest input handled since the last frame */
+	private long inputTime;
+
+	/**
+	 * Record a stage ended now.
+	 *
+	 * @param start {@link System#nanoTime()} at the start of the stage
+	 */
+	public synchronized void record(int stage, long start) {
+		long now = System.nanoTime();
+		add(stage, start, now - start);
+		stageTotals[stage] += now - start;
+	}
+
+	/**
+	 * A paced frame is presented, the pacing error is recorded as the pace stage.
+	 *
+	 * @param deadline {@link System#nanoTime()} the frame was due at
+	 * @param time     {@link System#nanoTime()} the frame is presented at
+	 */
+	public synchronized void paced(long deadline, long time) {
+		long start = Math.min(deadline, time);
+		long error = Math.abs(time - deadline);
+		add(STAGE_PACE, start, error);
+		stageTotals[STAGE_PACE] += error;
+	}
+
+	/**
+	 * A repaint was requested, the queue stage starts if it isn't started yet.
+	 */
+	public synchronized void queued() {
+		if (queuedTime == 0) {
+			queuedTime = System.nanoTime();
+		}
+	}
+
+	/**
+	 * The paint event is processed, the queue stage ends.
+	 */
+	public synchronized void dequeued() {
+		if (queuedTime != 0) {
+			record(STAGE_QUEUE, queuedTime);
+			queuedTime = 0;
+		}
+	}
+
+	/**
+	 * An input event was handled, its latency stage ends with the next presented frame.
+	 *
+	 * @param time {@link System#nanoTime()} of the input
+	 */
+	public synchronized void input(long time) {
+		if (inputTime == 0 || time - inputTime < 0) {
+			inputTime = time;
+		}
+	}
+
+	/**
+	 * A frame was presented.
+	 */
+	public synchronized void frame() {
+		long now = System.nanoTime();
+		if (inputTime != 0) {
+			record(STAGE_INPUT, inputTime);
+			summaryInputCount++;
+			inputTime = 0;
+		}
+		add(FRAME, now, 0);
+		if (lastFrameTime != 0) {
+			long interval = (now - lastFrameTime) / 1000;
+			frameIntervals[frameCount++ & (FRAMES - 1)] = (int) Math.min(interval, Integer.MAX_VALUE);
+		}
+		lastFrameTime = now;
+	}
+
+	private void add(int stage, long start, long duration) {
+		int i = eventCount++ & (EVENTS - 1);
+		eventStart[i] = start;
+		eventDuration[i] = (int) Math.min(duration, Integer.MAX_VALUE);
+		eventStage[i] = (byte) stage;
+		eventThread[i] = (int) Thread.currentThread().getId();
+	}
+
+	/**
+	 * Percentiles of the recent frame intervals, the jank count and the average
+	 * stage times of the frames since the previous call.
+	 */
+	public synchronized String[] summary() {
+		int count = Math.min(frameCount, FRAMES);
+		int frames = frameCount - summaryFrameCount;
+		int inputs = summaryInputCount;
+		summaryFrameCount = frameCount;
+		summaryInputCount = 0;
+		if (count == 0) {
+			Arrays.fill(stageTotals, 0);
+			return new String[0];
+		}
+		System.arraycopy(frameIntervals, 0, sorted, 0, count);
+		Arrays.sort(sorted, 0, count);
+		int median = sorted[count / 2];
+		int jank = 0;
+		for (int i = 1, n = Math.min(frames, count); i <= n; i++) {
+			if (frameIntervals[(frameCount - i) & (FRAMES - 1)] > median * JANK_FACTOR) {
+				jank++;
+			}
+		}
+		StringBuilder stages = new StringBuilder();
+		for (int i = 0; i < STAGES; i++) {
+			if (i > 0) {
+				stages.append(' ');
+			}
+			// the input latency is averaged over the inputs, the rest over the frames
+			int divisor = Math.max(i == STAGE_INPUT ? inputs : frames, 1);
+			stages.append(NAMES[i]).append(' ').append(formatMillis(stageTotals[i] / 1000 / divisor));
+			stageTotals[i] = 0;
+		}
+		String percentiles = "p50 " + formatMillis(median)
+				+ " p95 " + formatMillis(sorted[count * 95 / 100])
+				+ " p99 " + formatMillis(sorted[count * 99 / 100])
+				+ " ms, jank " + jank;
+		return new String[]{percentiles, stages.toString()};
+	}
+
+	private static String formatMillis(long micros) {
+		return micros / 1000 + "." + micros / 100 % 10;
+	}
+
+	/**
+	 * Write the recorded events in the Chrome trace event format.
+	 */
+	public void writeTrace(File file) throws IOException {
+		long[] start;
+		int[] duration;
+		byte[] stage;
+		int[] thread;
+		int first;
+		int count;
+		synchronized (this) {
+			start = eventStart.clone();
+			duration = eventDuration.clone();
+			stage = eventStage.clone();
+			thread = eventThread.clone();
+			count = Math.min(eventCount, EVENTS);
+			first = eventCount - count;
+		}
+		try (Writer writer = new BufferedWriter(new FileWriter(file))) {
+			writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+			for (int n = 0; n < count; n++) {
+				int i = (first + n) & (EVENTS - 1);
+				if (n > 0) {
+					writer.write(",\n");
+				}
+				writer.write("{\"name\":\"");
+				writer.write(NAMES[stage[i]]);
+				writer.write("\",\"cat\":\"frame\",\"pid\":0,\"tid\":");
+				writer.write(Integer.toString(thread[i]));
+				writer.write(",\"ts\":");
+				writer.write(Long.toString(start[i] / 1000));
+				if (stage[i] == FRAME) {
+					writer.write(",\"ph\":\"i\",\"s\":\"p\"}");
+				} else {
+					writer.write(",\"ph\":\"X\",\"dur\":");
+					writer.write(Double.toString(duration[i] / 1000.0));
+					writer.write("}");
+				}
+			}
+			writer.write("]}\n");
+		}
+	}
+}
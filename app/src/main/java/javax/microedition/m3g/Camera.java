@@ -53,11 +53,15 @@ public class Camera extends Node {
 	}
 
 	public void setGeneric(Transform transform) {
-		_setGeneric(handle, transform.matrix);
+		_setGeneric(handle, transform.serialize());
 	}
 
 	public int getProjection(Transform transform) {
-		return _getProjectionAsTransform(handle, transform != null ? transform.matrix : null);
+		int projection = _getProjectionAsTransform(handle, transform != null ? transform.serialize() : null);
+		if (transform != null) {
+			transform.deserialize();
+		}
+		return projection;
 	}
 
 	public int getProjection(float[] params) {
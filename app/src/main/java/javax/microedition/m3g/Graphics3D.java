@@ -143,23 +143,23 @@ public class Graphics3D {
 			throw new NullPointerException();
 		}
 
-		final int finalFlags = flags;
-		final boolean finalDepth = depth;
+		// the render thread binds a target before every frame, a good time to release dead peers
+		Platform.reclaim();
 
 		if (target instanceof Graphics) {
-			final Graphics finalG = (Graphics) target;
-			final int clipX = finalG.getClipX() + finalG.getTranslateX();
-			final int clipY = finalG.getClipY() + finalG.getTranslateY();
-			final int clipW = finalG.getClipWidth();
-			final int clipH = finalG.getClipHeight();
+			Graphics g = (Graphics) target;
+			int clipX = g.getClipX() + g.getTranslateX();
+			int clipY = g.getClipY() + g.getTranslateY();
+			int clipW = g.getClipWidth();
+			int clipH = g.getClipHeight();
 			if (clipW > Defs.MAX_VIEWPORT_WIDTH ||
 					clipH > Defs.MAX_VIEWPORT_HEIGHT) {
 				throw new IllegalArgumentException();
 			}
 
-			buffer = finalG.getBitmap();
-			final int width = buffer.getWidth();
-			final int height = buffer.getHeight();
+			buffer = g.getBitmap();
+			int width = buffer.getWidth();
+			int height = buffer.getHeight();
 
 			// TODO: draw on background? Probably should fix alpha
 			/*
@@ -175,33 +175,19 @@ public class Graphics3D {
 				e.printStackTrace();
 			}*/
 
-			Platform.executeInUIThread(
-					new M3gRunnable() {
-						@Override
-						public void doRun() {
-							iIsImageTarget = _bindGraphics(
-									handle, 0, width, height,
-									clipX, clipY, clipW, clipH,
-									finalDepth, finalFlags, iIsProperRenderer,
-									buffer);
-						}
-					});
-			currentTarget = finalG;
+			iIsImageTarget = _bindGraphics(
+					handle, 0, width, height,
+					clipX, clipY, clipW, clipH,
+					depth, flags, iIsProperRenderer,
+					buffer);
+			currentTarget = g;
 			cur_width = width;
 			cur_height = height;
 		} else if (target instanceof Image2D) {
 			Image2D img = (Image2D) target;
 
 			offsetX = offsetY = 0;
-			final long imageHandle = img.handle;
-
-			Platform.executeInUIThread(
-					new M3gRunnable() {
-						@Override
-						public void doRun() {
-							_bindImage(handle, imageHandle, finalDepth, finalFlags);
-						}
-					});
+			_bindImage(handle, img.handle, depth, flags);
 			currentTarget = img;
 		} else {
 			throw new IllegalArgumentException();
@@ -221,22 +207,10 @@ public class Graphics3D {
 		}
 
 		if (currentTarget instanceof Graphics) {
-			Platform.executeInUIThread(
-					new M3gRunnable() {
-						@Override
-						public void doRun() {
-							_releaseGraphics(handle,
-									0, iIsImageTarget, iIsProperRenderer, buffer);
-						}
-					});
+			_releaseGraphics(handle,
+					0, iIsImageTarget, iIsProperRenderer, buffer);
 		} else if (currentTarget instanceof Image2D) {
-			Platform.executeInUIThread(
-					new M3gRunnable() {
-						@Override
-						public void doRun() {
-							_releaseImage(handle);
-						}
-					});
+			_releaseImage(handle);
 		} else {
 			throw new Error();
 		}
@@ -261,14 +235,7 @@ public class Graphics3D {
 	 */
 	public void clear(Background background) {
 		integrityCheck();
-		final Background finalBackground = background;
-		Platform.executeInUIThread(
-				new M3gRunnable() {
-					@Override
-					public void doRun() {
-						_clear(handle, finalBackground != null ? finalBackground.handle : 0);
-					}
-				});
+		_clear(handle, background != null ? background.handle : 0);
 	}
 
 	/**
@@ -276,14 +243,7 @@ public class Graphics3D {
 	 */
 	public void render(World world) {
 		integrityCheck();
-		final World finalWorld = world;
-		Platform.executeInUIThread(
-				new M3gRunnable() {
-					@Override
-					public void doRun() {
-						_renderWorld(handle, finalWorld.handle);
-					}
-				});
+		_renderWorld(handle, world.handle);
 	}
 
 	/**
@@ -310,24 +270,12 @@ public class Graphics3D {
 		// null pointer exceptions thrown automatically below
 		integrityCheck();
 
-		final VertexBuffer finalVertices = vertices;
-		final IndexBuffer finalPrimitives = primitives;
-		final Appearance finalAppearance = appearance;
-		final Transform finalTransform = transform;
-		final int finalScope = scope;
-
-		Platform.executeInUIThread(
-				new M3gRunnable() {
-					@Override
-					public void doRun() {
-						_render(handle,
-								finalVertices.handle,
-								finalPrimitives.handle,
-								finalAppearance.handle,
-								finalTransform != null ? finalTransform.matrix : null,
-								finalScope);
-					}
-				});
+		_render(handle,
+				vertices.handle,
+				primitives.handle,
+				appearance.handle,
+				transform != null ? transform.serialize() : null,
+				scope);
 	}
 
 	/**
@@ -342,18 +290,9 @@ public class Graphics3D {
 		}
 		integrityCheck();
 
-		final Node finalNode = node;
-		final Transform finalTransform = transform;
-
-		Platform.executeInUIThread(
-				new M3gRunnable() {
-					@Override
-					public void doRun() {
-						_renderNode(handle,
-								finalNode.handle,
-								finalTransform != null ? finalTransform.matrix : null);
-					}
-				});
+		_renderNode(handle,
+				node.handle,
+				transform != null ? transform.serialize() : null);
 	}
 
 
@@ -361,7 +300,7 @@ public class Graphics3D {
 		integrityCheck();
 		_setCamera(handle,
 				camera != null ? camera.handle : 0,
-				transform != null ? transform.matrix : null);
+				transform != null ? transform.serialize() : null);
 
 		this.camera = camera;
 	}
@@ -372,7 +311,7 @@ public class Graphics3D {
 		integrityCheck();
 		int index = _addLight(handle,
 				light.handle,
-				transform != null ? transform.matrix : null);
+				transform != null ? transform.serialize() : null);
 		if (lights.size() < index + 1) {
 			lights.setSize(index + 1);
 		}
@@ -388,7 +327,7 @@ public class Graphics3D {
 		_setLight(handle,
 				index,
 				light != null ? light.handle : 0,
-				transform != null ? transform.matrix : null);
+				transform != null ? transform.serialize() : null);
 		lights.setElementAt(light, index);
 	}
 
@@ -423,6 +362,10 @@ public class Graphics3D {
 
 		// Extra properties
 		props.put("m3gRelease", "04_wk49");
+		props.put("livePeers", Platform.getLivePeers());
+		props.put("livePeerBytes", Platform.getLiveBytes());
+		props.put("reclaimedPeers", Platform.getReclaimedPeers());
+		props.put("forcedPeerDrains", Platform.getForcedDrains());
 
 		return props;
 	}
@@ -440,7 +383,8 @@ public class Graphics3D {
 	public Camera getCamera(Transform transform) {
 		integrityCheck();
 		if (transform != null) {
-			_getViewTransform(handle, transform.matrix);
+			_getViewTransform(handle, transform.serialize());
+			transform.deserialize();
 		}
 
 		return (Camera) Object3D.getInstance(_getCamera(handle));
@@ -462,9 +406,13 @@ public class Graphics3D {
 			throw new IndexOutOfBoundsException();
 		}
 
-		return (Light) Object3D.getInstance(_getLightTransform(handle,
+		Light light = (Light) Object3D.getInstance(_getLightTransform(handle,
 				index,
-				transform != null ? transform.matrix : null));
+				transform != null ? transform.serialize() : null));
+		if (transform != null) {
+			transform.deserialize();
+		}
+		return light;
 	}
 
 	public int getLightCount() {
@@ -535,13 +483,7 @@ public class Graphics3D {
 			handle = _ctor(Interface.getHandle());
 			_addRef(handle);
 
-			Platform.executeInUIThread(
-					new M3gRunnable() {
-						@Override
-						public void doRun() {
-							iIsProperRenderer = _isProperRenderer();
-						}
-					});
+			iIsProperRenderer = _isProperRenderer();
 			iNativeInitialized = true;
 			return true;
 		} else {
@@ -88,6 +88,12 @@ public class Image2D extends Object3D {
 		return _getHeight(handle);
 	}
 
+	@Override
+	int getNativeSize() {
+		return super.getNativeSize()
+				+ _getWidth(handle) * _getHeight(handle) * getBytesPerPixel(_getFormat(handle));
+	}
+
 	//------------------------------------------------------------------
 	// Private methods
 	//------------------------------------------------------------------
@@ -147,14 +153,7 @@ public class Image2D extends Object3D {
 				}
 			}
 
-			// excute in UI thread
-			Platform.executeInUIThread(
-					new M3gRunnable() {
-						@Override
-						void doRun() {
-							tempHandle = createHandle(finalFormat, cgfxImage.getWidth(), cgfxImage.getHeight(), byteArr);
-						}
-					});
+			tempHandle = createHandle(finalFormat, cgfxImage.getWidth(), cgfxImage.getHeight(), byteArr);
 		}
 		return tempHandle;
 	}
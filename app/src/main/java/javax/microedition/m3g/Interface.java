@@ -144,8 +144,9 @@ class Interface {
 	 * set at this point!
 	 */
 	static void register(Object3D obj) {
-		getInstance().liveObjects.put(Long.valueOf(obj.handle),
-				new WeakReference(obj));
+		Interface self = getInstance();
+		self.liveObjects.put(Long.valueOf(obj.handle),
+				Platform.registerFinalizer(obj, self));
 	}
 
 	static void register(Loader obj) {
@@ -250,10 +251,16 @@ class Interface {
 	}
 
 	/**
-	 * Forces removal of an object from the handle-to-object map.
+	 * Removes a collected object from the handle-to-object map, unless
+	 * the handle is already mapped to a new Java object.
 	 */
-	static void deregister(Object3D obj, Interface self) {
-		self.liveObjects.remove(Long.valueOf(obj.handle));
+	static void deregister(long handle, WeakReference ref, Interface self) {
+		Long iHandle = Long.valueOf(handle);
+		synchronized (self.liveObjects) {
+			if (self.liveObjects.get(iHandle) == ref) {
+				self.liveObjects.remove(iHandle);
+			}
+		}
 		if (self.liveObjects.isEmpty() && self.iShutdown) {
 			self.registeredFinalize();
 		}
@@ -312,13 +319,7 @@ class Interface {
 			return true;
 		}
 		if (Platform.uiThreadAvailable()) {
-			Platform.executeInUIThread(
-					new M3gRunnable() {
-						@Override
-						public void doRun() {
-							handle = _ctor();
-						}
-					});
+			handle = _ctor();
 			iNativeInitialized = true;
 			return true;
 		} else {
@@ -336,13 +337,7 @@ class Interface {
 	// Native finalization hook, for Symbian only
 	private void registeredFinalize() {
 		if (Interface.instance != null) {
-			Platform.executeInUIThread(
-					new M3gRunnable() {
-						@Override
-						public void doRun() {
-							Platform.finalizeInterface(handle);
-						}
-					});
+			Platform.finalizeInterface(handle);
 			Interface.instance = null;
 		}
 	}
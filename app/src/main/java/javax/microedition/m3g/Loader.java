@@ -19,9 +19,13 @@ package javax.microedition.m3g;
 
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Vector;
 
 import javax.microedition.io.Connector;
@@ -65,11 +69,17 @@ public class Loader {
 	// Misc.
 	private static final int MAX_IDENTIFIER_LENGTH = M3G_FILE_IDENTIFIER.length;
 
-	// Initial buffer length for the header
-	private static final int AVG_HEADER_SEC_LENGTH = 64;
+	// Initial length of the buffer a resource is read through
+	private static final int BUFFER_LENGTH = 8192;
 
-	// Initial buffer length for the xref section
-	private static final int AVG_XREF_SEC_LENGTH = 128;
+	// Memory of the decoded images kept in the cache, 1/32 of the heap max
+	private static final int IMAGE_CACHE_BYTES = (int) (Runtime.getRuntime().maxMemory() >> 5);
+
+	// Images decoded from the resources in LRU order, every load of the same name
+	// gets its own Image2D built from them, Object3D is never immutable as a whole
+	private static final LinkedHashMap<String, DecodedImage> images =
+			new LinkedHashMap<>(16, 0.75f, true);
+	private static int imagesBytes;
 
 	// Instance specific
 	long handle;
@@ -84,6 +94,8 @@ public class Loader {
 
 	private byte[] iStreamData = null;
 	private int iStreamOffset = 0;
+	// Image decoded by the last PNG or JPEG load
+	private DecodedImage iDecodedImage = null;
 
 	private Interface iInterface;
 
@@ -159,10 +171,18 @@ public class Loader {
 		if (inFileHistory(aName)) {
 			throw new IOException("Reference loop detected.");
 		}
+		String key = getCacheKey(aName);
+		DecodedImage decoded = getCachedImage(key);
+		if (decoded != null) {
+			return new Object3D[]{new Image2D(decoded.format, decoded.image)};
+		}
+		InputStream in = getInputStream(aName);
+		if (in == null) {
+			throw new IOException("Resource not found [" + aName + "].");
+		}
 		iResourceName = aName;
 		iFileHistory.addElement(aName);
-		PeekInputStream stream = new PeekInputStream(
-				getInputStream(aName), MAX_IDENTIFIER_LENGTH);
+		PeekInputStream stream = new PeekInputStream(in, BUFFER_LENGTH);
 		// png, jpeg or m3g
 		int type = getIdentifierType(stream);
 		stream.rewind();
@@ -181,6 +201,9 @@ public class Loader {
 		}
 		// Finally, remove file from history
 		iFileHistory.removeElement(aName);
+		if (type != M3G_TYPE) {
+			cacheImage(key, iDecodedImage);
+		}
 		return objects;
 	}
 
@@ -291,13 +314,7 @@ public class Loader {
 		catch (Exception e) {
 			e.printStackTrace();
 		}
-		// Close the data stream
-		try {
-			in.close();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		return buildImage2D(format);
+		return buildImage2D(aStream, format);
 	}
 
 	/**
@@ -387,40 +404,27 @@ public class Loader {
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		// Close the data stream
-		try {
-			in.close();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		return buildImage2D(format);
+		return buildImage2D(aStream, format);
 	}
 
 	/**
 	 * Image2D builder
 	 *
+	 * @param aStream       Resource stream, the headers are scanned already
 	 * @param aColourFormat Colour format
 	 * @return An array of newly created Object3D instances
 	 */
-	private Object3D[] buildImage2D(int aColourFormat) throws IOException {
-		InputStream stream;
+	private Object3D[] buildImage2D(InputStream aStream, int aColourFormat) throws IOException {
+		Image image;
 		if (iStreamData == null) {
-			stream = getInputStream(iResourceName);
+			// the scanned headers are decoded from the peek buffer, the rest from the resource
+			((PeekInputStream) aStream).replay();
+			image = Image.createImage(aStream);
 		} else {
-			stream = new ByteArrayInputStream(iStreamData, iStreamOffset, iStreamData.length - iStreamOffset);
+			image = Image.createImage(iStreamData, iStreamOffset, iStreamData.length - iStreamOffset);
 		}
-		// Create an image object
-		Image2D i2d;
-		try {
-			i2d = new Image2D(aColourFormat, Image.createImage(stream));
-		} finally {
-			try {
-				stream.close();
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		}
-		return new Object3D[]{i2d};
+		iDecodedImage = new DecodedImage(aColourFormat, image);
+		return new Object3D[]{new Image2D(aColourFormat, image)};
 	}
 
 
@@ -432,14 +436,10 @@ public class Loader {
 	 */
 	private Object3D[] loadM3G(InputStream aStream) throws IOException {
 		aStream.skip(M3G_FILE_IDENTIFIER.length);
-		if (aStream instanceof PeekInputStream)
-			((PeekInputStream) aStream).increasePeekBuffer(AVG_HEADER_SEC_LENGTH);
 
 		// Read header
 		int compressionScheme = readByte(aStream);
 		int totalSectionLength = readUInt32(aStream);
-		if (aStream instanceof PeekInputStream && totalSectionLength > AVG_HEADER_SEC_LENGTH)
-			((PeekInputStream) aStream).increasePeekBuffer(totalSectionLength - AVG_HEADER_SEC_LENGTH);
 		int uncompressedLength = readUInt32(aStream);
 
 		int objectType = readByte(aStream);
@@ -459,8 +459,6 @@ public class Loader {
 		Interface.register(this);
 
 		if (externalLinks) {
-			if (aStream instanceof PeekInputStream)
-				((PeekInputStream) aStream).increasePeekBuffer(AVG_XREF_SEC_LENGTH);
 			loadExternalRefs(aStream);
 			if (iLoadedObjects.size() > 0)   // Load and set external references
 			{
@@ -473,33 +471,27 @@ public class Loader {
 			}
 		}
 
-		// Reset stream
-		if (aStream instanceof PeekInputStream)
-			((PeekInputStream) aStream).rewind();
-		else if (aStream.markSupported())
-			aStream.reset(); // Reset is supported in ByteArrayInputStreams
-
+		// Use native loader to load objects
 		int read = 0;
-		int size = aStream.available();
-
-		if (size == 0) {
-			size = 2048;    // start with some size
-		}
-
-		while (read < iTotalFileSize) {
-			if (read + size > iTotalFileSize) {
-				size = iTotalFileSize - read;
-			}
-			// Use native loader to load objects
-			byte[] data = new byte[size];
-			if (aStream.read(data) == -1) {
-				break;
+		int size = -1;
+		if (iStreamData != null) {
+			// The whole file is in the array already
+			if (iTotalFileSize > 0 && iTotalFileSize <= iStreamData.length - iStreamOffset) {
+				size = _decodeData(handle, iStreamOffset, iTotalFileSize, iStreamData);
+				read = iTotalFileSize;
 			}
-			read += size;
-
-			size = _decodeData(handle, 0, data);
-			if (size > 0 && aStream.available() > size) {
-				size = aStream.available();
+		} else {
+			// Start with the peeked sections, then pass the rest through the same buffer
+			PeekInputStream stream = (PeekInputStream) aStream;
+			stream.replay();
+			while (read < iTotalFileSize) {
+				int chunk = stream.fill();
+				if (chunk == -1) {
+					break;
+				}
+				chunk = Math.min(chunk, iTotalFileSize - read);
+				size = stream.decode(handle, chunk);
+				read += chunk;
 			}
 		}
 		if (size != 0 || read != iTotalFileSize) {
@@ -561,8 +553,6 @@ public class Loader {
 
 		int totalSectionLength = readUInt32(aStream);
 		iBytesRead += totalSectionLength;
-		if (aStream instanceof PeekInputStream && totalSectionLength > AVG_XREF_SEC_LENGTH)
-			((PeekInputStream) aStream).increasePeekBuffer(totalSectionLength - AVG_XREF_SEC_LENGTH);
 		int uncompressedLength = readUInt32(aStream);
 		int expectedCount = totalSectionLength;
 
@@ -581,7 +571,7 @@ public class Loader {
 					throw new IOException("Section length mismatch [" + iResourceName + "].");
 				}
 				byte[] compressed = new byte[totalSectionLength - 13];
-				aStream.read(compressed);
+				new DataInputStream(aStream).readFully(compressed);
 
 				byte[] uncompressed = new byte[uncompressedLength];
 
@@ -713,7 +703,11 @@ public class Loader {
 	 */
 	private int getIdentifierType(InputStream aStream) throws IOException {
 		byte[] data = new byte[MAX_IDENTIFIER_LENGTH];
-		aStream.read(data);
+		try {
+			new DataInputStream(aStream).readFully(data);
+		} catch (EOFException e) {
+			return INVALID_HEADER_TYPE;
+		}
 		return getIdentifierType(data, 0);
 	}
 
@@ -774,6 +768,50 @@ public class Loader {
 		return false;
 	}
 
+	/**
+	 * Image cache key of a resource
+	 *
+	 * @param name File name or URI
+	 * @return the name of the resource in the application, null for a URI
+	 */
+	private String getCacheKey(String name) {
+		String uri = resolveName(name);
+		if (uri.indexOf(':') != -1) {
+			return null;
+		}
+		return uri.charAt(0) == '/' ? uri.substring(1) : uri;
+	}
+
+	/**
+	 * @return the image decoded from the resource before, if it is still cached
+	 */
+	private static DecodedImage getCachedImage(String key) {
+		if (key == null) {
+			return null;
+		}
+		synchronized (images) {
+			return images.get(key);
+		}
+	}
+
+	private static void cacheImage(String key, DecodedImage image) {
+		if (key == null || image == null || image.bytes > IMAGE_CACHE_BYTES) {
+			return;
+		}
+		synchronized (images) {
+			DecodedImage old = images.put(key, image);
+			if (old != null) {
+				imagesBytes -= old.bytes;
+			}
+			imagesBytes += image.bytes;
+			Iterator<DecodedImage> it = images.values().iterator();
+			while (imagesBytes > IMAGE_CACHE_BYTES) {
+				imagesBytes -= it.next().bytes;
+				it.remove();
+			}
+		}
+	}
+
 	/*
 	 * InputStream-related helper functions
 	 */
@@ -812,67 +850,129 @@ public class Loader {
 		return is;
 	}
 
-	// returns a stream built from the specified file or URI
-	private InputStream getInputStream(String name) throws IOException {
+	// returns the specified file or URI resolved against the parent resource
+	private String resolveName(String name) {
 		if (name.indexOf(':') != -1)   // absolute URI reference
 		{
-			return getHttpInputStream(name);
+			return name;
 		}
 
 		if (name.charAt(0) == '/' || iParentResourceName == null)   // absolute file reference
 		{
-			return (ContextHolder.getResourceAsStream(null, name));
+			return name;
 		}
 
-		String uri = iParentResourceName.substring(0, iParentResourceName.lastIndexOf('/') + 1) + name;
+		return iParentResourceName.substring(0, iParentResourceName.lastIndexOf('/') + 1) + name;
+	}
 
-		if (uri.charAt(0) == '/') {
-			return (ContextHolder.getResourceAsStream(null, uri));
-		} else {
+	// returns a stream built from the specified file or URI
+	private InputStream getInputStream(String name) throws IOException {
+		String uri = resolveName(name);
+
+		if (uri.indexOf(':') != -1) {
 			return getHttpInputStream(uri);
+		} else {
+			return (ContextHolder.getResourceAsStream(null, uri));
 		}
 	}
 
+	/**
+	 * Reads a resource through one buffer. Until {@link #replay()} the bytes read are kept in
+	 * the buffer, so the stream can be rewound after the headers are parsed. From then on the
+	 * buffer is reused for the chunks of the stream, which the native loader is fed from.
+	 */
 	class PeekInputStream extends InputStream {
-		private int[] iPeekBuffer;
+		private byte[] iBuffer;
 		private InputStream iStream;
 		private int iBuffered;
 		private int iCounter;
+		private boolean iPeeking = true;
 
 		PeekInputStream(InputStream aStream, int aLength) {
 			iStream = aStream;
-			iPeekBuffer = new int[aLength];
+			iBuffer = new byte[aLength];
 		}
 
 		@Override
 		public int read() throws IOException {
-			if (iCounter < iBuffered) {
-				return iPeekBuffer[iCounter++];
+			if (fill() == -1) {
+				return -1;
 			}
+			return iBuffer[iCounter++] & 0xFF;
+		}
 
-			int nv = iStream.read();
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!iPeeking && iCounter == iBuffered && len >= iBuffer.length) {
+				return iStream.read(b, off, len);
+			}
+			int n = fill();
+			if (n == -1) {
+				return -1;
+			}
+			n = Math.min(n, len);
+			System.arraycopy(iBuffer, iCounter, b, off, n);
+			iCounter += n;
+			return n;
+		}
 
-			if (iBuffered < iPeekBuffer.length) {
-				iPeekBuffer[iBuffered] = nv;
-				iBuffered++;
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = 0;
+			while (skipped < n) {
+				int available = fill();
+				if (available == -1) {
+					break;
+				}
+				int count = (int) Math.min(available, n - skipped);
+				iCounter += count;
+				skipped += count;
 			}
+			return skipped;
+		}
 
-			iCounter++;
-			return nv;
+		/**
+		 * Read more of the stream if all of the buffer is read.
+		 *
+		 * @return the number of bytes in the buffer not read yet, -1 at the end of the stream
+		 */
+		int fill() throws IOException {
+			if (iCounter < iBuffered) {
+				return iBuffered - iCounter;
+			}
+			if (!iPeeking) {
+				iCounter = 0;
+				iBuffered = 0;
+			} else if (iBuffered == iBuffer.length) {
+				iBuffer = Arrays.copyOf(iBuffer, iBuffer.length * 2);
+			}
+			int n = iStream.read(iBuffer, iBuffered, iBuffer.length - iBuffered);
+			if (n <= 0) {
+				return -1;
+			}
+			iBuffered += n;
+			return n;
 		}
 
-		public void increasePeekBuffer(int aLength) {
-			int[] temp = new int[iPeekBuffer.length + aLength];
-			System.arraycopy(iPeekBuffer, 0, temp, 0, iBuffered);
-			iPeekBuffer = temp;
+		/**
+		 * Pass the next bytes of the buffer to the native loader.
+		 *
+		 * @param aHandle Native loader
+		 * @param aLength Number of bytes, at most the value returned by {@link #fill()}
+		 * @return the number of bytes the loader requires to proceed, zero if the file is loaded
+		 */
+		int decode(long aHandle, int aLength) {
+			int size = _decodeData(aHandle, iCounter, aLength, iBuffer);
+			iCounter += aLength;
+			return size;
 		}
 
 		@Override
 		public int available() throws IOException {
-			if (iCounter < iBuffered) {
-				return iBuffered - iCounter + iStream.available();
-			}
-			return iStream.available();
+			return iBuffered - iCounter + iStream.available();
 		}
 
 		@Override
@@ -885,11 +985,19 @@ public class Loader {
 		}
 
 		public void rewind() throws IOException {
-			if (iCounter > iBuffered) {
+			if (!iPeeking) {
 				throw new IOException("Peek buffer overrun.");
 			}
 			iCounter = 0;
 		}
+
+		/**
+		 * Rewind the stream for the last time, the bytes read from now on are not kept.
+		 */
+		public void replay() throws IOException {
+			rewind();
+			iPeeking = false;
+		}
 	}
 
 	class CountedInputStream extends InputStream {
@@ -952,7 +1060,7 @@ public class Loader {
 	// native loader
 	private native static long _ctor(long handle);
 
-	private native static int _decodeData(long handle, int offset, byte[] data);
+	private native static int _decodeData(long handle, int offset, int length, byte[] data);
 
 	private native static void _setExternalReferences(long handle, long[] references);
 
@@ -963,4 +1071,19 @@ public class Loader {
 	private native static int _getNumUserParameters(long handle, int obj);
 
 	private native static int _getUserParameter(long handle, int obj, int index, byte[] data);
+
+	/**
+	 * Decoded resource image and the format of its Image2D
+	 */
+	private static final class DecodedImage {
+		final int format;
+		final Image image;
+		final int bytes;
+
+		DecodedImage(int format, Image image) {
+			this.format = format;
+			this.image = image;
+			bytes = image.getBitmap().getByteCount();
+		}
+	}
 }
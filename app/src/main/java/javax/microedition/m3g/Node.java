@@ -64,9 +64,13 @@ public abstract class Node extends Transformable {
 	}
 
 	public boolean getTransformTo(Node target, Transform transform) {
-		return _getTransformTo(handle,
+		boolean found = _getTransformTo(handle,
 				target.handle,
-				transform != null ? transform.matrix : null);
+				transform != null ? transform.serialize() : null);
+		if (found && transform != null) {
+			transform.deserialize();
+		}
+		return found;
 	}
 
 	public void setAlignment(Node zReference, int zTarget,
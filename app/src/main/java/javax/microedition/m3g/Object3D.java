@@ -30,12 +30,6 @@ public abstract class Object3D {
 
 	private Object userObject;
 	private Vector animTracks;
-	private Interface iInterface;
-
-	@Override
-	protected void finalize() {
-		doFinalize();
-	}
 
 	//------------------------------------------------------------------
 	// Constructor(s)
@@ -43,15 +37,14 @@ public abstract class Object3D {
 
 	/**
 	 * <p>Only a package private constructor exists for this class.</p>
+	 * <p>The native peer is released after the object is collected, see {@link Platform#reclaim()}.</p>
 	 */
 	Object3D(long handle) {
 		if (handle != 0) {
 			this.handle = handle;
 			_addRef(handle);
 
-			// Get associated Interafece object and
-			// register this instance with that
-			iInterface = Interface.getInstance();
+			// Register this instance with the associated Interface object
 			Interface.register(this);
 
 			int n = _getAnimationTrackCount(handle);
@@ -169,18 +162,10 @@ public abstract class Object3D {
 	}
 
 	/**
-	 * Native peer finalization
+	 * Estimated size of the native peer, counted for the native memory pressure
 	 */
-	private void doFinalize() {
-		if (handle != 0) {
-			// finalize native peer
-			Platform.finalizeObject(handle, iInterface);
-			Interface.deregister(this, iInterface);
-
-			// reset handles
-			iInterface = null;
-			handle = 0;
-		}
+	int getNativeSize() {
+		return 128;
 	}
 
 	// Native methods
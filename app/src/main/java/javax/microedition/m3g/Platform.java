@@ -21,6 +21,11 @@
 
 package javax.microedition.m3g;
 
+import android.util.Log;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
 import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.Image;
 
@@ -28,34 +33,64 @@ import javax.microedition.lcdui.Image;
  * Implements platform-dependent functionality. At the moment, this
  * includes native finalization and some helper methods for
  * synchronizing 2D and 3D rendering.
+ * <p>
+ * Native peers of Object3D are released through a reference queue instead of
+ * finalizers: the queue is drained by {@link #reclaim()} when a render target is bound,
+ * and by {@link #heuristicGC()} before a large native allocation once the live native
+ * memory has grown by {@link #PRESSURE_BYTES} since the last forced drain.
  */
 class Platform {
+	private static final String TAG = Platform.class.getName();
+
+	/**
+	 * Growth of the estimated native memory that forces a collection and a drain
+	 */
+	private static final long PRESSURE_BYTES = 16 * 1024 * 1024;
+
+	/**
+	 * How long a forced drain waits for the collected peers to be enqueued
+	 */
+	private static final long PRESSURE_WAIT_MILLIS = 20;
+
 	/**
 	 * eSWT display for ui thread access
 	 */
 	private static boolean libraryLoaded = false;
 
-	//------------------------------------------------------------------
-	// Package private methods
-	//------------------------------------------------------------------
+	private static final ReferenceQueue<Object3D> queue = new ReferenceQueue<>();
 
 	/**
-	 * Executes given runnable in UI thread if caller thread is not UI thread
+	 * Registered references, linked to keep them reachable until they are drained
 	 */
-	static void executeInUIThread(M3gRunnable obj) {
-		if (!uiThreadAvailable()) {
-			throw new Error("Ui thread not available");
-		}
+	private static PeerReference peers;
 
-		if (obj != null) {
-			// In this case we are in UI thread so just execute directly
-			obj.run();
-			// Check if any exceptions occured in execution
-			// and throw forward in caller thread
-			obj.checkAndThrow();
+	private static int livePeers;
+	private static long liveBytes;
+	private static long reclaimedPeers;
+	private static int forcedDrains;
+	private static long pressureLimit = PRESSURE_BYTES;
+
+	/**
+	 * Weak reference to an Object3D that remembers its native peer
+	 */
+	static final class PeerReference extends WeakReference<Object3D> {
+		final long handle;
+		final int size;
+		final Interface iInterface;
+		PeerReference prev, next;
+
+		PeerReference(Object3D obj, Interface iInterface) {
+			super(obj, queue);
+			this.handle = obj.handle;
+			this.size = obj.getNativeSize();
+			this.iInterface = iInterface;
 		}
 	}
 
+	//------------------------------------------------------------------
+	// Package private methods
+	//------------------------------------------------------------------
+
 	/**
 	 * Check the UI thread / toolkit init status and store display if it is available
 	 *
@@ -74,11 +109,23 @@ class Platform {
 	}
 
 	/**
-	 * Registers an Object3D in the global handle-to-object map. The
+	 * Registers an Object3D for the release of its native peer. The
 	 * handle of the object must already be set at this point!
+	 *
+	 * @return the reference to put to the global handle-to-object map
 	 */
-	static void registerFinalizer(Object3D obj) {
-		//heuristicGC();
+	static WeakReference<Object3D> registerFinalizer(Object3D obj, Interface iInterface) {
+		PeerReference ref = new PeerReference(obj, iInterface);
+		synchronized (Platform.class) {
+			ref.next = peers;
+			if (peers != null) {
+				peers.prev = ref;
+			}
+			peers = ref;
+			livePeers++;
+			liveBytes += ref.size;
+		}
+		return ref;
 	}
 
 	/**
@@ -86,7 +133,6 @@ class Platform {
 	 * finalization.
 	 */
 	static void registerFinalizer(Graphics3D g3d) {
-		//heuristicGC();
 	}
 
 	/**
@@ -101,6 +147,16 @@ class Platform {
 	static void registerFinalizer(Loader loader) {
 	}
 
+	/**
+	 * Releases the native peers of the collected objects.
+	 */
+	static void reclaim() {
+		PeerReference ref;
+		while ((ref = (PeerReference) queue.poll()) != null) {
+			release(ref);
+		}
+	}
+
 	/**
 	 * Flushes all pending rendering to a Graphics context and blocks
 	 * until finished
@@ -129,14 +185,7 @@ class Platform {
 	 */
 	static void finalizeObject(long handle) {
 		try {
-			final long finalHandle = handle;
-			executeInUIThread(
-					new M3gRunnable() {
-						@Override
-						void doRun() {
-							_finalizeObject(finalHandle);
-						}
-					});
+			_finalizeObject(handle);
 		} catch (Exception e) {
 			// do nothing
 		}
@@ -147,31 +196,78 @@ class Platform {
 	 * given Interface instance
 	 */
 	static void finalizeObject(long handle, Interface aInterface) {
-		try {
-			final long finalHandle = handle;
-			executeInUIThread(
-					new M3gRunnable() {
-						@Override
-						public void doRun() {
-							_finalizeObject(finalHandle);
-						}
-					});
-		} catch (Exception e) {
-			// do nothing
-		}
+		finalizeObject(handle);
+	}
+
+	static int getLivePeers() {
+		return livePeers;
+	}
+
+	static long getLiveBytes() {
+		return liveBytes;
+	}
+
+	static long getReclaimedPeers() {
+		return reclaimedPeers;
 	}
 
+	static int getForcedDrains() {
+		return forcedDrains;
+	}
 
 	//------------------------------------------------------------------
 	// Private methods
 	//------------------------------------------------------------------
 
 	/**
-	 * Trigger GC if minimum free memory limit has been exceeded in the native side
+	 * Force a collection and a drain if the native memory has grown too much,
+	 * called before large native allocations
 	 */
 	static void heuristicGC() {
+		synchronized (Platform.class) {
+			if (liveBytes < pressureLimit) {
+				return;
+			}
+		}
+		Runtime.getRuntime().gc();
+		try {
+			// the collected references are enqueued by a daemon, wait for the first one
+			PeerReference ref = (PeerReference) queue.remove(PRESSURE_WAIT_MILLIS);
+			if (ref != null) {
+				release(ref);
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		reclaim();
+		synchronized (Platform.class) {
+			forcedDrains++;
+			pressureLimit = liveBytes + PRESSURE_BYTES;
+			Log.d(TAG, "heuristicGC: " + livePeers + " peers, " + liveBytes / 1024 + " KiB live, "
+					+ reclaimedPeers + " reclaimed");
+		}
+	}
+
+	private static void release(PeerReference ref) {
+		synchronized (Platform.class) {
+			if (ref.prev != null) {
+				ref.prev.next = ref.next;
+			} else {
+				peers = ref.next;
+			}
+			if (ref.next != null) {
+				ref.next.prev = ref.prev;
+			}
+			ref.prev = ref.next = null;
+			livePeers--;
+			liveBytes -= ref.size;
+			reclaimedPeers++;
+			// let the limit come back down as the memory is released
+			pressureLimit = Math.max(PRESSURE_BYTES, Math.min(pressureLimit, liveBytes + PRESSURE_BYTES));
+		}
+		finalizeObject(ref.handle);
+		Interface.deregister(ref.handle, ref, ref.iInterface);
 	}
 
 	private static native void _finalizeObject(long handle);
 }
-
@@ -82,7 +82,8 @@ public class SkinnedMesh extends Mesh {
 	// M3G 1.1 Maintenance release getters
 
 	public void getBoneTransform(Node bone, Transform transform) {
-		_getBoneTransform(handle, bone.handle, transform.matrix);
+		_getBoneTransform(handle, bone.handle, transform.serialize());
+		transform.deserialize();
 	}
 
 	public int getBoneVertices(Node bone, int[] indices, float[] weights) {
@@ -17,17 +17,45 @@
 
 package javax.microedition.m3g;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The matrix is kept in Java and all the math is done here, without crossing JNI.
+ * It is written in the layout of the native Matrix only when it is passed to the native code.
+ */
 public class Transform {
 	//------------------------------------------------------------------
 	// Static data
 	//------------------------------------------------------------------
 
+	/** The matrix is the identity */
+	static final int TYPE_IDENTITY = 0;
+	/** The bottom row is 0 0 0 1 */
+	static final int TYPE_AFFINE = 1;
+	static final int TYPE_GENERAL = 2;
+
+	// Check size from m3g_core.h M3GMatrix
+	private static final int NATIVE_SIZE = 72;
+	private static final int NATIVE_MASK = 64;
+	private static final int NATIVE_FLAGS = 68;
+	// not classified, complete: the same state as after m3gSetMatrixRows()
+	private static final int NATIVE_COMPLETE = 2;
+
+	private static final float EPSILON = 1.0e-5f;
+
 	//------------------------------------------------------------------
 	// Instance data
 	//------------------------------------------------------------------
 
-	// Check size from m3g_math.h Matrix
-	byte[] matrix = new byte[72];
+	/** Elements in row-major order */
+	final float[] m = new float[16];
+	int type;
+
+	/** The matrix in the native layout, valid if serialized */
+	private final byte[] matrix = new byte[NATIVE_SIZE];
+	private final ByteBuffer buffer = ByteBuffer.wrap(matrix).order(ByteOrder.nativeOrder());
+	private boolean serialized;
 
 	//------------------------------------------------------------------
 	// Constructor(s)
@@ -54,55 +82,164 @@ public class Transform {
 	//------------------------------------------------------------------
 
 	public void setIdentity() {
-		_setIdentity(matrix);
+		float[] m = this.m;
+		for (int i = 0; i < 16; i++) {
+			m[i] = (i % 5 == 0) ? 1 : 0;
+		}
+		type = TYPE_IDENTITY;
+		serialized = false;
 	}
 
 	public void set(Transform transform) {
-		System.arraycopy(transform.matrix, 0,
-				this.matrix, 0,
-				this.matrix.length);
+		System.arraycopy(transform.m, 0, m, 0, 16);
+		type = transform.type;
+		serialized = false;
 	}
 
 	public void set(float[] matrix) {
-		_setMatrix(this.matrix, matrix);
+		if (matrix == null) {
+			throw new NullPointerException();
+		}
+		if (matrix.length < 16) {
+			throw new IllegalArgumentException();
+		}
+		System.arraycopy(matrix, 0, m, 0, 16);
+		classify();
 	}
 
 	public void get(float[] matrix) {
-		_getMatrix(this.matrix, matrix);
+		if (matrix == null) {
+			throw new NullPointerException();
+		}
+		if (matrix.length < 16) {
+			throw new IllegalArgumentException();
+		}
+		System.arraycopy(m, 0, matrix, 0, 16);
 	}
 
 	public void invert() {
-		_invert(matrix);
+		if (type == TYPE_IDENTITY) {
+			return;
+		}
+		if (type == TYPE_AFFINE) {
+			invertAffine();
+		} else {
+			invertGeneral();
+		}
+		serialized = false;
 	}
 
 	public void transpose() {
-		_transpose(matrix);
+		float[] m = this.m;
+		for (int row = 0; row < 3; row++) {
+			for (int col = row + 1; col < 4; col++) {
+				float t = m[row * 4 + col];
+				m[row * 4 + col] = m[col * 4 + row];
+				m[col * 4 + row] = t;
+			}
+		}
+		classify();
 	}
 
 	public void postMultiply(Transform transform) {
-		_mul(this.matrix, this.matrix, transform.matrix);
+		if (transform.type == TYPE_IDENTITY) {
+			return;
+		}
+		if (type == TYPE_IDENTITY) {
+			set(transform);
+			return;
+		}
+		float[] a = m;
+		// the product is written over a row by row, t.postMultiply(t) needs a copy
+		float[] b = transform == this ? m.clone() : transform.m;
+		if (type == TYPE_AFFINE && transform.type == TYPE_AFFINE) {
+			for (int row = 0; row < 12; row += 4) {
+				float a0 = a[row], a1 = a[row + 1], a2 = a[row + 2];
+				a[row] = a0 * b[0] + a1 * b[4] + a2 * b[8];
+				a[row + 1] = a0 * b[1] + a1 * b[5] + a2 * b[9];
+				a[row + 2] = a0 * b[2] + a1 * b[6] + a2 * b[10];
+				a[row + 3] += a0 * b[3] + a1 * b[7] + a2 * b[11];
+			}
+		} else {
+			for (int row = 0; row < 16; row += 4) {
+				float a0 = a[row], a1 = a[row + 1], a2 = a[row + 2], a3 = a[row + 3];
+				a[row] = a0 * b[0] + a1 * b[4] + a2 * b[8] + a3 * b[12];
+				a[row + 1] = a0 * b[1] + a1 * b[5] + a2 * b[9] + a3 * b[13];
+				a[row + 2] = a0 * b[2] + a1 * b[6] + a2 * b[10] + a3 * b[14];
+				a[row + 3] = a0 * b[3] + a1 * b[7] + a2 * b[11] + a3 * b[15];
+			}
+			type = TYPE_GENERAL;
+		}
+		serialized = false;
 	}
 
 	public void postScale(float sx, float sy, float sz) {
-		_scale(matrix, sx, sy, sz);
+		if (sx == 1 && sy == 1 && sz == 1) {
+			return;
+		}
+		float[] m = this.m;
+		int rows = type == TYPE_GENERAL ? 16 : 12;
+		for (int row = 0; row < rows; row += 4) {
+			m[row] *= sx;
+			m[row + 1] *= sy;
+			m[row + 2] *= sz;
+		}
+		if (type == TYPE_IDENTITY) {
+			type = TYPE_AFFINE;
+		}
+		serialized = false;
 	}
 
 	/**
 	 */
 	public void postRotate(float angle, float ax, float ay, float az) {
-		_rotate(matrix, angle, ax, ay, az);
+		if (ax == 0 && ay == 0 && az == 0 && angle != 0) {
+			throw new IllegalArgumentException();
+		}
+		if (angle == 0) {
+			return;
+		}
+		float sqrNorm = ax * ax + ay * ay + az * az;
+		if (sqrNorm < 0.995f || sqrNorm > 1.005f) {
+			if (sqrNorm > EPSILON) {
+				float norm = (float) Math.sqrt(sqrNorm);
+				ax /= norm;
+				ay /= norm;
+				az /= norm;
+			} else {
+				return;
+			}
+		}
+		double halfAngle = Math.toRadians(angle) / 2;
+		float s = (float) Math.sin(halfAngle);
+		rotate(s * ax, s * ay, s * az, (float) Math.cos(halfAngle));
 	}
 
 	/**
 	 */
 	public void postRotateQuat(float qx, float qy, float qz, float qw) {
-		_rotateQuat(matrix, qx, qy, qz, qw);
+		if (qx == 0 && qy == 0 && qz == 0 && qw == 0) {
+			throw new IllegalArgumentException();
+		}
+		float norm = (float) Math.sqrt(qx * qx + qy * qy + qz * qz + qw * qw);
+		rotate(qx / norm, qy / norm, qz / norm, qw / norm);
 	}
 
 	/**
 	 */
 	public void postTranslate(float tx, float ty, float tz) {
-		_translate(matrix, tx, ty, tz);
+		if (tx == 0 && ty == 0 && tz == 0) {
+			return;
+		}
+		float[] m = this.m;
+		int rows = type == TYPE_GENERAL ? 16 : 12;
+		for (int row = 0; row < rows; row += 4) {
+			m[row + 3] += m[row] * tx + m[row + 1] * ty + m[row + 2] * tz;
+		}
+		if (type == TYPE_IDENTITY) {
+			type = TYPE_AFFINE;
+		}
+		serialized = false;
 	}
 
 	/**
@@ -111,9 +248,19 @@ public class Transform {
 		if ((v.length % 4) != 0) {
 			throw new IllegalArgumentException();
 		}
-
-		if (v.length != 0) {
-			_transformTable(matrix, v);
+		if (type == TYPE_IDENTITY) {
+			return;
+		}
+		float[] m = this.m;
+		boolean affine = type == TYPE_AFFINE;
+		for (int i = 0; i < v.length; i += 4) {
+			float x = v[i], y = v[i + 1], z = v[i + 2], w = v[i + 3];
+			v[i] = m[0] * x + m[1] * y + m[2] * z + m[3] * w;
+			v[i + 1] = m[4] * x + m[5] * y + m[6] * z + m[7] * w;
+			v[i + 2] = m[8] * x + m[9] * y + m[10] * z + m[11] * w;
+			if (!affine) {
+				v[i + 3] = m[12] * x + m[13] * y + m[14] * z + m[15] * w;
+			}
 		}
 	}
 
@@ -124,35 +271,195 @@ public class Transform {
 			throw new NullPointerException();
 		}
 
-		_transformArray(matrix, in.handle, out, W);
+		_transformArray(serialize(), in.handle, out, W);
+	}
+
+	//------------------------------------------------------------------
+	// Package methods
+	//------------------------------------------------------------------
+
+	/**
+	 * Get the matrix in the native layout, to be passed to the native code.
+	 * If the native code writes a matrix into it, {@link #deserialize()} must be called.
+	 */
+	byte[] serialize() {
+		if (!serialized) {
+			ByteBuffer buffer = this.buffer;
+			float[] m = this.m;
+			// the native elements are in column-major order
+			for (int col = 0; col < 4; col++) {
+				for (int row = 0; row < 4; row++) {
+					buffer.putFloat((col * 4 + row) * 4, m[row * 4 + col]);
+				}
+			}
+			buffer.putInt(NATIVE_MASK, 0);
+			buffer.putInt(NATIVE_FLAGS, NATIVE_COMPLETE);
+			serialized = true;
+		}
+		return matrix;
+	}
+
+	/**
+	 * Read the matrix written by the native code to the array returned by {@link #serialize()}.
+	 */
+	void deserialize() {
+		// the native matrix may be classified with only some elements filled in
+		_getMatrix(matrix, m);
+		classify();
+		serialized = true;
 	}
 
 	//------------------------------------------------------------------
 	// Private methods
 	//------------------------------------------------------------------
 
-	// Native methods
-	private static native void _mul(byte[] prod, byte[] left, byte[] right);
+	private void classify() {
+		float[] m = this.m;
+		serialized = false;
+		if (m[12] != 0 || m[13] != 0 || m[14] != 0 || m[15] != 1) {
+			type = TYPE_GENERAL;
+			return;
+		}
+		for (int i = 0; i < 12; i++) {
+			if (m[i] != ((i % 5 == 0) ? 1 : 0)) {
+				type = TYPE_AFFINE;
+				return;
+			}
+		}
+		type = TYPE_IDENTITY;
+	}
+
+	/**
+	 * Multiply by the rotation of a unit quaternion.
+	 */
+	private void rotate(float qx, float qy, float qz, float qw) {
+		if (Math.abs(qx) < EPSILON && Math.abs(qy) < EPSILON && Math.abs(qz) < EPSILON) {
+			return;
+		}
+		float xx = qx * qx, yy = qy * qy, zz = qz * qz;
+		float xy = qx * qy, xz = qx * qz, yz = qy * qz;
+		float wx = qw * qx, wy = qw * qy, wz = qw * qz;
+		float r00 = 1 - 2 * (yy + zz), r01 = 2 * (xy - wz), r02 = 2 * (xz + wy);
+		float r10 = 2 * (xy + wz), r11 = 1 - 2 * (xx + zz), r12 = 2 * (yz - wx);
+		float r20 = 2 * (xz - wy), r21 = 2 * (yz + wx), r22 = 1 - 2 * (xx + yy);
+
+		float[] m = this.m;
+		int rows = type == TYPE_GENERAL ? 16 : 12;
+		for (int row = 0; row < rows; row += 4) {
+			float a0 = m[row], a1 = m[row + 1], a2 = m[row + 2];
+			m[row] = a0 * r00 + a1 * r10 + a2 * r20;
+			m[row + 1] = a0 * r01 + a1 * r11 + a2 * r21;
+			m[row + 2] = a0 * r02 + a1 * r12 + a2 * r22;
+		}
+		if (type == TYPE_IDENTITY) {
+			type = TYPE_AFFINE;
+		}
+		serialized = false;
+	}
+
+	/**
+	 * Inverse of the upper 3x3 and the inverse translation.
+	 */
+	private void invertAffine() {
+		float[] m = this.m;
+		float c00 = m[5] * m[10] - m[6] * m[9];
+		float c01 = m[6] * m[8] - m[4] * m[10];
+		float c02 = m[4] * m[9] - m[5] * m[8];
+		float det = m[0] * c00 + m[1] * c01 + m[2] * c02;
+		if (det == 0) {
+			throw new ArithmeticException();
+		}
+		float r = 1 / det;
+		float i00 = c00 * r;
+		float i01 = (m[2] * m[9] - m[1] * m[10]) * r;
+		float i02 = (m[1] * m[6] - m[2] * m[5]) * r;
+		float i10 = c01 * r;
+		float i11 = (m[0] * m[10] - m[2] * m[8]) * r;
+		float i12 = (m[2] * m[4] - m[0] * m[6]) * r;
+		float i20 = c02 * r;
+		float i21 = (m[1] * m[8] - m[0] * m[9]) * r;
+		float i22 = (m[0] * m[5] - m[1] * m[4]) * r;
+		float tx = m[3], ty = m[7], tz = m[11];
+		m[0] = i00;
+		m[1] = i01;
+		m[2] = i02;
+		m[3] = -(i00 * tx + i01 * ty + i02 * tz);
+		m[4] = i10;
+		m[5] = i11;
+		m[6] = i12;
+		m[7] = -(i10 * tx + i11 * ty + i12 * tz);
+		m[8] = i20;
+		m[9] = i21;
+		m[10] = i22;
+		m[11] = -(i20 * tx + i21 * ty + i22 * tz);
+	}
+
+	/**
+	 * Full 4x4 inverse by cofactors.
+	 */
+	private void invertGeneral() {
+		float[] m = this.m;
+		float s0 = m[0] * m[5] - m[4] * m[1];
+		float s1 = m[0] * m[6] - m[4] * m[2];
+		float s2 = m[0] * m[7] - m[4] * m[3];
+		float s3 = m[1] * m[6] - m[5] * m[2];
+		float s4 = m[1] * m[7] - m[5] * m[3];
+		float s5 = m[2] * m[7] - m[6] * m[3];
+		float c5 = m[10] * m[15] - m[14] * m[11];
+		float c4 = m[9] * m[15] - m[13] * m[11];
+		float c3 = m[9] * m[14] - m[13] * m[10];
+		float c2 = m[8] * m[15] - m[12] * m[11];
+		float c1 = m[8] * m[14] - m[12] * m[10];
+		float c0 = m[8] * m[13] - m[12] * m[9];
+		float det = s0 * c5 - s1 * c4 + s2 * c3 + s3 * c2 - s4 * c1 + s5 * c0;
+		if (det == 0) {
+			throw new ArithmeticException();
+		}
+		float r = 1 / det;
+		float a00 = m[0], a01 = m[1], a02 = m[2], a03 = m[3];
+		float a10 = m[4], a11 = m[5], a12 = m[6], a13 = m[7];
+		float a20 = m[8], a21 = m[9], a22 = m[10], a23 = m[11];
+		float a30 = m[12], a31 = m[13], a32 = m[14], a33 = m[15];
+		m[0] = (a11 * c5 - a12 * c4 + a13 * c3) * r;
+		m[1] = (-a01 * c5 + a02 * c4 - a03 * c3) * r;
+		m[2] = (a31 * s5 - a32 * s4 + a33 * s3) * r;
+		m[3] = (-a21 * s5 + a22 * s4 - a23 * s3) * r;
+		m[4] = (-a10 * c5 + a12 * c2 - a13 * c1) * r;
+		m[5] = (a00 * c5 - a02 * c2 + a03 * c1) * r;
+		m[6] = (-a30 * s5 + a32 * s2 - a33 * s1) * r;
+		m[7] = (a20 * s5 - a22 * s2 + a23 * s1) * r;
+		m[8] = (a10 * c4 - a11 * c2 + a13 * c0) * r;
+		m[9] = (-a00 * c4 + a01 * c2 - a03 * c0) * r;
+		m[10] = (a30 * s4 - a31 * s2 + a33 * s0) * r;
+		m[11] = (-a20 * s4 + a21 * s2 - a23 * s0) * r;
+		m[12] = (-a10 * c3 + a11 * c1 - a12 * c0) * r;
+		m[13] = (a00 * c3 - a01 * c1 + a02 * c0) * r;
+		m[14] = (-a30 * s3 + a31 * s1 - a32 * s0) * r;
+		m[15] = (a20 * s3 - a21 * s1 + a22 * s0) * r;
+	}
+
+	// Native methods, the ones not used here are kept for the comparison in TransformBenchmark
+	static native void _mul(byte[] prod, byte[] left, byte[] right);
 
-	private static native void _setIdentity(byte[] matrix);
+	static native void _setIdentity(byte[] matrix);
 
-	private static native void _setMatrix(byte[] matrix, float[] srcMatrix);
+	static native void _setMatrix(byte[] matrix, float[] srcMatrix);
 
-	private static native void _getMatrix(byte[] matrix, float[] dstMatrix);
+	static native void _getMatrix(byte[] matrix, float[] dstMatrix);
 
-	private static native void _invert(byte[] matrix);
+	static native void _invert(byte[] matrix);
 
-	private static native void _transpose(byte[] matrix);
+	static native void _transpose(byte[] matrix);
 
-	private static native void _rotate(byte[] matrix, float angle, float ax, float ay, float az);
+	static native void _rotate(byte[] matrix, float angle, float ax, float ay, float az);
 
-	private static native void _rotateQuat(byte[] matrix, float qx, float qy, float qz, float qw);
+	static native void _rotateQuat(byte[] matrix, float qx, float qy, float qz, float qw);
 
-	private static native void _scale(byte[] matrix, float sx, float sy, float sz);
+	static native void _scale(byte[] matrix, float sx, float sy, float sz);
 
-	private static native void _translate(byte[] matrix, float tx, float ty, float tz);
+	static native void _translate(byte[] matrix, float tx, float ty, float tz);
 
-	private static native void _transformTable(byte[] matrix, float[] v);
+	static native void _transformTable(byte[] matrix, float[] v);
 
 	private static native void _transformArray(byte[] matrix, long handle, float[] out, boolean W);
 }
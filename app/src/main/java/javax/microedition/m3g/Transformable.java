@@ -75,15 +75,17 @@ public abstract class Transformable extends Object3D {
 	}
 
 	public void setTransform(Transform transform) {
-		_setTransform(handle, (transform != null) ? transform.matrix : null);
+		_setTransform(handle, (transform != null) ? transform.serialize() : null);
 	}
 
 	public void getTransform(Transform transform) {
-		_getTransform(handle, transform.matrix);
+		_getTransform(handle, transform.serialize());
+		transform.deserialize();
 	}
 
 	public void getCompositeTransform(Transform transform) {
-		_getComposite(handle, transform.matrix);
+		_getComposite(handle, transform.serialize());
+		transform.deserialize();
 	}
 
 	//------------------------------------------------------------------
@@ -67,6 +67,12 @@ public class VertexArray extends Object3D {
 		return _getVertexCount(handle);
 	}
 
+	@Override
+	int getNativeSize() {
+		return super.getNativeSize()
+				+ _getVertexCount(handle) * _getComponentCount(handle) * _getComponentType(handle);
+	}
+
 	//------------------------------------------------------------------
 	// Private methods
 	//------------------------------------------------------------------
@@ -20,6 +20,7 @@ package javax.microedition.media;
 import android.Manifest;
 import android.webkit.MimeTypeMap;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
@@ -72,7 +73,7 @@ public class Manager {
 			}
 			SourceStream sourceStream = sourceStreams[0];
 			InputStream stream = new InternalSourceStream(sourceStream);
-			return new MicroPlayer(new InternalDataSource(stream, type));
+			return createPlayer(new InternalDataSource(stream, type));
 		} else {
 			return new BasePlayer();
 		}
@@ -84,12 +85,28 @@ public class Manager {
 		}
 		String[] supportedTypes = getSupportedContentTypes(null);
 		if (type != null && Arrays.asList(supportedTypes).contains(type.toLowerCase())) {
-			return new MicroPlayer(new InternalDataSource(stream, type));
+			return createPlayer(new InternalDataSource(stream, type));
 		} else {
 			return new BasePlayer();
 		}
 	}
 
+	/**
+	 * Short PCM sounds are played by the mixer, the rest by the MediaPlayer.
+	 */
+	private static Player createPlayer(InternalDataSource source) {
+		String type = source.getContentType().toLowerCase();
+		if (type.equals("audio/wav") || type.equals("audio/x-wav")) {
+			short[] samples = SoundMixer.getInstance().getClip(new File(source.getLocator()));
+			if (samples != null) {
+				// the samples are decoded, the file isn't needed anymore
+				source.disconnect();
+				return new MixerPlayer(samples, type);
+			}
+		}
+		return new MicroPlayer(source);
+	}
+
 	public static String[] getSupportedContentTypes(String str) {
 		return new String[]{"audio/wav", "audio/x-wav", "audio/midi", "audio/x-midi",
 				"audio/mpeg", "audio/aac", "audio/amr", "audio/amr-wb", "audio/mp3",
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.media;
+
+import android.util.Log;
+
+import com.arthenica.mobileffmpeg.Config;
+import com.arthenica.mobileffmpeg.FFmpeg;
+import com.arthenica.mobileffmpeg.FFprobe;
+import com.arthenica.mobileffmpeg.MediaInformation;
+import com.arthenica.mobileffmpeg.StreamInformation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.microedition.util.ContextHolder;
+
+import ru.playsoftware.j2meloader.util.WavUtils;
+
+/**
+ * Content-addressed cache of the media files passed to the players.
+ * <p>
+ * Streams are stored by the hash of their contents, computed while they are read,
+ * so the same sound is probed and converted only once, whatever player it is created for.
+ * A stored file is already playable: either the original data, known to need no conversion,
+ * or the output of the conversion. Small streams are kept in memory until the hash is known
+ * and are not written at all if the cache has them.
+ * The least recently used files are removed when the cache exceeds its size limit,
+ * except the files handed out to the players that aren't released yet: a player opens its file
+ * lazily and may do it more than once, e.g. on every realize.
+ * The cache is kept in the application cache directory, it outlives the MIDlet launches.
+ */
+class MediaCache {
+	private static final String TAG = MediaCache.class.getName();
+
+	private static final long MAX_SIZE = 32 * 1024 * 1024;
+	private static final int MEMORY_LIMIT = 1024 * 1024;
+	private static final String CONVERTED_SUFFIX = ".pcm.wav";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final long STALE_TEMP_AGE = 60 * 60 * 1000;
+
+	private static MediaCache instance;
+
+	private final File dir;
+	/** Number of the users of the handed out files by their names, guarded by the cache */
+	private final HashMap<String, Integer> pinned = new HashMap<>();
+
+	private MediaCache(File dir) {
+		this.dir = dir;
+		//noinspection ResultOfMethodCallIgnored
+		dir.mkdirs();
+	}
+
+	static synchronized MediaCache getInstance() {
+		if (instance == null) {
+			instance = new MediaCache(new File(ContextHolder.getAppContext().getCacheDir(), "media"));
+		}
+		return instance;
+	}
+
+	/**
+	 * Read the stream and return the playable file with its contents. The stream is closed.
+	 * The file is kept in the cache until it is passed to {@link #release(File)}.
+	 *
+	 * @param extension extension of the media type, with the dot
+	 */
+	File obtain(InputStream stream, String extension) throws IOException {
+		MessageDigest digest = newDigest();
+		ByteArrayOutputStream head = new ByteArrayOutputStream();
+		File spill = null;
+		OutputStream out = null;
+		byte[] buf = new byte[0x10000];
+		try {
+			int read;
+			while ((read = stream.read(buf)) != -1) {
+				digest.update(buf, 0, read);
+				if (out != null) {
+					out.write(buf, 0, read);
+					continue;
+				}
+				head.write(buf, 0, read);
+				if (head.size() > MEMORY_LIMIT) {
+					spill = File.createTempFile("media", TEMP_SUFFIX, dir);
+					out = new FileOutputStream(spill);
+					head.writeTo(out);
+					head = null;
+				}
+			}
+		} catch (IOException e) {
+			// play what has been read, as before
+			Log.d(TAG, "Media pipe failure: " + e.toString());
+		} finally {
+			stream.close();
+			if (out != null) {
+				out.close();
+			}
+		}
+
+		String key = String.format("%040x", new BigInteger(1, digest.digest()));
+		File cached = lookupAndPin(key, extension);
+		if (cached != null) {
+			Log.d(TAG, "obtain: cache hit " + cached.getName());
+			if (spill != null) {
+				//noinspection ResultOfMethodCallIgnored
+				spill.delete();
+			}
+			return cached;
+		}
+		if (spill == null) {
+			spill = File.createTempFile("media", TEMP_SUFFIX, dir);
+			try (OutputStream os = new FileOutputStream(spill)) {
+				head.writeTo(os);
+			}
+		}
+		File result = store(spill, key, extension);
+		pin(result);
+		trim();
+		return result;
+	}
+
+	/**
+	 * The file returned by {@link #obtain(InputStream, String)} isn't used anymore.
+	 */
+	synchronized void release(File file) {
+		String name = file.getName();
+		Integer count = pinned.get(name);
+		if (count == null) {
+			return;
+		}
+		if (count > 1) {
+			pinned.put(name, count - 1);
+		} else {
+			pinned.remove(name);
+		}
+	}
+
+	private synchronized void pin(File file) {
+		String name = file.getName();
+		Integer count = pinned.get(name);
+		pinned.put(name, count == null ? 1 : count + 1);
+	}
+
+	private synchronized File lookupAndPin(String key, String extension) {
+		File file = new File(dir, key + CONVERTED_SUFFIX);
+		if (!file.isFile()) {
+			file = new File(dir, key + extension);
+			if (!file.isFile()) {
+				return null;
+			}
+		}
+		//noinspection ResultOfMethodCallIgnored
+		file.setLastModified(System.currentTimeMillis());
+		pin(file);
+		return file;
+	}
+
+	/**
+	 * Probe the file and convert it if Android can't play it, then move it to its place.
+	 */
+	private File store(File source, String key, String extension) {
+		try {
+			if (needsConversion(source)) {
+				File converted = new File(dir, key + CONVERTED_SUFFIX);
+				File temp = new File(dir, key + TEMP_SUFFIX + ".wav");
+				String cmd = "-y -i " + source.getPath() + " -acodec pcm_u8 -ar 16000 " + temp.getPath();
+				int rc = FFmpeg.execute(cmd);
+				if (rc == Config.RETURN_CODE_SUCCESS && temp.renameTo(converted)) {
+					Log.i(TAG, "Command execution completed successfully.");
+					//noinspection ResultOfMethodCallIgnored
+					source.delete();
+					return converted;
+				}
+				Log.i(TAG, String.format("Command execution failed with rc=%d.", rc));
+				//noinspection ResultOfMethodCallIgnored
+				temp.delete();
+			}
+		} catch (Throwable t) {
+			Log.e(TAG, "FFmpeg error", t);
+		}
+		File original = new File(dir, key + extension);
+		if (source.renameTo(original)) {
+			return original;
+		}
+		Log.w(TAG, "store: can't rename " + source + " to " + original);
+		return source;
+	}
+
+	static boolean needsConversion(File file) throws IOException {
+		// most sounds are WAV, their header tells the codec without a probe
+		int format = WavUtils.getFormat(file);
+		if (format != WavUtils.FORMAT_UNKNOWN) {
+			return WavUtils.isAdpcm(format);
+		}
+		MediaInformation mediaInformation = FFprobe.getMediaInformation(file.getPath());
+		if (mediaInformation == null) {
+			return false;
+		}
+		List<StreamInformation> streams = mediaInformation.getStreams();
+		if (streams == null || streams.isEmpty()) {
+			return false;
+		}
+		String codec = streams.get(0).getCodec();
+		return codec != null && codec.contains("adpcm");
+	}
+
+	private synchronized void trim() {
+		File[] list = dir.listFiles(File::isFile);
+		if (list == null) {
+			return;
+		}
+		long staleTime = System.currentTimeMillis() - STALE_TEMP_AGE;
+		List<File> files = new ArrayList<>(list.length);
+		long size = 0;
+		for (File file : list) {
+			// files being written by other players are left alone
+			if (file.getName().contains(TEMP_SUFFIX)) {
+				if (file.lastModified() < staleTime) {
+					//noinspection ResultOfMethodCallIgnored
+					file.delete();
+				}
+				continue;
+			}
+			size += file.length();
+			// files of the players that aren't released count, but stay
+			if (!pinned.containsKey(file.getName())) {
+				files.add(file);
+			}
+		}
+		if (size <= MAX_SIZE) {
+			return;
+		}
+		Collections.sort(files, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+		int removed = 0;
+		for (int i = 0; i < files.size() && size > MAX_SIZE * 3 / 4; i++) {
+			File file = files.get(i);
+			size -= file.length();
+			if (file.delete()) {
+				removed++;
+			}
+		}
+		Log.d(TAG, "trim: " + removed + " files removed");
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
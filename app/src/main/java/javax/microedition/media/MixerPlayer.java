@@ -0,0 +1,285 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.media;
+
+import java.util.ArrayList;
+
+import javax.microedition.media.control.VolumeControl;
+
+/**
+ * Player of a short sound decoded to memory, played by the {@link SoundMixer}.
+ * <p>
+ * There is nothing to realize or prefetch, the samples are ready when the player is created.
+ */
+public class MixerPlayer extends BasePlayer implements SoundMixer.Listener, VolumeControl {
+	private final SoundMixer mixer;
+	private short[] samples;
+	private final String contentType;
+	private final ArrayList<PlayerListener> listeners = new ArrayList<>();
+
+	private int state = UNREALIZED;
+	private int loopCount = 1;
+	/** Voice of the mixer while started */
+	private int handle;
+	/** Sample to continue from when stopped */
+	private int position;
+
+	private boolean mute;
+	private int level = 100;
+
+	/**
+	 * @param samples samples at the rate of the mixer
+	 */
+	public MixerPlayer(short[] samples, String contentType) {
+		this.mixer = SoundMixer.getInstance();
+		this.samples = samples;
+		this.contentType = contentType;
+	}
+
+	/**
+	 * Replace the sound, the player must not be started.
+	 */
+	synchronized void setSamples(short[] samples) {
+		this.samples = samples;
+		position = 0;
+	}
+
+	private void checkClosed() {
+		if (state == CLOSED) {
+			throw new IllegalStateException("player is closed");
+		}
+	}
+
+	private void checkRealized() {
+		checkClosed();
+
+		if (state == UNREALIZED) {
+			throw new IllegalStateException("call realize() before using the player");
+		}
+	}
+
+	@Override
+	public Control getControl(String controlType) {
+		checkRealized();
+		if (controlType.equals("VolumeControl") || controlType.equals(VolumeControl.class.getName())) {
+			return this;
+		}
+		return null;
+	}
+
+	@Override
+	public Control[] getControls() {
+		checkRealized();
+		return new Control[]{this};
+	}
+
+	@Override
+	public synchronized void addPlayerListener(PlayerListener playerListener) {
+		checkClosed();
+		if (!listeners.contains(playerListener) && playerListener != null) {
+			listeners.add(playerListener);
+		}
+	}
+
+	@Override
+	public synchronized void removePlayerListener(PlayerListener playerListener) {
+		checkClosed();
+		listeners.remove(playerListener);
+	}
+
+	private void postEvent(String event, Object eventData) {
+		for (PlayerListener listener : listeners) {
+			mixer.post(() -> listener.playerUpdate(this, event, eventData));
+		}
+	}
+
+	@Override
+	public synchronized void onVoiceEnd(int handle) {
+		if (state != STARTED || handle != this.handle) {
+			return;
+		}
+		state = PREFETCHED;
+		position = 0;
+		postEvent(PlayerListener.END_OF_MEDIA, getDuration());
+	}
+
+	@Override
+	public synchronized void realize() {
+		checkClosed();
+		if (state == UNREALIZED) {
+			state = REALIZED;
+		}
+	}
+
+	@Override
+	public synchronized void prefetch() {
+		realize();
+		if (state == REALIZED) {
+			state = PREFETCHED;
+		}
+	}
+
+	@Override
+	public synchronized void start() {
+		prefetch();
+		if (state == PREFETCHED) {
+			handle = mixer.play(samples, position, loopCount, getGain(), this);
+			state = STARTED;
+			postEvent(PlayerListener.STARTED, getMediaTime());
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		checkClosed();
+		if (state == STARTED) {
+			int stopped = mixer.stop(handle);
+			position = stopped == -1 ? 0 : stopped;
+			state = PREFETCHED;
+			postEvent(PlayerListener.STOPPED, getMediaTime());
+		}
+	}
+
+	@Override
+	public synchronized void deallocate() {
+		stop();
+		if (state == PREFETCHED) {
+			state = REALIZED;
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (state == CLOSED) {
+			return;
+		}
+		if (state == STARTED) {
+			mixer.stop(handle);
+		}
+		state = CLOSED;
+		postEvent(PlayerListener.CLOSED, null);
+	}
+
+	@Override
+	public synchronized long setMediaTime(long now) {
+		checkRealized();
+		long sample = Math.max(0, now) * mixer.getSampleRate() / 1000000;
+		int newPosition = (int) Math.min(sample, samples.length);
+		if (state == STARTED) {
+			mixer.stop(handle);
+			handle = mixer.play(samples, newPosition, loopCount, getGain(), this);
+		}
+		position = newPosition;
+		return getMediaTime();
+	}
+
+	@Override
+	public synchronized long getMediaTime() {
+		checkClosed();
+		int current = position;
+		if (state == STARTED) {
+			current = mixer.getPosition(handle);
+			if (current == -1) {
+				current = samples.length;
+			}
+		}
+		return current * 1000000L / mixer.getSampleRate();
+	}
+
+	@Override
+	public synchronized long getDuration() {
+		checkClosed();
+		return samples.length * 1000000L / mixer.getSampleRate();
+	}
+
+	@Override
+	public synchronized void setLoopCount(int count) {
+		checkClosed();
+		if (state == STARTED) {
+			throw new IllegalStateException("player must not be in STARTED state while using setLoopCount()");
+		}
+		if (count == 0) {
+			throw new IllegalArgumentException("loop count must not be 0");
+		}
+		loopCount = count;
+	}
+
+	@Override
+	public synchronized int getState() {
+		return state;
+	}
+
+	@Override
+	public String getContentType() {
+		checkRealized();
+		return contentType;
+	}
+
+	// VolumeControl
+
+	private int getGain() {
+		if (mute) {
+			return 0;
+		}
+		if (level == 100) {
+			return SoundMixer.MAX_GAIN;
+		}
+		// the same curve as MicroPlayer
+		return (int) (SoundMixer.MAX_GAIN * (1 - Math.log(100 - level) / Math.log(100)));
+	}
+
+	private void updateVolume() {
+		if (state == STARTED) {
+			mixer.setGain(handle, getGain());
+		}
+		postEvent(PlayerListener.VOLUME_CHANGED, this);
+	}
+
+	@Override
+	public synchronized void setMute(boolean mute) {
+		if (state == CLOSED) {
+			return;
+		}
+		this.mute = mute;
+		updateVolume();
+	}
+
+	@Override
+	public boolean isMuted() {
+		return mute;
+	}
+
+	@Override
+	public synchronized int setLevel(int level) {
+		if (state == CLOSED) {
+			return this.level;
+		}
+		if (level < 0) {
+			level = 0;
+		} else if (level > 100) {
+			level = 100;
+		}
+		this.level = level;
+		updateVolume();
+		return level;
+	}
+
+	@Override
+	public int getLevel() {
+		return level;
+	}
+}
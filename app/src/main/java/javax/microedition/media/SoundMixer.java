@@ -0,0 +1,429 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.media;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ru.playsoftware.j2meloader.util.IOUtils;
+import ru.playsoftware.j2meloader.util.WavUtils;
+
+/**
+ * Software mixer of the short sounds: sound effects and tones.
+ * <p>
+ * All voices are mixed on one thread into one {@link AudioTrack}, so starting a sound
+ * costs no player setup and the latency is the length of the track buffer.
+ * The number of voices is fixed, when all of them are busy the oldest one is stolen.
+ * Clips are decoded once to 16-bit mono samples at the output rate and kept in memory
+ * while the cache has room for them. The track is paused after a second of silence.
+ */
+public final class SoundMixer {
+	private static final String TAG = SoundMixer.class.getName();
+
+	private static final int VOICES = 16;
+	/** Frames mixed per write */
+	private static final int BLOCK = 256;
+	/** Larger WAV files are left to the MediaPlayer */
+	private static final int MAX_CLIP_SIZE = 512 * 1024;
+	/** Longer clips are left to the MediaPlayer, they would take much memory at the output rate */
+	private static final int MAX_CLIP_MILLIS = 5000;
+	/** Decoded samples kept in memory */
+	private static final int CACHE_SAMPLES = 4 * 1024 * 1024;
+	private static final int TONE_RAMP_MILLIS = 5;
+	public static final int MAX_GAIN = 256;
+
+	private static SoundMixer instance;
+
+	private final int sampleRate;
+	/** Silent blocks written before the track is paused */
+	private final int idleBlocks;
+	private final AudioTrack track;
+	/** Size of the track buffer in frames */
+	private final int bufferFrames;
+	private final Voice[] voices = new Voice[VOICES];
+	private final Listener[] ended = new Listener[VOICES];
+	private final int[] endedHandles = new int[VOICES];
+	private final LinkedHashMap<String, short[]> clips = new LinkedHashMap<>(16, 0.75f, true);
+	private final ExecutorService callbacks = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "MIDletPlayerCallback");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private int cachedSamples;
+	private int active;
+	private long serial;
+	/** Time when the first samples of the last started voice were written to the track */
+	private volatile long firstSampleTime;
+
+	/**
+	 * Receives the end of a voice on the callback thread
+	 */
+	public interface Listener {
+		/**
+		 * @param handle handle of the voice returned by {@link #play}
+		 */
+		void onVoiceEnd(int handle);
+	}
+
+	private static final class Voice {
+		short[] samples;
+		int position;
+		int loops;
+		int gain;
+		Listener listener;
+		long serial;
+		int generation;
+		/** Not mixed yet */
+		boolean pending;
+	}
+
+	private SoundMixer() {
+		sampleRate = AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+		idleBlocks = sampleRate / BLOCK;
+		int minSize = AudioTrack.getMinBufferSize(sampleRate,
+				AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+		bufferFrames = Math.max(minSize / 2, BLOCK * 2);
+		track = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate,
+				AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT,
+				bufferFrames * 2, AudioTrack.MODE_STREAM);
+		for (int i = 0; i < VOICES; i++) {
+			voices[i] = new Voice();
+		}
+		Thread thread = new Thread(this::mix, "SoundMixer");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+		Log.d(TAG, "Mixer started: " + sampleRate + " Hz, buffer " + minSize + " bytes");
+	}
+
+	public static synchronized SoundMixer getInstance() {
+		if (instance == null) {
+			instance = new SoundMixer();
+		}
+		return instance;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Decoded samples of a WAV file, read once and then taken from the cache.
+	 *
+	 * @return the samples or null if the file is not a short PCM WAV file,
+	 * the length is checked after the resampling to the output rate
+	 */
+	public short[] getClip(File file) {
+		String key = file.getPath();
+		synchronized (clips) {
+			short[] samples = clips.get(key);
+			if (samples != null) {
+				return samples;
+			}
+		}
+		if (file.length() > MAX_CLIP_SIZE) {
+			return null;
+		}
+		byte[] data;
+		try (InputStream is = new FileInputStream(file)) {
+			data = IOUtils.toByteArray(is);
+		} catch (IOException e) {
+			Log.w(TAG, "getClip: can't read " + file, e);
+			return null;
+		}
+		short[] samples = WavUtils.decodePcm(data, sampleRate,
+				(int) ((long) sampleRate * MAX_CLIP_MILLIS / 1000));
+		if (samples != null) {
+			putClip(key, samples);
+		}
+		return samples;
+	}
+
+	/**
+	 * Sine tone with short fade in and out, so it doesn't click.
+	 *
+	 * @param frequency frequency in Hz, zero is a pause
+	 * @param duration  duration in milliseconds
+	 */
+	public short[] getTone(int frequency, int duration) {
+		String key = "tone:" + frequency + ':' + duration;
+		synchronized (clips) {
+			short[] samples = clips.get(key);
+			if (samples != null) {
+				return samples;
+			}
+		}
+		int count = (int) ((long) duration * sampleRate / 1000);
+		short[] samples = new short[count];
+		if (frequency > 0 && frequency < sampleRate / 2) {
+			int ramp = Math.min(sampleRate * TONE_RAMP_MILLIS / 1000, count / 2);
+			double step = 2 * Math.PI * frequency / sampleRate;
+			for (int i = 0; i < count; i++) {
+				double amplitude = Short.MAX_VALUE / 2;
+				int edge = Math.min(i, count - 1 - i);
+				if (edge < ramp) {
+					amplitude = amplitude * edge / ramp;
+				}
+				samples[i] = (short) (Math.sin(step * i) * amplitude);
+			}
+		}
+		putClip(key, samples);
+		return samples;
+	}
+
+	private void putClip(String key, short[] samples) {
+		synchronized (clips) {
+			if (clips.put(key, samples) == null) {
+				cachedSamples += samples.length;
+			}
+			Iterator<Map.Entry<String, short[]>> iterator = clips.entrySet().iterator();
+			while (cachedSamples > CACHE_SAMPLES && iterator.hasNext()) {
+				short[] eldest = iterator.next().getValue();
+				if (eldest == samples) {
+					break;
+				}
+				cachedSamples -= eldest.length;
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Start a voice, stealing the oldest one if all of them are busy.
+	 *
+	 * @param position first sample
+	 * @param loops    number of times to play, -1 plays until stopped
+	 * @param gain     volume from 0 to {@link #MAX_GAIN}
+	 * @param listener receives the end of the voice, may be null
+	 * @return handle of the voice
+	 */
+	public synchronized int play(short[] samples, int position, int loops, int gain, Listener listener) {
+		int index = -1;
+		long oldest = Long.MAX_VALUE;
+		for (int i = 0; i < VOICES; i++) {
+			Voice voice = voices[i];
+			if (voice.samples == null) {
+				index = i;
+				break;
+			}
+			if (voice.serial < oldest) {
+				oldest = voice.serial;
+				index = i;
+			}
+		}
+		Voice voice = voices[index];
+		if (voice.samples != null) {
+			Listener stolen = voice.listener;
+			if (stolen != null) {
+				// the caller may hold the lock of another player
+				int stolenHandle = handle(index, voice);
+				callbacks.execute(() -> stolen.onVoiceEnd(stolenHandle));
+			}
+			release(voice);
+		}
+		voice.samples = samples;
+		voice.position = Math.max(0, Math.min(position, samples.length));
+		voice.loops = loops;
+		voice.gain = gain;
+		voice.listener = listener;
+		voice.serial = ++serial;
+		voice.pending = true;
+		voice.generation = (voice.generation + 1) & 0xFFFFFF;
+		if (active++ == 0) {
+			notifyAll();
+		}
+		return handle(index, voice);
+	}
+
+	/**
+	 * Stop the voice if it still plays the sound it was started with.
+	 *
+	 * @return position of the voice or -1 if it has already ended
+	 */
+	public synchronized int stop(int handle) {
+		Voice voice = getVoice(handle);
+		if (voice == null) {
+			return -1;
+		}
+		int position = voice.position;
+		release(voice);
+		return position;
+	}
+
+	/**
+	 * @return position of the voice or -1 if it has already ended
+	 */
+	public synchronized int getPosition(int handle) {
+		Voice voice = getVoice(handle);
+		return voice == null ? -1 : voice.position;
+	}
+
+	public synchronized void setGain(int handle, int gain) {
+		Voice voice = getVoice(handle);
+		if (voice != null) {
+			voice.gain = gain;
+		}
+	}
+
+	/**
+	 * Time when the first samples of the last started voice were written to the track,
+	 * in {@link System#nanoTime()} terms. The output latency of the track is not included.
+	 */
+	public long getFirstSampleTime() {
+		return firstSampleTime;
+	}
+
+	/**
+	 * @return time to play the track buffer in milliseconds
+	 */
+	public int getBufferLatency() {
+		return bufferFrames * 1000 / sampleRate;
+	}
+
+	/**
+	 * Run a callback of the players on the one thread of the mixer callbacks.
+	 */
+	void post(Runnable callback) {
+		callbacks.execute(callback);
+	}
+
+	private Voice getVoice(int handle) {
+		Voice voice = voices[handle & 0xFF];
+		if (voice.samples == null || voice.generation != handle >>> 8) {
+			return null;
+		}
+		return voice;
+	}
+
+	private static int handle(int index, Voice voice) {
+		return voice.generation << 8 | index;
+	}
+
+	private void release(Voice voice) {
+		voice.samples = null;
+		voice.listener = null;
+		active--;
+	}
+
+	private void mix() {
+		int[] sum = new int[BLOCK];
+		short[] out = new short[BLOCK];
+		int idle = idleBlocks;
+		boolean playing = false;
+		boolean started;
+		while (true) {
+			int endedCount = 0;
+			synchronized (this) {
+				while (active == 0 && idle >= idleBlocks) {
+					if (playing) {
+						track.pause();
+						playing = false;
+					}
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (!playing) {
+					track.play();
+					playing = true;
+				}
+				idle = active == 0 ? idle + 1 : 0;
+				started = false;
+				Arrays.fill(sum, 0);
+				for (int i = 0; i < VOICES; i++) {
+					Voice voice = voices[i];
+					if (voice.samples == null) {
+						continue;
+					}
+					if (voice.pending) {
+						voice.pending = false;
+						started = true;
+					}
+					if (mixVoice(voice, sum)) {
+						if (voice.listener != null) {
+							ended[endedCount] = voice.listener;
+							endedHandles[endedCount++] = handle(i, voice);
+						}
+						release(voice);
+					}
+				}
+			}
+			for (int i = 0; i < BLOCK; i++) {
+				int s = sum[i];
+				out[i] = (short) (s > Short.MAX_VALUE ? Short.MAX_VALUE : s < Short.MIN_VALUE ? Short.MIN_VALUE : s);
+			}
+			for (int i = 0; i < endedCount; i++) {
+				// the listener may wait for a player lock, the mixing must go on
+				Listener listener = ended[i];
+				int handle = endedHandles[i];
+				callbacks.execute(() -> listener.onVoiceEnd(handle));
+				ended[i] = null;
+			}
+			// blocks until the track has room, this paces the mixing
+			track.write(out, 0, BLOCK);
+			if (started) {
+				firstSampleTime = System.nanoTime();
+			}
+		}
+	}
+
+	/**
+	 * Add a block of the voice to the sum.
+	 *
+	 * @return true if the voice has ended
+	 */
+	private static boolean mixVoice(Voice voice, int[] sum) {
+		short[] samples = voice.samples;
+		int gain = voice.gain;
+		int position = voice.position;
+		int i = 0;
+		while (i < BLOCK) {
+			if (position >= samples.length) {
+				if (voice.loops == -1 || --voice.loops > 0) {
+					position = 0;
+					if (samples.length == 0) {
+						return true;
+					}
+				} else {
+					voice.position = position;
+					return true;
+				}
+			}
+			int n = Math.min(BLOCK - i, samples.length - position);
+			for (int end = i + n; i < end; i++, position++) {
+				sum[i] += samples[position] * gain >> 8;
+			}
+		}
+		voice.position = position;
+		return false;
+	}
+}
@@ -16,76 +16,45 @@
 
 package javax.microedition.media;
 
-import org.billthefarmer.mididriver.MidiDriver;
-
-import java.util.HashMap;
-
 import javax.microedition.media.control.ToneControl;
-import javax.microedition.media.tone.ToneSequence;
+import javax.microedition.media.tone.ToneSynthesizer;
 
-public class TonePlayer extends BasePlayer implements ToneControl {
-
-	private static final byte[] EMPTY_MIDI_SEQUENCE = {
-			0x4D, 0x54, 0x68, 0x64, 0x00, 0x00, 0x00, 0x06, 0x00, 0x00, 0x00, 0x01, 0x00, 0x10,
-			0x4D, 0x54, 0x72, 0x6B, 0x00, 0x00, 0x00, 0x12, 0x00, (byte) 0xFF, 0x51, 0x03,
-			0x07, (byte) 0xA1, 0x20, 0x00, (byte) 0xC0, 0x01, 0x00, (byte) 0x80, 0x40,
-			0x7F, 0x00, (byte) 0xFF, 0x2F, 0x00
-	};
-	private HashMap<String, Control> controls;
-	private MidiDriver midiDriver;
-	private byte[] midiSequence;
-	private long duration;
+/**
+ * Player of tone sequences. The sequence is rendered to PCM by {@link ToneSynthesizer}
+ * and played by the {@link SoundMixer}, no MIDI synthesizer is started.
+ */
+public class TonePlayer extends MixerPlayer implements ToneControl {
+	private static final String CONTENT_TYPE = "audio/x-tone-seq";
 
 	public TonePlayer() {
-		midiDriver = new MidiDriver();
-		midiDriver.start();
-		midiSequence = EMPTY_MIDI_SEQUENCE;
-		controls = new HashMap<>();
-		controls.put(ToneControl.class.getName(), this);
+		super(new short[0], CONTENT_TYPE);
 	}
 
 	@Override
 	public Control getControl(String controlType) {
-		if (!controlType.contains(".")) {
-			controlType = "javax.microedition.media.control." + controlType;
+		if (controlType.equals("ToneControl") || controlType.equals(ToneControl.class.getName())) {
+			return this;
 		}
-		return controls.get(controlType);
+		return super.getControl(controlType);
 	}
 
 	@Override
 	public Control[] getControls() {
-		return controls.values().toArray(new Control[0]);
+		Control[] controls = super.getControls();
+		Control[] result = new Control[controls.length + 1];
+		System.arraycopy(controls, 0, result, 0, controls.length);
+		result[controls.length] = this;
+		return result;
 	}
 
 	@Override
 	public void setSequence(byte[] sequence) {
 		try {
-			ToneSequence tone = new ToneSequence(sequence);
-			tone.process();
-			midiSequence = tone.getByteArray();
-			duration = tone.getDuration();
+			// the spec forbids it after prefetch(), but games do it and it used to work
+			stop();
+			setSamples(ToneSynthesizer.getSamples(sequence, SoundMixer.getInstance().getSampleRate()));
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
-
-	@Override
-	public long getDuration() {
-		return duration;
-	}
-
-	@Override
-	public void start() throws MediaException {
-		midiDriver.queueEvent(midiSequence);
-	}
-
-	@Override
-	public void deallocate() {
-		midiDriver.stop();
-	}
-
-	@Override
-	public void close() {
-		deallocate();
-	}
 }
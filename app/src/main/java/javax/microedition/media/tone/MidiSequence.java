@@ -20,6 +20,7 @@ package javax.microedition.media.tone;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * This class represents midi sequence
@@ -90,6 +91,13 @@ public class MidiSequence {
 	/* Tone sequence duration */
 	private int duration;
 
+	/* Written events for the synthesizer, each is a delta time followed
+	   by the command, first and second parameter packed in an int */
+	private int[] events = new int[MIDI_EVENTS_TRACK_GRANULARITY];
+
+	/* Count of the ints used in events */
+	private int eventsLength;
+
 	/**
 	 * Constructor
 	 *
@@ -182,6 +190,12 @@ public class MidiSequence {
 			duration += length;
 		}
 
+		if (eventsLength + 2 > events.length) {
+			events = Arrays.copyOf(events, events.length * 2);
+		}
+		events[eventsLength++] = length;
+		events[eventsLength++] = (command & 0xFF) << 16 | (event & 0xFF) << 8 | data & 0xFF;
+
 		// attach correct channel number
 		command &= MIDI_EVENT_CHANNEL_MASK;
 		command |= channel;
@@ -192,6 +206,31 @@ public class MidiSequence {
 		midiEventsByteCount += MIDI_EVENT_COMMAND_LENGTH;
 	}
 
+	/**
+	 * Get written events, see {@link ToneSynthesizer} for the layout
+	 */
+	int[] getEvents() {
+		return events;
+	}
+
+	int getEventsLength() {
+		return eventsLength;
+	}
+
+	/**
+	 * Get tempo in MIDI terms
+	 */
+	int getTempo() {
+		return tempo;
+	}
+
+	/**
+	 * Get resolution in MIDI terms
+	 */
+	int getResolution() {
+		return resolution;
+	}
+
 	/**
 	 * Write time interval value
 	 *
@@ -22,6 +22,7 @@ import java.io.IOException;
 import javax.microedition.media.Manager;
 import javax.microedition.media.MediaException;
 import javax.microedition.media.Player;
+import javax.microedition.media.SoundMixer;
 import javax.microedition.media.control.ToneControl;
 
 /**
@@ -32,43 +33,40 @@ public class ToneManager {
 	private static final int TONE_SEQUENCE_VERSION = 1;
 	private static final int TONE_SEQUENCE_RESOLUTION = 64;
 	private static final int TONE_SEQUENCE_TEMPO = 30;
-	private static final int DURATION_DIVIDE = 240000;
+	// a tick is 60000 / (resolution * tempo) ms, the tempo is a quarter of the beats per minute
+	private static final int DURATION_DIVIDE = 60000;
 	private static final String CANNOT_PLAY_TONE = "Cannot play tone";
 
-	public static void play(int note, int duration, int volume) throws MediaException {
-		Player p = createPlayer(note, duration, volume);
-		try {
-			p.start();
-		} catch (MediaException me) {
-			throw me;
-		}
-		new Thread(() -> {
-			try {
-				Thread.sleep(duration * 2);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-			p.deallocate();
-		}).start();
+	/**
+	 * Play the tone on the {@link SoundMixer}, no player is involved.
+	 * The tone is rendered by {@link ToneSynthesizer} once and then taken from its cache.
+	 * It is not converted to a sequence, so the duration is not quantized to its ticks.
+	 */
+	public static void play(int note, int duration, int volume) {
+		volume = checkTone(note, duration, volume);
+		SoundMixer mixer = SoundMixer.getInstance();
+		short[] samples = ToneSynthesizer.getNote(note, duration, volume, mixer.getSampleRate());
+		mixer.play(samples, 0, 1, SoundMixer.MAX_GAIN, null);
 	}
 
 	public static Player createPlayer(int note, int duration, int volume) throws MediaException {
-		if (volume < MidiToneConstants.TONE_MIN_VOLUME) {
-			volume = MidiToneConstants.TONE_MIN_VOLUME;
-		} else if (volume > MidiToneConstants.TONE_MAX_VOLUME) {
-			volume = MidiToneConstants.TONE_MAX_VOLUME;
-		}
+		byte[] sequence = createSequence(note, duration, volume);
 
-		if (note > MidiToneConstants.TONE_MAX_NOTE || note < MidiToneConstants.TONE_MIN_NOTE) {
-			throw new IllegalArgumentException("Note is out of range, " +
-					"valid range is 0 <= Note <= 127");
+		Player p = null;
+		try {
+			p = Manager.createPlayer(Manager.TONE_DEVICE_LOCATOR);
+		} catch (IOException ioe) {
+			throw new MediaException(CANNOT_PLAY_TONE + " " + ioe.getMessage());
 		}
+		ToneControl toneControl = (ToneControl) p.getControl("ToneControl");
+		toneControl.setSequence(sequence);
+		return p;
+	}
 
-		if (duration <= 0) {
-			throw new IllegalArgumentException("Duration must be positive");
-		}
+	private static byte[] createSequence(int note, int duration, int volume) {
+		volume = checkTone(note, duration, volume);
 
-		int curDuration = duration * TONE_SEQUENCE_RESOLUTION *
+		long curDuration = (long) duration * TONE_SEQUENCE_RESOLUTION *
 				TONE_SEQUENCE_TEMPO / DURATION_DIVIDE;
 
 		if (curDuration < MidiToneConstants.TONE_SEQUENCE_NOTE_MIN_DURATION) {
@@ -77,22 +75,33 @@ public class ToneManager {
 			curDuration = MidiToneConstants.TONE_SEQUENCE_NOTE_MAX_DURATION;
 		}
 
-		byte[] sequence = {
+		return new byte[]{
 				ToneControl.VERSION, TONE_SEQUENCE_VERSION,
 				ToneControl.TEMPO, TONE_SEQUENCE_TEMPO,
 				ToneControl.RESOLUTION, TONE_SEQUENCE_RESOLUTION,
 				ToneControl.SET_VOLUME, (byte) volume,
 				(byte) note, (byte) curDuration
 		};
+	}
 
-		Player p = null;
-		try {
-			p = Manager.createPlayer(Manager.TONE_DEVICE_LOCATOR);
-		} catch (IOException ioe) {
-			throw new MediaException(CANNOT_PLAY_TONE + " " + ioe.getMessage());
+	/**
+	 * @return the volume clamped to the valid range
+	 */
+	private static int checkTone(int note, int duration, int volume) {
+		if (volume < MidiToneConstants.TONE_MIN_VOLUME) {
+			volume = MidiToneConstants.TONE_MIN_VOLUME;
+		} else if (volume > MidiToneConstants.TONE_MAX_VOLUME) {
+			volume = MidiToneConstants.TONE_MAX_VOLUME;
 		}
-		ToneControl toneControl = (ToneControl) p.getControl("ToneControl");
-		toneControl.setSequence(sequence);
-		return p;
+
+		if (note > MidiToneConstants.TONE_MAX_NOTE || note < MidiToneConstants.TONE_MIN_NOTE) {
+			throw new IllegalArgumentException("Note is out of range, " +
+					"valid range is 0 <= Note <= 127");
+		}
+
+		if (duration <= 0) {
+			throw new IllegalArgumentException("Duration must be positive");
+		}
+		return volume;
 	}
 }
@@ -157,6 +157,15 @@ public class ToneSequence {
 		return midiSequence.getByteArray();
 	}
 
+	/**
+	 * Render processed sequence to 16-bit mono samples
+	 *
+	 * @param sampleRate sample rate of the samples
+	 */
+	public short[] render(int sampleRate) {
+		return ToneSynthesizer.render(midiSequence, sampleRate);
+	}
+
 	/**
 	 * Get duration of tone sequence
 	 */
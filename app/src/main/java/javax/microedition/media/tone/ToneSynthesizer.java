@@ -0,0 +1,203 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.media.tone;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Direct synthesis of tone sequences to PCM, without a MIDI synthesizer.
+ * <p>
+ * Notes are played by a square wave oscillator, band-limited with PolyBLEP
+ * so the high notes don't alias. Each note fades in and out over a couple of
+ * milliseconds to avoid clicks. Rendered sequences are memoized by their bytes,
+ * games usually play the same few beeps over and over.
+ */
+public class ToneSynthesizer {
+	/* Rendered sequences kept in memory */
+	private static final int CACHE_ENTRIES = 64;
+
+	/* Rendered sequences are cut to this length, an endless REPEAT is possible */
+	private static final int MAX_DURATION_SECONDS = 30;
+
+	/* Peak amplitude at full volume, a square wave is loud */
+	private static final double AMPLITUDE = Short.MAX_VALUE * 0.3;
+
+	private static final int RAMP_MILLIS = 2;
+
+	private static final Map<ByteBuffer, short[]> CACHE =
+			new LinkedHashMap<ByteBuffer, short[]>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<ByteBuffer, short[]> eldest) {
+					return size() > CACHE_ENTRIES;
+				}
+			};
+
+	/* Rate of the cached samples */
+	private static int cacheSampleRate;
+
+	/**
+	 * Get samples of the tone sequence, rendered on the first call.
+	 *
+	 * @param sequence   tone sequence as passed to ToneControl
+	 * @param sampleRate sample rate of the samples
+	 * @return 16-bit mono samples, must not be modified
+	 * @throws IllegalArgumentException if the sequence is not valid
+	 */
+	public static synchronized short[] getSamples(byte[] sequence, int sampleRate) {
+		if (sampleRate != cacheSampleRate) {
+			CACHE.clear();
+			cacheSampleRate = sampleRate;
+		}
+		ByteBuffer key = ByteBuffer.wrap(sequence);
+		short[] samples = CACHE.get(key);
+		if (samples == null) {
+			// event processors share static state, so sequences are processed one at a time
+			ToneSequence tone = new ToneSequence(sequence);
+			tone.process();
+			samples = tone.render(sampleRate);
+			CACHE.put(ByteBuffer.wrap(sequence.clone()), samples);
+		}
+		return samples;
+	}
+
+	/**
+	 * Get samples of a single note of the exact duration, not quantized to the ticks of a sequence.
+	 *
+	 * @param note       MIDI note
+	 * @param duration   duration in milliseconds
+	 * @param volume     tone volume, 0 to 100
+	 * @param sampleRate sample rate of the samples
+	 * @return 16-bit mono samples, must not be modified
+	 */
+	public static synchronized short[] getNote(int note, int duration, int volume, int sampleRate) {
+		if (sampleRate != cacheSampleRate) {
+			CACHE.clear();
+			cacheSampleRate = sampleRate;
+		}
+		duration = Math.min(duration, MAX_DURATION_SECONDS * 1000);
+		// can't be equal to a sequence key, a sequence starts with VERSION
+		ByteBuffer key = ByteBuffer.allocate(12);
+		key.putInt(note).putInt(duration).putInt(volume).flip();
+		short[] samples = CACHE.get(key);
+		if (samples == null) {
+			samples = new short[(int) ((long) sampleRate * duration / 1000)];
+			int midiVolume = MidiToneConstants.MIDI_MAX_VOLUME * volume / MidiToneConstants.TONE_MAX_VOLUME;
+			if (midiVolume > 0) {
+				renderNote(samples, 0, samples.length, note, midiVolume,
+						sampleRate, sampleRate * RAMP_MILLIS / 1000);
+			}
+			CACHE.put(key, samples);
+		}
+		return samples;
+	}
+
+	/**
+	 * Render the events written to the MIDI sequence. Delta times are written
+	 * only with note offs, so every note off ends a note or a silence.
+	 */
+	static short[] render(MidiSequence midiSequence, int sampleRate) {
+		int[] events = midiSequence.getEvents();
+		int length = midiSequence.getEventsLength();
+
+		// samples per tick, a tick is 60 / (resolution * tempo) seconds
+		double tickSamples = (double) sampleRate * 60 / (midiSequence.getResolution() * midiSequence.getTempo());
+		long ticks = 0;
+		for (int i = 0; i < length; i += 2) {
+			ticks += events[i];
+		}
+		int count = (int) Math.min(Math.round(ticks * tickSamples), (long) sampleRate * MAX_DURATION_SECONDS);
+		short[] samples = new short[count];
+
+		int ramp = sampleRate * RAMP_MILLIS / 1000;
+		int volume = MidiToneConstants.MIDI_MAX_VOLUME;
+		int note = -1;
+		long time = 0;
+		for (int i = 0; i < length; i += 2) {
+			int delta = events[i];
+			int command = events[i + 1] >> 16;
+			int event = events[i + 1] >> 8 & 0xFF;
+			int data = events[i + 1] & 0xFF;
+			if (delta > 0) {
+				int start = (int) Math.min(Math.round(time * tickSamples), count);
+				time += delta;
+				int end = (int) Math.min(Math.round(time * tickSamples), count);
+				if (note >= 0 && volume > 0) {
+					renderNote(samples, start, end, note, volume, sampleRate, ramp);
+				}
+			}
+			switch ((byte) command) {
+				case MidiToneConstants.MIDI_NOTE_ON:
+					note = event;
+					break;
+				case MidiToneConstants.MIDI_NOTE_OFF:
+					note = -1;
+					break;
+				case MidiToneConstants.MIDI_CONTROL_CHANGE:
+					if (event == MidiToneConstants.MIDI_CONTROL_MAIN_VOLUME) {
+						volume = data;
+					}
+					break;
+			}
+		}
+		return samples;
+	}
+
+	private static void renderNote(short[] samples, int start, int end, int note,
+								   int volume, int sampleRate, int ramp) {
+		double frequency = 440 * Math.pow(2, (note - 69) / 12.0);
+		double increment = frequency / sampleRate;
+		if (increment >= 0.5) {
+			// above the Nyquist frequency, nothing to play
+			return;
+		}
+		double amplitude = AMPLITUDE * volume / MidiToneConstants.MIDI_MAX_VOLUME;
+		int length = end - start;
+		int fade = Math.min(ramp, length / 2);
+		double phase = 0;
+		for (int i = 0; i < length; i++) {
+			double value = phase < 0.5 ? 1 : -1;
+			value += polyBlep(phase, increment);
+			value -= polyBlep(phase < 0.5 ? phase + 0.5 : phase - 0.5, increment);
+			int edge = Math.min(i, length - 1 - i);
+			double gain = edge < fade ? amplitude * edge / fade : amplitude;
+			samples[start + i] = (short) (value * gain);
+			phase += increment;
+			if (phase >= 1) {
+				phase -= 1;
+			}
+		}
+	}
+
+	/**
+	 * Correction of a step of the naive square wave, smoothing it over one sample on each side.
+	 *
+	 * @param t  phase relative to the step
+	 * @param dt phase increment per sample
+	 */
+	private static double polyBlep(double t, double dt) {
+		if (t < dt) {
+			t /= dt;
+			return t + t - t * t - 1;
+		} else if (t > 1 - dt) {
+			t = (t - 1) / dt;
+			return t * t + t + t + 1;
+		}
+		return 0;
+	}
+}
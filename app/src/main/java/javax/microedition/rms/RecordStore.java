@@ -25,12 +25,15 @@
 package javax.microedition.rms;
 
 import javax.microedition.rms.impl.AndroidRecordStoreManager;
+import javax.microedition.rms.impl.LogRecordStoreManager;
+import javax.microedition.rms.impl.RecordStoreManager;
 
 public class RecordStore {
 	public static final int AUTHMODE_PRIVATE = 0;
 	public static final int AUTHMODE_ANY = 1;
 
-	private static final AndroidRecordStoreManager recordStoreManager = new AndroidRecordStoreManager();
+	private static final RecordStoreManager recordStoreManager = LogRecordStoreManager.isEnabled()
+			? new LogRecordStoreManager() : new AndroidRecordStoreManager();
 
 	public static void deleteRecordStore(String recordStoreName) throws RecordStoreException {
 		recordStoreManager.deleteRecordStore(recordStoreName);
@@ -105,6 +105,11 @@ public class AndroidRecordStoreManager implements RecordStoreManager {
 		Log.d(TAG, "RecordStore " + recordStoreName + " deleted");
 	}
 
+	@Override
+	public void flush(RecordStoreImpl recordStoreImpl) {
+		// records are written synchronously
+	}
+
 	@Override
 	public RecordStore openRecordStore(String recordStoreName, boolean createIfNecessary)
 			throws RecordStoreException {
@@ -0,0 +1,787 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.rms.impl;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+
+import javax.microedition.rms.InvalidRecordIDException;
+import javax.microedition.rms.RecordStore;
+import javax.microedition.rms.RecordStoreException;
+import javax.microedition.rms.RecordStoreNotFoundException;
+import javax.microedition.shell.AppClassLoader;
+
+/**
+ * Record store manager that keeps every store in a single append-only log file.
+ * <p>
+ * The log starts with a signature followed by entries of the form
+ * {@code type, length, payload, crc32}. Every mutation appends the store header
+ * and the changed record in one write, an in-memory index maps record ids
+ * to their latest entries. The log is compacted when it is mostly garbage.
+ * A torn or corrupted tail is detected by the CRC and cut off on open.
+ * Stores in the old per-record file layout are converted on first open, the old files
+ * are kept, so the saves survive a switch back to {@link AndroidRecordStoreManager}.
+ * They are converted again if they were saved after the log.
+ * <p>
+ * The manager is an alternative to the default one, it's used if {@link #setEnabled(boolean)}
+ * is set before the first use of {@link RecordStore}.
+ * <p>
+ * In the write-behind mode mutations only mark the records dirty, a background
+ * writer appends them in batches, so repeated writes of a record are coalesced.
+ * Pending writes are flushed when the store is closed, reopened, and on
+ * {@link #flushAll()} which is called on the application pause and exit.
+ */
+public class LogRecordStoreManager implements RecordStoreManager {
+	private static final String TAG = "RecordStore";
+
+	private static final String RECORD_STORE_LOG_SUFFIX = ".rsl";
+	private static final String RECORD_STORE_HEADER_SUFFIX = ".rsh";
+	private static final String RECORD_STORE_RECORD_SUFFIX = ".rsr";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final byte[] LOG_SIGNATURE = {'M', 'I', 'D', 'R', 'M', 'S', 'L', 0x01};
+
+	private static final int ENTRY_HEADER = 1;
+	private static final int ENTRY_RECORD = 2;
+	private static final int ENTRY_DELETE = 3;
+	/** type + length + crc */
+	private static final int ENTRY_OVERHEAD = 9;
+
+	/** Don't compact small logs */
+	private static final int COMPACT_MIN_GARBAGE = 64 * 1024;
+	/** Time to collect writes into a batch in the write-behind mode */
+	private static final long WRITE_BEHIND_DELAY = 500;
+
+	private final static Object NULL_STORE = new Object();
+
+	private static final List<LogRecordStoreManager> MANAGERS = new CopyOnWriteArrayList<>();
+	private static volatile boolean writeBehind;
+	private static boolean enabled;
+
+	private Map<String, Object> recordStores = null;
+	private final Map<String, StoreLog> logs = new ConcurrentHashMap<>();
+
+	/** Logs with dirty records, guarded by itself */
+	private final LinkedHashSet<StoreLog> pendingLogs = new LinkedHashSet<>();
+	private final ArrayList<Integer> flushIds = new ArrayList<>();
+	private Thread writer;
+
+	private final EntryBuffer payload = new EntryBuffer();
+	private final DataOutputStream payloadOut = new DataOutputStream(payload);
+	private final EntryBuffer batch = new EntryBuffer();
+	private final CRC32 crc = new CRC32();
+
+	public LogRecordStoreManager() {
+		MANAGERS.add(this);
+	}
+
+	/**
+	 * Use the log-structured stores instead of {@link AndroidRecordStoreManager}.
+	 */
+	public static void setEnabled(boolean enabled) {
+		LogRecordStoreManager.enabled = enabled;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setWriteBehind(boolean enabled) {
+		writeBehind = enabled;
+		if (!enabled) {
+			flushAll();
+		}
+	}
+
+	public static boolean isWriteBehind() {
+		return writeBehind;
+	}
+
+	/**
+	 * Write all pending records of all stores to disk.
+	 */
+	public static void flushAll() {
+		for (LogRecordStoreManager manager : MANAGERS) {
+			manager.flushPending();
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "Log-structured record store";
+	}
+
+	private synchronized void initializeIfNecessary() {
+		if (recordStores == null) {
+			recordStores = new ConcurrentHashMap<>();
+			String[] list = new File(AppClassLoader.getDataDir()).list();
+			if (list != null) {
+				for (String fileName : list) {
+					if (fileName.endsWith(RECORD_STORE_LOG_SUFFIX)) {
+						recordStores.put(fileName.substring(0,
+								fileName.length() - RECORD_STORE_LOG_SUFFIX.length()), NULL_STORE);
+					} else if (fileName.endsWith(RECORD_STORE_HEADER_SUFFIX)) {
+						recordStores.put(fileName.substring(0,
+								fileName.length() - RECORD_STORE_HEADER_SUFFIX.length()), NULL_STORE);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public synchronized void deleteRecordStore(String recordStoreName) throws RecordStoreException {
+		initializeIfNecessary();
+
+		Object value = recordStores.get(recordStoreName);
+		if (value == null) {
+			throw new RecordStoreNotFoundException(recordStoreName);
+		}
+		if (value instanceof RecordStoreImpl && ((RecordStoreImpl) value).isOpen()) {
+			throw new RecordStoreException();
+		}
+
+		StoreLog log = logs.remove(recordStoreName);
+		if (log != null) {
+			synchronized (pendingLogs) {
+				pendingLogs.remove(log);
+				log.dirty.clear();
+			}
+			log.close();
+		}
+		//noinspection ResultOfMethodCallIgnored
+		getLogFile(recordStoreName).delete();
+		deleteLegacyFiles(recordStoreName);
+
+		recordStores.remove(recordStoreName);
+		Log.d(TAG, "RecordStore " + recordStoreName + " deleted");
+	}
+
+	@Override
+	public synchronized RecordStore openRecordStore(String recordStoreName, boolean createIfNecessary)
+			throws RecordStoreException {
+		initializeIfNecessary();
+
+		File file = getLogFile(recordStoreName);
+		File legacyHeader = new File(AppClassLoader.getDataDir(), recordStoreName + RECORD_STORE_HEADER_SUFFIX);
+		// the legacy files are newer if the store was saved by the legacy manager in between
+		if (legacyHeader.exists() && (!file.exists() || legacyHeader.lastModified() > file.lastModified())) {
+			StoreLog log = logs.remove(recordStoreName);
+			if (log != null) {
+				flush(log);
+				log.close();
+			}
+			migrate(recordStoreName, file);
+		}
+
+		StoreLog log = logs.remove(recordStoreName);
+		if (log != null) {
+			flush(log);
+			log.close();
+		}
+		RecordStoreImpl recordStoreImpl;
+		try {
+			if (file.exists()) {
+				recordStoreImpl = new RecordStoreImpl(this);
+				log = new StoreLog(file);
+				log.load(recordStoreImpl);
+				if (log.headerOffset < 0) {
+					Log.w(TAG, "openRecordStore: no valid header in " + file);
+					recordStoreImpl = new RecordStoreImpl(this, recordStoreName);
+					log.reset();
+				}
+			} else {
+				if (!createIfNecessary) {
+					throw new RecordStoreNotFoundException(recordStoreName);
+				}
+				recordStoreImpl = new RecordStoreImpl(this, recordStoreName);
+				log = new StoreLog(file);
+				log.reset();
+			}
+			logs.put(recordStoreName, log);
+			recordStoreImpl.setOpen();
+			if (log.headerOffset < 0) {
+				append(log, recordStoreImpl, Collections.<Integer>emptyList());
+			} else {
+				compactIfNecessary(log);
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "openRecordStore: ERROR opening " + file, e);
+			if (log != null) {
+				log.close();
+				logs.remove(recordStoreName);
+			}
+			throw new RecordStoreException(e.getMessage());
+		}
+
+		recordStores.put(recordStoreName, recordStoreImpl);
+		Log.d(TAG, "RecordStore " + recordStoreName + " opened");
+		return recordStoreImpl;
+	}
+
+	@Override
+	public String[] listRecordStores() {
+		initializeIfNecessary();
+
+		String[] result = recordStores.keySet().toArray(new String[0]);
+
+		if (result.length > 0) {
+			return result;
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	public void deleteRecord(RecordStoreImpl recordStoreImpl, int recordId)
+			throws RecordStoreException {
+		saveRecord(recordStoreImpl, recordId);
+	}
+
+	@Override
+	public synchronized void loadRecord(RecordStoreImpl recordStoreImpl, int recordId)
+			throws RecordStoreException {
+		StoreLog log = getLog(recordStoreImpl);
+		Slot slot = log.index.get(recordId);
+		if (slot == null) {
+			throw new InvalidRecordIDException();
+		}
+		try {
+			byte[] entry = new byte[slot.size];
+			log.raf.seek(slot.offset);
+			log.raf.readFully(entry);
+			synchronized (recordStoreImpl.records) {
+				recordStoreImpl.readRecord(new DataInputStream(
+						new ByteArrayInputStream(entry, 5, entry.length - ENTRY_OVERHEAD)));
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "RecordStore.loadRecord: ERROR reading " + log.file, e);
+		}
+	}
+
+	/**
+	 * Write the current state of the record, or its deletion if it's no longer in the store.
+	 */
+	@Override
+	public void saveRecord(RecordStoreImpl recordStoreImpl, int recordId)
+			throws RecordStoreException {
+		StoreLog log = getLog(recordStoreImpl);
+		if (writeBehind) {
+			boolean otherStore;
+			synchronized (pendingLogs) {
+				otherStore = log.store != recordStoreImpl && !log.dirty.isEmpty();
+				if (!otherStore) {
+					markDirty(log, recordStoreImpl, recordId);
+					return;
+				}
+			}
+			// dirty records of another instance of the store are read from that instance
+			flush(log);
+			synchronized (pendingLogs) {
+				markDirty(log, recordStoreImpl, recordId);
+			}
+			return;
+		}
+		synchronized (this) {
+			try {
+				append(log, recordStoreImpl, Collections.singleton(recordId));
+			} catch (IOException e) {
+				Log.e(TAG, "RecordStore.saveRecord: ERROR writing to " + log.file, e);
+				throw new RecordStoreException(e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public void flush(RecordStoreImpl recordStoreImpl) throws RecordStoreException {
+		StoreLog log = logs.get(recordStoreImpl.getName());
+		if (log != null) {
+			flush(log);
+		}
+	}
+
+	private void markDirty(StoreLog log, RecordStoreImpl recordStoreImpl, int recordId) {
+		log.store = recordStoreImpl;
+		log.dirty.add(recordId);
+		if (pendingLogs.add(log) && pendingLogs.size() == 1) {
+			if (writer == null) {
+				writer = new Thread(this::writeBehind, "RecordStoreWriter");
+				writer.setDaemon(true);
+				writer.start();
+			}
+			pendingLogs.notify();
+		}
+	}
+
+	private void writeBehind() {
+		try {
+			//noinspection InfiniteLoopStatement
+			while (true) {
+				synchronized (pendingLogs) {
+					while (pendingLogs.isEmpty()) {
+						pendingLogs.wait();
+					}
+				}
+				Thread.sleep(WRITE_BEHIND_DELAY);
+				flushPending();
+			}
+		} catch (InterruptedException e) {
+			Log.w(TAG, "RecordStoreWriter interrupted", e);
+		}
+	}
+
+	private void flushPending() {
+		StoreLog[] pending;
+		synchronized (pendingLogs) {
+			if (pendingLogs.isEmpty()) {
+				return;
+			}
+			pending = pendingLogs.toArray(new StoreLog[0]);
+		}
+		for (StoreLog log : pending) {
+			flush(log);
+		}
+	}
+
+	/**
+	 * Append the dirty records of the store in a single batch.
+	 */
+	private synchronized void flush(StoreLog log) {
+		RecordStoreImpl store;
+		synchronized (pendingLogs) {
+			if (!pendingLogs.remove(log)) {
+				return;
+			}
+			store = log.store;
+			flushIds.clear();
+			flushIds.addAll(log.dirty);
+			log.dirty.clear();
+		}
+		if (!store.isOpen()) {
+			Log.e(TAG, "RecordStore.flush: " + flushIds.size() + " records of closed store "
+					+ log.file.getName() + " lost");
+			return;
+		}
+		try {
+			append(log, store, flushIds);
+		} catch (IOException e) {
+			Log.e(TAG, "RecordStore.flush: ERROR writing to " + log.file, e);
+		}
+	}
+
+	@Override
+	public int getSizeAvailable(RecordStoreImpl recordStoreImpl) {
+		File dir = new File(AppClassLoader.getDataDir());
+		// the directory may not exist yet, its volume is the one of the nearest parent
+		while (dir != null && !dir.exists()) {
+			dir = dir.getParentFile();
+		}
+		if (dir == null) {
+			return 0;
+		}
+		return (int) Math.min(dir.getUsableSpace(), Integer.MAX_VALUE);
+	}
+
+	private StoreLog getLog(RecordStoreImpl recordStoreImpl) throws RecordStoreException {
+		StoreLog log = logs.get(recordStoreImpl.getName());
+		if (log == null) {
+			throw new RecordStoreException("Record store is deleted");
+		}
+		return log;
+	}
+
+	/**
+	 * Append the store header followed by the entries of the records in a single write.
+	 * The header goes first, so its last record id is never behind the records of the log.
+	 * Records missing from the store are written as deleted.
+	 */
+	private void append(StoreLog log, RecordStoreImpl recordStore, Collection<Integer> recordIds)
+			throws IOException {
+		batch.reset();
+		synchronized (recordStore.records) {
+			recordStore.writeHeader(payloadOut);
+			frame(ENTRY_HEADER);
+			for (Integer recordId : recordIds) {
+				if (recordStore.records.containsKey(recordId)) {
+					recordStore.writeRecord(payloadOut, recordId);
+					frame(ENTRY_RECORD);
+				} else {
+					payloadOut.writeInt(recordId);
+					frame(ENTRY_DELETE);
+				}
+			}
+		}
+		long offset = log.length;
+		log.raf.seek(offset);
+		log.raf.write(batch.array(), 0, batch.size());
+		log.length += batch.size();
+
+		byte[] buf = batch.array();
+		int end = batch.size();
+		int size = payloadSize(buf, 0) + ENTRY_OVERHEAD;
+		log.setHeader(offset, size);
+		for (int i = size; i < end; i += size) {
+			size = payloadSize(buf, i) + ENTRY_OVERHEAD;
+			int recordId = readInt(buf, i + 5);
+			if (buf[i] == ENTRY_RECORD) {
+				log.put(recordId, offset + i, size);
+			} else {
+				log.delete(recordId, size);
+			}
+		}
+		compactIfNecessary(log);
+	}
+
+	/**
+	 * Move the accumulated payload into the batch as a complete entry.
+	 */
+	private void frame(int type) throws IOException {
+		payloadOut.flush();
+		int length = payload.size();
+		byte[] entry = {(byte) type,
+				(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length};
+		crc.reset();
+		crc.update(entry);
+		crc.update(payload.array(), 0, length);
+		int value = (int) crc.getValue();
+		batch.write(entry);
+		batch.write(payload.array(), 0, length);
+		batch.write(value >>> 24);
+		batch.write(value >>> 16);
+		batch.write(value >>> 8);
+		batch.write(value);
+		payload.reset();
+	}
+
+	/**
+	 * Rewrite the log with the live entries only if it is mostly garbage.
+	 * The index is changed only after the compacted log replaced the old one,
+	 * if compaction fails the old log stays in use.
+	 */
+	private void compactIfNecessary(StoreLog log) {
+		if (log.garbage < COMPACT_MIN_GARBAGE || log.garbage < log.length - log.garbage) {
+			return;
+		}
+		long start = System.nanoTime();
+		long oldLength = log.length;
+		File temp = new File(log.file.getPath() + TEMP_SUFFIX);
+		Collection<Slot> slots = log.index.values();
+		long[] offsets = new long[slots.size()];
+		long headerOffset = LOG_SIGNATURE.length;
+		long length;
+		RandomAccessFile out = null;
+		try {
+			out = new RandomAccessFile(temp, "rw");
+			out.setLength(0);
+			out.write(LOG_SIGNATURE);
+			byte[] entry = new byte[log.headerSize];
+			log.raf.seek(log.headerOffset);
+			log.raf.readFully(entry);
+			out.write(entry);
+			long offset = headerOffset + entry.length;
+			int i = 0;
+			for (Slot slot : slots) {
+				if (entry.length < slot.size) {
+					entry = new byte[slot.size];
+				}
+				log.raf.seek(slot.offset);
+				log.raf.readFully(entry, 0, slot.size);
+				out.write(entry, 0, slot.size);
+				offsets[i++] = offset;
+				offset += slot.size;
+			}
+			out.getFD().sync();
+			length = offset;
+			// the open file stays valid after the rename and becomes the log
+			if (!temp.renameTo(log.file)) {
+				throw new IOException("Can't rename " + temp + " to " + log.file);
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "RecordStore log " + log.file.getName() + " is not compacted", e);
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException ce) {
+					Log.w(TAG, "RecordStore log close error: " + temp, ce);
+				}
+			}
+			//noinspection ResultOfMethodCallIgnored
+			temp.delete();
+			return;
+		}
+		try {
+			log.raf.close();
+		} catch (IOException e) {
+			Log.w(TAG, "RecordStore log " + log.file.getName() + " close error", e);
+		}
+		log.raf = out;
+		log.headerOffset = headerOffset;
+		int i = 0;
+		for (Slot slot : slots) {
+			slot.offset = offsets[i++];
+		}
+		log.length = length;
+		log.garbage = 0;
+		Log.d(TAG, "RecordStore log " + log.file.getName() + " compacted from " + oldLength
+				+ " to " + log.length + " bytes in " + (System.nanoTime() - start) / 1000 + " us");
+	}
+
+	/**
+	 * Convert a store saved by {@link AndroidRecordStoreManager} into a log.
+	 */
+	private void migrate(String recordStoreName, File file) throws RecordStoreException {
+		AndroidRecordStoreManager legacyManager = new AndroidRecordStoreManager();
+		RecordStoreImpl legacyStore = (RecordStoreImpl) legacyManager.openRecordStore(recordStoreName, false);
+		File temp = new File(file.getPath() + TEMP_SUFFIX);
+		try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+			out.setLength(0);
+			out.write(LOG_SIGNATURE);
+			batch.reset();
+			synchronized (legacyStore.records) {
+				legacyStore.writeHeader(payloadOut);
+				frame(ENTRY_HEADER);
+				for (Integer recordId : legacyStore.records.keySet()) {
+					legacyStore.writeRecord(payloadOut, recordId);
+					frame(ENTRY_RECORD);
+				}
+			}
+			out.write(batch.array(), 0, batch.size());
+			out.getFD().sync();
+		} catch (IOException e) {
+			Log.e(TAG, "RecordStore.migrate: ERROR writing " + temp, e);
+			//noinspection ResultOfMethodCallIgnored
+			temp.delete();
+			throw new RecordStoreException(e.getMessage());
+		} finally {
+			legacyStore.closeRecordStore();
+		}
+		if (!temp.renameTo(file)) {
+			throw new RecordStoreException("Can't rename " + temp + " to " + file);
+		}
+		Log.i(TAG, "RecordStore " + recordStoreName + " migrated to " + file.getName());
+	}
+
+	private void deleteLegacyFiles(String recordStoreName) {
+		File dataDir = new File(AppClassLoader.getDataDir());
+		String prefix = recordStoreName + ".";
+		String[] files = dataDir.list();
+		if (files == null) {
+			return;
+		}
+		for (String name : files) {
+			if (!name.startsWith(prefix)) {
+				continue;
+			}
+			String suffix = name.substring(prefix.length());
+			if (suffix.equals(RECORD_STORE_HEADER_SUFFIX.substring(1)) || isRecordFileSuffix(suffix)) {
+				//noinspection ResultOfMethodCallIgnored
+				new File(dataDir, name).delete();
+			}
+		}
+	}
+
+	/**
+	 * @return true for "{recordId}.rsr"
+	 */
+	private static boolean isRecordFileSuffix(String suffix) {
+		int end = suffix.length() - RECORD_STORE_RECORD_SUFFIX.length();
+		if (end <= 0 || !suffix.endsWith(RECORD_STORE_RECORD_SUFFIX)) {
+			return false;
+		}
+		for (int i = 0; i < end; i++) {
+			if (!Character.isDigit(suffix.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private File getLogFile(String recordStoreName) {
+		return new File(AppClassLoader.getDataDir(), recordStoreName + RECORD_STORE_LOG_SUFFIX);
+	}
+
+	private static int payloadSize(byte[] buf, int offset) {
+		return (buf[offset + 1] & 0xff) << 24 | (buf[offset + 2] & 0xff) << 16
+				| (buf[offset + 3] & 0xff) << 8 | buf[offset + 4] & 0xff;
+	}
+
+	private static int readInt(byte[] buf, int offset) {
+		return (buf[offset] & 0xff) << 24 | (buf[offset + 1] & 0xff) << 16
+				| (buf[offset + 2] & 0xff) << 8 | buf[offset + 3] & 0xff;
+	}
+
+	/**
+	 * Location of the latest entry of a record in the log.
+	 */
+	private static class Slot {
+		long offset;
+		final int size;
+
+		Slot(long offset, int size) {
+			this.offset = offset;
+			this.size = size;
+		}
+	}
+
+	private static class StoreLog {
+		final File file;
+		final HashMap<Integer, Slot> index = new HashMap<>();
+		RandomAccessFile raf;
+		long length;
+		/** Bytes of overwritten and deleted entries */
+		long garbage;
+		long headerOffset = -1;
+		int headerSize;
+		/** Records to be written by the write-behind, guarded by the pending logs */
+		final HashSet<Integer> dirty = new HashSet<>();
+		RecordStoreImpl store;
+
+		StoreLog(File file) throws IOException {
+			this.file = file;
+			File dir = file.getParentFile();
+			if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Can't create directory: " + dir);
+			}
+			raf = new RandomAccessFile(file, "rw");
+		}
+
+		/**
+		 * Start an empty log.
+		 */
+		void reset() throws IOException {
+			raf.setLength(0);
+			raf.write(LOG_SIGNATURE);
+			length = LOG_SIGNATURE.length;
+			garbage = 0;
+			headerOffset = -1;
+			index.clear();
+		}
+
+		/**
+		 * Replay the log into the record store, the tail after the first broken entry is discarded.
+		 */
+		void load(RecordStoreImpl recordStore) throws IOException {
+			int fileLength = (int) raf.length();
+			byte[] data = new byte[fileLength];
+			raf.seek(0);
+			raf.readFully(data);
+			for (int i = 0; i < LOG_SIGNATURE.length; i++) {
+				if (i >= fileLength || data[i] != LOG_SIGNATURE[i]) {
+					Log.w(TAG, "StoreLog.load: bad signature " + file);
+					reset();
+					return;
+				}
+			}
+			CRC32 crc = new CRC32();
+			int offset = LOG_SIGNATURE.length;
+			synchronized (recordStore.records) {
+				while (offset + ENTRY_OVERHEAD <= fileLength) {
+					int size = payloadSize(data, offset);
+					int end = offset + size + ENTRY_OVERHEAD;
+					if (size < 0 || end > fileLength || end < 0) {
+						break;
+					}
+					crc.reset();
+					crc.update(data, offset, size + 5);
+					if ((int) crc.getValue() != readInt(data, end - 4)) {
+						break;
+					}
+					int type = data[offset];
+					if (type == ENTRY_HEADER) {
+						setHeader(offset, end - offset);
+					} else if (type == ENTRY_RECORD && size >= 4) {
+						recordStore.readRecord(new DataInputStream(
+								new ByteArrayInputStream(data, offset + 5, size)));
+						put(readInt(data, offset + 5), offset, end - offset);
+					} else if (type == ENTRY_DELETE && size >= 4) {
+						int recordId = readInt(data, offset + 5);
+						recordStore.records.remove(recordId);
+						delete(recordId, end - offset);
+					} else {
+						break;
+					}
+					offset = end;
+				}
+				if (headerOffset >= 0) {
+					recordStore.readHeader(new DataInputStream(new ByteArrayInputStream(
+							data, (int) headerOffset + 5, headerSize - ENTRY_OVERHEAD)));
+				}
+			}
+			if (offset < fileLength) {
+				Log.w(TAG, "StoreLog.load: " + (fileLength - offset) + " broken bytes at the end of "
+						+ file + " discarded");
+				raf.setLength(offset);
+			}
+			length = offset;
+		}
+
+		void setHeader(long offset, int size) {
+			if (headerOffset >= 0) {
+				garbage += headerSize;
+			}
+			headerOffset = offset;
+			headerSize = size;
+		}
+
+		void put(int recordId, long offset, int size) {
+			Slot old = index.put(recordId, new Slot(offset, size));
+			if (old != null) {
+				garbage += old.size;
+			}
+		}
+
+		void delete(int recordId, int entrySize) {
+			Slot old = index.remove(recordId);
+			if (old != null) {
+				garbage += old.size;
+			}
+			garbage += entrySize;
+		}
+
+		void close() {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				Log.w(TAG, "StoreLog.close: " + file, e);
+			}
+		}
+	}
+
+	private static class EntryBuffer extends ByteArrayOutputStream {
+		byte[] array() {
+			return buf;
+		}
+	}
+}
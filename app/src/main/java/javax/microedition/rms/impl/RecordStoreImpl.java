@@ -147,6 +147,11 @@ public class RecordStoreImpl extends RecordStore {
 
 	@Override
 	public void closeRecordStore() throws RecordStoreException {
+		if (!open) {
+			throw new RecordStoreNotOpenException();
+		}
+		recordStoreManager.flush(this);
+
 		synchronized (records) {
 			if (!open) {
 				throw new RecordStoreNotOpenException();
@@ -33,6 +33,11 @@ public interface RecordStoreManager {
 
 	void deleteRecordStore(String recordStoreName) throws RecordStoreException;
 
+	/**
+	 * Write pending changes of the store, called before it is closed.
+	 */
+	void flush(RecordStoreImpl recordStoreImpl) throws RecordStoreException;
+
 	String getName();
 
 	int getSizeAvailable(RecordStoreImpl recordStoreImpl);
@@ -26,8 +26,13 @@ import net.lingala.zip4j.model.FileHeader;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
 
 import dalvik.system.DexClassLoader;
 import ru.playsoftware.j2meloader.config.Config;
@@ -36,10 +41,22 @@ import ru.playsoftware.j2meloader.util.FileUtils;
 public class AppClassLoader extends DexClassLoader {
 	private static final String TAG = AppClassLoader.class.getName();
 
+	/** Max total size of the resources cached when the resource store is not available */
+	private static final int CACHE_SIZE = 4 * 1024 * 1024;
+
 	private static AppClassLoader instance;
 	private static ZipFile zipFile;
+	private static ResourceStore resourceStore;
 	private static String sDataDir;
 	private static File sOldResDir;
+	private static File sAudioDir;
+	/** Names of the resources converted at install time, see {@link Config#MIDLET_AUDIO_DIR} */
+	private static final Set<String> sConvertedAudio = new HashSet<>();
+
+	private static final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+	private static int cachedBytes;
+	private static int cacheHits;
+	private static int cacheMisses;
 
 	AppClassLoader(String paths, String tmpDir, ClassLoader parent, File appDir) {
 		super(paths, tmpDir, null, new CoreClassLoader(parent));
@@ -48,8 +65,24 @@ public class AppClassLoader extends DexClassLoader {
 		sOldResDir = new File(appDir, Config.MIDLET_RES_DIR);
 		instance = this;
 		sDataDir = appDir.getParentFile().getParent() + Config.MIDLET_DATA_DIR + appDir.getName();
+		sAudioDir = new File(appDir, Config.MIDLET_AUDIO_DIR);
+		sConvertedAudio.clear();
+		listConvertedAudio(sAudioDir, "");
 		File jar = new File(appDir, Config.MIDLET_RES_FILE);
 		zipFile = jar.exists() ? new ZipFile(jar) : null;
+		resourceStore = null;
+		if (zipFile != null) {
+			File store = new File(appDir, Config.MIDLET_RES_STORE);
+			try {
+				if (!store.exists()) {
+					// installed by an older version
+					ResourceStore.build(jar, store);
+				}
+				resourceStore = ResourceStore.open(store);
+			} catch (IOException e) {
+				Log.w(TAG, "Resource store is not available: " + store, e);
+			}
+		}
 	}
 
 	public static InputStream getResourceAsStream(Class<?> resClass, String resName) {
@@ -58,10 +91,7 @@ public class AppClassLoader extends DexClassLoader {
 			Log.w(TAG, "Can't load res on empty path");
 			return null;
 		}
-		// Add support for Siemens file path
-		String normName = resName.replace('\\', '/');
-		// Remove double slashes
-		normName = normName.replaceAll("//+", "/");
+		String normName = normalize(resName);
 		if (normName.charAt(0) != '/' && resClass != null && resClass.getPackage() != null) {
 			String className = resClass.getPackage().getName().replace('.', '/');
 			normName = className + "/" + normName;
@@ -70,12 +100,21 @@ public class AppClassLoader extends DexClassLoader {
 		if (normName.charAt(0) == '/') {
 			normName = normName.substring(1);
 		}
-		byte[] data = getResourceBytes(normName);
-		if (data == null) {
+		InputStream stream;
+		if (sConvertedAudio.contains(normName)) {
+			stream = getConvertedAudio(normName);
+		} else {
+			stream = resourceStore == null ? null : resourceStore.getResourceAsStream(normName);
+			if (stream == null) {
+				// not in the store, e.g. a class file
+				byte[] data = getCachedResourceBytes(normName);
+				stream = data == null ? null : new ByteArrayInputStream(data);
+			}
+		}
+		if (stream == null) {
 			Log.w(TAG, "Can't load res: " + resName);
-			return null;
 		}
-		return new ByteArrayInputStream(data);
+		return stream;
 	}
 
 	public static String getDataDir() {
@@ -87,15 +126,24 @@ public class AppClassLoader extends DexClassLoader {
 			Log.w(TAG, "Can't load res on empty path");
 			return null;
 		}
-		// Add support for Siemens file path
-		String normName = resName.replace('\\', '/');
-		// Remove double slashes
-		normName = normName.replaceAll("//+", "/");
+		String normName = normalize(resName);
 		// Remove leading slash
 		if (normName.charAt(0) == '/') {
 			normName = normName.substring(1);
 		}
-		byte[] data = getResourceBytes(normName);
+		byte[] data;
+		if (sConvertedAudio.contains(normName)) {
+			data = getConvertedAudioBytes(normName);
+		} else {
+			data = resourceStore == null ? null : resourceStore.getResourceBytes(normName);
+			if (data == null) {
+				// not in the store, e.g. a class file
+				data = getCachedResourceBytes(normName);
+				if (data != null) {
+					data = data.clone();
+				}
+			}
+		}
 		if (data == null) {
 			Log.w(TAG, "Can't load res: " + resName);
 			return null;
@@ -103,6 +151,111 @@ public class AppClassLoader extends DexClassLoader {
 		return data;
 	}
 
+	private static void listConvertedAudio(File dir, String prefix) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = prefix + file.getName();
+			if (file.isDirectory()) {
+				listConvertedAudio(file, name + '/');
+			} else {
+				sConvertedAudio.add(name);
+			}
+		}
+	}
+
+	private static InputStream getConvertedAudio(String name) {
+		File file = new File(sAudioDir, name);
+		try {
+			return new FileInputStream(file);
+		} catch (IOException e) {
+			Log.w(TAG, "getConvertedAudio: from file=" + file, e);
+			return null;
+		}
+	}
+
+	private static byte[] getConvertedAudioBytes(String name) {
+		File file = new File(sAudioDir, name);
+		try {
+			return FileUtils.getBytes(file);
+		} catch (Exception e) {
+			Log.w(TAG, "getConvertedAudioBytes: from file=" + file, e);
+			return null;
+		}
+	}
+
+	public static int getCacheHits() {
+		synchronized (cache) {
+			return cacheHits;
+		}
+	}
+
+	public static int getCacheMisses() {
+		synchronized (cache) {
+			return cacheMisses;
+		}
+	}
+
+	/**
+	 * Replace Siemens separators and remove double slashes.
+	 */
+	private static String normalize(String name) {
+		int length = name.length();
+		StringBuilder sb = null;
+		char prev = 0;
+		for (int i = 0; i < length; i++) {
+			char c = name.charAt(i);
+			if (c == '\\') {
+				c = '/';
+			}
+			if (c == '/' && prev == '/') {
+				if (sb == null) {
+					sb = new StringBuilder(length).append(name, 0, i);
+				}
+			} else if (sb != null) {
+				sb.append(c);
+			} else if (c != name.charAt(i)) {
+				sb = new StringBuilder(length).append(name, 0, i).append(c);
+			}
+			prev = c;
+		}
+		return sb == null ? name : sb.toString();
+	}
+
+	/**
+	 * Get the resource from the LRU cache of the recently used resources
+	 * or inflate it from the jar. The returned array must not be modified.
+	 */
+	private static byte[] getCachedResourceBytes(String name) {
+		synchronized (cache) {
+			byte[] data = cache.get(name);
+			if (data != null) {
+				cacheHits++;
+				return data;
+			}
+			cacheMisses++;
+		}
+		byte[] data = getResourceBytes(name);
+		if (data == null || data.length > CACHE_SIZE / 8) {
+			return data;
+		}
+		synchronized (cache) {
+			byte[] old = cache.put(name, data);
+			if (old != null) {
+				cachedBytes -= old.length;
+			}
+			cachedBytes += data.length;
+			Iterator<byte[]> iterator = cache.values().iterator();
+			while (cachedBytes > CACHE_SIZE) {
+				cachedBytes -= iterator.next().length;
+				iterator.remove();
+			}
+		}
+		return data;
+	}
+
 	private static byte[] getResourceBytes(String name) {
 		if (zipFile == null) {
 			final File file = new File(sOldResDir, name);
@@ -51,9 +51,11 @@ import javax.microedition.lcdui.Form;
 import javax.microedition.lcdui.List;
 import javax.microedition.lcdui.ViewHandler;
 import javax.microedition.lcdui.event.SimpleEvent;
+import javax.microedition.lcdui.game.FrameAtlas;
 import javax.microedition.lcdui.overlay.OverlayView;
 import javax.microedition.lcdui.pointer.FixedKeyboard;
 import javax.microedition.lcdui.pointer.VirtualKeyboard;
+import javax.microedition.rms.impl.LogRecordStoreManager;
 import javax.microedition.util.ContextHolder;
 
 import androidx.annotation.NonNull;
@@ -106,6 +108,9 @@ public class MicroActivity extends AppCompatActivity {
 			getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 		}
 		ContextHolder.setVibration(sp.getBoolean(PREF_VIBRATION, false));
+		FrameAtlas.setEnabled(sp.getBoolean(PREF_SPRITE_ATLAS, false));
+		LogRecordStoreManager.setEnabled(sp.getBoolean(PREF_RMS_LOG, false));
+		LogRecordStoreManager.setWriteBehind(sp.getBoolean(PREF_RMS_WRITE_BEHIND, false));
 		Intent intent = getIntent();
 		appName = intent.getStringExtra(KEY_MIDLET_NAME);
 		Uri data = intent.getData();
@@ -151,6 +156,7 @@ public class MicroActivity extends AppCompatActivity {
 	public void onPause() {
 		visible = false;
 		MidletThread.pauseApp();
+		LogRecordStoreManager.flushAll();
 		super.onPause();
 	}
 
@@ -29,6 +29,7 @@ import javax.microedition.lcdui.KeyMapper;
 import javax.microedition.lcdui.event.CanvasEvent;
 import javax.microedition.midlet.MIDlet;
 import javax.microedition.midlet.MIDletStateChangeException;
+import javax.microedition.rms.impl.LogRecordStoreManager;
 import javax.microedition.util.ContextHolder;
 
 import androidx.annotation.NonNull;
@@ -87,6 +88,7 @@ public class MidletThread extends HandlerThread implements Handler.Callback {
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
+			LogRecordStoreManager.flushAll();
 			Process.killProcess(Process.myPid());
 		}, "ForceDestroyTimer").start();
 		Displayable current = ContextHolder.getActivity().getCurrent();
@@ -125,6 +127,10 @@ public class MidletThread extends HandlerThread implements Handler.Callback {
 					Log.e(TAG, "pauseApp: ", t);
 					ContextHolder.getActivity().showErrorDialog(t.getMessage());
 				}
+				// games often save in pauseApp(), write it before the process can be killed
+				LogRecordStoreManager.flushAll();
+				Log.d(TAG, "Resource cache: " + AppClassLoader.getCacheHits() + " hits, "
+						+ AppClassLoader.getCacheMisses() + " misses");
 				break;
 			case DESTROY:
 				try {
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.shell;
+
+import android.util.Log;
+
+import net.lingala.zip4j.ZipFile;
+import net.lingala.zip4j.model.FileHeader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Uncompressed resources of the MIDlet jar in a single memory-mapped file.
+ * <p>
+ * Names are looked up through a perfect hash table built at install time:
+ * the first hash selects a bucket, the seed stored for the bucket gives
+ * the second hash that points to the slot of the name.
+ * Resources are read directly from the mapping without copying or inflating.
+ * <p>
+ * File layout (big-endian):
+ * <pre>
+ * signature[8], count, slotCount, bucketCount, seeds[bucketCount],
+ * slots[slotCount]{nameOffset, nameLength, dataOffset, dataLength},
+ * names (UTF-16 chars), data
+ * </pre>
+ */
+public final class ResourceStore {
+	private static final String TAG = ResourceStore.class.getName();
+
+	private static final byte[] SIGNATURE = {'J', '2', 'M', 'E', 'R', 'E', 'S', 0x01};
+	private static final int HEADER_SIZE = SIGNATURE.length + 12;
+	private static final int SLOT_SIZE = 16;
+	private static final int MAX_SEED = 1 << 20;
+
+	private final ByteBuffer buffer;
+	private final int slotCount;
+	private final int bucketCount;
+	private final int slotsOffset;
+
+	private ResourceStore(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		for (int i = 0; i < SIGNATURE.length; i++) {
+			if (buffer.get(i) != SIGNATURE[i]) {
+				throw new IOException("Bad signature");
+			}
+		}
+		slotCount = buffer.getInt(SIGNATURE.length + 4);
+		bucketCount = buffer.getInt(SIGNATURE.length + 8);
+		slotsOffset = HEADER_SIZE + bucketCount * 4;
+		if (slotCount <= 0 || bucketCount <= 0
+				|| (long) slotsOffset + (long) slotCount * SLOT_SIZE > buffer.capacity()) {
+			throw new IOException("Bad header");
+		}
+	}
+
+	public static ResourceStore open(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new ResourceStore(buffer);
+		}
+	}
+
+	/**
+	 * @return stream over the resource or null if it's not found
+	 */
+	public InputStream getResourceAsStream(String name) {
+		int slot = find(name);
+		if (slot < 0) {
+			return null;
+		}
+		int offset = buffer.getInt(slot + 8);
+		int length = buffer.getInt(slot + 12);
+		return new BufferInputStream(buffer, offset, length);
+	}
+
+	/**
+	 * @return copy of the resource or null if it's not found
+	 */
+	public byte[] getResourceBytes(String name) {
+		int slot = find(name);
+		if (slot < 0) {
+			return null;
+		}
+		int offset = buffer.getInt(slot + 8);
+		int length = buffer.getInt(slot + 12);
+		byte[] data = new byte[length];
+		ByteBuffer src = buffer.duplicate();
+		src.position(offset);
+		src.get(data);
+		return data;
+	}
+
+	/**
+	 * @return offset of the slot of the name, -1 if not found
+	 */
+	private int find(String name) {
+		int seed = buffer.getInt(HEADER_SIZE + hash(0, name) % bucketCount * 4);
+		int slot = slotsOffset + hash(seed, name) % slotCount * SLOT_SIZE;
+		int nameOffset = buffer.getInt(slot);
+		int nameLength = buffer.getInt(slot + 4);
+		if (nameLength != name.length()) {
+			return -1;
+		}
+		for (int i = 0; i < nameLength; i++) {
+			if (buffer.getChar(nameOffset + i * 2) != name.charAt(i)) {
+				return -1;
+			}
+		}
+		return slot;
+	}
+
+	private static int hash(int seed, String s) {
+		int h = seed ^ 0x811c9dc5;
+		for (int i = 0, len = s.length(); i < len; i++) {
+			h = (h ^ s.charAt(i)) * 0x01000193;
+		}
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h & Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Extract the resources of the jar into a new store.
+	 * Classes are loaded from the dex files and rarely read as resources, so they are left
+	 * in the jar, {@link AppClassLoader} falls back to it for the names missing here.
+	 */
+	public static void build(File jar, File output) throws IOException {
+		long start = System.nanoTime();
+		ZipFile zip = new ZipFile(jar);
+		LinkedHashMap<String, FileHeader> entries = new LinkedHashMap<>();
+		for (FileHeader header : zip.getFileHeaders()) {
+			String name = header.getFileName();
+			if (header.getFileNameLength() > 0 && !header.isDirectory()
+					&& !name.endsWith(".class") && !entries.containsKey(name)) {
+				entries.put(name, header);
+			}
+		}
+		String[] names = entries.keySet().toArray(new String[0]);
+		int count = names.length;
+		int bucketCount = count / 2 + 1;
+		int[] seeds = new int[bucketCount];
+		int[] slots = null;
+		// perfect hash with the load factor ~0.8, the table is enlarged in the unlikely case of failure
+		for (int slotCount = count + count / 4 + 1; slots == null; slotCount += slotCount / 4 + 1) {
+			slots = buildTable(names, bucketCount, slotCount, seeds);
+		}
+
+		File temp = new File(output.getPath() + ".tmp");
+		try {
+			write(zip, entries, names, slots, seeds, temp);
+		} catch (IOException e) {
+			//noinspection ResultOfMethodCallIgnored
+			temp.delete();
+			throw e;
+		}
+		if (!temp.renameTo(output)) {
+			//noinspection ResultOfMethodCallIgnored
+			temp.delete();
+			throw new IOException("Can't rename " + temp + " to " + output);
+		}
+		Log.d(TAG, "build: " + count + " resources in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+	private static void write(ZipFile zip, LinkedHashMap<String, FileHeader> entries, String[] names,
+							  int[] slots, int[] seeds, File temp) throws IOException {
+		int count = names.length;
+		int slotCount = slots.length;
+		int bucketCount = seeds.length;
+		try (DataOutputStream dos = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp)))) {
+			dos.write(SIGNATURE);
+			dos.writeInt(count);
+			dos.writeInt(slotCount);
+			dos.writeInt(bucketCount);
+			for (int seed : seeds) {
+				dos.writeInt(seed);
+			}
+			int namesOffset = HEADER_SIZE + bucketCount * 4 + slotCount * SLOT_SIZE;
+			int[] nameOffsets = new int[count];
+			int offset = namesOffset;
+			for (int i = 0; i < count; i++) {
+				nameOffsets[i] = offset;
+				offset += names[i].length() * 2;
+			}
+			long[] sizes = new long[count];
+			long dataOffset = offset;
+			for (int i = 0; i < count; i++) {
+				sizes[i] = entries.get(names[i]).getUncompressedSize();
+				dataOffset += sizes[i];
+				if (dataOffset > Integer.MAX_VALUE) {
+					throw new IOException("Resources are too large");
+				}
+			}
+			int[] dataOffsets = new int[count];
+			for (int i = 0; i < count; i++) {
+				dataOffsets[i] = offset;
+				offset += sizes[i];
+			}
+			for (int key : slots) {
+				if (key < 0) {
+					dos.writeInt(0);
+					dos.writeInt(-1);
+					dos.writeInt(0);
+					dos.writeInt(0);
+				} else {
+					dos.writeInt(nameOffsets[key]);
+					dos.writeInt(names[key].length());
+					dos.writeInt(dataOffsets[key]);
+					dos.writeInt((int) sizes[key]);
+				}
+			}
+			for (String name : names) {
+				dos.writeChars(name);
+			}
+			byte[] buf = new byte[16384];
+			for (int i = 0; i < count; i++) {
+				long written = 0;
+				try (InputStream is = zip.getInputStream(entries.get(names[i]))) {
+					int read;
+					while (written < sizes[i] && (read = is.read(buf, 0,
+							(int) Math.min(buf.length, sizes[i] - written))) > 0) {
+						dos.write(buf, 0, read);
+						written += read;
+					}
+				} catch (IOException e) {
+					Log.w(TAG, "build: can't read " + names[i], e);
+				}
+				// keep offsets valid if the entry is broken
+				for (; written < sizes[i]; written++) {
+					dos.write(0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find the seeds placing every name into its own slot.
+	 *
+	 * @return index of the name in every slot, -1 for the empty slots, null on failure
+	 */
+	private static int[] buildTable(String[] names, int bucketCount, int slotCount, int[] seeds) {
+		List<List<Integer>> buckets = new ArrayList<>(bucketCount);
+		for (int i = 0; i < bucketCount; i++) {
+			buckets.add(new ArrayList<>());
+		}
+		for (int i = 0; i < names.length; i++) {
+			buckets.get(hash(0, names[i]) % bucketCount).add(i);
+		}
+		Integer[] order = new Integer[bucketCount];
+		for (int i = 0; i < bucketCount; i++) {
+			order[i] = i;
+		}
+		// place the largest buckets first, while the table is empty
+		Arrays.sort(order, (b1, b2) -> buckets.get(b2).size() - buckets.get(b1).size());
+
+		int[] slots = new int[slotCount];
+		Arrays.fill(slots, -1);
+		int[] bucketSlots = new int[names.length];
+		for (int b : order) {
+			List<Integer> bucket = buckets.get(b);
+			if (bucket.isEmpty()) {
+				break;
+			}
+			int seed = 1;
+			search:
+			for (; seed < MAX_SEED; seed++) {
+				for (int i = 0; i < bucket.size(); i++) {
+					int slot = hash(seed, names[bucket.get(i)]) % slotCount;
+					if (slots[slot] >= 0) {
+						continue search;
+					}
+					for (int j = 0; j < i; j++) {
+						if (bucketSlots[j] == slot) {
+							continue search;
+						}
+					}
+					bucketSlots[i] = slot;
+				}
+				break;
+			}
+			if (seed == MAX_SEED) {
+				return null;
+			}
+			seeds[b] = seed;
+			for (int i = 0; i < bucket.size(); i++) {
+				slots[bucketSlots[i]] = bucket.get(i);
+			}
+		}
+		return slots;
+	}
+
+	/**
+	 * Stream over a region of the mapped store.
+	 */
+	private static class BufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+		private int mark;
+
+		BufferInputStream(ByteBuffer store, int offset, int length) {
+			ByteBuffer buffer = store.duplicate();
+			buffer.limit(offset + length);
+			buffer.position(offset);
+			this.buffer = buffer.slice();
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			int remaining = buffer.remaining();
+			if (remaining == 0) {
+				return -1;
+			}
+			len = Math.min(len, remaining);
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public long skip(long n) {
+			int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+
+		@Override
+		public boolean markSupported() {
+			return true;
+		}
+
+		@Override
+		public synchronized void mark(int readLimit) {
+			mark = buffer.position();
+		}
+
+		@Override
+		public synchronized void reset() {
+			buffer.position(mark);
+		}
+	}
+}
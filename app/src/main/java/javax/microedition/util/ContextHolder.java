@@ -40,6 +40,7 @@ import java.util.ArrayList;
 import java.util.Objects;
 
 import javax.microedition.lcdui.pointer.VirtualKeyboard;
+import javax.microedition.rms.impl.LogRecordStoreManager;
 import javax.microedition.shell.AppClassLoader;
 import javax.microedition.shell.MicroActivity;
 
@@ -168,6 +169,7 @@ public class ContextHolder {
 	 * Kill midlet process.
 	 */
 	public static void notifyDestroyed() {
+		LogRecordStoreManager.flushAll();
 		MicroActivity activity = currentActivity.get();
 		if (activity != null) {
 			activity.finish();
@@ -36,17 +36,32 @@ import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import ru.playsoftware.j2meloader.util.IOUtils;
 
 public class AndroidProducer {
 	private static final String TAG = AndroidProducer.class.getName();
 
+	/**
+	 * Version of the instrumentation rules, must be incremented on every change
+	 * of {@link AndroidClassVisitor} and {@link AndroidMethodVisitor} to invalidate cached classes.
+	 */
+	public static final int RULES_VERSION = 1;
+
 	private static byte[] instrument(final byte[] classFile, String classFileName)
 			throws IllegalArgumentException {
 		ClassReader cr = new ClassReader(classFile);
@@ -60,9 +75,65 @@ public class AndroidProducer {
 		return cw.toByteArray();
 	}
 
-	public static void processJar(File srcJar, File dstJar) throws IOException {
+	/**
+	 * Get the instrumented class from the cache or instrument and store it.
+	 * Cached classes are addressed by the hash of the rules version and the original class.
+	 */
+	private static byte[] instrument(byte[] classFile, String classFileName, File cacheDir)
+			throws Exception {
+		if (cacheDir == null) {
+			return instrument(classFile, classFileName);
+		}
+		MessageDigest digest = MessageDigest.getInstance("SHA-1");
+		digest.update((byte) RULES_VERSION);
+		digest.update(classFile);
+		File cached = new File(cacheDir, String.format("%040x", new BigInteger(1, digest.digest())));
+		if (cached.isFile()) {
+			try (InputStream is = new FileInputStream(cached)) {
+				byte[] bytes = IOUtils.toByteArray(is);
+				//noinspection ResultOfMethodCallIgnored
+				cached.setLastModified(System.currentTimeMillis());
+				return bytes;
+			} catch (IOException e) {
+				Log.w(TAG, "Can't read cached class: " + cached, e);
+			}
+		}
+		byte[] bytes = instrument(classFile, classFileName);
+		File temp = new File(cached.getPath() + '.' + Thread.currentThread().getId());
+		try {
+			try (OutputStream os = new FileOutputStream(temp)) {
+				os.write(bytes);
+			}
+			if (!temp.renameTo(cached)) {
+				throw new IOException("Can't rename " + temp + " to " + cached);
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Can't cache class: " + classFileName, e);
+			//noinspection ResultOfMethodCallIgnored
+			temp.delete();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Instrument all classes of the jar.
+	 * Entries are read sequentially and patched in parallel on all available cores.
+	 *
+	 * @param cacheDir directory of the instrumented classes cache, null to disable it
+	 * @return patched class files by their names, sorted like the entries of an archive
+	 */
+	public static Map<String, byte[]> processJar(File srcJar, File cacheDir) throws IOException {
+		if (cacheDir != null && !cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+			Log.w(TAG, "processJar: can't create cache dir " + cacheDir);
+			cacheDir = null;
+		}
+		File classCache = cacheDir;
+		long start = System.nanoTime();
 		ZipFile zip = new ZipFile(srcJar);
-		try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(dstJar))) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		TreeMap<String, Future<byte[]>> futures = new TreeMap<>();
+		try {
 			for (FileHeader header : zip.getFileHeaders()) {
 				// Some zip entries have zero length names
 				String name = header.getFileName();
@@ -70,19 +141,31 @@ public class AndroidProducer {
 					continue;
 				}
 				try (InputStream zis = zip.getInputStream(header)) {
-					try {
-						byte[] inBuffer = IOUtils.toByteArray(zis);
-						String className = name.substring(0, name.length() - 6);
-						byte[] outBuffer = instrument(inBuffer, className);
-						zos.putNextEntry(new ZipEntry(className + ".class"));
-						zos.write(outBuffer);
-					} catch (Exception e) {
-						Log.w(TAG, "Error patching class: " + name, e);
-					}
+					byte[] inBuffer = IOUtils.toByteArray(zis);
+					String className = name.substring(0, name.length() - 6);
+					futures.put(className + ".class", executor.submit(() -> instrument(inBuffer, className, classCache)));
 				} catch (Exception e) {
 					Log.e(TAG, "processJar: ", e);
 				}
 			}
+			long read = System.nanoTime();
+
+			TreeMap<String, byte[]> classes = new TreeMap<>();
+			for (Map.Entry<String, Future<byte[]>> entry : futures.entrySet()) {
+				try {
+					classes.put(entry.getKey(), entry.getValue().get());
+				} catch (ExecutionException e) {
+					Log.w(TAG, "Error patching class: " + entry.getKey(), e.getCause());
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException("Instrumentation interrupted");
+				}
+			}
+			long end = System.nanoTime();
+			Log.d(TAG, "processJar: " + classes.size() + " classes, read " + (read - start) / 1000000
+					+ " ms, instrument " + (end - read) / 1000000 + " ms on " + threads + " threads");
+			return classes;
+		} finally {
+			executor.shutdownNow();
 		}
 	}
 }
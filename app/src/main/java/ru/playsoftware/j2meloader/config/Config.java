@@ -34,6 +34,7 @@ import static ru.playsoftware.j2meloader.util.Constants.*;
 
 public class Config {
 	public static final String DEX_OPT_CACHE_DIR = "dex_opt";
+	public static final String MIDLET_AUDIO_DIR = "/audio";
 	public static final String MIDLET_CONFIG_FILE = "/config.json";
 	public static final String MIDLET_CONFIGS_DIR = "/configs/";
 	public static final String MIDLET_DATA_DIR = "/data/";
@@ -44,6 +45,7 @@ public class Config {
 	public static final String MIDLET_MANIFEST_FILE = MIDLET_DEX_FILE + ".conf";
 	public static final String MIDLET_RES_DIR = "/res";
 	public static final String MIDLET_RES_FILE = "/res.jar";
+	public static final String MIDLET_RES_STORE = "/res.store";
 	public static final String SCREENSHOTS_DIR;
 	public static final String SHADERS_DIR = "/shaders/";
 
@@ -26,11 +26,15 @@ public class Constants {
 	public static final String KEY_MIDLET_NAME = "midletName";
 
 	public static final String PREF_APP_SORT = "pref_app_sort";
+	public static final String PREF_AUDIO_CONVERSION = "pref_audio_conversion";
 	public static final String PREF_DEFAULT_PROFILE = "default_profile";
 	public static final String PREF_DEX_COMPRESSION = "pref_dex_compression";
 	public static final String PREF_EMULATOR_DIR = "emulator_dir";
 	public static final String PREF_FIRST_START = "pref_first_start";
 	public static final String PREF_KEEP_SCREEN = "pref_wakelock_switch";
+	public static final String PREF_SPRITE_ATLAS = "pref_sprite_atlas";
+	public static final String PREF_RMS_LOG = "pref_rms_log";
+	public static final String PREF_RMS_WRITE_BEHIND = "pref_rms_write_behind";
 	public static final String PREF_STATUSBAR = "pref_statusbar_switch";
 	public static final String PREF_THEME = "pref_theme";
 	public static final String PREF_TOOLBAR = "pref_actionbar_switch";
@@ -22,12 +22,10 @@ import android.graphics.BitmapFactory;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
 
 import ar.com.hjg.pngj.ImageInfo;
 import ar.com.hjg.pngj.ImageLineHelper;
 import ar.com.hjg.pngj.ImageLineInt;
-import ar.com.hjg.pngj.ImageLineSetDefault;
 import ar.com.hjg.pngj.PngReaderInt;
 import ar.com.hjg.pngj.chunks.PngChunkPLTE;
 import ar.com.hjg.pngj.chunks.PngChunkTRNS;
@@ -36,6 +34,18 @@ public class PNGUtils {
 
 	private static final byte[] PNG_SIGNATURE = new byte[]{-119, 80, 78, 71, 13, 10, 26, 10};
 
+	private static final int COLOR_TYPE_RGB = 2;
+	private static final int COLOR_TYPE_PALETTE = 3;
+	private static final int COLOR_TYPE_RGBA = 6;
+
+	private static final int CHUNK_IHDR = 0x49484452;
+	private static final int CHUNK_IDAT = 0x49444154;
+	private static final int CHUNK_TRNS = 0x74524e53;
+	private static final int CHUNK_GAMA = 0x67414d41;
+	private static final int CHUNK_CHRM = 0x6348524d;
+	private static final int CHUNK_SRGB = 0x73524742;
+	private static final int CHUNK_ICCP = 0x69434350;
+
 	public static Bitmap getFixedBitmap(InputStream stream) {
 		Bitmap b = null;
 		try {
@@ -49,20 +59,87 @@ public class PNGUtils {
 
 	public static Bitmap getFixedBitmap(byte[] imageData, int imageOffset, int imageLength) {
 		Bitmap b = null;
-		byte[] signature = Arrays.copyOfRange(imageData, imageOffset, imageOffset + PNG_SIGNATURE.length);
-		if (Arrays.equals(signature, PNG_SIGNATURE)) {
-			try (ByteArrayInputStream stream = new ByteArrayInputStream(imageData, imageOffset, imageLength)) {
-				b = fixPNG(stream);
-			} catch (Exception e) {
-				e.printStackTrace();
-				b = BitmapFactory.decodeByteArray(imageData, imageOffset, imageLength);
+		if (!isPng(imageData, imageOffset, imageLength)) {
+			return BitmapFactory.decodeByteArray(imageData, imageOffset, imageLength);
+		}
+		if (isPlatformCompatible(imageData, imageOffset, imageLength)) {
+			b = BitmapFactory.decodeByteArray(imageData, imageOffset, imageLength);
+			if (b != null) {
+				return b;
 			}
-		} else {
+			// e.g. broken CRC, which is ignored by our decoder
+		}
+		try (ByteArrayInputStream stream = new ByteArrayInputStream(imageData, imageOffset, imageLength)) {
+			b = fixPNG(stream);
+		} catch (Exception e) {
+			e.printStackTrace();
 			b = BitmapFactory.decodeByteArray(imageData, imageOffset, imageLength);
 		}
 		return b;
 	}
 
+	private static boolean isPng(byte[] data, int offset, int length) {
+		if (length < PNG_SIGNATURE.length) {
+			return false;
+		}
+		for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+			if (data[offset + i] != PNG_SIGNATURE[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check the chunks preceding the image data to find out
+	 * if the platform decoder produces the same result as our own.
+	 * Only 8-bit truecolor (with or without alpha) and palette images
+	 * without tRNS and color correction chunks are accepted.
+	 */
+	private static boolean isPlatformCompatible(byte[] data, int offset, int length) {
+		int pos = offset + PNG_SIGNATURE.length;
+		int end = offset + length;
+		boolean compatible = false;
+		while (pos + 8 <= end) {
+			int chunkLength = readInt(data, pos);
+			int type = readInt(data, pos + 4);
+			int dataPos = pos + 8;
+			if (chunkLength < 0 || dataPos + chunkLength > end) {
+				return false;
+			}
+			switch (type) {
+				case CHUNK_IHDR:
+					if (chunkLength < 13) {
+						return false;
+					}
+					int bitDepth = data[dataPos + 8];
+					int colorType = data[dataPos + 9];
+					compatible = bitDepth == 8 && (colorType == COLOR_TYPE_RGB
+							|| colorType == COLOR_TYPE_RGBA || colorType == COLOR_TYPE_PALETTE);
+					break;
+				case CHUNK_TRNS:
+				case CHUNK_GAMA:
+				case CHUNK_CHRM:
+				case CHUNK_SRGB:
+				case CHUNK_ICCP:
+					return false;
+				case CHUNK_IDAT:
+					return compatible;
+			}
+			// skip data and CRC
+			pos = dataPos + chunkLength + 4;
+		}
+		return false;
+	}
+
+	private static int readInt(byte[] data, int pos) {
+		return (data[pos] & 0xFF) << 24 | (data[pos + 1] & 0xFF) << 16
+				| (data[pos + 2] & 0xFF) << 8 | (data[pos + 3] & 0xFF);
+	}
+
+	/**
+	 * Decode row by row straight into the pixel buffer of the bitmap.
+	 */
 	private static Bitmap fixPNG(InputStream stream) throws IOException {
 		PngReaderInt reader = new PngReaderInt(stream);
 		reader.setCrcCheckDisabled();
@@ -71,35 +148,41 @@ public class PNGUtils {
 		int height = imageInfo.rows;
 		PngChunkTRNS trns = reader.getMetadata().getTRNS();
 		PngChunkPLTE plte = reader.getMetadata().getPLTE();
-		ImageLineSetDefault<ImageLineInt> lineSet = (ImageLineSetDefault) reader.readRows();
+		int[] palette = imageInfo.indexed ? getPaletteARGB(plte, trns) : null;
 		int[] pix = new int[width * height];
-		int[] buf = new int[width];
-		for (int i = 0; i < height; i++) {
-			ImageLineInt lineInt = lineSet.getImageLine(i);
+		for (int i = 0; i < height && reader.hasMoreRows(); i++) {
+			ImageLineInt lineInt = (ImageLineInt) reader.readRow(i);
 			ImageLineHelper.scaleUp(lineInt);
-			int[] r = lineToARGB32(lineInt, plte, trns, buf);
-			for (int j = 0; j < width; j++) {
-				pix[i * width + j] = r[j];
-			}
+			lineToARGB32(lineInt, palette, trns, pix, i * width);
 		}
 		reader.end();
 		return Bitmap.createBitmap(pix, width, height, Bitmap.Config.ARGB_8888);
 	}
 
-	private static int[] lineToARGB32(ImageLineInt line, PngChunkPLTE pal, PngChunkTRNS trns, int[] buf) {
+	private static int[] getPaletteARGB(PngChunkPLTE pal, PngChunkTRNS trns) {
+		int size = pal.getNentries();
+		int[] alphas = trns != null ? trns.getPalletteAlpha() : null;
+		int nindexesWithAlpha = alphas != null ? alphas.length : 0;
+		// out of range indexes are clamped to the last entry
+		int[] palette = new int[256];
+		for (int i = 0; i < palette.length; i++) {
+			int index = Math.min(i, size - 1);
+			int alpha = i < nindexesWithAlpha ? alphas[i] : 255;
+			palette[i] = (alpha << 24) | pal.getEntry(index);
+		}
+		return palette;
+	}
+
+	private static void lineToARGB32(ImageLineInt line, int[] palette, PngChunkTRNS trns,
+									 int[] buf, int offset) {
 		boolean alphachannel = line.imgInfo.alpha;
 		int[] scanline = line.getScanline();
 		int cols = line.imgInfo.cols;
-		if (buf == null || buf.length < cols)
-			buf = new int[cols];
-		int index, rgb, alpha, ga, g;
+		int end = offset + cols;
+		int rgb, alpha, ga, g;
 		if (line.imgInfo.indexed) { // palette
-			int nindexesWithAlpha = trns != null ? trns.getPalletteAlpha().length : 0;
-			for (int c = 0; c < cols; c++) {
-				index = scanline[c];
-				rgb = pal.getEntry(index);
-				alpha = index < nindexesWithAlpha ? trns.getPalletteAlpha()[index] : 255;
-				buf[c] = (alpha << 24) | rgb;
+			for (int c = 0, p = offset; p < end; c++, p++) {
+				buf[p] = palette[scanline[c] & 0xFF];
 			}
 		} else if (line.imgInfo.greyscale) { // gray
 			if (trns != null) {
@@ -107,28 +190,27 @@ public class PNGUtils {
 			} else {
 				ga = -1;
 			}
-			for (int c = 0, c2 = 0; c < cols; c++) {
+			for (int p = offset, c2 = 0; p < end; p++) {
 				g = scanline[c2++];
 				alpha = alphachannel ? scanline[c2++] : (g != ga ? 255 : 0);
-				buf[c] = (alpha << 24) | g | (g << 8) | (g << 16);
+				buf[p] = (alpha << 24) | g | (g << 8) | (g << 16);
 			}
 		} else if (line.imgInfo.bitDepth == 16) { // true color
 			ga = trns != null ? trns.getRGB888() : -1;
-			for (int c = 0, c2 = 0; c < cols; c++) {
+			for (int p = offset, c2 = 0; p < end; p++) {
 				rgb = ((scanline[c2++] & 0xFF00) << 8) | (scanline[c2++] & 0xFF00)
 						| ((scanline[c2++] & 0xFF00) >> 8);
 				alpha = alphachannel ? ((scanline[c2++] & 0xFF00) >> 8) : (rgb != ga ? 255 : 0);
-				buf[c] = (alpha << 24) | rgb;
+				buf[p] = (alpha << 24) | rgb;
 			}
 		} else { // true color
 			ga = trns != null ? trns.getRGB888() : -1;
-			for (int c = 0, c2 = 0; c < cols; c++) {
+			for (int p = offset, c2 = 0; p < end; p++) {
 				rgb = ((scanline[c2++]) << 16) | ((scanline[c2++]) << 8)
 						| (scanline[c2++]);
 				alpha = alphachannel ? scanline[c2++] : (rgb != ga ? 255 : 0);
-				buf[c] = (alpha << 24) | rgb;
+				buf[p] = (alpha << 24) | rgb;
 			}
 		}
-		return buf;
 	}
 }
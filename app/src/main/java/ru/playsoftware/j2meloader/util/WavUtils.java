@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.playsoftware.j2meloader.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the codec of a WAV file from its header, without FFprobe, and decodes PCM samples.
+ */
+public class WavUtils {
+	public static final int FORMAT_UNKNOWN = -1;
+	public static final int FORMAT_PCM = 0x0001;
+	public static final int FORMAT_ADPCM = 0x0002;
+	public static final int FORMAT_IMA_ADPCM = 0x0011;
+
+	/** The fmt chunk is expected within this many bytes */
+	private static final int HEADER_LIMIT = 4096;
+
+	/**
+	 * @return format tag of the fmt chunk or {@link #FORMAT_UNKNOWN} if the data is not a WAV file
+	 */
+	public static int getFormat(byte[] data, int offset, int length) {
+		int end = offset + Math.min(length, HEADER_LIMIT);
+		if (end - offset < 12 || !isTag(data, offset, "RIFF") || !isTag(data, offset + 8, "WAVE")) {
+			return FORMAT_UNKNOWN;
+		}
+		int pos = offset + 12;
+		while (pos + 10 <= end) {
+			int size = readInt(data, pos + 4);
+			if (isTag(data, pos, "fmt ")) {
+				return (data[pos + 8] & 0xFF) | (data[pos + 9] & 0xFF) << 8;
+			}
+			if (size < 0) {
+				break;
+			}
+			// chunks are word aligned
+			pos += 8 + size + (size & 1);
+		}
+		return FORMAT_UNKNOWN;
+	}
+
+	public static int getFormat(File file) throws IOException {
+		try (InputStream is = new FileInputStream(file)) {
+			return getFormat(is);
+		}
+	}
+
+	/**
+	 * Read only the header of the stream, the stream is not closed.
+	 */
+	public static int getFormat(InputStream is) throws IOException {
+		byte[] header = new byte[HEADER_LIMIT];
+		int length = 0;
+		int read;
+		while (length < header.length && (read = is.read(header, length, header.length - length)) != -1) {
+			length += read;
+		}
+		return getFormat(header, 0, length);
+	}
+
+	/**
+	 * @return true if Android can't play the format and it must be converted
+	 */
+	public static boolean isAdpcm(int format) {
+		return format == FORMAT_ADPCM || format == FORMAT_IMA_ADPCM;
+	}
+
+	/**
+	 * Decode 8 or 16-bit PCM data to mono 16-bit samples of the sample rate.
+	 *
+	 * @param maxSamples the limit of the decoded length
+	 * @return the samples or null if the data is not a PCM WAV file or it is too long
+	 */
+	public static short[] decodePcm(byte[] data, int sampleRate, int maxSamples) {
+		if (data.length < 12 || !isTag(data, 0, "RIFF") || !isTag(data, 8, "WAVE")) {
+			return null;
+		}
+		int channels = 0;
+		int rate = 0;
+		int bits = 0;
+		int pos = 12;
+		while (pos + 8 <= data.length) {
+			int size = readInt(data, pos + 4);
+			if (size < 0) {
+				break;
+			}
+			if (isTag(data, pos, "fmt ") && pos + 24 <= data.length) {
+				int format = (data[pos + 8] & 0xFF) | (data[pos + 9] & 0xFF) << 8;
+				if (format != FORMAT_PCM) {
+					return null;
+				}
+				channels = (data[pos + 10] & 0xFF) | (data[pos + 11] & 0xFF) << 8;
+				rate = readInt(data, pos + 12);
+				bits = (data[pos + 22] & 0xFF) | (data[pos + 23] & 0xFF) << 8;
+			} else if (isTag(data, pos, "data")) {
+				if (channels <= 0 || rate <= 0 || bits != 8 && bits != 16) {
+					return null;
+				}
+				// truncated files are common, play what there is
+				int length = Math.min(size, data.length - pos - 8);
+				long frames = length / (channels * bits / 8);
+				if (frames * sampleRate / rate > maxSamples) {
+					return null;
+				}
+				return resample(data, pos + 8, length, channels, bits, rate, sampleRate);
+			}
+			// chunks are word aligned
+			pos += 8 + size + (size & 1);
+		}
+		return null;
+	}
+
+	private static short[] resample(byte[] data, int offset, int length, int channels,
+									int bits, int rate, int sampleRate) {
+		int frameSize = channels * bits / 8;
+		int frames = length / frameSize;
+		int count = (int) ((long) frames * sampleRate / rate);
+		short[] samples = new short[count];
+		if (frames == 0) {
+			return samples;
+		}
+		// source position of the output sample in 16.16 fixed point
+		long step = ((long) rate << 16) / sampleRate;
+		long position = 0;
+		for (int i = 0; i < count; i++, position += step) {
+			int frame = (int) (position >> 16);
+			int fraction = (int) (position & 0xFFFF);
+			int s0 = readFrame(data, offset + frame * frameSize, channels, bits);
+			int s1 = frame + 1 < frames
+					? readFrame(data, offset + (frame + 1) * frameSize, channels, bits) : s0;
+			samples[i] = (short) (s0 + ((long) (s1 - s0) * fraction >> 16));
+		}
+		return samples;
+	}
+
+	/**
+	 * @return the channels of the frame mixed to a 16-bit sample
+	 */
+	private static int readFrame(byte[] data, int offset, int channels, int bits) {
+		int sum = 0;
+		for (int c = 0; c < channels; c++) {
+			if (bits == 8) {
+				sum += ((data[offset + c] & 0xFF) - 128) << 8;
+			} else {
+				int i = offset + c * 2;
+				sum += (data[i] & 0xFF) | data[i + 1] << 8;
+			}
+		}
+		return sum / channels;
+	}
+
+	private static boolean isTag(byte[] data, int offset, String tag) {
+		for (int i = 0; i < 4; i++) {
+			if (data[offset + i] != tag.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int readInt(byte[] data, int offset) {
+		return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8
+				| (data[offset + 2] & 0xFF) << 16 | data[offset + 3] << 24;
+	}
+}
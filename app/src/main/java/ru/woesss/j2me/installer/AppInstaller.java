@@ -17,9 +17,11 @@
 package ru.woesss.j2me.installer;
 
 import android.app.Application;
+import android.content.SharedPreferences;
 import android.net.Uri;
 import android.util.Log;
 
+import com.android.dx.command.DxContext;
 import com.android.dx.command.dexer.Main;
 
 import net.lingala.zip4j.ZipFile;
@@ -39,8 +41,11 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.List;
+import java.util.Map;
 import java.util.jar.JarFile;
 
+import javax.microedition.shell.ResourceStore;
+
 import androidx.preference.PreferenceManager;
 import io.reactivex.SingleEmitter;
 import ru.playsoftware.j2meloader.applist.AppItem;
@@ -74,6 +79,7 @@ public class AppInstaller {
 	private File tmpDir;
 	private AppItem oldApp;
 	private File srcFile;
+	private AudioConverter audioConverter;
 
 	AppInstaller(String path, Uri uri, Application context) {
 		if (path != null) srcFile = new File(path);
@@ -94,6 +100,13 @@ public class AppInstaller {
 		return manifest;
 	}
 
+	/**
+	 * @return the audio conversion stage of the last install or null if it did not run
+	 */
+	AudioConverter getAudioConverter() {
+		return audioConverter;
+	}
+
 	/** Load and check app info from source */
 	void loadInfo(SingleEmitter<Integer> emitter) throws IOException, ConverterException {
 		boolean isLocal;
@@ -195,23 +208,42 @@ public class AppInstaller {
 				throw new ConverterException("*Jad not matches with Jar");
 			}
 		}
-		File patchedJar = new File(cacheDir, "patched.jar");
-		AndroidProducer.processJar(srcJar, patchedJar);
-		boolean compress = PreferenceManager.getDefaultSharedPreferences(context)
-				.getBoolean(Constants.PREF_DEX_COMPRESSION, false);
-		try {
-			Main.main(new String[]{"--no-optimize",
-					"--output=" + tmpDir + (compress ? Config.MIDLET_DEX_ARCH : Config.MIDLET_DEX_FILE),
-					patchedJar.getAbsolutePath()});
-		} catch (Throwable e) {
-			throw new ConverterException("Dexing error", e);
+		long start = System.nanoTime();
+		DexCache dexCache = new DexCache(new File(context.getCacheDir(), "dex"));
+		Map<String, byte[]> classes = AndroidProducer.processJar(srcJar, dexCache.getClassesDir());
+		long patched = System.nanoTime();
+		SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+		boolean compress = preferences.getBoolean(Constants.PREF_DEX_COMPRESSION, false);
+		File dexFile = new File(tmpDir, compress ? Config.MIDLET_DEX_ARCH : Config.MIDLET_DEX_FILE);
+		String dexKey = DexCache.getKey(classes);
+		if (dexCache.restore(dexKey, dexFile)) {
+			Log.d(TAG, "install: dex restored from cache");
+		} else {
+			dex(classes, dexFile);
+			dexCache.store(dexKey, dexFile);
 		}
+		long dexed = System.nanoTime();
 		if (manifest != null) {
 			manifest.merge(newDesc);
 			newDesc = manifest;
 		}
 		File resJar = new File(tmpDir, Config.MIDLET_RES_FILE);
 		FileUtils.copyFileUsingChannel(srcJar, resJar);
+		try {
+			ResourceStore.build(resJar, new File(tmpDir, Config.MIDLET_RES_STORE));
+		} catch (IOException e) {
+			Log.w(TAG, "Can't build resource store", e);
+		}
+		long resources = System.nanoTime();
+		if (preferences.getBoolean(Constants.PREF_AUDIO_CONVERSION, false)) {
+			AudioConverter converter = new AudioConverter(new File(tmpDir, Config.MIDLET_AUDIO_DIR), cacheDir);
+			try {
+				converter.convert(resJar);
+				audioConverter = converter;
+			} catch (IOException e) {
+				Log.w(TAG, "Can't convert audio", e);
+			}
+		}
 		String icon = newDesc.getIcon();
 		if (icon != null) {
 			try {
@@ -221,6 +253,10 @@ public class AppInstaller {
 			}
 		}
 		newDesc.writeTo(new File(tmpDir, Config.MIDLET_MANIFEST_FILE));
+		Log.d(TAG, "install: instrument " + (patched - start) / 1000000 + " ms, dex "
+				+ (dexed - patched) / 1000000 + " ms, resources "
+				+ (resources - dexed) / 1000000 + " ms, audio "
+				+ (System.nanoTime() - resources) / 1000000 + " ms");
 		FileUtils.deleteDirectory(targetDir);
 		if (!tmpDir.renameTo(targetDir)) {
 			throw new ConverterException("Can't rename '" + tmpDir + "' to '" + targetDir + "'");
@@ -254,6 +290,26 @@ public class AppInstaller {
 		emitter.onSuccess(app);
 	}
 
+	/**
+	 * Convert patched classes straight to dex, translating them on all available cores.
+	 */
+	private static void dex(Map<String, byte[]> classes, File output) throws ConverterException {
+		DxContext dxContext = new DxContext();
+		Main.Arguments arguments = new Main.Arguments(dxContext);
+		arguments.parseFlags(new String[]{"--no-optimize",
+				"--num-threads=" + Runtime.getRuntime().availableProcessors(),
+				"--output=" + output.getAbsolutePath()});
+		try {
+			if (new Main(dxContext).runDx(arguments, classes) != 0) {
+				throw new ConverterException("Dexing error");
+			}
+		} catch (ConverterException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new ConverterException("Dexing error", e);
+		}
+	}
+
 	private Descriptor loadManifest(File jar) throws IOException {
 		ZipFile zip = new ZipFile(jar);
 		FileHeader manifest = zip.getFileHeader(JarFile.MANIFEST_NAME);
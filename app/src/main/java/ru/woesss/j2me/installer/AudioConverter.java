@@ -0,0 +1,186 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.woesss.j2me.installer;
+
+import android.util.Log;
+
+import com.arthenica.mobileffmpeg.Config;
+import com.arthenica.mobileffmpeg.FFmpeg;
+
+import net.lingala.zip4j.ZipFile;
+import net.lingala.zip4j.model.FileHeader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ru.playsoftware.j2meloader.util.IOUtils;
+import ru.playsoftware.j2meloader.util.WavUtils;
+
+/**
+ * Install-time conversion of the audio resources Android can't play.
+ * <p>
+ * The headers of the sounds of the jar are probed in parallel, only the header of each entry
+ * is read. The ones that need it are extracted and converted one at a time, FFmpeg runs
+ * one command at a time anyway, to PCM WAV files in a directory next to the resource jar,
+ * under the names of the resources.
+ * {@link javax.microedition.shell.AppClassLoader} serves the converted files instead of
+ * the originals, so the players get the sounds ready to play.
+ * Only WAV files with ADPCM need the conversion now, the other formats are played as is.
+ */
+class AudioConverter {
+	private static final String TAG = AudioConverter.class.getSimpleName();
+
+	private final File outputDir;
+	private final File tmpDir;
+	private int scanned;
+	private int converted;
+	private long time;
+
+	/**
+	 * @param outputDir directory of the converted files
+	 * @param tmpDir    directory for the extracted originals
+	 */
+	AudioConverter(File outputDir, File tmpDir) {
+		this.outputDir = outputDir;
+		this.tmpDir = tmpDir;
+	}
+
+	/**
+	 * Convert the sounds of the jar that need it.
+	 */
+	void convert(File jar) throws IOException {
+		long start = System.nanoTime();
+		ZipFile zip = new ZipFile(jar);
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<FileHeader> sounds = new ArrayList<>();
+		List<Future<Integer>> formats = new ArrayList<>();
+		try {
+			for (FileHeader header : zip.getFileHeaders()) {
+				String name = header.getFileName();
+				if (header.getFileNameLength() <= 0 || header.isDirectory()
+						|| !name.toLowerCase().endsWith(".wav")) {
+					continue;
+				}
+				sounds.add(header);
+				// each entry is opened with its own stream
+				formats.add(executor.submit(() -> {
+					try (InputStream is = zip.getInputStream(header)) {
+						return WavUtils.getFormat(is);
+					}
+				}));
+			}
+			scanned = sounds.size();
+			// conversions go in order on this thread, while the rest is probed
+			for (int i = 0; i < scanned; i++) {
+				FileHeader header = sounds.get(i);
+				try {
+					if (WavUtils.isAdpcm(formats.get(i).get()) && convert(zip, header)) {
+						converted++;
+					}
+				} catch (ExecutionException e) {
+					Log.w(TAG, "Can't read sound " + header.getFileName(), e.getCause());
+				} catch (IOException e) {
+					Log.w(TAG, "Error converting sound " + header.getFileName(), e);
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException("Audio conversion interrupted");
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		time = (System.nanoTime() - start) / 1000000;
+		Log.d(TAG, "convert: " + converted + " of " + scanned + " sounds converted in "
+				+ time + " ms, probed on " + threads + " threads");
+	}
+
+	int getScanned() {
+		return scanned;
+	}
+
+	int getConverted() {
+		return converted;
+	}
+
+	/**
+	 * @return duration of the conversion in milliseconds
+	 */
+	long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return true if the sound was converted
+	 */
+	private boolean convert(ZipFile zip, FileHeader header) throws IOException {
+		String name = header.getFileName();
+		if (!isSafeName(name)) {
+			Log.w(TAG, "convert: invalid name " + name);
+			return false;
+		}
+		File output = new File(outputDir, name);
+		File parent = output.getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Can't create directory: " + parent);
+		}
+		File source = new File(tmpDir, "audio.wav");
+		try {
+			try (InputStream is = zip.getInputStream(header);
+				 OutputStream os = new FileOutputStream(source)) {
+				IOUtils.copy(is, os);
+			}
+			int rc = FFmpeg.execute(new String[]{"-y", "-i", source.getPath(),
+					"-acodec", "pcm_u8", "-ar", "16000", output.getPath()});
+			if (rc != Config.RETURN_CODE_SUCCESS) {
+				Log.w(TAG, "convert: FFmpeg failed with rc=" + rc + " for " + name);
+				//noinspection ResultOfMethodCallIgnored
+				output.delete();
+				return false;
+			}
+			return true;
+		} finally {
+			//noinspection ResultOfMethodCallIgnored
+			source.delete();
+		}
+	}
+
+	/**
+	 * The converted file must stay in the output directory,
+	 * absolute names and ".." segments are not allowed.
+	 */
+	private static boolean isSafeName(String name) {
+		if (name.startsWith("/") || name.startsWith("\\")) {
+			return false;
+		}
+		for (String segment : name.split("[/\\\\]")) {
+			if (segment.equals("..")) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
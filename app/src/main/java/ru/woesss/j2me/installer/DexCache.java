@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.woesss.j2me.installer;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import ru.playsoftware.j2meloader.util.FileUtils;
+
+/**
+ * Content-addressed cache of the conversion results.
+ * <p>
+ * Instrumented classes are stored by the hash of the original class and the version
+ * of the instrumentation rules (see {@link org.microemu.android.asm.AndroidProducer}).
+ * Converted dex files are stored by the hash of all instrumented classes,
+ * so a jar with the same classes is never converted twice, whatever its name is.
+ * The least recently used files are removed when the cache exceeds its size limit.
+ */
+class DexCache {
+	private static final String TAG = DexCache.class.getSimpleName();
+
+	private static final long MAX_SIZE = 64 * 1024 * 1024;
+
+	private final File dir;
+	private final File classesDir;
+
+	DexCache(File dir) {
+		this.dir = dir;
+		classesDir = new File(dir, "classes");
+	}
+
+	File getClassesDir() {
+		return classesDir;
+	}
+
+	/**
+	 * Restore the converted dex of the classes.
+	 *
+	 * @return true if the output was found in the cache
+	 */
+	boolean restore(String key, File output) {
+		File cached = getDexFile(key, output);
+		if (!cached.isFile()) {
+			return false;
+		}
+		try {
+			FileUtils.copyFileUsingChannel(cached, output);
+			//noinspection ResultOfMethodCallIgnored
+			cached.setLastModified(System.currentTimeMillis());
+			return true;
+		} catch (IOException e) {
+			Log.w(TAG, "restore: can't copy " + cached, e);
+			//noinspection ResultOfMethodCallIgnored
+			output.delete();
+			return false;
+		}
+	}
+
+	void store(String key, File output) {
+		File cached = getDexFile(key, output);
+		File temp = new File(cached.getPath() + ".tmp");
+		try {
+			FileUtils.copyFileUsingChannel(output, temp);
+			if (!temp.renameTo(cached)) {
+				throw new IOException("Can't rename " + temp + " to " + cached);
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "store: can't copy " + output, e);
+			//noinspection ResultOfMethodCallIgnored
+			temp.delete();
+		}
+		trim();
+	}
+
+	/**
+	 * Hash of the class names and the contents.
+	 */
+	static String getKey(Map<String, byte[]> classes) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+			digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(entry.getValue());
+		}
+		return String.format("%040x", new BigInteger(1, digest.digest()));
+	}
+
+	private File getDexFile(String key, File output) {
+		String name = output.getName();
+		return new File(dir, key + name.substring(name.lastIndexOf('.')));
+	}
+
+	private void trim() {
+		List<File> files = new ArrayList<>();
+		File[] list = dir.listFiles(File::isFile);
+		if (list != null) {
+			files.addAll(Arrays.asList(list));
+		}
+		list = classesDir.listFiles();
+		if (list != null) {
+			files.addAll(Arrays.asList(list));
+		}
+		long size = 0;
+		for (File file : files) {
+			size += file.length();
+		}
+		if (size <= MAX_SIZE) {
+			return;
+		}
+		Collections.sort(files, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+		int removed = 0;
+		for (int i = 0; i < files.size() && size > MAX_SIZE * 3 / 4; i++) {
+			File file = files.get(i);
+			size -= file.length();
+			if (file.delete()) {
+				removed++;
+			}
+		}
+		Log.d(TAG, "trim: " + removed + " files removed");
+	}
+}
@@ -269,6 +269,11 @@ public class InstallerDialog extends DialogFragment {
 			installer.deleteTemp();
 			hideProgress();
 			if (!isAdded()) return;
+			AudioConverter audio = installer.getAudioConverter();
+			if (audio != null && audio.getScanned() > 0) {
+				tvMessage.append(getString(R.string.install_audio_converted,
+						audio.getConverted(), audio.getScanned(), audio.getTime()));
+			}
 			tvMessage.append(getString(R.string.install_done));
 			Drawable drawable = Drawable.createFromPath(app.getImagePathExt());
 			if (drawable != null) mDialog.setIcon(drawable);
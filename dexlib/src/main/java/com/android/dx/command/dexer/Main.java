@@ -172,6 +172,12 @@ public class Main {
 
     private OutputStreamWriter humanOutWriter = null;
 
+    /**
+     * {@code null-ok;} classes given in memory, processed instead of
+     * {@link Arguments#fileNames}
+     */
+    private Map<String, byte[]> inputClasses;
+
     private final DxContext context;
 
     public Main(DxContext context) {
@@ -203,6 +209,22 @@ public class Main {
         return new Main(new DxContext()).runDx(arguments);
     }
 
+    /**
+     * Run with class files given in memory instead of the input files of the arguments.
+     * @param arguments the parameters for the conversion, input file names are ignored
+     * @param classes {@code non-null;} class file bytes by their paths in
+     * the archive, e.g. {@code a/b/C.class}
+     * @return 0 if success &gt; 0 otherwise.
+     */
+    public int runDx(Arguments arguments, Map<String, byte[]> classes) throws IOException {
+        inputClasses = classes;
+        try {
+            return runDx(arguments);
+        } finally {
+            inputClasses = null;
+        }
+    }
+
     public int runDx(Arguments arguments) throws IOException {
 
         // Reset the error count to start fresh.
@@ -293,7 +315,7 @@ public class Main {
         }
 
         anyFilesProcessed = false;
-        String[] fileNames = args.fileNames;
+        String[] fileNames = inputClasses != null ? new String[0] : args.fileNames;
         Arrays.sort(fileNames);
 
         // translate classes in parallel
@@ -309,6 +331,9 @@ public class Main {
             for (int i = 0; i < fileNames.length; i++) {
                 processOne(fileNames[i], ClassPathOpener.acceptAll);
             }
+            if (inputClasses != null) {
+                processClasses(inputClasses);
+            }
         } catch (StopProcessing ex) {
             /*
              * Ignore it and just let the error reporting do
@@ -398,6 +423,24 @@ public class Main {
         }
     }
 
+    /**
+     * Processes classes given in memory, the same way as the entries of an archive.
+     *
+     * @param classes {@code non-null;} class file bytes by file names
+     */
+    private void processClasses(Map<String, byte[]> classes) {
+        FileBytesConsumer consumer = new FileBytesConsumer();
+        long lastModified = System.currentTimeMillis();
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            try {
+                updateStatus(consumer.processFileBytes(entry.getKey(), lastModified,
+                        entry.getValue()));
+            } catch (Exception ex) {
+                consumer.onException(ex);
+            }
+        }
+    }
+
     private void updateStatus(boolean res) {
         anyFilesProcessed |= res;
     }